@@ -0,0 +1,81 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen;
+
+/**
+ * Thrown where the program used to exit on a fatal error, e.g. an
+ * abort verdict of a filter or a broken template. It carries the 
+ * exit code the CLI ends with; generators created from a 
+ * GeneratorConfig pass the exception on to the caller instead, so
+ * that one profile cannot end the process that hosts the others.
+ * 
+ * @author unrza249
+ */
+public class AbortException 
+	extends IllegalStateException
+{
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The exit code of the CLI
+	 */
+	private final int exitCode;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param message
+	 * 			the reason, as logged
+	 * @param exitCode
+	 * 			the exit code of the CLI
+	 */
+	public AbortException(String message, int exitCode) {
+		super(message);
+		this.exitCode = exitCode;
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param message
+	 * 			the reason, as logged
+	 * @param exitCode
+	 * 			the exit code of the CLI
+	 * @param cause
+	 * 			the cause
+	 */
+	public AbortException(String message, int exitCode, Throwable cause) {
+		super(message, cause);
+		this.exitCode = exitCode;
+	}
+	
+	/**
+	 * @return the exit code of the CLI
+	 */
+	public int getExitCode() {
+		return this.exitCode;
+	}
+}
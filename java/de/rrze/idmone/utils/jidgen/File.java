@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -79,7 +80,9 @@ public class File {
 	 * 
 	 * @param file
 	 * 			the file we want to have a reader for
-	 * @return	the buffered reader for the specified file or null on error
+	 * @return	the buffered reader for the specified file
+	 * @throws AbortException
+	 * 			if the file cannot be opened
 	 */
 	private static BufferedReader openFile(String file) {
 		try {
@@ -88,10 +91,8 @@ public class File {
 		}
 		catch (FileNotFoundException e) {
 			logger.fatal(Messages.getString("File.FILE_NOT_FOUND") + file);
-			System.exit(200);
+			throw new AbortException(Messages.getString("File.FILE_NOT_FOUND") + file, 200, e);
 		}
-
-		return null;
 	}
 	
 	/**
@@ -107,7 +108,7 @@ public class File {
 		}
 		catch (IOException e) {
 			logger.fatal(e.toString());
-			System.exit(201);
+			throw new AbortException(e.toString(), 201, e);
 		}
 		return line;
 	}
@@ -126,6 +127,27 @@ public class File {
 		return file;
 	}
 	
+	/**
+	 * Reads a properties file.
+	 * 
+	 * @param file
+	 * 			the location of the properties file
+	 * @return the properties read from the file
+	 */
+	public static Properties loadProperties(String file) {
+		Properties props = new Properties();
+		BufferedReader reader = File.openFile(file);
+		try {
+			props.load(reader);
+			reader.close();
+		}
+		catch (IOException e) {
+			logger.fatal(e.toString());
+			throw new AbortException(e.toString(), 201, e);
+		}
+		return props;
+	}
+	
 	/**
 	 * Closes the file reader
 	 */
@@ -135,7 +157,7 @@ public class File {
 		}
 		catch (IOException e) {
 			logger.fatal(e.toString());
-			System.exit(202);
+			throw new AbortException(e.toString(), 202, e);
 		}
 	}
 	
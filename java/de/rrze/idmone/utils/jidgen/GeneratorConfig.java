@@ -0,0 +1,981 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.rrze.idmone.utils.jidgen.filter.Verdict;
+import de.rrze.idmone.utils.jidgen.random.RandomFactory;
+import de.rrze.idmone.utils.jidgen.template.CasePolicy;
+
+/**
+ * The complete configuration of one IdGenerator: the template and its
+ * variables, the filters, the stores and the output. A configuration
+ * cannot be changed once built, so any number of generators in one
+ * JVM can each have their own, e.g. one per faculty with different
+ * blacklists. It is built with a Builder:
+ * 
+ * <pre>
+ * GeneratorConfig config = GeneratorConfig.builder()
+ * 		.template("1f:l3:N2+")
+ * 		.variable("f", "Hans")
+ * 		.variable("l", "Muster")
+ * 		.blacklist("blacklist")
+ * 		.numIds(5)
+ * 		.build();
+ * </pre>
+ * 
+ * Unset values are the defaults from the Globals class.
+ * 
+ * @author unrza249
+ */
+public final class GeneratorConfig
+{
+	/**
+	 * The prefix of the template string and its variables in the data map
+	 */
+	public static final String DATA_PREFIX = "T";
+	
+	/**
+	 * The template string and its variables, e.g. T and Tf
+	 */
+	private final Map<String,String> data;
+	
+	/**
+	 * Number of ids generated by generateIDs()
+	 */
+	private final int numIds;
+	
+	/**
+	 * Terminal width in characters for the output in columns
+	 */
+	private final int termWidth;
+	
+	/**
+	 * Whether the ids are printed in columns
+	 */
+	private final boolean columnOutput;
+	
+	/**
+	 * Blacklist file of the blacklist filter, null if disabled
+	 */
+	private final String blacklistFile;
+	
+	/**
+	 * Rules file of the regex filter, null if disabled
+	 */
+	private final String regexFile;
+	
+	/**
+	 * Passwd file of the passwd filter, null if disabled
+	 */
+	private final String passwdFile;
+	
+	/**
+	 * Configuration file of the jdbc filter, null if disabled
+	 */
+	private final String jdbcFile;
+	
+	/**
+	 * Configuration file of the ldap filter, null if disabled
+	 */
+	private final String ldapFile;
+	
+	/**
+	 * Log file of the issued-id store, null if disabled
+	 */
+	private final String issuedFile;
+	
+	/**
+	 * Whether the issued-id store is a reservation journal
+	 */
+	private final boolean journal;
+	
+	/**
+	 * Latency window of a journal group commit in milliseconds
+	 */
+	private final long journalWindow;
+	
+	/**
+	 * File the counter positions are kept in between runs, null if they are not kept
+	 */
+	private final String counterStateFile;
+	
+	/**
+	 * Directory of the slot bitmaps of the free slot allocator, null if disabled
+	 */
+	private final String slotDir;
+	
+	/**
+	 * Command of the shellcmd filter, null if disabled
+	 */
+	private final String shellCmd;
+	
+	/**
+	 * Number of concurrently running shell commands
+	 */
+	private final int shellCmdPoolSize;
+	
+	/**
+	 * Timeout of one shell command in milliseconds (0 = no timeout)
+	 */
+	private final long shellCmdTimeout;
+	
+	/**
+	 * Verdict for ids whose shell command timed out
+	 */
+	private final Verdict shellCmdTimeoutVerdict;
+	
+	/**
+	 * Verdict for ids whose shell command failed
+	 */
+	private final Verdict shellCmdErrorVerdict;
+	
+	/**
+	 * Maximum number of cached filter verdicts per filter (0 = no cache)
+	 */
+	private final int verdictCacheSize;
+	
+	/**
+	 * Time to live of a cached filter verdict in milliseconds
+	 */
+	private final long verdictCacheTtl;
+	
+	/**
+	 * Whether the filters are applied in parallel
+	 */
+	private final boolean parallelFilters;
+	
+	/**
+	 * How the case of the template data is changed
+	 */
+	private final CasePolicy casePolicy;
+	
+	/**
+	 * Algorithm of the random number generators
+	 */
+	private final String randomGenerator;
+	
+	/**
+	 * Master seed of the random number generators, null if a new one is drawn for every run
+	 */
+	private final Long randomSeed;
+	
+	/**
+	 * Whether random elements return every value at most once
+	 */
+	private final boolean uniqueRandom;
+	
+
+	/**
+	 * Constructor, used by the Builder
+	 * 
+	 * @param builder
+	 * 			the builder with the values
+	 */
+	private GeneratorConfig(Builder builder)
+	{
+		this.data = Collections.unmodifiableMap(new HashMap<String,String>(builder.data));
+		this.numIds = builder.numIds;
+		this.termWidth = builder.termWidth;
+		this.columnOutput = builder.columnOutput;
+		this.blacklistFile = builder.blacklistFile;
+		this.regexFile = builder.regexFile;
+		this.passwdFile = builder.passwdFile;
+		this.jdbcFile = builder.jdbcFile;
+		this.ldapFile = builder.ldapFile;
+		this.issuedFile = builder.issuedFile;
+		this.journal = builder.journal;
+		this.journalWindow = builder.journalWindow;
+		this.counterStateFile = builder.counterStateFile;
+		this.slotDir = builder.slotDir;
+		this.shellCmd = builder.shellCmd;
+		this.shellCmdPoolSize = builder.shellCmdPoolSize;
+		this.shellCmdTimeout = builder.shellCmdTimeout;
+		this.shellCmdTimeoutVerdict = builder.shellCmdTimeoutVerdict;
+		this.shellCmdErrorVerdict = builder.shellCmdErrorVerdict;
+		this.verdictCacheSize = builder.verdictCacheSize;
+		this.verdictCacheTtl = builder.verdictCacheTtl;
+		this.parallelFilters = builder.parallelFilters;
+		this.casePolicy = builder.casePolicy;
+		this.randomGenerator = builder.randomGenerator;
+		this.randomSeed = builder.randomSeed;
+		this.uniqueRandom = builder.uniqueRandom;
+	}
+	
+	/**
+	 * Returns a new builder with the default values.
+	 * 
+	 * @return the builder
+	 */
+	public static Builder builder()
+	{
+		return new Builder();
+	}
+	
+	/**
+	 * Returns a new builder with the values of this configuration,
+	 * e.g. to derive a configuration that differs in a few values.
+	 * 
+	 * @return the builder
+	 */
+	public Builder toBuilder()
+	{
+		Builder builder = new Builder();
+		builder.data.putAll(this.data);
+		builder.numIds = this.numIds;
+		builder.termWidth = this.termWidth;
+		builder.columnOutput = this.columnOutput;
+		builder.blacklistFile = this.blacklistFile;
+		builder.regexFile = this.regexFile;
+		builder.passwdFile = this.passwdFile;
+		builder.jdbcFile = this.jdbcFile;
+		builder.ldapFile = this.ldapFile;
+		builder.issuedFile = this.issuedFile;
+		builder.journal = this.journal;
+		builder.journalWindow = this.journalWindow;
+		builder.counterStateFile = this.counterStateFile;
+		builder.slotDir = this.slotDir;
+		builder.shellCmd = this.shellCmd;
+		builder.shellCmdPoolSize = this.shellCmdPoolSize;
+		builder.shellCmdTimeout = this.shellCmdTimeout;
+		builder.shellCmdTimeoutVerdict = this.shellCmdTimeoutVerdict;
+		builder.shellCmdErrorVerdict = this.shellCmdErrorVerdict;
+		builder.verdictCacheSize = this.verdictCacheSize;
+		builder.verdictCacheTtl = this.verdictCacheTtl;
+		builder.parallelFilters = this.parallelFilters;
+		builder.casePolicy = this.casePolicy;
+		builder.randomGenerator = this.randomGenerator;
+		builder.randomSeed = this.randomSeed;
+		builder.uniqueRandom = this.uniqueRandom;
+		return builder;
+	}
+	
+	/**
+	 * Returns the template string and its variables, keyed like 
+	 * the command line options, e.g. T and Tf.
+	 * 
+	 * @return an unmodifiable map of the data
+	 */
+	public Map<String,String> getData()
+	{
+		return this.data;
+	}
+	
+	/**
+	 * Returns the template string.
+	 * 
+	 * @return the template string or null if there is none
+	 */
+	public String getTemplate()
+	{
+		return this.data.get(DATA_PREFIX);
+	}
+	
+	/**
+	 * @return the number of ids generateIDs() returns
+	 */
+	public int getNumIds()
+	{
+		return this.numIds;
+	}
+	
+	/**
+	 * @return the width of the terminal in characters, used to
+	 * 			fit the columns of the output
+	 */
+	public int getTermWidth()
+	{
+		return this.termWidth;
+	}
+	
+	/**
+	 * @return true if the ids are printed in columns instead of
+	 * 			one per line
+	 */
+	public boolean isColumnOutput()
+	{
+		return this.columnOutput;
+	}
+	
+	/**
+	 * @return the file with the blacklisted ids or null if the
+	 * 			blacklist filter is disabled
+	 */
+	public String getBlacklistFile()
+	{
+		return this.blacklistFile;
+	}
+	
+	/**
+	 * @return the file with the regex rules or null if the
+	 * 			regex filter is disabled
+	 */
+	public String getRegexFile()
+	{
+		return this.regexFile;
+	}
+	
+	/**
+	 * @return the passwd file whose accounts are taken or null
+	 * 			if the passwd filter is disabled
+	 */
+	public String getPasswdFile()
+	{
+		return this.passwdFile;
+	}
+	
+	/**
+	 * @return the properties file with the database connection
+	 * 			and query or null if the jdbc filter is disabled
+	 */
+	public String getJdbcFile()
+	{
+		return this.jdbcFile;
+	}
+	
+	/**
+	 * @return the properties file with the directory connection
+	 * 			and search or null if the ldap filter is disabled
+	 */
+	public String getLdapFile()
+	{
+		return this.ldapFile;
+	}
+	
+	/**
+	 * @return the file the issued ids are recorded in or null if
+	 * 			issued ids are not recorded
+	 */
+	public String getIssuedFile()
+	{
+		return this.issuedFile;
+	}
+	
+	/**
+	 * @return true if the issued ids are recorded in a reservation
+	 * 			journal with group commits instead of a plain log
+	 */
+	public boolean isJournal()
+	{
+		return this.journal;
+	}
+	
+	/**
+	 * @return how long a group commit of the journal waits for
+	 * 			more reservations, in milliseconds
+	 */
+	public long getJournalWindow()
+	{
+		return this.journalWindow;
+	}
+	
+	/**
+	 * @return the file the counters continue from between runs
+	 * 			or null if every run starts the counters over
+	 */
+	public String getCounterStateFile()
+	{
+		return this.counterStateFile;
+	}
+	
+	/**
+	 * @return the directory of the slot bitmaps or null if ids are
+	 * 			not taken from the free slot allocator
+	 */
+	public String getSlotDir()
+	{
+		return this.slotDir;
+	}
+	
+	/**
+	 * @return the command that checks an id, %s is replaced by
+	 * 			the id, or null if the shellcmd filter is disabled
+	 */
+	public String getShellCmd()
+	{
+		return this.shellCmd;
+	}
+	
+	/**
+	 * @return how many shell commands may run at the same time
+	 */
+	public int getShellCmdPoolSize()
+	{
+		return this.shellCmdPoolSize;
+	}
+	
+	/**
+	 * @return how long a shell command may run in milliseconds,
+	 * 			0 if it may run forever
+	 */
+	public long getShellCmdTimeout()
+	{
+		return this.shellCmdTimeout;
+	}
+	
+	/**
+	 * @return whether an id is taken if its shell command
+	 * 			times out
+	 */
+	public Verdict getShellCmdTimeoutVerdict()
+	{
+		return this.shellCmdTimeoutVerdict;
+	}
+	
+	/**
+	 * @return whether an id is taken if its shell command
+	 * 			cannot be run or exits with an unknown code
+	 */
+	public Verdict getShellCmdErrorVerdict()
+	{
+		return this.shellCmdErrorVerdict;
+	}
+	
+	/**
+	 * @return how many verdicts each filter remembers, 0 if
+	 * 			verdicts are not cached
+	 */
+	public int getVerdictCacheSize()
+	{
+		return this.verdictCacheSize;
+	}
+	
+	/**
+	 * @return how long a cached verdict is trusted in milliseconds
+	 */
+	public long getVerdictCacheTtl()
+	{
+		return this.verdictCacheTtl;
+	}
+	
+	/**
+	 * @return true if all filters check an id at the same time
+	 * 			instead of one after another
+	 */
+	public boolean isParallelFilters()
+	{
+		return this.parallelFilters;
+	}
+	
+	/**
+	 * @return how the case of the template data is changed before
+	 * 			the ids are built
+	 */
+	public CasePolicy getCasePolicy()
+	{
+		return this.casePolicy;
+	}
+	
+	/**
+	 * @return the name of the algorithm behind the random elements,
+	 * 			see RandomFactory
+	 */
+	public String getRandomGenerator()
+	{
+		return this.randomGenerator;
+	}
+	
+	/**
+	 * @return the master seed the random elements are derived from
+	 * 			or null if a new one is drawn for every run
+	 */
+	public Long getRandomSeed()
+	{
+		return this.randomSeed;
+	}
+	
+	/**
+	 * @return true if a random element returns every value at
+	 * 			most once
+	 */
+	public boolean isUniqueRandom()
+	{
+		return this.uniqueRandom;
+	}
+	
+	
+	/**
+	 * Collects the values of a configuration. Every setter
+	 * returns the builder, so calls can be chained.
+	 */
+	public static final class Builder
+	{
+		private final Map<String,String> data = new HashMap<String,String>();
+		private int numIds = Globals.DEFAULT_NUM_IDs;
+		private int termWidth = Globals.DEFAULT_TERM_WIDTH;
+		private boolean columnOutput = Globals.DEFAULT_ENABLE_COLUMN_OUTPUT;
+		private String blacklistFile = null;
+		private String regexFile = null;
+		private String passwdFile = null;
+		private String jdbcFile = null;
+		private String ldapFile = null;
+		private String issuedFile = null;
+		private boolean journal = false;
+		private long journalWindow = Globals.DEFAULT_JOURNAL_WINDOW;
+		private String counterStateFile = null;
+		private String slotDir = null;
+		private String shellCmd = null;
+		private int shellCmdPoolSize = Globals.DEFAULT_SHELLCMD_POOL_SIZE;
+		private long shellCmdTimeout = Globals.DEFAULT_SHELLCMD_TIMEOUT;
+		private Verdict shellCmdTimeoutVerdict = Verdict.parse(Globals.DEFAULT_SHELLCMD_TIMEOUT_VERDICT);
+		private Verdict shellCmdErrorVerdict = Verdict.parse(Globals.DEFAULT_SHELLCMD_ERROR_VERDICT);
+		private int verdictCacheSize = Globals.DEFAULT_VERDICT_CACHE_SIZE;
+		private long verdictCacheTtl = Globals.DEFAULT_VERDICT_CACHE_TTL;
+		private boolean parallelFilters = false;
+		private CasePolicy casePolicy = CasePolicy.parse(Globals.DEFAULT_CASE_POLICY);
+		private String randomGenerator = Globals.DEFAULT_RANDOM_GENERATOR;
+		private Long randomSeed = null;
+		private boolean uniqueRandom = Globals.DEFAULT_ENABLE_UNIQUE_RANDOM;
+		
+		/**
+		 * Constructor, see GeneratorConfig.builder()
+		 */
+		private Builder()
+		{
+		}
+		
+		/**
+		 * Sets the template string.
+		 * 
+		 * @param template
+		 * 			the template string
+		 * @return this builder
+		 */
+		public Builder template(String template)
+		{
+			this.data.put(DATA_PREFIX, template);
+			return this;
+		}
+		
+		/**
+		 * Sets a variable of the template, e.g. f for the first name.
+		 * 
+		 * @param name
+		 * 			the name of the variable
+		 * @param value
+		 * 			the value of the variable
+		 * @return this builder
+		 */
+		public Builder variable(String name, String value)
+		{
+			this.data.put(DATA_PREFIX + name, value);
+			return this;
+		}
+		
+		/**
+		 * Adds template data keyed like the command line options,
+		 * e.g. T for the template and Tf for the variable f.
+		 * 
+		 * @param data
+		 * 			the data
+		 * @return this builder
+		 */
+		public Builder data(Map<String,String> data)
+		{
+			this.data.putAll(data);
+			return this;
+		}
+		
+		/**
+		 * Sets how many ids generateIDs() returns.
+		 * 
+		 * @param numIds
+		 * 			the number of ids
+		 * @return this builder
+		 */
+		public Builder numIds(int numIds)
+		{
+			this.numIds = numIds;
+			return this;
+		}
+		
+		/**
+		 * Sets the width of the terminal the columns of the output
+		 * have to fit in.
+		 * 
+		 * @param termWidth
+		 * 			the terminal width
+		 * @return this builder
+		 */
+		public Builder termWidth(int termWidth)
+		{
+			this.termWidth = termWidth;
+			return this;
+		}
+		
+		/**
+		 * Prints the ids in columns instead of one per line.
+		 * 
+		 * @param columnOutput
+		 * 			true to print in columns
+		 * @return this builder
+		 */
+		public Builder columnOutput(boolean columnOutput)
+		{
+			this.columnOutput = columnOutput;
+			return this;
+		}
+		
+		/**
+		 * Enables the blacklist filter, which drops every id
+		 * listed in the file.
+		 * 
+		 * @param blacklistFile
+		 * 			the blacklist file, null to disable the filter
+		 * @return this builder
+		 */
+		public Builder blacklist(String blacklistFile)
+		{
+			this.blacklistFile = blacklistFile;
+			return this;
+		}
+		
+		/**
+		 * Enables the regex filter with the allow and deny rules
+		 * in the file.
+		 * 
+		 * @param regexFile
+		 * 			the rules file, null to disable the filter
+		 * @return this builder
+		 */
+		public Builder regex(String regexFile)
+		{
+			this.regexFile = regexFile;
+			return this;
+		}
+		
+		/**
+		 * Enables the passwd filter, which drops the names of the
+		 * accounts in the file.
+		 * 
+		 * @param passwdFile
+		 * 			the passwd file, null to disable the filter
+		 * @return this builder
+		 */
+		public Builder passwd(String passwdFile)
+		{
+			this.passwdFile = passwdFile;
+			return this;
+		}
+		
+		/**
+		 * Enables the jdbc filter, which drops ids that a database
+		 * query finds. The file holds the connection and the query.
+		 * 
+		 * @param jdbcFile
+		 * 			the configuration file, null to disable the filter
+		 * @return this builder
+		 */
+		public Builder jdbc(String jdbcFile)
+		{
+			this.jdbcFile = jdbcFile;
+			return this;
+		}
+		
+		/**
+		 * Enables the ldap filter, which drops ids that a directory
+		 * search finds. The file holds the connection and the search.
+		 * 
+		 * @param ldapFile
+		 * 			the configuration file, null to disable the filter
+		 * @return this builder
+		 */
+		public Builder ldap(String ldapFile)
+		{
+			this.ldapFile = ldapFile;
+			return this;
+		}
+		
+		/**
+		 * Records every issued id in the file, so it is never
+		 * issued again.
+		 * 
+		 * @param issuedFile
+		 * 			the log file, null to disable the store
+		 * @return this builder
+		 */
+		public Builder issuedIds(String issuedFile)
+		{
+			this.issuedFile = issuedFile;
+			return this;
+		}
+		
+		/**
+		 * Records the issued ids in a reservation journal, which syncs
+		 * them in group commits, instead of a plain log.
+		 * 
+		 * @param journal
+		 * 			true for a reservation journal
+		 * @return this builder
+		 */
+		public Builder journal(boolean journal)
+		{
+			this.journal = journal;
+			return this;
+		}
+		
+		/**
+		 * Sets how long a group commit of the journal waits for more
+		 * reservations. Longer windows mean fewer syncs but slower ids.
+		 * 
+		 * @param journalWindow
+		 * 			the window in milliseconds, 0 to commit right away
+		 * @return this builder
+		 */
+		public Builder journalWindow(long journalWindow)
+		{
+			this.journalWindow = journalWindow;
+			return this;
+		}
+		
+		/**
+		 * Keeps the counter positions in the file, so the counters
+		 * continue where the last run stopped.
+		 * 
+		 * @param counterStateFile
+		 * 			the file, null to not keep the counter positions
+		 * @return this builder
+		 */
+		public Builder counterStateFile(String counterStateFile)
+		{
+			this.counterStateFile = counterStateFile;
+			return this;
+		}
+		
+		/**
+		 * Takes the ids from the free slot allocator, which keeps a
+		 * bitmap of the taken values per template in the directory.
+		 * 
+		 * @param slotDir
+		 * 			the slot bitmap directory, null to disable the allocator
+		 * @return this builder
+		 */
+		public Builder allocator(String slotDir)
+		{
+			this.slotDir = slotDir;
+			return this;
+		}
+		
+		/**
+		 * Enables the shellcmd filter, which runs a command for
+		 * every id and drops it depending on the exit code.
+		 * 
+		 * @param shellCmd
+		 * 			the command, %s is replaced by the id, null to disable the filter
+		 * @return this builder
+		 */
+		public Builder shellCmd(String shellCmd)
+		{
+			this.shellCmd = shellCmd;
+			return this;
+		}
+		
+		/**
+		 * Sets how many shell commands may run at the same time.
+		 * 
+		 * @param shellCmdPoolSize
+		 * 			the number of commands
+		 * @return this builder
+		 */
+		public Builder shellCmdPoolSize(int shellCmdPoolSize)
+		{
+			this.shellCmdPoolSize = shellCmdPoolSize;
+			return this;
+		}
+		
+		/**
+		 * Sets how long a shell command may run before it is killed
+		 * and the timeout verdict applies.
+		 * 
+		 * @param shellCmdTimeout
+		 * 			the timeout in milliseconds, 0 for none
+		 * @return this builder
+		 */
+		public Builder shellCmdTimeout(long shellCmdTimeout)
+		{
+			this.shellCmdTimeout = shellCmdTimeout;
+			return this;
+		}
+		
+		/**
+		 * Sets whether an id is taken if its shell command
+		 * times out.
+		 * 
+		 * @param shellCmdTimeoutVerdict
+		 * 			the verdict
+		 * @return this builder
+		 */
+		public Builder shellCmdTimeoutVerdict(Verdict shellCmdTimeoutVerdict)
+		{
+			this.shellCmdTimeoutVerdict = shellCmdTimeoutVerdict;
+			return this;
+		}
+		
+		/**
+		 * Sets whether an id is taken if its shell command cannot
+		 * be run or exits with an unknown code.
+		 * 
+		 * @param shellCmdErrorVerdict
+		 * 			the verdict
+		 * @return this builder
+		 */
+		public Builder shellCmdErrorVerdict(Verdict shellCmdErrorVerdict)
+		{
+			this.shellCmdErrorVerdict = shellCmdErrorVerdict;
+			return this;
+		}
+		
+		/**
+		 * Sets how many verdicts each filter remembers, so ids
+		 * generated again are not checked again.
+		 * 
+		 * @param verdictCacheSize
+		 * 			the number of verdicts, 0 to disable the cache
+		 * @return this builder
+		 */
+		public Builder verdictCacheSize(int verdictCacheSize)
+		{
+			this.verdictCacheSize = verdictCacheSize;
+			return this;
+		}
+		
+		/**
+		 * Sets how long a cached verdict is trusted. A filter with
+		 * a lower staleness tolerance shortens it.
+		 * 
+		 * @param verdictCacheTtl
+		 * 			the time to live in milliseconds
+		 * @return this builder
+		 */
+		public Builder verdictCacheTtl(long verdictCacheTtl)
+		{
+			this.verdictCacheTtl = verdictCacheTtl;
+			return this;
+		}
+		
+		/**
+		 * Lets all filters check an id at the same time instead
+		 * of one after another.
+		 * 
+		 * @param parallelFilters
+		 * 			true to apply the filters in parallel
+		 * @return this builder
+		 */
+		public Builder parallelFilters(boolean parallelFilters)
+		{
+			this.parallelFilters = parallelFilters;
+			return this;
+		}
+		
+		/**
+		 * Sets how the case of the template data is changed
+		 * before the ids are built.
+		 * 
+		 * @param casePolicy
+		 * 			the case policy
+		 * @return this builder
+		 */
+		public Builder casePolicy(CasePolicy casePolicy)
+		{
+			this.casePolicy = casePolicy;
+			return this;
+		}
+		
+		/**
+		 * Sets the algorithm behind the random elements, one of
+		 * RandomFactory.getGeneratorAlgorithms().
+		 * 
+		 * @param randomGenerator
+		 * 			the algorithm
+		 * @return this builder
+		 */
+		public Builder randomGenerator(String randomGenerator)
+		{
+			this.randomGenerator = randomGenerator;
+			return this;
+		}
+		
+		/**
+		 * Sets the master seed the random elements are derived
+		 * from, so runs can be repeated.
+		 * 
+		 * @param randomSeed
+		 * 			the seed, null for a new one every run
+		 * @return this builder
+		 */
+		public Builder randomSeed(Long randomSeed)
+		{
+			this.randomSeed = randomSeed;
+			return this;
+		}
+		
+		/**
+		 * Lets every random element return each value at most once.
+		 * 
+		 * @param uniqueRandom
+		 * 			true for unique random values
+		 * @return this builder
+		 */
+		public Builder uniqueRandom(boolean uniqueRandom)
+		{
+			this.uniqueRandom = uniqueRandom;
+			return this;
+		}
+		
+		/**
+		 * Checks the values and builds the configuration.
+		 * 
+		 * @return the configuration
+		 * @throws IllegalArgumentException
+		 * 			if a value is invalid
+		 */
+		public GeneratorConfig build()
+		{
+			if (this.numIds < 0)
+				throw new IllegalArgumentException("Invalid number of ids: " + this.numIds);
+			if (this.termWidth <= 0)
+				throw new IllegalArgumentException("Invalid terminal width: " + this.termWidth);
+			if (this.shellCmdPoolSize <= 0)
+				throw new IllegalArgumentException("Invalid shell command pool size: " + this.shellCmdPoolSize);
+			if (this.shellCmdTimeout < 0)
+				throw new IllegalArgumentException("Invalid shell command timeout: " + this.shellCmdTimeout);
+			if (this.verdictCacheSize < 0)
+				throw new IllegalArgumentException("Invalid verdict cache size: " + this.verdictCacheSize);
+			if (this.verdictCacheTtl < 0)
+				throw new IllegalArgumentException("Invalid verdict cache time to live: " + this.verdictCacheTtl);
+			if (this.journalWindow < 0)
+				throw new IllegalArgumentException("Invalid journal window: " + this.journalWindow);
+			if (this.casePolicy == null || this.shellCmdTimeoutVerdict == null || this.shellCmdErrorVerdict == null)
+				throw new IllegalArgumentException("Missing case policy or verdict");
+			if (!RandomFactory.getInstance().getGeneratorAlgorithms().contains(this.randomGenerator))
+				throw new IllegalArgumentException("Unknown random generator algorithm: " + this.randomGenerator);
+			
+			return new GeneratorConfig(this);
+		}
+	}
+}
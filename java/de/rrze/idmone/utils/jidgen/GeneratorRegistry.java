@@ -0,0 +1,382 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A registry of named generator profiles for long-running use, e.g. 
+ * one profile each for staff, students and guests:
+ * 
+ * <pre>
+ * GeneratorRegistry registry = new GeneratorRegistry();
+ * registry.register("staff", staffConfig);
+ * registry.register("guests", guestConfig);
+ * ...
+ * List&lt;String&gt; ids = registry.generateIDs("staff", 1);
+ * </pre>
+ * 
+ * The generator of a profile is created on first use, or in advance
+ * by warmUp(), and closed again when the profile has not been used 
+ * for the idle timeout. All generators of a registry load their
+ * filter data through one SharedResources object, so equal blacklists
+ * and passwd files are kept in memory once, however many profiles 
+ * use them.<br />
+ * The registry can be used by several threads at once, the ids of
+ * one profile are generated by one thread at a time.
+ * 
+ * @author unrza249
+ */
+public class GeneratorRegistry 
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(GeneratorRegistry.class);
+	
+	/**
+	 * The profiles by name
+	 */
+	private final ConcurrentMap<String,Profile> profiles = new ConcurrentHashMap<String,Profile>();
+	
+	/**
+	 * The filter data shared by the generators of the profiles
+	 */
+	private final SharedResources resources;
+	
+	/**
+	 * Time in milliseconds after which the generator of an unused
+	 * profile is closed
+	 */
+	private long idleTimeout = Globals.DEFAULT_PROFILE_IDLE_TIMEOUT;
+	
+	
+	/**
+	 * Default constructor, the generators share their filter data
+	 * with all generators that use the default SharedResources
+	 */
+	public GeneratorRegistry() {
+		this(SharedResources.getDefault());
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param resources
+	 * 			the filter data shared by the generators
+	 */
+	public GeneratorRegistry(SharedResources resources) {
+		this.resources = resources;
+	}
+	
+	/**
+	 * Adds a profile or replaces the configuration of an existing one,
+	 * whose generator is closed then. The generator is not created
+	 * before the profile is used.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @param config
+	 * 			the configuration of the generator
+	 */
+	public void register(String name, GeneratorConfig config) {
+		Profile old = this.profiles.put(name, new Profile(name, config));
+		if (old != null) {
+			old.unload();
+		}
+	}
+	
+	/**
+	 * Removes a profile and closes its generator.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @return true if the profile existed, false otherwise
+	 */
+	public boolean unregister(String name) {
+		Profile old = this.profiles.remove(name);
+		if (old != null) {
+			old.unload();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Generates the number of ids given in the configuration of
+	 * a profile.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @return the ids, see IdGenerator.generateIDs(int)
+	 * @throws IllegalArgumentException
+	 * 			if there is no such profile or its generator could
+	 * 			not be set up
+	 * @throws AbortException
+	 * 			on a fatal error of the generator, e.g. if the maximum
+	 * 			number of attempts is reached or a filter aborts
+	 */
+	public List<String> generateIDs(String name) {
+		return this.generateIDs(name, this.getProfile(name).config.getNumIds());
+	}
+	
+	/**
+	 * Generates ids with the generator of a profile, which is 
+	 * created if the profile has not been used yet or has been idle.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @param num
+	 * 			target number of ids to generate
+	 * @return the ids, see IdGenerator.generateIDs(int)
+	 * @throws IllegalArgumentException
+	 * 			if there is no such profile or its generator could
+	 * 			not be set up
+	 * @throws AbortException
+	 * 			on a fatal error of the generator, e.g. if the maximum
+	 * 			number of attempts is reached or a filter aborts
+	 */
+	public List<String> generateIDs(String name, int num) {
+		// closing the idle generators is cheap, so it is done here
+		// instead of by a thread of its own
+		this.evictIdle();
+		
+		return this.getProfile(name).generateIDs(num);
+	}
+	
+	/**
+	 * Creates the generator of a profile, if it does not exist yet,
+	 * so that the first ids are not delayed by loading the filters.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @throws IllegalArgumentException
+	 * 			if there is no such profile or its generator could
+	 * 			not be set up
+	 */
+	public void warmUp(String name) {
+		this.getProfile(name).warmUp();
+	}
+	
+	/**
+	 * Closes the generators of all profiles that have not been
+	 * used for the idle timeout. Profiles in use are skipped
+	 * without waiting for them.
+	 * 
+	 * @return the number of generators closed
+	 */
+	public int evictIdle() {
+		long now = System.currentTimeMillis();
+		int evicted = 0;
+		for (Iterator<Profile> iter = this.profiles.values().iterator(); iter.hasNext();) {
+			if (iter.next().unloadIfIdle(now - this.idleTimeout)) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+	
+	/**
+	 * Closes the generators of all profiles. The profiles remain
+	 * registered, their generators are created again on next use.
+	 */
+	public void close() {
+		for (Iterator<Profile> iter = this.profiles.values().iterator(); iter.hasNext();) {
+			iter.next().unload();
+		}
+	}
+	
+	/**
+	 * Returns the names of the registered profiles.
+	 * 
+	 * @return the sorted profile names
+	 */
+	public Set<String> getProfileNames() {
+		return Collections.unmodifiableSet(new TreeSet<String>(this.profiles.keySet()));
+	}
+	
+	/**
+	 * Returns the configuration of a profile.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @return the configuration
+	 * @throws IllegalArgumentException
+	 * 			if there is no such profile
+	 */
+	public GeneratorConfig getConfig(String name) {
+		return this.getProfile(name).config;
+	}
+	
+	/**
+	 * Returns whether the generator of a profile exists at the moment.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @return true if the generator exists, false otherwise
+	 * @throws IllegalArgumentException
+	 * 			if there is no such profile
+	 */
+	public boolean isLoaded(String name) {
+		return this.getProfile(name).isLoaded();
+	}
+	
+	/**
+	 * Sets the time after which the generator of an unused profile 
+	 * is closed.
+	 * 
+	 * @param idleTimeout
+	 * 			the idle timeout in milliseconds
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * Returns the time after which the generator of an unused profile 
+	 * is closed.
+	 * 
+	 * @return the idle timeout in milliseconds
+	 */
+	public long getIdleTimeout() {
+		return this.idleTimeout;
+	}
+	
+	/**
+	 * Returns the filter data shared by the generators.
+	 * 
+	 * @return the shared resources
+	 */
+	public SharedResources getResources() {
+		return this.resources;
+	}
+	
+	/**
+	 * Looks a profile up by its name.
+	 * 
+	 * @param name
+	 * 			the name of the profile
+	 * @return the profile
+	 * @throws IllegalArgumentException
+	 * 			if there is no such profile
+	 */
+	private Profile getProfile(String name) {
+		Profile profile = this.profiles.get(name);
+		if (profile == null) {
+			throw new IllegalArgumentException(Messages.getString("GeneratorRegistry.UNKNOWN_PROFILE") + name);
+		}
+		return profile;
+	}
+	
+	
+	
+	/**
+	 * A named configuration and its generator, if it exists.
+	 * All access to the generator is synchronized on the profile.
+	 * The number of threads using or waiting for the generator is
+	 * counted outside of the monitor, so that evictIdle() can skip
+	 * busy profiles without blocking.
+	 */
+	private class Profile {
+		private final String name;
+		private final GeneratorConfig config;
+		private final AtomicInteger users = new AtomicInteger();
+		private IdGenerator generator;
+		private volatile long lastUsed;
+		
+		private Profile(String name, GeneratorConfig config) {
+			this.name = name;
+			this.config = config;
+		}
+		
+		private List<String> generateIDs(int num) {
+			this.users.incrementAndGet();
+			try {
+				synchronized (this) {
+					this.load();
+					return this.generator.generateIDs(num);
+				}
+			}
+			finally {
+				this.lastUsed = System.currentTimeMillis();
+				this.users.decrementAndGet();
+			}
+		}
+		
+		private void warmUp() {
+			this.users.incrementAndGet();
+			try {
+				this.load();
+			}
+			finally {
+				this.users.decrementAndGet();
+			}
+		}
+		
+		private synchronized void load() {
+			if (this.generator == null) {
+				this.generator = new IdGenerator(this.config, GeneratorRegistry.this.resources);
+				logger.debug(Messages.getString("GeneratorRegistry.PROFILE_LOADED") + this.name);
+			}
+			this.lastUsed = System.currentTimeMillis();
+		}
+		
+		private synchronized boolean isLoaded() {
+			return this.generator != null;
+		}
+		
+		private boolean unloadIfIdle(long usedBefore) {
+			if (this.users.get() > 0 || this.lastUsed >= usedBefore) {
+				return false;
+			}
+			synchronized (this) {
+				// a user may have come in since the first check
+				if (this.generator != null && this.users.get() == 0 && this.lastUsed < usedBefore) {
+					this.unload();
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private synchronized void unload() {
+			if (this.generator != null) {
+				this.generator.close();
+				this.generator = null;
+				logger.debug(Messages.getString("GeneratorRegistry.PROFILE_EVICTED") + this.name);
+			}
+		}
+	}
+}
@@ -26,7 +26,8 @@ package de.rrze.idmone.utils.jidgen;
 
 /**
  * This is just a convenience class to have a central
- * point for specifying global program options and defaults.
+ * point for specifying global program constants and defaults.
+ * The options of a generator are kept in its GeneratorConfig.
  * 
  * @author unrza249
  * @author unrz205
@@ -37,7 +38,7 @@ public class Globals
 	/**
 	 * The newline character to use
 	 */
-	public static String NEWLINE = Messages.getString("IdGenerator.NEW_LINE");
+	public static final String NEWLINE = Messages.getString("IdGenerator.NEW_LINE");
 	
 	
 	/**
@@ -52,34 +53,99 @@ public class Globals
 	 * Number of id proposals to be outputted after one invokation of jidgen. 
 	 */
 	public static final int DEFAULT_NUM_IDs = 1;
-	public static int NUM_IDs = DEFAULT_NUM_IDs; 
 	
 	
 	/**
 	 * Terminal width in characters
 	 */
 	public static final int DEFAULT_TERM_WIDTH = 80;
-	public static int TERM_WIDTH = DEFAULT_TERM_WIDTH;
 	
 	/**
 	 * Default blacklist file
 	 */
 	//public static final String DEFAULT_BLACKLIST_FILE = "src/main/config/blacklist";
 	public static final String DEFAULT_BLACKLIST_FILE = "blacklist";
-	public static String BLACKLIST_FILE = DEFAULT_BLACKLIST_FILE;
+	
+	/**
+	 * Default regex rules file
+	 */
+	public static final String DEFAULT_REGEX_FILE = "regexrules";
 	
 	/**
 	 * Default passwd file
 	 */
 	public static final String DEFAULT_PASSWD_FILE = "/etc/passwd";
-	public static String PASSWD_FILE = DEFAULT_PASSWD_FILE;
 	
 	
+	/**
+	 * Default configuration file of the jdbc filter
+	 */
+	public static final String DEFAULT_JDBC_FILE = "jdbc.properties";
+	
+	/**
+	 * Default configuration file of the ldap filter
+	 */
+	public static final String DEFAULT_LDAP_FILE = "ldap.properties";
+	
+	/**
+	 * Default log file of the issued-id store
+	 */
+	public static final String DEFAULT_ISSUED_FILE = "issued-ids";
+	
+	/**
+	 * Default latency window of a journal group commit in milliseconds
+	 */
+	public static final long DEFAULT_JOURNAL_WINDOW = 2;
+	
+	/**
+	 * Default case policy of the template data
+	 */
+	public static final String DEFAULT_CASE_POLICY = "lower";
+	
+	/**
+	 * Default algorithm of the random number generators
+	 */
+	public static final String DEFAULT_RANDOM_GENERATOR = "L64X128MixRandom";
+	
+	/**
+	 * Default directory of the slot bitmaps of the free slot allocator
+	 */
+	public static final String DEFAULT_SLOT_DIR = "slots";
+	
 	/**
 	 * Default shell command
 	 */
 	public static final String DEFAULT_SHELLCMD = "./filter.sh %s";
-	public static String SHELLCMD = DEFAULT_SHELLCMD;
+	
+	/**
+	 * Default number of concurrently running shell commands
+	 */
+	public static final int DEFAULT_SHELLCMD_POOL_SIZE = 1;
+	
+	/**
+	 * Default timeout of one shell command in milliseconds (0 = no timeout)
+	 */
+	public static final long DEFAULT_SHELLCMD_TIMEOUT = 0;
+	
+	/**
+	 * Default verdict for ids whose shell command timed out
+	 */
+	public static final String DEFAULT_SHELLCMD_TIMEOUT_VERDICT = "reject";
+	
+	/**
+	 * Default verdict for ids whose shell command failed
+	 */
+	public static final String DEFAULT_SHELLCMD_ERROR_VERDICT = "abort";
+	
+	/**
+	 * Default maximum number of cached filter verdicts per filter (0 = no cache)
+	 */
+	public static final int DEFAULT_VERDICT_CACHE_SIZE = 10000;
+	
+	/**
+	 * Default time to live of a cached filter verdict in milliseconds
+	 */
+	public static final long DEFAULT_VERDICT_CACHE_TTL = 60000;
 	
 	/**
 	 * Default shell
@@ -90,7 +156,17 @@ public class Globals
 	 * Enables output in columns
 	 */
 	public static final boolean DEFAULT_ENABLE_COLUMN_OUTPUT = false;
-	public static boolean ENABLE_COLUMN_OUTPUT = DEFAULT_ENABLE_COLUMN_OUTPUT;
+	
+	/**
+	 * Enables random elements that return every value at most once
+	 */
+	public static final boolean DEFAULT_ENABLE_UNIQUE_RANDOM = false;
+	
+	/**
+	 * Default time in milliseconds after which the generator of an 
+	 * unused profile of a GeneratorRegistry is closed
+	 */
+	public static final long DEFAULT_PROFILE_IDLE_TIMEOUT = 600000;
 	
 	/**
 	 * Special characters that can be included.
@@ -25,9 +25,16 @@
 package de.rrze.idmone.utils.jidgen;
 
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.logging.Log;
@@ -36,8 +43,22 @@ import org.apache.commons.logging.LogFactory;
 import de.rrze.idmone.utils.jidgen.cli.IdGenOptions;
 import de.rrze.idmone.utils.jidgen.filter.BlacklistFilter;
 import de.rrze.idmone.utils.jidgen.filter.FilterChain;
+import de.rrze.idmone.utils.jidgen.filter.IdStoreFilter;
+import de.rrze.idmone.utils.jidgen.filter.JdbcFilter;
+import de.rrze.idmone.utils.jidgen.filter.LdapFilter;
 import de.rrze.idmone.utils.jidgen.filter.PasswdFilter;
+import de.rrze.idmone.utils.jidgen.filter.RegExFilter;
 import de.rrze.idmone.utils.jidgen.filter.ShellCmdFilter;
+import de.rrze.idmone.utils.jidgen.filter.Verdict;
+import de.rrze.idmone.utils.jidgen.random.RandomFactory;
+import de.rrze.idmone.utils.jidgen.store.CounterStateFile;
+import de.rrze.idmone.utils.jidgen.store.IIdStore;
+import de.rrze.idmone.utils.jidgen.store.ReservationJournal;
+import de.rrze.idmone.utils.jidgen.store.SlotBitmapFile;
+import de.rrze.idmone.utils.jidgen.template.CasePolicy;
+import de.rrze.idmone.utils.jidgen.template.CounterSlotIndex;
+import de.rrze.idmone.utils.jidgen.template.ExclusionSet;
+import de.rrze.idmone.utils.jidgen.template.SlotBitmap;
 import de.rrze.idmone.utils.jidgen.template.Template;
 
 /**
@@ -66,6 +87,12 @@ public class IdGenerator
 	 *  The class logger
 	 */
 	private static final Log logger = LogFactory.getLog(IdGenerator.class);
+	
+	/*
+	 * The messages logged for every candidate, looked up once
+	 */
+	private static final String MSG_ID_CANDIDATE = Messages.getString("IdGenerator.TRACE_ID_CANDIDATE");
+	private static final String MSG_ATTEMPT_GENERATE = Messages.getString("IdGenerator.TRACE_ATTEMPT_GENERATE");
 
 	/**
 	 * The options manager for IdGen 
@@ -84,6 +111,12 @@ public class IdGenerator
 	 */
 	private boolean updateOptions = true;
 
+	/**
+	 * Whether fatal errors end the program with an exit code (CLI)
+	 * or are thrown to the caller (library usage)
+	 */
+	private boolean exitOnError = true;
+
 	/**
 	 * A filter chain for the IdGenerator<br />
 	 * This chain contains all filters that should be applied to
@@ -91,6 +124,68 @@ public class IdGenerator
 	 */
 	private FilterChain filterChain; 
 
+	/**
+	 * Number of id candidates that are generated and passed
+	 * to the filter chain at once.
+	 */
+	private int batchSize = 1;
+
+	/**
+	 * The store of the issued ids, null if disabled
+	 */
+	private IIdStore idStore;
+
+	/**
+	 * The persisted slot bitmaps of the free slot allocator, null 
+	 * if disabled
+	 */
+	private SlotBitmapFile slotFile;
+
+	/**
+	 * The configuration of the generator, built from the CLI 
+	 * arguments or given to the constructor
+	 */
+	private GeneratorConfig config;
+
+	/**
+	 * The filter data shared with other generators
+	 */
+	private SharedResources resources = SharedResources.getDefault();
+
+	/**
+	 * The shared filter data in use by this generator, released 
+	 * on close() or when the filters are set up again
+	 */
+	private List<Object> acquired = new ArrayList<Object>();
+
+	/**
+	 * The user ids of the passwd file, null if the passwd
+	 * filter is disabled
+	 */
+	private Set<String> passwdIds;
+
+	/**
+	 * The ids known to be taken, in the form the template skips them:
+	 * the taken counter values of a counter template, otherwise the
+	 * taken indices of the index space, or neither if the template 
+	 * allows none. Collected once per configuration and then kept up
+	 * to date with the ids recorded since.
+	 */
+	private CounterSlotIndex takenSlots;
+	private ExclusionSet takenIds;
+
+	/**
+	 * The size of the issued-id store the taken ids correspond to,
+	 * -1 if they have to be collected (again)
+	 */
+	private long takenStoreSize = -1;
+
+	/**
+	 * The factory of the random number generators of this generator,
+	 * so that generators do not share their algorithm and seed
+	 */
+	private RandomFactory randomFactory;
+
 	/**
 	 * Default constructor of the IdGenerator
 	 */
@@ -119,6 +214,8 @@ public class IdGenerator
 
 		// create an empty filter chain
 		this.filterChain = new FilterChain();
+
+		this.randomFactory = new RandomFactory();
 	}
 
 
@@ -135,6 +232,49 @@ public class IdGenerator
 		this.init();
 	}
 
+	/**
+	 * Constructor for library usage, the filters share their data 
+	 * with all generators that use the default SharedResources.
+	 * 
+	 * @param config
+	 * 			the configuration
+	 * @throws IllegalArgumentException
+	 * 			if the filters or stores could not be set up
+	 */
+	public IdGenerator(GeneratorConfig config) {
+		this(config, SharedResources.getDefault());
+	}
+
+	/**
+	 * Constructor for library usage
+	 * 
+	 * @param config
+	 * 			the configuration
+	 * @param resources
+	 * 			the filter data shared with other generators
+	 * @throws IllegalArgumentException
+	 * 			if the filters or stores could not be set up
+	 */
+	public IdGenerator(GeneratorConfig config, SharedResources resources) {
+		this();
+		this.updateOptions = false;
+		this.exitOnError = false;
+		this.config = config;
+		this.resources = resources;
+		boolean initialized;
+		try {
+			initialized = this.init();
+		}
+		catch (AbortException e) {
+			this.close();
+			throw new IllegalArgumentException(Messages.getString("IdGenerator.ERROR_CONFIG") + ": " + e.getMessage(), e);
+		}
+		if (!initialized) {
+			this.close();
+			throw new IllegalArgumentException(Messages.getString("IdGenerator.ERROR_CONFIG"));
+		}
+	}
+
 	/**
 	 * Entry point of the program (CLI)
 	 * 
@@ -173,36 +313,19 @@ public class IdGenerator
 			System.exit(0);
 		}
 
-		// set number of ids
-		if (generator.options.hasOptionValue("N")) {
-			Globals.NUM_IDs = Integer.parseInt(generator.options.getOptionValue("N"));
-			logger.trace("Set number of ids to generate to " + Globals.NUM_IDs + ".");
-		}
-
-		// enable column output
-		if (generator.options.hasOptionValue("C")) {
-			Globals.ENABLE_COLUMN_OUTPUT = true;
-			logger.trace("Enable column output...");
-		}
-
-		// set terminal width
-		if (generator.options.hasOptionValue("W")) {
-			Globals.TERM_WIDTH = Integer.parseInt(generator.options.getOptionValue("W"));
-			logger.trace("Set terminal width to " + Globals.TERM_WIDTH + ".");
-		}
-
-
 		/*
 		 * START WORKING
 		 */
 
 		// generate ids
-		List<String> ids = generator.generateIDs(Globals.NUM_IDs);
+		List<String> ids = generator.generateIDs();
+
+		generator.close();
 
 		// output the generated ids
 		if (ids != null && !ids.isEmpty()) {
 			logger.info(Messages.getString("IdGenerator.ID"));
-			if (Globals.ENABLE_COLUMN_OUTPUT) {
+			if (generator.config.isColumnOutput()) {
 				generator.printColumns(ids);
 			}
 			else {
@@ -229,78 +352,361 @@ public class IdGenerator
 				logger.error(Messages.getString("IdGenerator.ERROR_OPTIONS_UPDATE") + " " + Arrays.toString(this.cliArgs));
 				return false;
 			}
+
+			GeneratorConfig config = this.buildConfig();
+			if (config == null) {
+				return false;
+			}
+			this.config = config;
 		}
 
+		try {
+			return this.configure();
+		}
+		catch (AbortException e) {
+			this.abort(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Ends the program with the exit code of a fatal error (CLI) or
+	 * passes the error on to the caller (library usage).
+	 * 
+	 * @param e
+	 * 			the error
+	 * @throws AbortException
+	 * 			the error, if the generator was created from a 
+	 * 			GeneratorConfig
+	 */
+	private void abort(AbortException e) {
+		if (!this.exitOnError) {
+			throw e;
+		}
+		System.exit(e.getExitCode());
+	}
+
+	/**
+	 * Builds the configuration from the CLI arguments.
+	 * 
+	 * @return the configuration or null if an argument is invalid
+	 */
+	private GeneratorConfig buildConfig() {
 		logger.trace("Processing CLI arguments...");
 
-		/*
-		 * FLAGS
-		 */
+		GeneratorConfig.Builder builder = GeneratorConfig.builder();
+		try {
+			/*
+			 * OUTPUT
+			 */
+			if (this.options.hasOptionValue("N")) {
+				builder.numIds(Integer.parseInt(this.options.getOptionValue("N")));
+			}
+			if (this.options.hasOptionValue("W")) {
+				builder.termWidth(Integer.parseInt(this.options.getOptionValue("W")));
+			}
+			builder.columnOutput(this.options.hasOptionValue("C"));
+
+			/*
+			 * DATA
+			 */
+			HashMap<String,String> data = this.options.getData();
+			HashMap<String,String> templateData = new HashMap<String,String>();
+			for (Iterator<String> iter = data.keySet().iterator(); iter.hasNext();) {
+				String key = iter.next();
+				if (key.startsWith(GeneratorConfig.DATA_PREFIX)) {
+					templateData.put(key, data.get(key));
+				}
+			}
+			builder.data(templateData);
+			if (this.options.hasOptionValue("Cp")) {
+				builder.casePolicy(CasePolicy.parse(this.options.getOptionValue("Cp")));
+			}
+
+			/*
+			 * FILTERS
+			 */
+			if (this.options.hasOptionValue("Vc")) {
+				builder.verdictCacheSize(Integer.parseInt(this.options.getOptionValue("Vc")));
+			}
+			if (this.options.hasOptionValue("Vt")) {
+				builder.verdictCacheTtl(Long.parseLong(this.options.getOptionValue("Vt")));
+			}
+			builder.parallelFilters(this.options.hasOptionValue("Fp"));
+			if (this.options.hasOptionValue("B")) {
+				builder.blacklist(this.getOptionValue("Bf", Globals.DEFAULT_BLACKLIST_FILE));
+			}
+			if (this.options.hasOptionValue("R")) {
+				builder.regex(this.getOptionValue("Rf", Globals.DEFAULT_REGEX_FILE));
+			}
+			if (this.options.hasOptionValue("P")) {
+				builder.passwd(this.getOptionValue("Pf", Globals.DEFAULT_PASSWD_FILE));
+			}
+			if (this.options.hasOptionValue("J")) {
+				builder.jdbc(this.getOptionValue("Jf", Globals.DEFAULT_JDBC_FILE));
+			}
+			if (this.options.hasOptionValue("L")) {
+				builder.ldap(this.getOptionValue("Lf", Globals.DEFAULT_LDAP_FILE));
+			}
+			if (this.options.hasOptionValue("S")) {
+				builder.shellCmd(this.getOptionValue("Sf", Globals.DEFAULT_SHELLCMD));
+				if (this.options.hasOptionValue("Sp")) {
+					builder.shellCmdPoolSize(Integer.parseInt(this.options.getOptionValue("Sp")));
+				}
+				if (this.options.hasOptionValue("St")) {
+					builder.shellCmdTimeout(Long.parseLong(this.options.getOptionValue("St")));
+				}
+				if (this.options.hasOptionValue("Stv")) {
+					builder.shellCmdTimeoutVerdict(Verdict.parse(this.options.getOptionValue("Stv")));
+				}
+				if (this.options.hasOptionValue("Sev")) {
+					builder.shellCmdErrorVerdict(Verdict.parse(this.options.getOptionValue("Sev")));
+				}
+			}
 
+			/*
+			 * RANDOM NUMBERS
+			 */
+			if (this.options.hasOptionValue("G")) {
+				builder.randomGenerator(this.options.getOptionValue("G"));
+			}
+			if (this.options.hasOptionValue("Gs")) {
+				builder.randomSeed(Long.decode(this.options.getOptionValue("Gs")));
+			}
+			builder.uniqueRandom(this.options.hasOptionValue("U"));
 
-		/*
-		 * DATA
-		 */
+			/*
+			 * STORES
+			 */
+			if (this.options.hasOptionValue("Cs")) {
+				builder.counterStateFile(this.options.getOptionValue("Cs"));
+			}
+			if (this.options.hasOptionValue("A")) {
+				builder.allocator(this.getOptionValue("Af", Globals.DEFAULT_SLOT_DIR));
+			}
+			if (this.options.hasOptionValue("I")) {
+				builder.issuedIds(this.getOptionValue("If", Globals.DEFAULT_ISSUED_FILE));
+				builder.journal(this.options.hasOptionValue("Ij"));
+				if (this.options.hasOptionValue("Iw")) {
+					builder.journalWindow(Long.parseLong(this.options.getOptionValue("Iw")));
+				}
+			}
 
+			return builder.build();
+		}
+		catch (IllegalArgumentException e) {
+			logger.error(Messages.getString("IdGenerator.PARAM_ERROR") + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the value of an option or the given default
+	 * if the option is not set.
+	 * 
+	 * @param option
+	 * 			the short name of the option
+	 * @param defaultValue
+	 * 			the default value
+	 * @return the value of the option
+	 */
+	private String getOptionValue(String option, String defaultValue) {
+		if (this.options.hasOptionValue(option)) {
+			return this.options.getOptionValue(option);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Sets up the filters, the stores and the random number
+	 * generators as described by the configuration.
+	 * 
+	 * @return true if no errors occurred, false otherwise 
+	 */
+	private boolean configure() {
+		GeneratorConfig config = this.config;
+		this.releaseResources();
+
+		// the filters of the last configuration release their
+		// connections, processes and threads
+		this.filterChain.close();
+		this.batchSize = 1;
+
+		// the taken ids depend on the template and the data
+		this.takenSlots = null;
+		this.takenIds = null;
+		this.takenStoreSize = -1;
 
 		/*
 		 * FILTERS
 		 */
+		// verdict cache
+		logger.trace("Set verdict cache size to " + config.getVerdictCacheSize() + ", time to live to " + config.getVerdictCacheTtl() + "ms.");
+		this.filterChain.setCache(config.getVerdictCacheSize(), config.getVerdictCacheTtl());
+
+		// parallel filters
+		if (config.isParallelFilters()) {
+			logger.trace("Enable parallel filters...");
+		}
+		this.filterChain.setParallel(config.isParallelFilters());
+
 		// blacklist filter
-		if (this.options.hasOptionValue("B")) {
-			logger.trace("Enable blacklist filter...");
-			BlacklistFilter bl = new BlacklistFilter();
+		if (config.getBlacklistFile() != null) {
+			logger.trace("Enable blacklist filter, using blacklist file (" + config.getBlacklistFile() + ").");
+			List<String> blacklist = this.resources.acquireBlacklist(config.getBlacklistFile());
+			this.acquired.add(blacklist);
+			BlacklistFilter bl = new BlacklistFilter(blacklist);
 
-			if (this.options.hasOptionValue("Bf")) {
-				Globals.BLACKLIST_FILE = this.options.getOptionValue("Bf");
-				logger.trace("Using ALTERNATE blacklist file (" + Globals.BLACKLIST_FILE + ").");
+			this.filterChain.addFilter(bl);
+		}
+
+		// regex filter
+		if (config.getRegexFile() != null) {
+			logger.trace("Enable regex filter, using regex rules file (" + config.getRegexFile() + ").");
+			RegExFilter regex = new RegExFilter();
+
+			// read the rules from file
+			File file = new File(config.getRegexFile());
+			String line;
+			try {
+				while ((line = file.getLine()) != null) {
+					regex.addRule(line);
+				}
 			}
-			else {
-				logger.trace("Using DEFAULT blacklist file (" + Globals.BLACKLIST_FILE + ").");
+			catch (PatternSyntaxException e) {
+				logger.error(Messages.getString("IdGenerator.PARAM_ERROR") + e.getMessage());
+				return false;
 			}
-
-			// read blacklist from file
-			File file = new File(Globals.BLACKLIST_FILE);
-			while(bl.addToBlacklist(file.getLine())) {
-				// just loop
+			finally {
+				file.close();
 			}
-			file.close();
+			logger.trace("Compiled " + regex.getNumCompiledRules() + " of " + regex.getRules().size() + " regex rules into one automaton.");
 
-			this.filterChain.addFilter(bl);
+			this.filterChain.addFilter(regex);
 		}
 
 		// passwd filter
-		if (this.options.hasOptionValue("P")) {
-			logger.trace("Enable passwd filter...");
+		if (config.getPasswdFile() != null) {
+			logger.trace("Enable passwd filter, using passwd file (" + config.getPasswdFile() + ").");
 			PasswdFilter passwd = new PasswdFilter();
 
-			if (this.options.hasOptionValue("Pf")) {
-				Globals.PASSWD_FILE = this.options.getOptionValue("Pf");
-				logger.trace("Using ALTERNATE passwd file (" + Globals.PASSWD_FILE + ").");
+			this.passwdIds = this.resources.acquirePasswdIds(config.getPasswdFile());
+			this.acquired.add(this.passwdIds);
+			passwd.setFile(config.getPasswdFile());
+			passwd.setIds(this.passwdIds);
+
+			this.filterChain.addFilter(passwd);
+		}
+
+		// jdbc filter
+		if (config.getJdbcFile() != null) {
+			logger.trace("Enable jdbc filter, using jdbc configuration file (" + config.getJdbcFile() + ").");
+			JdbcFilter jdbc = new JdbcFilter();
+
+			try {
+				jdbc.configure(File.loadProperties(config.getJdbcFile()));
 			}
-			else {
-				logger.trace("Using DEFAULT passwd file (" + Globals.PASSWD_FILE + ").");
+			catch (ClassNotFoundException e) {
+				logger.error(Messages.getString("IdGenerator.PARAM_ERROR") + e.toString());
+				return false;
+			}
+			catch (IllegalArgumentException e) {
+				logger.error(Messages.getString("IdGenerator.PARAM_ERROR") + e.getMessage());
+				return false;
 			}
 
-			passwd.setFile(Globals.PASSWD_FILE);
+			// generate a full query batch per round
+			this.batchSize = Math.max(this.batchSize, jdbc.getBatchSize());
 
-			this.filterChain.addFilter(passwd);
+			this.filterChain.addFilter(jdbc);
+		}
+
+		// ldap filter
+		if (config.getLdapFile() != null) {
+			logger.trace("Enable ldap filter, using ldap configuration file (" + config.getLdapFile() + ").");
+			LdapFilter ldap = new LdapFilter();
+
+			try {
+				ldap.configure(File.loadProperties(config.getLdapFile()));
+			}
+			catch (IllegalArgumentException e) {
+				logger.error(Messages.getString("IdGenerator.PARAM_ERROR") + e.getMessage());
+				return false;
+			}
+
+			// generate a full search batch per round
+			this.batchSize = Math.max(this.batchSize, ldap.getBatchSize());
+
+			this.filterChain.addFilter(ldap);
+		}
+
+		// case policy
+		logger.trace("Using case policy " + config.getCasePolicy() + ".");
+
+		// random number generator
+		this.randomFactory.setGeneratorAlgorithm(config.getRandomGenerator());
+		logger.trace("Using random generator " + config.getRandomGenerator() + ".");
+
+		// unique random values
+		if (config.isUniqueRandom()) {
+			logger.trace("Enable unique random values...");
+		}
+
+		// random seed, logged so that the run can be repeated
+		if (config.getRandomSeed() != null && !this.randomFactory.isSeedable(config.getRandomGenerator())) {
+			logger.warn(Messages.getString("IdGenerator.SEED_IGNORED") + config.getRandomGenerator());
+		}
+		long seed = (config.getRandomSeed() != null) ? config.getRandomSeed() : RandomFactory.newSeed();
+		this.randomFactory.setSeed(seed);
+		logger.info(Messages.getString("IdGenerator.RANDOM_SEED") + seed);
+
+		// counter state file
+		if (config.getCounterStateFile() != null) {
+			logger.trace("Using counter state file (" + config.getCounterStateFile() + ").");
+		}
+
+		// free slot allocator
+		this.slotFile = null;
+		if (config.getSlotDir() != null) {
+			logger.trace("Enable free slot allocator, using slot bitmap directory (" + config.getSlotDir() + ").");
+			this.slotFile = new SlotBitmapFile(config.getSlotDir());
+		}
+
+		// issued-id store
+		this.closeStore();
+		if (config.getIssuedFile() != null) {
+			logger.trace("Enable issued-id store, using issued-id store (" + config.getIssuedFile() + ").");
+
+			try {
+				// generators with the same store file share one instance,
+				// the commit window of the last one configured applies
+				this.idStore = this.resources.acquireIdStore(config.getIssuedFile(), config.isJournal());
+				if (config.isJournal()) {
+					logger.trace("Using reservation journal, commit window " + config.getJournalWindow() + "ms.");
+					((ReservationJournal) this.idStore).setWindow(config.getJournalWindow());
+				}
+			}
+			catch (IOException e) {
+				logger.error(Messages.getString("IdGenerator.PARAM_ERROR") + e.toString());
+				return false;
+			}
+
+			this.filterChain.addFilter(new IdStoreFilter(this.idStore));
 		}
 
 		// shellcmd filter
-		if (this.options.hasOptionValue("S")) {
-			logger.trace("Enable shellcmd filter...");
+		if (config.getShellCmd() != null) {
+			logger.trace("Enable shellcmd filter, using shell command (" + config.getShellCmd() + ").");
 			ShellCmdFilter shellCmd = new ShellCmdFilter();
 			
-			if (this.options.hasOptionValue("Sf")) {
-				Globals.SHELLCMD = this.options.getOptionValue("Sf");
-				logger.trace("Using shell command (" + Globals.SHELLCMD + ").");
-			}
-			else {
-				logger.trace("Using DEFAULT shell command (" + Globals.SHELLCMD + ").");
-			}
+			shellCmd.setCmd(config.getShellCmd());
+			shellCmd.setPoolSize(config.getShellCmdPoolSize());
+			shellCmd.setTimeout(config.getShellCmdTimeout());
+			shellCmd.setTimeoutVerdict(config.getShellCmdTimeoutVerdict());
+			shellCmd.setErrorVerdict(config.getShellCmdErrorVerdict());
 			
-			shellCmd.setCmd(Globals.SHELLCMD);
+			// generate enough candidates per round to keep the pool busy
+			this.batchSize = Math.max(this.batchSize, shellCmd.getPoolSize());
 			
 			this.filterChain.addFilter(shellCmd);	
 		}
@@ -389,10 +795,238 @@ public class IdGenerator
 	 * @return true on success, false otherwise
 	 */
 	public boolean update() {
-		this.filterChain.clear();
 		return this.init();
 	}
 
+	/**
+	 * Records accepted ids in the issued-id store, if enabled.
+	 * Returns once the ids are durable.
+	 * 
+	 * @param accepted
+	 * 			the accepted ids
+	 * @return the ids that may be handed out, without those that
+	 * 			another process has recorded in the meantime
+	 * @throws AbortException
+	 * 			if the store cannot be written
+	 */
+	private List<String> record(List<String> accepted) {
+		if (this.idStore == null || accepted.isEmpty()) {
+			return accepted;
+		}
+
+		try {
+			List<String> recorded = this.idStore.addAll(accepted);
+			if (recorded.size() < accepted.size()) {
+				logger.trace(Messages.getString("IdGenerator.TRACE_ALREADY_ISSUED") + " " + (accepted.size() - recorded.size()));
+			}
+			return recorded;
+		}
+		catch (IOException e) {
+			logger.fatal(Messages.getString("IdGenerator.STORE_ERROR") + e.toString());
+			throw new AbortException(Messages.getString("IdGenerator.STORE_ERROR") + e.toString(), 154, e);
+		}
+	}
+
+	/**
+	 * Lets the template skip the ids known to be taken, from the passwd
+	 * file and the issued-id store: the counter jumps over taken values
+	 * if everything else is fixed, otherwise the taken ids are excluded
+	 * from the index space of the template.<br />
+	 * The taken ids are only collected on the first run after the 
+	 * configuration changed, or if another generator has recorded
+	 * ids in the store since, see addTakenIds().
+	 * 
+	 * @param template
+	 * 			the template
+	 */
+	private void excludeExistingIds(Template template) {
+		long storeSize = (this.idStore != null) ? this.idStore.size() : 0;
+		if (storeSize != this.takenStoreSize) {
+			this.collectTakenIds(template, storeSize);
+		}
+
+		if (this.takenSlots != null) {
+			template.setCounterSlotIndex(this.takenSlots);
+		}
+		else if (this.takenIds != null) {
+			template.setExclusions(this.takenIds);
+		}
+	}
+
+	/**
+	 * Reads the ids from the passwd file and the issued-id store
+	 * and indexes them for the template.
+	 * 
+	 * @param template
+	 * 			the template
+	 * @param storeSize
+	 * 			the size of the store, taken before its ids are read
+	 */
+	private void collectTakenIds(Template template, long storeSize) {
+		List<String> existing = new ArrayList<String>();
+		if (this.passwdIds != null) {
+			existing.addAll(this.passwdIds);
+		}
+		if (this.idStore != null) {
+			try {
+				existing.addAll(this.idStore.getIds());
+			}
+			catch (IOException e) {
+				logger.warn(Messages.getString("IdGenerator.STORE_ERROR") + e.toString());
+			}
+		}
+		this.takenStoreSize = storeSize;
+
+		this.takenSlots = template.indexCounterSlots(existing);
+		this.takenIds = null;
+		if (this.takenSlots != null) {
+			logger.debug(Messages.getString("IdGenerator.COUNTER_SLOTS_TAKEN") + this.takenSlots.getNumTaken());
+		}
+		else {
+			this.takenIds = template.indexIds(existing);
+			if (this.takenIds != null) {
+				logger.debug(Messages.getString("IdGenerator.IDS_EXCLUDED") + this.takenIds.size());
+			}
+		}
+	}
+
+	/**
+	 * Adds the ids this generator has recorded in the issued-id
+	 * store to the taken ids, so the next run need not collect
+	 * them again.
+	 * 
+	 * @param template
+	 * 			the template of the run
+	 * @param recorded
+	 * 			the recorded ids
+	 */
+	private void addTakenIds(Template template, List<String> recorded) {
+		if (this.idStore == null || this.takenStoreSize < 0 || recorded.isEmpty()) {
+			return;
+		}
+
+		if (this.takenSlots != null) {
+			this.takenSlots.addAll(recorded);
+		}
+		else if (this.takenIds != null) {
+			this.takenIds.addAll(template.indexIds(recorded));
+		}
+		this.takenStoreSize += recorded.size();
+	}
+
+	/**
+	 * Lets the template draw random free ids from its slot bitmap,
+	 * which is loaded from the slot bitmap directory if there is one.
+	 * 
+	 * @param template
+	 * 			the template
+	 * @param key
+	 * 			the key of the template and its variables
+	 * @return true if the template uses the allocator, false if its 
+	 * 			index space is not supported
+	 */
+	private boolean initAllocator(Template template, String key) {
+		long size = template.getSize();
+		if (size < 0 || size > SlotBitmap.MAX_SIZE) {
+			logger.warn(Messages.getString("IdGenerator.NO_ALLOCATOR") + template.getTemplate());
+			return false;
+		}
+
+		SlotBitmap bitmap = null;
+		try {
+			bitmap = this.slotFile.get(key);
+		}
+		catch (IOException e) {
+			logger.warn(Messages.getString("IdGenerator.SLOT_BITMAP_ERROR") + e.toString());
+		}
+		if (bitmap == null || bitmap.getSize() != size) {
+			bitmap = new SlotBitmap(size);
+		}
+		template.setAllocator(bitmap);
+		logger.debug(Messages.getString("IdGenerator.SLOTS_USED") + bitmap.getNumUsed() + "/" + size);
+		return true;
+	}
+
+	/**
+	 * Builds the key of a template and its variables, used for
+	 * the counter state and the slot bitmap.
+	 * 
+	 * @param template
+	 * 			the template
+	 * @return the key of the template
+	 */
+	private String getTemplateKey(Template template) {
+		HashMap<String,String> variables = new HashMap<String,String>();
+		Map<String,String> data = this.config.getData();
+		for (Iterator<String> iter = data.keySet().iterator(); iter.hasNext();) {
+			String key = iter.next();
+			if (key.matches("T[a-z]")) {
+				variables.put(key, data.get(key));
+			}
+		}
+		// other cases make other ids
+		if (template.getCasePolicy() != CasePolicy.LOWER) {
+			variables.put("Cp", template.getCasePolicy().name());
+		}
+		return CounterStateFile.key(template.getTemplate(), variables);
+	}
+
+	/**
+	 * Releases the issued-id store, if enabled. It is closed
+	 * once no other generator uses it.
+	 */
+	private void closeStore() {
+		if (this.idStore != null) {
+			this.resources.release(this.idStore);
+			this.idStore = null;
+		}
+	}
+
+	/**
+	 * Releases the resources of the generator, e.g. the
+	 * issued-id store. The generator must not be used afterwards.
+	 */
+	public void close() {
+		this.closeStore();
+		this.releaseResources();
+		this.filterChain.close();
+	}
+
+	/**
+	 * Releases the shared filter data in use by this generator.
+	 */
+	private void releaseResources() {
+		for (Iterator<Object> iter = this.acquired.iterator(); iter.hasNext();) {
+			this.resources.release(iter.next());
+		}
+		this.acquired.clear();
+		this.passwdIds = null;
+	}
+
+	/**
+	 * Generates the number of ids given in the configuration,
+	 * see generateIDs(int).
+	 * 
+	 * @return a suitable id list, an empty list if such could not be
+	 *         generated or null on error
+	 */
+	public List<String> generateIDs() {
+		if (this.updateOptions) {
+			this.update();
+		}
+		return this.generateIDs(this.config.getNumIds());
+	}
+
+	/**
+	 * Returns the configuration of the generator.
+	 * 
+	 * @return the configuration or null if the CLI arguments 
+	 * 			have not been processed yet
+	 */
+	public GeneratorConfig getConfig() {
+		return this.config;
+	}
+
 	/**
 	 * This method tries to generate the given number of ids. 
 	 * The method returns an empty list if it does 
@@ -403,8 +1037,40 @@ public class IdGenerator
 	 * 			target number of ids to generate
 	 * @return a suitable id list, an empty list if such could not be
 	 *         generated or null on error
+	 * @throws AbortException
+	 * 			on a fatal error, e.g. if the maximum number of attempts
+	 * 			is reached, the issued-id store cannot be written or a
+	 * 			filter aborts; only for generators created from a 
+	 * 			GeneratorConfig, the CLI exits with the code of the
+	 * 			error instead
 	 */
 	public List<String> generateIDs(int num) {
+		try {
+			return this.generate(num);
+		}
+		catch (AbortException e) {
+			this.abort(e);
+			return null;
+		}
+		catch (CompletionException e) {
+			// a filter aborted on a thread of the filter chain
+			if (e.getCause() instanceof AbortException) {
+				this.abort((AbortException) e.getCause());
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Does the work of generateIDs(int).
+	 * 
+	 * @param num
+	 * 			target number of ids to generate
+	 * @return a suitable id list or an empty list if such could not be
+	 *         generated
+	 */
+	private List<String> generate(int num) {
 		if (this.updateOptions) {
 			this.update();
 		}
@@ -413,32 +1079,128 @@ public class IdGenerator
 
 		logger.info(Messages.getString("IdGenerator.START_GENERATION") + num);
 
-		Template template = new Template(this.options.getData());
+		Template template = new Template(new HashMap<String,String>(this.config.getData()));
+		template.setCasePolicy(this.config.getCasePolicy());
+		template.setUniqueRandom(this.config.isUniqueRandom());
+		template.setRandomFactory(this.randomFactory);
+
+		// resume the counter where the last run ended
+		String counterKey = null;
+		if (this.config.getCounterStateFile() != null) {
+			counterKey = this.getTemplateKey(template);
+			try {
+				int position = new CounterStateFile(this.config.getCounterStateFile()).get(counterKey);
+				if (position >= 0) {
+					logger.info(Messages.getString("IdGenerator.RESUME_COUNTER") + position);
+					template.setCounterPosition(position);
+				}
+			}
+			catch (IOException e) {
+				logger.warn(Messages.getString("IdGenerator.COUNTER_STATE_ERROR") + e.toString());
+			}
+		}
+
+		// draw random free ids from the slot bitmap instead of
+		// letting the elements choose
+		String slotKey = null;
+		if (this.slotFile != null && template.getCounterPosition() < 0) {
+			slotKey = this.getTemplateKey(template);
+			if (!this.initAllocator(template, slotKey)) {
+				slotKey = null;
+			}
+		}
+
+		// let the template skip existing ids
+		if (this.passwdIds != null || this.idStore != null) {
+			this.excludeExistingIds(template);
+		}
 
 		int i = 0;
+		int lastPosition = -1;
+		List<String> idCandidates = new ArrayList<String>(this.batchSize);
+		List<Integer> positions = new ArrayList<Integer>(this.batchSize);
 		while (template.hasAlternatives() && (ids.size() < num)) {
-			if (i++ == Globals.MAX_ATTEMPTS) {
-				logger.fatal(Messages.getString("IdGenerator.MAX_ATTEMPTS_REACHED") + " (" + Globals.MAX_ATTEMPTS + ")");
-				System.exit(152);
+			// build the next batch of candidates
+			idCandidates.clear();
+			positions.clear();
+			while (template.hasAlternatives() && (idCandidates.size() < this.batchSize)) {
+				if (i++ == Globals.MAX_ATTEMPTS) {
+					logger.fatal(Messages.getString("IdGenerator.MAX_ATTEMPTS_REACHED") + " (" + Globals.MAX_ATTEMPTS + ")");
+					throw new AbortException(Messages.getString("IdGenerator.MAX_ATTEMPTS_REACHED") + " (" + Globals.MAX_ATTEMPTS + ")", 152);
+				}
+				String idCandidate = template.buildString();
+				if (logger.isTraceEnabled()) {
+					logger.trace(MSG_ID_CANDIDATE + " " + idCandidate);
+				}
+				idCandidates.add(idCandidate);
+				positions.add(template.getCounterPosition());
 			}
-			String idCandidate = null;
-			idCandidate = template.buildString();
-			logger.trace(Messages.getString("IdGenerator.TRACE_ID_CANDIDATE") + " " + idCandidate);
 
-			// apply the filter chain to the generated id
+			// apply the filter chain to the generated ids
 			// add to list if we got a valid, unique id 
-			if (	(this.filterChain.apply(idCandidate) != null)
-					&& (!ids.contains(idCandidate)))
-			{
-				ids.add(idCandidate);
+			List<String> suitable = this.filterChain.apply(idCandidates);
+			List<String> accepted = new ArrayList<String>();
+			for (Iterator<String> iter = idCandidates.iterator(); iter.hasNext();) {
+				String idCandidate = iter.next();
+				if (	suitable.contains(idCandidate)
+						&& (!ids.contains(idCandidate))
+						&& (!accepted.contains(idCandidate))
+						&& (ids.size() + accepted.size() < num))
+				{
+					accepted.add(idCandidate);
+				}
+				else { 
+					// give back suitable ids that are not needed anymore
+					if (ids.size() + accepted.size() >= num && suitable.contains(idCandidate)) {
+						template.releaseId(idCandidate);
+					}
+					// log some info about the failed attempt 
+					if (logger.isTraceEnabled()) {
+						logger.trace(MSG_ATTEMPT_GENERATE + " " + idCandidate);
+					}
+				}
 			}
-			else { 
-				// log some info about the failed attempt 
-				logger.trace(Messages.getString("IdGenerator.TRACE_ATTEMPT_GENERATE") + " " + idCandidate);
+
+			// record the accepted ids, all of them at once
+			List<String> recorded = this.record(accepted);
+			ids.addAll(recorded);
+
+			// remember where the counter was after the last handed out id
+			if (!recorded.isEmpty()) {
+				lastPosition = positions.get(idCandidates.lastIndexOf(recorded.get(recorded.size() - 1)));
 			}
 		}
 
-		logger.debug(Messages.getString("IdGenerator.NUMBER_OF_ITERATIONS") + i);
+		// the next run skips the ids of this one without reading them
+		this.addTakenIds(template, ids);
+
+		// candidates after the last id were not used if the target was
+		// reached, otherwise all of them have been rejected
+		if (counterKey != null) {
+			int position = (ids.size() >= num && lastPosition >= 0) ? lastPosition : template.getCounterPosition();
+			if (position >= 0) {
+				try {
+					new CounterStateFile(this.config.getCounterStateFile()).put(counterKey, position);
+					logger.debug(Messages.getString("IdGenerator.SAVE_COUNTER") + position);
+				}
+				catch (IOException e) {
+					logger.warn(Messages.getString("IdGenerator.COUNTER_STATE_ERROR") + e.toString());
+				}
+			}
+		}
+		// keep the used slots, including the rejected ones
+		if (slotKey != null) {
+			try {
+				this.slotFile.put(slotKey, template.getAllocator());
+			}
+			catch (IOException e) {
+				logger.warn(Messages.getString("IdGenerator.SLOT_BITMAP_ERROR") + e.toString());
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug(Messages.getString("IdGenerator.NUMBER_OF_ITERATIONS") + i);
+			logger.debug(Messages.getString("IdGenerator.FILTER_STATISTICS") + Globals.NEWLINE + this.filterChain.getStatistics());
+		}
 
 		if (ids.size() < num) {
 			logger.warn(Messages.getString("IdGenerator.FAILED_TO_REACH_TARGET_NUM") + ids.size());
@@ -461,7 +1223,8 @@ public class IdGenerator
 	public void printColumns(List<String> ids)
 	{
 		int idLength = ids.get(0).length();
-		int numberOfColumns = Globals.TERM_WIDTH / (idLength + 1);
+		int termWidth = (this.config != null) ? this.config.getTermWidth() : Globals.DEFAULT_TERM_WIDTH;
+		int numberOfColumns = termWidth / (idLength + 1);
 		if (numberOfColumns == 0)
 			numberOfColumns = 1;
 
@@ -559,6 +1322,138 @@ public class IdGenerator
 				Messages.getString("IIdGenCommandLineOptions.CL_PRINT_IN_COLUMNS_DESC")
 		);
 
+		// jdbc filter configuration file
+		opts.add(
+				"Jf",
+				"jdbc-file",
+				Messages.getString("IIdGenCommandLineOptions.CL_JDBC_FILE_DESC"),
+				1,
+				"file",
+				' '
+		);
+
+		// jdbc filter
+		opts.add(
+				"J",
+				"enable-jdbc-filter",
+				Messages.getString("IIdGenCommandLineOptions.CL_JDBC_DESC") + " (Default: " + Globals.DEFAULT_JDBC_FILE + ")"
+		);
+
+		// ldap filter configuration file
+		opts.add(
+				"Lf",
+				"ldap-file",
+				Messages.getString("IIdGenCommandLineOptions.CL_LDAP_FILE_DESC"),
+				1,
+				"file",
+				' '
+		);
+
+		// ldap filter
+		opts.add(
+				"L",
+				"enable-ldap-filter",
+				Messages.getString("IIdGenCommandLineOptions.CL_LDAP_DESC") + " (Default: " + Globals.DEFAULT_LDAP_FILE + ")"
+		);
+
+		// case policy
+		opts.add(
+				"Cp",
+				"case-policy",
+				Messages.getString("IIdGenCommandLineOptions.CL_CASE_POLICY_DESC") + " (Default: " + Globals.DEFAULT_CASE_POLICY + ")",
+				1,
+				"policy",
+				' '
+		);
+
+		// random number generator
+		opts.add(
+				"G",
+				"random-generator",
+				Messages.getString("IIdGenCommandLineOptions.CL_RANDOM_GENERATOR_DESC") + " (Default: " + Globals.DEFAULT_RANDOM_GENERATOR + ")",
+				1,
+				"algorithm",
+				' '
+		);
+
+		// random seed
+		opts.add(
+				"Gs",
+				"random-seed",
+				Messages.getString("IIdGenCommandLineOptions.CL_RANDOM_SEED_DESC"),
+				1,
+				"seed",
+				' '
+		);
+
+		// unique random values flag
+		opts.add(
+				"U",
+				"unique-random",
+				Messages.getString("IIdGenCommandLineOptions.CL_UNIQUE_RANDOM_DESC")
+		);
+
+		// counter state file
+		opts.add(
+				"Cs",
+				"counter-state-file",
+				Messages.getString("IIdGenCommandLineOptions.CL_COUNTER_STATE_FILE_DESC"),
+				1,
+				"file",
+				' '
+		);
+
+		// slot bitmap directory
+		opts.add(
+				"Af",
+				"allocator-directory",
+				Messages.getString("IIdGenCommandLineOptions.CL_SLOT_DIR_DESC"),
+				1,
+				"directory",
+				' '
+		);
+
+		// free slot allocator
+		opts.add(
+				"A",
+				"enable-allocator",
+				Messages.getString("IIdGenCommandLineOptions.CL_ALLOCATOR_DESC") + " (Default: " + Globals.DEFAULT_SLOT_DIR + ")"
+		);
+
+		// issued-id store file
+		opts.add(
+				"If",
+				"issued-store-file",
+				Messages.getString("IIdGenCommandLineOptions.CL_ISSUED_FILE_DESC"),
+				1,
+				"file",
+				' '
+		);
+
+		// issued-id store
+		opts.add(
+				"I",
+				"enable-issued-store",
+				Messages.getString("IIdGenCommandLineOptions.CL_ISSUED_DESC") + " (Default: " + Globals.DEFAULT_ISSUED_FILE + ")"
+		);
+
+		// reservation journal
+		opts.add(
+				"Ij",
+				"issued-store-journal",
+				Messages.getString("IIdGenCommandLineOptions.CL_ISSUED_JOURNAL_DESC")
+		);
+
+		// reservation journal commit window
+		opts.add(
+				"Iw",
+				"issued-store-window",
+				Messages.getString("IIdGenCommandLineOptions.CL_ISSUED_WINDOW_DESC") + " (Default: " + Globals.DEFAULT_JOURNAL_WINDOW + ")",
+				1,
+				"millis",
+				' '
+		);
+
 		// shellcmd filter command
 		opts.add(
 				"Sf",
@@ -569,6 +1464,73 @@ public class IdGenerator
 				' '
 		);
 
+		// parallel filters flag
+		opts.add(
+				"Fp",
+				"parallel-filters",
+				Messages.getString("IIdGenCommandLineOptions.CL_PARALLEL_FILTERS_DESC")
+		);
+
+		// verdict cache size
+		opts.add(
+				"Vc",
+				"verdict-cache-size",
+				Messages.getString("IIdGenCommandLineOptions.CL_VERDICT_CACHE_SIZE_DESC") + " (Default: " + Globals.DEFAULT_VERDICT_CACHE_SIZE + ")",
+				1,
+				"number",
+				' '
+		);
+
+		// verdict cache time to live
+		opts.add(
+				"Vt",
+				"verdict-cache-ttl",
+				Messages.getString("IIdGenCommandLineOptions.CL_VERDICT_CACHE_TTL_DESC") + " (Default: " + Globals.DEFAULT_VERDICT_CACHE_TTL + ")",
+				1,
+				"millis",
+				' '
+		);
+
+		// shellcmd filter pool size
+		opts.add(
+				"Sp",
+				"shellcmd-pool-size",
+				Messages.getString("IIdGenCommandLineOptions.CL_SHELLCMD_POOL_SIZE_DESC") + " (Default: " + Globals.DEFAULT_SHELLCMD_POOL_SIZE + ")",
+				1,
+				"number",
+				' '
+		);
+
+		// shellcmd filter timeout
+		opts.add(
+				"St",
+				"shellcmd-timeout",
+				Messages.getString("IIdGenCommandLineOptions.CL_SHELLCMD_TIMEOUT_DESC") + " (Default: " + Globals.DEFAULT_SHELLCMD_TIMEOUT + ")",
+				1,
+				"millis",
+				' '
+		);
+
+		// shellcmd filter timeout verdict
+		opts.add(
+				"Stv",
+				"shellcmd-timeout-verdict",
+				Messages.getString("IIdGenCommandLineOptions.CL_SHELLCMD_TIMEOUT_VERDICT_DESC") + " (Default: " + Globals.DEFAULT_SHELLCMD_TIMEOUT_VERDICT + ")",
+				1,
+				"verdict",
+				' '
+		);
+
+		// shellcmd filter error verdict
+		opts.add(
+				"Sev",
+				"shellcmd-error-verdict",
+				Messages.getString("IIdGenCommandLineOptions.CL_SHELLCMD_ERROR_VERDICT_DESC") + " (Default: " + Globals.DEFAULT_SHELLCMD_ERROR_VERDICT + ")",
+				1,
+				"verdict",
+				' '
+		);
+
 		// shellcmd filter
 		opts.add(
 				"S",
@@ -593,6 +1555,23 @@ public class IdGenerator
 				Messages.getString("IIdGenCommandLineOptions.CL_PASSWD_DESC") + " (Default: " + Globals.DEFAULT_PASSWD_FILE + ")"
 		);
 
+		// regex filter file
+		opts.add(
+				"Rf",
+				"regex-file",
+				Messages.getString("IIdGenCommandLineOptions.CL_REGEX_FILE_DESC"),
+				1,
+				"file",
+				' '
+		);
+
+		// regex filter
+		opts.add(
+				"R",
+				"enable-regex-filter",
+				Messages.getString("IIdGenCommandLineOptions.CL_REGEX_DESC") + " (Default: " + Globals.DEFAULT_REGEX_FILE + ")"
+		);
+
 		// blacklist filter file
 		opts.add(
 				"Bf",
@@ -666,5 +1645,11 @@ public class IdGenerator
 	public void setOption(String opt, String value) {
 		updateOptions = false;
 		this.options.setOptionValue(opt, value);
+
+		// the template data is taken from the configuration
+		GeneratorConfig config = this.buildConfig();
+		if (config != null) {
+			this.config = config;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,393 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.rrze.idmone.utils.jidgen.store.IIdStore;
+import de.rrze.idmone.utils.jidgen.store.IssuedIdStore;
+import de.rrze.idmone.utils.jidgen.store.ReservationJournal;
+
+/**
+ * The read-only data of the filters that is expensive to load, shared
+ * by all IdGenerator instances that use the same SharedResources: the
+ * blacklist entries and the ids of a passwd file. The issued-id stores
+ * are shared too, one open store per file, since a reservation journal
+ * can only be opened once per process.<br />
+ * Resources are deduplicated by the SHA-256 hash of their content, so
+ * equal files at different locations are kept in memory only once. 
+ * They are reference counted: every acquire...() must be paired with
+ * a release(), and a resource is dropped when its last user has 
+ * released it. A file is read again when its modification time 
+ * changes; generators that hold the old content keep it until they
+ * release it. A store is closed when its last user has released it.
+ * 
+ * @author unrza249
+ */
+public class SharedResources 
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(SharedResources.class);
+	
+	/**
+	 * The instance used by generators that are not given one
+	 */
+	private static final SharedResources defaultInstance = new SharedResources();
+	
+	/**
+	 * The kinds of resources, resources of different kinds 
+	 * are never shared even if the content is the same
+	 */
+	private static final String BLACKLIST = "blacklist";
+	private static final String PASSWD = "passwd";
+	private static final String ISSUED = "issued";
+	private static final String JOURNAL = "journal";
+	
+	/**
+	 * The loaded resources by kind and content hash
+	 */
+	private final Map<String,Resource> resources = new HashMap<String,Resource>();
+	
+	/**
+	 * The resource last read from a file, by kind and file location
+	 */
+	private final Map<String,FileEntry> files = new HashMap<String,FileEntry>();
+	
+	/**
+	 * The resources by the value handed out, for release()
+	 */
+	private final Map<Object,Resource> values = new IdentityHashMap<Object,Resource>();
+	
+	
+	/**
+	 * Default constructor, for resources separate from the
+	 * default instance
+	 */
+	public SharedResources() {
+	}
+	
+	/**
+	 * Returns the instance used by generators that are not
+	 * given one.
+	 * 
+	 * @return the default instance
+	 */
+	public static SharedResources getDefault() {
+		return defaultInstance;
+	}
+	
+	/**
+	 * Returns the entries of a blacklist file, one per line up to the
+	 * first empty line, and adds a reference to them.
+	 * 
+	 * @param file
+	 * 			the location of the blacklist file
+	 * @return an unmodifiable list of the entries
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<String> acquireBlacklist(String file) {
+		return (List<String>) this.acquire(BLACKLIST, file);
+	}
+	
+	/**
+	 * Returns the user ids of a passwd file and adds a reference 
+	 * to them.
+	 * 
+	 * @param file
+	 * 			the location of the passwd file
+	 * @return an unmodifiable set of the user ids
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized Set<String> acquirePasswdIds(String file) {
+		return (Set<String>) this.acquire(PASSWD, file);
+	}
+	
+	/**
+	 * Returns the open issued-id store of a file and adds a reference
+	 * to it. The store is opened if no generator uses it yet.
+	 * 
+	 * @param file
+	 * 			the location of the store
+	 * @param journal
+	 * 			true for a reservation journal, false for an IssuedIdStore
+	 * @return the store
+	 * @throws IOException
+	 * 			if the store cannot be opened
+	 */
+	public synchronized IIdStore acquireIdStore(String file, boolean journal) throws IOException {
+		String key = (journal ? JOURNAL : ISSUED) + ":" + Paths.get(file).toAbsolutePath().normalize();
+		
+		Resource resource = this.resources.get(key);
+		if (resource == null) {
+			IIdStore store = journal ? new ReservationJournal(file) : new IssuedIdStore(file);
+			resource = new Resource(key, store);
+			this.resources.put(key, resource);
+			this.values.put(store, resource);
+			if (logger.isDebugEnabled()) {
+				logger.debug(Messages.getString("SharedResources.OPENED") + key);
+			}
+		}
+		
+		resource.references++;
+		return (IIdStore) resource.value;
+	}
+	
+	/**
+	 * Removes a reference to a resource returned by one of the 
+	 * acquire...() methods. The resource is dropped when the last 
+	 * reference is removed, a store is closed then.
+	 * 
+	 * @param value
+	 * 			the resource
+	 */
+	public synchronized void release(Object value) {
+		Resource resource = this.values.get(value);
+		if (resource == null) {
+			logger.warn(Messages.getString("SharedResources.UNKNOWN_RESOURCE") + value.getClass().getName());
+			return;
+		}
+		
+		resource.references--;
+		if (resource.references > 0) {
+			return;
+		}
+		
+		this.resources.remove(resource.key);
+		this.values.remove(value);
+		for (Iterator<FileEntry> iter = this.files.values().iterator(); iter.hasNext();) {
+			if (iter.next().resource == resource) {
+				iter.remove();
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug(Messages.getString("SharedResources.DROPPED") + resource.key);
+		}
+		
+		if (resource.value instanceof IIdStore) {
+			try {
+				((IIdStore) resource.value).close();
+			}
+			catch (IOException e) {
+				logger.warn(e.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of resources in memory.
+	 * 
+	 * @return the number of resources
+	 */
+	public synchronized int getNumResources() {
+		return this.resources.size();
+	}
+	
+	/**
+	 * Returns the number of references to a resource.
+	 * 
+	 * @param value
+	 * 			the resource
+	 * @return the number of references, 0 if the resource
+	 * 			has been dropped
+	 */
+	public synchronized int getReferences(Object value) {
+		Resource resource = this.values.get(value);
+		return (resource != null) ? resource.references : 0;
+	}
+	
+	/**
+	 * Does the work of the acquire...() methods: reads the file if it
+	 * has not been read or has changed since, looks the content up by
+	 * its hash and adds a reference to it.
+	 * 
+	 * @param kind
+	 * 			the kind of the resource
+	 * @param file
+	 * 			the location of the file
+	 * @return the resource
+	 */
+	private Object acquire(String kind, String file) {
+		long modified = new java.io.File(file).lastModified();
+		FileEntry entry = this.files.get(kind + ":" + file);
+		
+		Resource resource;
+		if (entry != null && entry.modified == modified) {
+			resource = entry.resource;
+		}
+		else {
+			List<String> lines = readLines(file);
+			String key = kind + ":" + hash(lines);
+			
+			resource = this.resources.get(key);
+			if (resource == null) {
+				Object value = (kind == BLACKLIST) ? toBlacklist(lines) : toPasswdIds(lines);
+				resource = new Resource(key, value);
+				this.resources.put(key, resource);
+				this.values.put(value, resource);
+				if (logger.isDebugEnabled()) {
+					logger.debug(Messages.getString("SharedResources.LOADED") + file + " (" + key + ")");
+				}
+			}
+			else if (logger.isDebugEnabled()) {
+				logger.debug(Messages.getString("SharedResources.SHARED") + file + " (" + key + ")");
+			}
+			this.files.put(kind + ":" + file, new FileEntry(modified, resource));
+		}
+		
+		resource.references++;
+		return resource.value;
+	}
+	
+	/**
+	 * Reads all lines of a file.
+	 * 
+	 * @param file
+	 * 			the location of the file
+	 * @return the lines
+	 */
+	private static List<String> readLines(String file) {
+		List<String> lines = new ArrayList<String>();
+		File reader = new File(file);
+		String line;
+		while ((line = reader.getLine()) != null) {
+			lines.add(line);
+		}
+		reader.close();
+		return lines;
+	}
+	
+	/**
+	 * Calculates the SHA-256 hash of the lines of a file.
+	 * 
+	 * @param lines
+	 * 			the lines
+	 * @return the hash as a hex string
+	 */
+	private static String hash(List<String> lines) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Iterator<String> iter = lines.iterator(); iter.hasNext();) {
+				digest.update(iter.next().getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			byte[] hash = digest.digest();
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < hash.length; i++) {
+				key.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+			return key.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every JVM has to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Converts the lines of a blacklist file into its entries.
+	 * 
+	 * @param lines
+	 * 			the lines of the file
+	 * @return an unmodifiable list of the entries
+	 */
+	private static List<String> toBlacklist(List<String> lines) {
+		List<String> blacklist = new ArrayList<String>();
+		for (Iterator<String> iter = lines.iterator(); iter.hasNext();) {
+			String line = iter.next();
+			// the list ends at the first empty line
+			if (line.isEmpty()) {
+				break;
+			}
+			blacklist.add(line);
+		}
+		return Collections.unmodifiableList(blacklist);
+	}
+	
+	/**
+	 * Converts the lines of a passwd file into its user ids.
+	 * 
+	 * @param lines
+	 * 			the lines of the file
+	 * @return an unmodifiable set of the user ids
+	 */
+	private static Set<String> toPasswdIds(List<String> lines) {
+		Set<String> ids = new HashSet<String>();
+		for (Iterator<String> iter = lines.iterator(); iter.hasNext();) {
+			String line = iter.next();
+			if (line.indexOf(':') > 0) {
+				ids.add(line.substring(0, line.indexOf(':')));
+			}
+		}
+		return Collections.unmodifiableSet(ids);
+	}
+	
+	
+	
+	/**
+	 * A loaded resource and the number of its users
+	 */
+	private static class Resource {
+		private final String key;
+		private final Object value;
+		private int references = 0;
+		
+		private Resource(String key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+	
+	/**
+	 * The resource read from a file and the modification time 
+	 * of the file when it was read
+	 */
+	private static class FileEntry {
+		private final long modified;
+		private final Resource resource;
+		
+		private FileEntry(long modified, Resource resource) {
+			this.modified = modified;
+			this.resource = resource;
+		}
+	}
+}
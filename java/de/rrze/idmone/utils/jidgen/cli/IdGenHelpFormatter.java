@@ -62,7 +62,7 @@ extends HelpFormatter
 		this.setNewLine(Globals.NEWLINE);
 		this.setLeftPadding(3);
 		this.setDescPadding(0);
-		this.setWidth(Globals.TERM_WIDTH);
+		this.setWidth(Globals.DEFAULT_TERM_WIDTH);
 	}
 
 	/**
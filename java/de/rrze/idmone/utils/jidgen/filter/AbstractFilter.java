@@ -58,6 +58,12 @@ public abstract class AbstractFilter
 	 */
 	private String description = Messages.getString(this.id.substring(this.id.lastIndexOf('.') + 1) + ".DESC");
 	
+	/**
+	 * How long a verdict of this filter may be cached.
+	 * Negative values leave the decision to the cache.
+	 */
+	private long stalenessTolerance = DEFAULT_STALENESS_TOLERANCE;
+	
 	
 	/**
 	 * Default contructor
@@ -115,6 +121,26 @@ public abstract class AbstractFilter
 		this.id = new_id;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.IFilter#getStalenessTolerance()
+	 */
+	public long getStalenessTolerance() {
+		return this.stalenessTolerance;
+	}
+
+	/**
+	 * Sets how long a verdict of this filter may be cached.
+	 * 
+	 * @param stalenessTolerance
+	 * 			the tolerance in milliseconds, 0 to disable caching or
+	 * 			a negative value to leave the decision to the cache
+	 */
+	public void setStalenessTolerance(long stalenessTolerance) {
+		this.stalenessTolerance = stalenessTolerance;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
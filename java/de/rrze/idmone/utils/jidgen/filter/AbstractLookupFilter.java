@@ -0,0 +1,191 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.rrze.idmone.utils.jidgen.AbortException;
+import de.rrze.idmone.utils.jidgen.Messages;
+
+
+/**
+ * Base class for filters that reject ids which already exist in some
+ * backend (database, directory, ...). Implementations only have to look
+ * up which ids of a batch exist, this class takes care of the filtering
+ * and of the verdict for ids that could not be checked.
+ * 
+ * @author unrza249
+ */
+public abstract class AbstractLookupFilter
+	extends AbstractFilter
+	implements IFilter
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(AbstractLookupFilter.class);
+	
+	/*
+	 * The messages logged for every candidate, looked up once
+	 */
+	private static final String MSG_ID = Messages.getString("AbstractLookupFilter.TRACE_ID");
+	private static final String MSG_SKIPPED_ENTRY = Messages.getString("AbstractLookupFilter.TRACE_SKIPPED_ENTRY");
+
+	/**
+	 * Verdict for ids that could not be checked
+	 */
+	private Verdict errorVerdict = Verdict.ABORT;
+
+
+	/**
+	 * Default constructor
+	 */
+	public AbstractLookupFilter() {
+	}
+
+	public AbstractLookupFilter(String id) {
+		super(id);
+	}
+
+	public AbstractLookupFilter(String id, String description) {
+		super(id, description);
+	}
+
+
+	/**
+	 * Looks up which of the given ids exist in the backend.
+	 * 
+	 * @param ids
+	 * 			the ids to look up
+	 * @return the existing ids
+	 * @throws Exception
+	 * 			if the backend could not be queried
+	 */
+	protected abstract Set<String> lookup(List<String> ids) throws Exception;
+
+	/**
+	 * Returns the maximum number of ids looked up at once. Callers
+	 * should pass at least this many ids per apply(List) to make use
+	 * of the batched lookups.
+	 * 
+	 * @return the batch size
+	 */
+	public abstract int getBatchSize();
+
+	/**
+	 * Normalizes an id before it is compared to the existing ones,
+	 * e.g. for backends that compare case-insensitively.
+	 * 
+	 * @param id
+	 * 			the id
+	 * @return the normalized id, by default the id itself
+	 */
+	protected String normalize(String id) {
+		return id;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.IFilter#apply(java.lang.String)
+	 */
+	public String apply(String id) {
+		List<String> suitable = this.apply(Collections.singletonList(id));
+		return suitable.isEmpty() ? null : id;
+	}
+
+	/**
+	 * Checks all ids with one lookup.
+	 * The order of the given list is preserved.
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.AbstractFilter#apply(java.util.List)
+	 */
+	public List<String> apply(List<String> ids) {
+		List<String> suitable = new ArrayList<String>();
+		if (ids.isEmpty()) {
+			return suitable;
+		}
+
+		Set<String> existing;
+		try {
+			existing = this.lookup(ids);
+		}
+		catch (Exception e) {
+			logger.error(Messages.getString("AbstractLookupFilter.ERROR") + this.getID() + ": " + e.toString());
+			switch (this.errorVerdict) {
+			case ACCEPT:
+				return new ArrayList<String>(ids);
+			case REJECT:
+				return suitable;
+			default:
+				logger.fatal(Messages.getString("AbstractLookupFilter.ABORT") + this.getID());
+				throw new AbortException(Messages.getString("AbstractLookupFilter.ABORT") + this.getID(), 125, e);
+			}
+		}
+
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			String id = iter.next();
+			if (existing.contains(this.normalize(id))) {
+				if (logger.isTraceEnabled()) {
+					logger.trace(MSG_ID 
+							+ " \"" + this.getID() + "\" "
+							+ MSG_SKIPPED_ENTRY 
+							+ " \"" + id 
+							+ "\"");
+				}
+			}
+			else {
+				suitable.add(id);
+			}
+		}
+		return suitable;
+	}
+
+	/**
+	 * Get the verdict for ids that could not be checked.
+	 * 
+	 * @return the error verdict
+	 */
+	public Verdict getErrorVerdict() {
+		return errorVerdict;
+	}
+
+	/**
+	 * Sets the verdict for ids that could not be checked.
+	 * 
+	 * @param errorVerdict
+	 * 			the new error verdict
+	 */
+	public void setErrorVerdict(Verdict errorVerdict) {
+		this.errorVerdict = errorVerdict;
+	}
+}
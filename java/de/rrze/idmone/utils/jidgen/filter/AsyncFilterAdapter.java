@@ -0,0 +1,173 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiConsumer;
+
+/**
+ * Makes a blocking filter asynchronous by running its checks
+ * on an executor. All other calls are passed to the wrapped filter,
+ * including its id, so the adapter can replace the filter in a chain.
+ * 
+ * @author unrza249
+ */
+public class AsyncFilterAdapter
+	implements IAsyncFilter
+{
+	/**
+	 * The wrapped filter
+	 */
+	private final IFilter filter;
+
+	/**
+	 * The executor running the checks
+	 */
+	private final ExecutorService executor;
+
+
+	/**
+	 * Constructor
+	 * 
+	 * @param filter
+	 * 			the filter to wrap
+	 * @param executor
+	 * 			the executor running the checks
+	 */
+	public AsyncFilterAdapter(IFilter filter, ExecutorService executor) {
+		this.filter = filter;
+		this.executor = executor;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.IAsyncFilter#applyAsync(java.lang.String)
+	 */
+	public CompletableFuture<String> applyAsync(final String id) {
+		return supply(this.executor, new Callable<String>() {
+			public String call() {
+				return filter.apply(id);
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on an executor and returns its result as a
+	 * CompletableFuture. Unlike CompletableFuture.supplyAsync, cancelling
+	 * the returned future interrupts the running task.
+	 * 
+	 * @param executor
+	 * 			the executor running the task
+	 * @param task
+	 * 			the task
+	 * @return the future result of the task
+	 */
+	static <T> CompletableFuture<T> supply(ExecutorService executor, final Callable<T> task) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final FutureTask<T> future = new FutureTask<T>(task) {
+			protected void done() {
+				if (this.isCancelled()) {
+					return;
+				}
+				try {
+					result.complete(this.get());
+				}
+				catch (Throwable e) {
+					result.completeExceptionally((e.getCause() != null) ? e.getCause() : e);
+				}
+			}
+		};
+		result.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T value, Throwable e) {
+				if (result.isCancelled()) {
+					future.cancel(true);
+				}
+			}
+		});
+		executor.execute(future);
+		return result;
+	}
+
+	/**
+	 * Get the wrapped filter
+	 * 
+	 * @return the wrapped filter
+	 */
+	public IFilter getFilter() {
+		return filter;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.IFilter#apply(java.lang.String)
+	 */
+	public String apply(String id) {
+		return this.filter.apply(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.IFilter#apply(java.util.List)
+	 */
+	public List<String> apply(List<String> ids) {
+		return this.filter.apply(ids);
+	}
+
+	public String getID() {
+		return this.filter.getID();
+	}
+
+	public void setID(String id) {
+		this.filter.setID(id);
+	}
+
+	public String getDescription() {
+		return this.filter.getDescription();
+	}
+
+	public void setDescription(String description) {
+		this.filter.setDescription(description);
+	}
+
+	public long getStalenessTolerance() {
+		return this.filter.getStalenessTolerance();
+	}
+
+	public void shutdown() {
+		this.filter.shutdown();
+	}
+
+	public String getType() {
+		return this.filter.getType();
+	}
+}
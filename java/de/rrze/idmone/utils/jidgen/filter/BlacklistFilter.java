@@ -51,6 +51,12 @@ public class BlacklistFilter
 	 *  The class logger
 	 */
 	private static final Log logger = LogFactory.getLog(BlacklistFilter.class);
+	
+	/*
+	 * The messages logged for every candidate, looked up once
+	 */
+	private static final String MSG_ID = Messages.getString("BlacklistFilter.TRACE_ID");
+	private static final String MSG_BLACKLIST_ENTRY = Messages.getString("BlacklistFilter.TRACE_BLACKLIST_ENTRY");
 
 	/**
 	 *  A list that stores the forbidden words
@@ -94,11 +100,13 @@ public class BlacklistFilter
 
 			// filter on match
 			if (id.contains(blackword)) {
-				logger.trace(Messages.getString("BlacklistFilter.TRACE_ID") 
-						+ " \"" + this.getID() + "\" "
-						+ Messages.getString("BlacklistFilter.TRACE_BLACKLIST_ENTRY") 
-						+ " \"" + blackword
-						+ "\"");
+				if (logger.isTraceEnabled()) {
+					logger.trace(MSG_ID 
+							+ " \"" + this.getID() + "\" "
+							+ MSG_BLACKLIST_ENTRY 
+							+ " \"" + blackword
+							+ "\"");
+				}
 		
 				return null;
 			}
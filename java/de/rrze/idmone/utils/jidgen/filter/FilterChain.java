@@ -26,9 +26,19 @@ package de.rrze.idmone.utils.jidgen.filter;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -57,6 +67,31 @@ public class FilterChain {
 	 */
 	private HashMap<String, IFilter> chain = new HashMap<String, IFilter>();
 	
+	/**
+	 * The verdict caches of the filters, by filter id
+	 */
+	private HashMap<String, VerdictCache> caches = new HashMap<String, VerdictCache>();
+	
+	/**
+	 * Maximum number of cached verdicts per filter, 0 disables the cache
+	 */
+	private int cacheSize = 0;
+	
+	/**
+	 * Time to live of a cached verdict in milliseconds
+	 */
+	private long cacheTTL = 0;
+	
+	/**
+	 * Whether the filters check one id concurrently
+	 */
+	private boolean parallel = false;
+	
+	/**
+	 * Runs the blocking filters of asynchronous checks, created on first use
+	 */
+	private ExecutorService executor;
+	
 	
 	/**
 	 * Default constructor
@@ -64,6 +99,18 @@ public class FilterChain {
 	public FilterChain() {
 	}
 	
+	/**
+	 * Constructor with verdict cache
+	 * 
+	 * @param cacheSize
+	 * 			maximum number of cached verdicts per filter, 0 disables the cache
+	 * @param cacheTTL
+	 * 			time to live of a cached verdict in milliseconds
+	 */
+	public FilterChain(int cacheSize, long cacheTTL) {
+		this.setCache(cacheSize, cacheTTL);
+	}
+	
 	
 	/**
 	 * Adds a filter to the chain
@@ -74,6 +121,7 @@ public class FilterChain {
 	 */
 	public IFilter addFilter(IFilter filter) {
 		chain.put(filter.getID(), filter);
+		caches.remove(filter.getID());
 		logger.trace(Messages.getString("FilterChain.FILTER_ADDED") + filter.getType() + " - " + filter.getDescription());
 		return filter;
 	}
@@ -87,7 +135,7 @@ public class FilterChain {
 	 * @return the removed instance
 	 */
 	public IFilter removeFilter(IFilter filter)	{
-		return chain.remove(filter.getID());
+		return this.removeFilter(filter.getID());
 	}
 
 	
@@ -99,8 +147,120 @@ public class FilterChain {
 	 * @return the removed instance
 	 */
 	public IFilter removeFilter(String id) {
+		caches.remove(id);
 		return chain.remove(id);
 	}
+	
+	
+	/**
+	 * Configures the verdict cache. Existing cached verdicts are dropped.<br />
+	 * The time to live of the verdicts of a filter is further limited by its
+	 * staleness tolerance.
+	 * 
+	 * @param cacheSize
+	 * 			maximum number of cached verdicts per filter, 0 disables the cache
+	 * @param cacheTTL
+	 * 			time to live of a cached verdict in milliseconds
+	 */
+	public void setCache(int cacheSize, long cacheTTL) {
+		this.cacheSize = cacheSize;
+		this.cacheTTL = cacheTTL;
+		this.caches.clear();
+	}
+	
+	
+	/**
+	 * Enables or disables the parallel mode. In parallel mode all filters
+	 * check an id at the same time and the first rejection cancels the
+	 * others, so the latency of one check is that of the slowest filter
+	 * instead of the sum of all filters.
+	 * 
+	 * @param parallel
+	 * 			true to check ids with all filters concurrently
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	
+	/**
+	 * @return true if the filters check one id concurrently
+	 */
+	public boolean isParallel() {
+		return this.parallel;
+	}
+	
+	
+	/**
+	 * Stops the threads used by asynchronous checks. They are recreated
+	 * on the next use.
+	 */
+	public synchronized void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdown();
+			this.executor = null;
+		}
+	}
+	
+	
+	/**
+	 * Returns the executor for blocking filters and creates it
+	 * if needed.
+	 * 
+	 * @return the executor
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (this.executor == null) {
+			this.executor = Executors.newCachedThreadPool(new ShellCmdFilter.DaemonThreadFactory("jidgen-filter"));
+		}
+		return this.executor;
+	}
+	
+	
+	/**
+	 * Returns the verdict cache for a filter and creates it if needed.
+	 * 
+	 * @param filter
+	 * 			the filter
+	 * @return the verdict cache or <em>null</em> if the verdicts of this
+	 * 			filter are not cached
+	 */
+	private VerdictCache getCache(IFilter filter) {
+		if (this.cacheSize <= 0) {
+			return null;
+		}
+		
+		VerdictCache cache = this.caches.get(filter.getID());
+		if (cache == null) {
+			long ttl = this.cacheTTL;
+			if (filter.getStalenessTolerance() >= 0) {
+				ttl = Math.min(ttl, filter.getStalenessTolerance());
+			}
+			if (ttl <= 0) {
+				return null;
+			}
+			
+			cache = new VerdictCache(this.cacheSize, ttl);
+			this.caches.put(filter.getID(), cache);
+		}
+		return cache;
+	}
+	
+	
+	/**
+	 * Returns the verdict cache statistics of all filters, one line per
+	 * filter.
+	 * 
+	 * @return the statistics string
+	 */
+	public String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+		for (Iterator<String> iter = caches.keySet().iterator(); iter.hasNext();) {
+			String id = iter.next();
+			sb.append(id).append(": ").append(caches.get(id)).append(Messages.getString("IdGenerator.NEW_LINE"));
+		}
+		return sb.toString();
+	}
 
 	
 	/**
@@ -113,36 +273,392 @@ public class FilterChain {
 	 *         id if it satisfies the rules.
 	 */
 	public String apply(String id) {
+		if (this.parallel) {
+			return this.applyAsync(id).join();
+		}
+		
 		Set<String> filterKeys = chain.keySet();
 	
 		for (Iterator<String> iter = filterKeys.iterator(); iter.hasNext();) {
 			IFilter filter = chain.get(iter.next());
-			
-			if (filter.apply(id) == null)
+			if (!this.check(filter, this.getCache(filter), id))
 				return null;
 		}
 		return id;
 	}
 	
 	
+	/**
+	 * Checks one id with one filter, using the verdict cache if
+	 * there is one.
+	 * 
+	 * @param filter
+	 * 			the filter to apply
+	 * @param cache
+	 * 			the verdict cache of the filter or <em>null</em>
+	 * @param id
+	 * 			the id to be checked
+	 * @return true if the id passed the filter
+	 */
+	private boolean check(IFilter filter, VerdictCache cache, String id) {
+		if (cache == null) {
+			return (filter.apply(id) != null);
+		}
+		
+		long now = System.currentTimeMillis();
+		Boolean verdict = cache.get(id, now);
+		if (verdict == null) {
+			verdict = (filter.apply(id) != null);
+			cache.put(id, verdict, now);
+		}
+		return verdict;
+	}
+	
+	
+	/**
+	 * Checks one id without blocking the caller.<br />
+	 * The filters are applied one after another and the first rejection
+	 * completes the result. Filters that do not implement IAsyncFilter are
+	 * wrapped in an AsyncFilterAdapter and run on the executor of the chain,
+	 * so blocking lookups never run on the calling thread.
+	 * Cancelling the result cancels the running check.<br />
+	 * In parallel mode all filters are started at once instead.
+	 * 
+	 * @param id
+	 *            the id to be checked
+	 * @return a future completing with <em>null</em> if the id should be
+	 *         filtered and the id if it satisfies the rules.
+	 */
+	public CompletableFuture<String> applyAsync(String id) {
+		if (this.parallel) {
+			return this.applyParallel(id);
+		}
+		
+		List<IAsyncFilter> pending = new ArrayList<IAsyncFilter>();
+		List<VerdictCache> pendingCaches = new ArrayList<VerdictCache>();
+		
+		Set<String> filterKeys = chain.keySet();
+		for (Iterator<String> iter = filterKeys.iterator(); iter.hasNext();) {
+			IFilter filter = chain.get(iter.next());
+			pending.add(this.toAsync(filter));
+			pendingCaches.add(this.getCache(filter));
+		}
+		
+		return new AsyncCheck(id, pending, pendingCaches).start();
+	}
+	
+	
+	/**
+	 * Returns an asynchronous view of a filter. Filters that do not
+	 * implement IAsyncFilter are run on the executor of the chain.
+	 * 
+	 * @param filter
+	 * 			the filter
+	 * @return the filter itself or an adapter
+	 */
+	private IAsyncFilter toAsync(IFilter filter) {
+		if (filter instanceof IAsyncFilter) {
+			return (IAsyncFilter)filter;
+		}
+		return new AsyncFilterAdapter(filter, this.getExecutor());
+	}
+	
+	
+	/**
+	 * Checks one id with all filters concurrently. Filters that do not
+	 * implement IAsyncFilter run on the executor of the chain. The first
+	 * rejection or failure completes the result and cancels all checks
+	 * that are still running, as does cancelling the result. No check
+	 * outlives the result.
+	 * 
+	 * @param id
+	 *            the id to be checked
+	 * @return a future completing with <em>null</em> if the id should be
+	 *         filtered and the id if it satisfies the rules.
+	 */
+	private CompletableFuture<String> applyParallel(final String id) {
+		final long now = System.currentTimeMillis();
+		
+		// cached verdicts first, they need no subtask
+		List<IFilter> filters = new ArrayList<IFilter>();
+		List<VerdictCache> filterCaches = new ArrayList<VerdictCache>();
+		Set<String> filterKeys = chain.keySet();
+		for (Iterator<String> iter = filterKeys.iterator(); iter.hasNext();) {
+			IFilter filter = chain.get(iter.next());
+			VerdictCache cache = this.getCache(filter);
+			Boolean verdict = (cache != null) ? cache.get(id, now) : null;
+			if (verdict == null) {
+				filters.add(filter);
+				filterCaches.add(cache);
+			}
+			else if (!verdict) {
+				return CompletableFuture.completedFuture(null);
+			}
+		}
+		if (filters.isEmpty()) {
+			return CompletableFuture.completedFuture(id);
+		}
+		
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		final AtomicInteger remaining = new AtomicInteger(filters.size());
+		final List<CompletableFuture<String>> checks = new ArrayList<CompletableFuture<String>>(filters.size());
+		
+		Iterator<VerdictCache> cacheIter = filterCaches.iterator();
+		for (Iterator<IFilter> iter = filters.iterator(); iter.hasNext() && !result.isDone();) {
+			final IFilter filter = iter.next();
+			final VerdictCache cache = cacheIter.next();
+			
+			CompletableFuture<String> check;
+			if (filter instanceof IAsyncFilter) {
+				check = ((IAsyncFilter)filter).applyAsync(id);
+			}
+			else {
+				check = AsyncFilterAdapter.supply(this.getExecutor(), new Callable<String>() {
+					public String call() {
+						return filter.apply(id);
+					}
+				});
+			}
+			checks.add(check);
+			
+			check.whenComplete(new BiConsumer<String, Throwable>() {
+				public void accept(String value, Throwable e) {
+					if (e != null) {
+						result.completeExceptionally(e);
+						return;
+					}
+					if (cache != null) {
+						cache.put(id, value != null, now);
+					}
+					if (value == null) {
+						result.complete(null);
+					}
+					else if (remaining.decrementAndGet() == 0) {
+						result.complete(id);
+					}
+				}
+			});
+		}
+		
+		// the first verdict ends the scope, cancel the rest
+		result.whenComplete(new BiConsumer<String, Throwable>() {
+			public void accept(String value, Throwable e) {
+				for (Iterator<CompletableFuture<String>> iter = checks.iterator(); iter.hasNext();) {
+					iter.next().cancel(true);
+				}
+			}
+		});
+		return result;
+	}
+	
+	
+	/**
+	 * Checks a whole list of ids without blocking the caller. The order
+	 * of the ids is preserved.<br />
+	 * Like apply(List), the whole list is passed through one filter after
+	 * another, so filters can still process the ids in batches. Filters
+	 * that do not implement IAsyncFilter get the list on the executor of
+	 * the chain, asynchronous filters check the ids concurrently.
+	 * In parallel mode all filters get the list at once and an id is
+	 * suitable if every filter accepted it.<br />
+	 * Cancelling the result cancels all running checks.
+	 * 
+	 * @param ids
+	 *            a list of ids to be checked
+	 * @return a future completing with the list of suitable ids
+	 */
+	public CompletableFuture<List<String>> applyAsync(List<String> ids) {
+		List<IFilter> filters = new ArrayList<IFilter>();
+		List<VerdictCache> filterCaches = new ArrayList<VerdictCache>();
+		Set<String> filterKeys = chain.keySet();
+		for (Iterator<String> iter = filterKeys.iterator(); iter.hasNext();) {
+			IFilter filter = chain.get(iter.next());
+			filters.add(filter);
+			filterCaches.add(this.getCache(filter));
+		}
+		
+		if (this.parallel) {
+			return this.applyParallel(new ArrayList<String>(ids), filters, filterCaches);
+		}
+		return new BatchCheck(new ArrayList<String>(ids), filters, filterCaches).start();
+	}
+	
+	
+	/**
+	 * Passes a list of ids through all filters at once. An id is
+	 * suitable if every filter accepted it. A rejection cancels the
+	 * other checks of the rejected id, and once all ids are rejected
+	 * the result completes and cancels the remaining checks. The first
+	 * failure completes the result as well, as does cancelling it.
+	 * 
+	 * @param ids
+	 * 			the ids to be checked
+	 * @param filters
+	 * 			the filters to apply
+	 * @param filterCaches
+	 * 			the verdict caches of the filters, <em>null</em> entries
+	 * 			for filters without cache
+	 * @return a future completing with the list of suitable ids
+	 */
+	private CompletableFuture<List<String>> applyParallel(final List<String> ids, List<IFilter> filters, List<VerdictCache> filterCaches) {
+		if (ids.isEmpty() || filters.isEmpty()) {
+			return CompletableFuture.completedFuture(ids);
+		}
+		return new ParallelBatchCheck(ids, filters, filterCaches).start();
+	}
+	
+	
+	/**
+	 * Applies one filter to a list of ids without blocking the caller.
+	 * Asynchronous filters check the ids whose verdict is not cached
+	 * concurrently, the others get the whole list in one call on the
+	 * executor of the chain.
+	 * 
+	 * @param filter
+	 * 			the filter to apply
+	 * @param cache
+	 * 			the verdict cache of the filter or <em>null</em>
+	 * @param ids
+	 * 			the ids to be checked
+	 * @return a future completing with the list of suitable ids
+	 */
+	private CompletableFuture<List<String>> applyAsync(final IFilter filter, final VerdictCache cache, final List<String> ids) {
+		if (!(filter instanceof IAsyncFilter)) {
+			return AsyncFilterAdapter.supply(this.getExecutor(), new Callable<List<String>>() {
+				public List<String> call() {
+					return (cache == null) ? filter.apply(ids) : apply(filter, cache, ids);
+				}
+			});
+		}
+		
+		final long now = System.currentTimeMillis();
+		final List<CompletableFuture<String>> checks = new ArrayList<CompletableFuture<String>>(ids.size());
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			final String id = iter.next();
+			Boolean verdict = (cache != null) ? cache.get(id, now) : null;
+			if (verdict != null) {
+				checks.add(CompletableFuture.completedFuture(verdict ? id : null));
+				continue;
+			}
+			
+			CompletableFuture<String> check = ((IAsyncFilter)filter).applyAsync(id);
+			if (cache != null) {
+				check.whenComplete(new BiConsumer<String, Throwable>() {
+					public void accept(String value, Throwable e) {
+						if (e == null) {
+							cache.put(id, value != null, now);
+						}
+					}
+				});
+			}
+			checks.add(check);
+		}
+		
+		final CompletableFuture<List<String>> result = CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[checks.size()])).thenApply(
+			new Function<Void, List<String>>() {
+				public List<String> apply(Void done) {
+					List<String> suitable = new ArrayList<String>();
+					for (Iterator<CompletableFuture<String>> iter = checks.iterator(); iter.hasNext();) {
+						String id = iter.next().join();
+						if (id != null) {
+							suitable.add(id);
+						}
+					}
+					return suitable;
+				}
+			});
+		
+		result.whenComplete(new BiConsumer<List<String>, Throwable>() {
+			public void accept(List<String> suitable, Throwable e) {
+				if (result.isCancelled()) {
+					for (Iterator<CompletableFuture<String>> iter = checks.iterator(); iter.hasNext();) {
+						iter.next().cancel(true);
+					}
+				}
+			}
+		});
+		return result;
+	}
+	
+	
 	/**
 	 * This method checks a whole list of ids. It should return a list of
 	 * suitable ids or an empty list if none of the ids fits the
-	 * rules.
+	 * rules. The order of the ids is preserved.
 	 * 
 	 * @param ids
 	 *            a list of ids to be checked
 	 * @return the list with filtered ids
 	 */
 	public List<String> apply(List<String> ids) {
-		List<String> suitable = new ArrayList<String>();
+		if (this.parallel) {
+			return this.applyAsync(ids).join();
+		}
 		
-		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
-			String element = iter.next();
+		List<String> suitable = new ArrayList<String>(ids);
+		
+		// pass the whole list through every filter, so that
+		// filters can process the ids in batches (e.g. concurrently)
+		Set<String> filterKeys = chain.keySet();
+		for (Iterator<String> iter = filterKeys.iterator(); iter.hasNext() && !suitable.isEmpty();) {
+			IFilter filter = chain.get(iter.next());
+			VerdictCache cache = this.getCache(filter);
 			
-			// add to suitable array if not filtered
-			if (apply(element) != null)
-				suitable.add(element);
+			if (cache == null) {
+				suitable = filter.apply(suitable);
+			}
+			else {
+				suitable = this.apply(filter, cache, suitable);
+			}
+		}
+		return suitable;
+	}
+	
+	
+	/**
+	 * Applies one filter to a list of ids and only passes on
+	 * those ids whose verdict is not cached.
+	 * 
+	 * @param filter
+	 * 			the filter to apply
+	 * @param cache
+	 * 			the verdict cache of the filter
+	 * @param ids
+	 * 			the ids to be checked
+	 * @return the list with filtered ids
+	 */
+	private List<String> apply(IFilter filter, VerdictCache cache, List<String> ids) {
+		long now = System.currentTimeMillis();
+		
+		// look up the known verdicts
+		Boolean[] verdicts = new Boolean[ids.size()];
+		List<String> unknown = new ArrayList<String>();
+		int i = 0;
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext(); i++) {
+			String id = iter.next();
+			verdicts[i] = cache.get(id, now);
+			if (verdicts[i] == null) {
+				unknown.add(id);
+			}
+		}
+		
+		// check the rest and remember the verdicts
+		Set<String> passed = new HashSet<String>();
+		if (!unknown.isEmpty()) {
+			passed.addAll(filter.apply(unknown));
+			for (Iterator<String> iter = unknown.iterator(); iter.hasNext();) {
+				String id = iter.next();
+				cache.put(id, passed.contains(id), now);
+			}
+		}
+		
+		List<String> suitable = new ArrayList<String>();
+		i = 0;
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext(); i++) {
+			String id = iter.next();
+			if ((verdicts[i] == null) ? passed.contains(id) : verdicts[i]) {
+				suitable.add(id);
+			}
 		}
 		return suitable;
 	}
@@ -152,6 +668,419 @@ public class FilterChain {
 	 */
 	public void clear() {
 		this.chain.clear();
+		this.caches.clear();
+	}
+	
+	/**
+	 * Shuts down all filters of the chain and the threads of the
+	 * chain itself and clears the chain. The chain can be filled
+	 * and used again afterwards.
+	 */
+	public void close() {
+		for (Iterator<IFilter> iter = this.chain.values().iterator(); iter.hasNext();) {
+			iter.next().shutdown();
+		}
+		this.clear();
+		this.shutdown();
+	}
+	
+
+	/**
+	 * One id passing through the asynchronous filters. The next
+	 * filter is only started once the previous one accepted the id,
+	 * so a rejection short-circuits the remaining filters.
+	 */
+	private static class AsyncCheck
+		implements BiConsumer<String, Throwable>
+	{
+		private final String id;
+		private final Iterator<IAsyncFilter> filters;
+		private final Iterator<VerdictCache> caches;
+		private final CompletableFuture<String> result = new CompletableFuture<String>();
+		
+		/**
+		 * The check that is currently running
+		 */
+		private volatile CompletableFuture<String> current;
+		
+		AsyncCheck(String id, List<IAsyncFilter> filters, List<VerdictCache> caches) {
+			this.id = id;
+			this.filters = filters.iterator();
+			this.caches = caches.iterator();
+		}
+		
+		CompletableFuture<String> start() {
+			this.result.whenComplete(new BiConsumer<String, Throwable>() {
+				public void accept(String value, Throwable e) {
+					CompletableFuture<String> running = current;
+					if (result.isCancelled() && running != null) {
+						running.cancel(true);
+					}
+				}
+			});
+			this.next();
+			return this.result;
+		}
+		
+		/**
+		 * Starts the next filter or completes the result
+		 * if all filters accepted the id.
+		 */
+		private void next() {
+			while (!this.result.isDone()) {
+				if (!this.filters.hasNext()) {
+					this.result.complete(this.id);
+					return;
+				}
+				
+				final IAsyncFilter filter = this.filters.next();
+				final VerdictCache cache = this.caches.next();
+				final long now = System.currentTimeMillis();
+				
+				Boolean verdict = (cache != null) ? cache.get(this.id, now) : null;
+				if (verdict == null) {
+					CompletableFuture<String> check = filter.applyAsync(this.id);
+					this.current = check;
+					if (this.result.isCancelled()) {
+						check.cancel(true);
+						return;
+					}
+					if (cache != null) {
+						check.whenComplete(new BiConsumer<String, Throwable>() {
+							public void accept(String value, Throwable e) {
+								if (e == null) {
+									cache.put(id, value != null, now);
+								}
+							}
+						});
+					}
+					check.whenComplete(this);
+					return;
+				}
+				
+				if (!verdict) {
+					this.result.complete(null);
+				}
+			}
+		}
+		
+		/**
+		 * Called when the current filter is done.
+		 * 
+		 * @see java.util.function.BiConsumer#accept(java.lang.Object, java.lang.Object)
+		 */
+		public void accept(String value, Throwable e) {
+			if (e != null) {
+				this.result.completeExceptionally(e);
+			}
+			else if (value == null) {
+				this.result.complete(null);
+			}
+			else {
+				this.next();
+			}
+		}
+	}
+	
+	
+	/**
+	 * A list of ids passing through all filters at once. Asynchronous
+	 * filters check every id on its own, the others get the whole list
+	 * on the executor of the chain. An id rejected by one filter is not
+	 * checked any further by the others.
+	 */
+	private class ParallelBatchCheck
+	{
+		private final List<String> ids;
+		private final List<IFilter> filters;
+		private final List<VerdictCache> caches;
+		private final CompletableFuture<List<String>> result = new CompletableFuture<List<String>>();
+		
+		/**
+		 * The number of different ids
+		 */
+		private final int numIds;
+		
+		/**
+		 * The ids a filter rejected
+		 */
+		private final Set<String> rejected = ConcurrentHashMap.newKeySet();
+		
+		/**
+		 * All checks that were started, guarded by this
+		 */
+		private final List<CompletableFuture<?>> checks = new ArrayList<CompletableFuture<?>>();
+		
+		/**
+		 * The checks of the asynchronous filters by id, guarded by this
+		 */
+		private final Map<String, List<CompletableFuture<?>>> checksById = new HashMap<String, List<CompletableFuture<?>>>();
+		
+		/**
+		 * The number of checks that are not done yet, plus one
+		 * until all checks are started
+		 */
+		private final AtomicInteger remaining = new AtomicInteger(1);
+		
+		ParallelBatchCheck(List<String> ids, List<IFilter> filters, List<VerdictCache> caches) {
+			this.ids = ids;
+			this.filters = filters;
+			this.caches = caches;
+			this.numIds = new HashSet<String>(ids).size();
+		}
+		
+		CompletableFuture<List<String>> start() {
+			// the verdict ends the scope, cancel the rest
+			this.result.whenComplete(new BiConsumer<List<String>, Throwable>() {
+				public void accept(List<String> value, Throwable e) {
+					List<CompletableFuture<?>> running;
+					synchronized (ParallelBatchCheck.this) {
+						running = new ArrayList<CompletableFuture<?>>(checks);
+					}
+					for (Iterator<CompletableFuture<?>> iter = running.iterator(); iter.hasNext();) {
+						iter.next().cancel(true);
+					}
+				}
+			});
+			
+			// cached rejections first, those ids need no check at all
+			final long now = System.currentTimeMillis();
+			for (Iterator<VerdictCache> iter = this.caches.iterator(); iter.hasNext();) {
+				VerdictCache cache = iter.next();
+				if (cache != null) {
+					for (Iterator<String> idIter = this.ids.iterator(); idIter.hasNext();) {
+						String id = idIter.next();
+						if (Boolean.FALSE.equals(cache.get(id, now))) {
+							this.reject(id);
+						}
+					}
+				}
+			}
+			
+			final List<String> open = new ArrayList<String>();
+			for (Iterator<String> iter = this.ids.iterator(); iter.hasNext();) {
+				String id = iter.next();
+				if (!this.rejected.contains(id) && !open.contains(id)) {
+					open.add(id);
+				}
+			}
+			
+			Iterator<VerdictCache> cacheIter = this.caches.iterator();
+			for (Iterator<IFilter> iter = this.filters.iterator(); iter.hasNext() && !this.result.isDone();) {
+				IFilter filter = iter.next();
+				final VerdictCache cache = cacheIter.next();
+				
+				if (!(filter instanceof IAsyncFilter)) {
+					CompletableFuture<List<String>> check = applyAsync(filter, cache, open);
+					this.register(null, check);
+					check.whenComplete(new BiConsumer<List<String>, Throwable>() {
+						public void accept(List<String> value, Throwable e) {
+							if (e != null) {
+								result.completeExceptionally(e);
+								return;
+							}
+							Set<String> passed = new HashSet<String>(value);
+							for (Iterator<String> idIter = open.iterator(); idIter.hasNext();) {
+								String id = idIter.next();
+								if (!passed.contains(id)) {
+									reject(id);
+								}
+							}
+							done();
+						}
+					});
+					continue;
+				}
+				
+				for (Iterator<String> idIter = open.iterator(); idIter.hasNext() && !this.result.isDone();) {
+					final String id = idIter.next();
+					if (this.rejected.contains(id) || (cache != null && cache.get(id, now) != null)) {
+						continue;
+					}
+					
+					CompletableFuture<String> check = ((IAsyncFilter)filter).applyAsync(id);
+					this.register(id, check);
+					check.whenComplete(new BiConsumer<String, Throwable>() {
+						public void accept(String value, Throwable e) {
+							if (e != null) {
+								// cancelled because another filter rejected the id
+								if (rejected.contains(id)) {
+									done();
+								}
+								else {
+									result.completeExceptionally(e);
+								}
+								return;
+							}
+							if (cache != null) {
+								cache.put(id, value != null, now);
+							}
+							if (value == null) {
+								reject(id);
+							}
+							done();
+						}
+					});
+				}
+			}
+			
+			this.done();
+			return this.result;
+		}
+		
+		/**
+		 * Remembers a check so that it can be cancelled, and cancels it
+		 * right away if it is not needed anymore.
+		 * 
+		 * @param id
+		 * 			the id of a check of an asynchronous filter, null
+		 * 			for the check of a whole list
+		 * @param check
+		 * 			the check
+		 */
+		private void register(String id, CompletableFuture<?> check) {
+			this.remaining.incrementAndGet();
+			synchronized (this) {
+				this.checks.add(check);
+				if (id != null) {
+					List<CompletableFuture<?>> checksOfId = this.checksById.get(id);
+					if (checksOfId == null) {
+						checksOfId = new ArrayList<CompletableFuture<?>>();
+						this.checksById.put(id, checksOfId);
+					}
+					checksOfId.add(check);
+				}
+			}
+			if (this.result.isDone() || (id != null && this.rejected.contains(id))) {
+				check.cancel(true);
+			}
+		}
+		
+		/**
+		 * Marks an id as rejected and cancels its other checks. Once
+		 * all ids are rejected, the result completes.
+		 * 
+		 * @param id
+		 * 			the rejected id
+		 */
+		private void reject(String id) {
+			if (!this.rejected.add(id)) {
+				return;
+			}
+			
+			List<CompletableFuture<?>> others = null;
+			synchronized (this) {
+				if (this.checksById.containsKey(id)) {
+					others = new ArrayList<CompletableFuture<?>>(this.checksById.get(id));
+				}
+			}
+			if (others != null) {
+				for (Iterator<CompletableFuture<?>> iter = others.iterator(); iter.hasNext();) {
+					iter.next().cancel(true);
+				}
+			}
+			
+			if (this.rejected.size() == this.numIds) {
+				this.result.complete(new ArrayList<String>());
+			}
+		}
+		
+		/**
+		 * Counts a finished check and completes the result
+		 * with the suitable ids after the last one.
+		 */
+		private void done() {
+			if (this.remaining.decrementAndGet() == 0) {
+				List<String> suitable = new ArrayList<String>();
+				for (Iterator<String> iter = this.ids.iterator(); iter.hasNext();) {
+					String id = iter.next();
+					if (!this.rejected.contains(id)) {
+						suitable.add(id);
+					}
+				}
+				this.result.complete(suitable);
+			}
+		}
+	}
+	
+	
+	/**
+	 * A list of ids passing through the filters. The next filter is
+	 * only started once the previous one is done and only gets the ids
+	 * the previous one accepted.
+	 */
+	private class BatchCheck
+		implements BiConsumer<List<String>, Throwable>
+	{
+		private final Iterator<IFilter> filters;
+		private final Iterator<VerdictCache> caches;
+		private final CompletableFuture<List<String>> result = new CompletableFuture<List<String>>();
+		
+		/**
+		 * The ids that passed all filters so far
+		 */
+		private List<String> suitable;
+		
+		/**
+		 * The check that is currently running
+		 */
+		private volatile CompletableFuture<List<String>> current;
+		
+		BatchCheck(List<String> ids, List<IFilter> filters, List<VerdictCache> caches) {
+			this.suitable = ids;
+			this.filters = filters.iterator();
+			this.caches = caches.iterator();
+		}
+		
+		CompletableFuture<List<String>> start() {
+			this.result.whenComplete(new BiConsumer<List<String>, Throwable>() {
+				public void accept(List<String> value, Throwable e) {
+					CompletableFuture<List<String>> running = current;
+					if (result.isCancelled() && running != null) {
+						running.cancel(true);
+					}
+				}
+			});
+			this.next();
+			return this.result;
+		}
+		
+		/**
+		 * Starts the next filter or completes the result
+		 * if there are no filters or ids left.
+		 */
+		private void next() {
+			if (this.result.isDone()) {
+				return;
+			}
+			if (!this.filters.hasNext() || this.suitable.isEmpty()) {
+				this.result.complete(this.suitable);
+				return;
+			}
+			
+			CompletableFuture<List<String>> check = applyAsync(this.filters.next(), this.caches.next(), this.suitable);
+			this.current = check;
+			if (this.result.isCancelled()) {
+				check.cancel(true);
+				return;
+			}
+			check.whenComplete(this);
+		}
+		
+		/**
+		 * Called when the current filter is done.
+		 * 
+		 * @see java.util.function.BiConsumer#accept(java.lang.Object, java.lang.Object)
+		 */
+		public void accept(List<String> value, Throwable e) {
+			if (e != null) {
+				this.result.completeExceptionally(e);
+			}
+			else {
+				this.suitable = value;
+				this.next();
+			}
+		}
 	}
 	
 }
@@ -0,0 +1,51 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for filters that check ids without blocking the caller,
+ * e.g. filters that talk to a network backend. The FilterChain composes
+ * the returned futures, so many checks can be outstanding at once.<br />
+ * Filters that only implement IFilter can be made asynchronous with
+ * the AsyncFilterAdapter.
+ * 
+ * @author unrza249
+ */
+public interface IAsyncFilter extends IFilter {
+
+	/**
+	 * Starts the check of one id.<br />
+	 * Cancelling the returned future should stop the check if it
+	 * is still running.
+	 * 
+	 * @param id
+	 *            the id to be checked
+	 * @return a future completing with <em>null</em> if the id should
+	 *         be filtered and the id if it satisfies the rules.
+	 */
+	public abstract CompletableFuture<String> applyAsync(String id);
+}
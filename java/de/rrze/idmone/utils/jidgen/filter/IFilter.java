@@ -90,6 +90,39 @@ public interface IFilter {
 	public abstract List<String> apply(List<String> ids);
 	
 	
+	/**
+	 * The staleness tolerance of filters that do not impose a limit
+	 * of their own, their verdicts are cached as long as the filter
+	 * chain's default allows.
+	 */
+	public static final long DEFAULT_STALENESS_TOLERANCE = -1;
+	
+	
+	/**
+	 * Returns how long a verdict of this filter may be reused
+	 * before the id has to be checked again, e.g. because the
+	 * backend of the filter changes over time.<br />
+	 * By default the filter does not impose a limit of its own.
+	 * 
+	 * @return the staleness tolerance in milliseconds, 0 if verdicts
+	 * 			must never be reused or a negative value if the filter
+	 * 			does not impose a limit of its own
+	 */
+	public default long getStalenessTolerance() {
+		return DEFAULT_STALENESS_TOLERANCE;
+	}
+	
+	
+	/**
+	 * Releases the connections, processes and threads held by the
+	 * filter. The filter stays usable, they are recreated on the
+	 * next use.<br />
+	 * By default the filter holds nothing that needs to be released.
+	 */
+	public default void shutdown() {
+	}
+	
+	
 	/**
 	 * Returns the filter type (simple class name)
 	 * 
@@ -0,0 +1,124 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.rrze.idmone.utils.jidgen.Messages;
+import de.rrze.idmone.utils.jidgen.store.IIdStore;
+
+
+/**
+ * A filter for ids that have already been handed out
+ * and are recorded in an id store.<br />
+ * Its verdicts are never cached, as the store grows while 
+ * the generator is running.
+ * 
+ * @author unrza249
+ */
+public class IdStoreFilter
+	extends AbstractFilter
+	implements IFilter
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(IdStoreFilter.class);
+	
+	/*
+	 * The messages logged for every candidate, looked up once
+	 */
+	private static final String MSG_SKIPPED_ENTRY = Messages.getString("IdStoreFilter.TRACE_SKIPPED_ENTRY");
+
+	/**
+	 * The store of the issued ids
+	 */
+	private IIdStore store;
+
+
+	/**
+	 * Default constructor
+	 */
+	public IdStoreFilter() {
+		this.setStalenessTolerance(0);
+	}
+
+	public IdStoreFilter(String id) {
+		super(id);
+		this.setStalenessTolerance(0);
+	}
+
+	public IdStoreFilter(String id, String description) {
+		super(id, description);
+		this.setStalenessTolerance(0);
+	}
+
+	/**
+	 * Constructor with store
+	 * 
+	 * @param store
+	 * 			the store of the issued ids
+	 */
+	public IdStoreFilter(IIdStore store) {
+		this();
+		this.store = store;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.IFilter#apply(java.lang.String)
+	 */
+	public String apply(String id) {
+		if (this.store.contains(id)) {
+			if (logger.isTraceEnabled()) {
+				logger.trace(MSG_SKIPPED_ENTRY + " \"" + id + "\"");
+			}
+			return null;
+		}
+		return id;
+	}
+
+	/**
+	 * Get the store of the issued ids
+	 * 
+	 * @return the store
+	 */
+	public IIdStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Sets the store of the issued ids
+	 * 
+	 * @param store
+	 * 			the store
+	 */
+	public void setStore(IIdStore store) {
+		this.store = store;
+	}
+}
@@ -0,0 +1,420 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * A filter for ids that already exist in a relational database.<br />
+ * Lists of ids are checked in batches with one
+ * <tt>SELECT ... WHERE column IN (?, ?, ...)</tt> query per batch.
+ * Connections are pooled and every pooled connection keeps its
+ * prepared statements. To keep the number of distinct statements
+ * small, the parameter list is padded to the next power of two.
+ * 
+ * @author unrza249
+ */
+public class JdbcFilter
+	extends AbstractLookupFilter
+	implements IFilter
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(JdbcFilter.class);
+
+	/**
+	 * Placeholder for the parameter list in the query
+	 */
+	public static final String PARAMETERS = "%s";
+
+	/**
+	 * The JDBC url of the database
+	 */
+	private String url;
+
+	/**
+	 * The database user
+	 */
+	private String user;
+
+	/**
+	 * The database password
+	 */
+	private String password;
+
+	/**
+	 * The lookup query. It must contain the parameter placeholder
+	 * inside an IN clause and return the existing ids in the first column.
+	 */
+	private String query;
+
+	/**
+	 * The maximum number of ids per query
+	 */
+	private int batchSize = 100;
+
+	/**
+	 * The maximum number of pooled connections
+	 */
+	private int poolSize = 4;
+
+	/**
+	 * Timeout for getting a connection and for one query in milliseconds
+	 */
+	private long timeout = 10000;
+
+	/**
+	 * The connection pool, created on first use
+	 */
+	private ResourcePool<PooledConnection> pool;
+
+
+	/**
+	 * Default constructor
+	 */
+	public JdbcFilter() {
+	}
+
+	public JdbcFilter(String id) {
+		super(id);
+	}
+
+	public JdbcFilter(String id, String description) {
+		super(id, description);
+	}
+
+	/**
+	 * Constructor for a filter that looks up the ids in one column
+	 * of a table.
+	 * 
+	 * @param url
+	 * 			the JDBC url
+	 * @param user
+	 * 			the database user
+	 * @param password
+	 * 			the database password
+	 * @param table
+	 * 			the table holding the existing ids
+	 * @param column
+	 * 			the column holding the existing ids
+	 */
+	public JdbcFilter(String url, String user, String password, String table, String column) {
+		this.setConnection(url, user, password);
+		this.setTable(table, column);
+	}
+
+
+	/**
+	 * Configures the filter from properties:
+	 * url, user, password, driver (optional driver class to load),
+	 * table and column or query, batchSize, poolSize, timeout (ms)
+	 * and errorVerdict (accept, reject or abort).
+	 * 
+	 * @param props
+	 * 			the configuration
+	 * @throws ClassNotFoundException
+	 * 			if the driver class cannot be loaded
+	 * @throws IllegalArgumentException
+	 * 			if a value is invalid
+	 */
+	public void configure(Properties props) throws ClassNotFoundException {
+		if (props.getProperty("driver") != null) {
+			Class.forName(props.getProperty("driver"));
+		}
+		this.setConnection(props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+
+		if (props.getProperty("query") != null) {
+			this.setQuery(props.getProperty("query"));
+		}
+		else {
+			this.setTable(props.getProperty("table", "accounts"), props.getProperty("column", "uid"));
+		}
+
+		this.setBatchSize(Integer.parseInt(props.getProperty("batchSize", String.valueOf(this.batchSize))));
+		this.setPoolSize(Integer.parseInt(props.getProperty("poolSize", String.valueOf(this.poolSize))));
+		this.setTimeout(Long.parseLong(props.getProperty("timeout", String.valueOf(this.timeout))));
+		if (props.getProperty("errorVerdict") != null) {
+			this.setErrorVerdict(Verdict.parse(props.getProperty("errorVerdict")));
+		}
+	}
+
+	/**
+	 * Looks up which of the given ids exist in the database.
+	 * 
+	 * @param ids
+	 * 			the ids to look up
+	 * @return the existing ids
+	 * @throws Exception
+	 * 			if the database could not be queried
+	 */
+	protected Set<String> lookup(List<String> ids) throws Exception {
+		Set<String> existing = new HashSet<String>();
+
+		PooledConnection connection = this.getPool().acquire();
+		try {
+			for (int start = 0; start < ids.size(); start += this.batchSize) {
+				int end = Math.min(ids.size(), start + this.batchSize);
+				int numParameters = this.getParameterCount(end - start);
+				PreparedStatement statement = connection.prepare(numParameters);
+
+				// pad unused parameters with the last id
+				for (int i = 0; i < numParameters; i++) {
+					statement.setString(i + 1, ids.get(Math.min(start + i, end - 1)));
+				}
+
+				ResultSet rs = statement.executeQuery();
+				try {
+					while (rs.next()) {
+						existing.add(rs.getString(1));
+					}
+				}
+				finally {
+					rs.close();
+				}
+			}
+		}
+		catch (SQLException e) {
+			this.getPool().invalidate(connection);
+			connection = null;
+			throw e;
+		}
+		finally {
+			if (connection != null) {
+				this.getPool().release(connection);
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Returns the number of parameters of the statement used for
+	 * the given number of ids: the next power of two, at most the
+	 * batch size.
+	 * 
+	 * @param numIds
+	 * 			the number of ids to look up
+	 * @return the number of statement parameters
+	 */
+	private int getParameterCount(int numIds) {
+		int count = (numIds <= 1) ? 1 : Integer.highestOneBit(numIds - 1) << 1;
+		return Math.min(count, this.batchSize);
+	}
+
+	/**
+	 * Returns the connection pool and creates it if needed.
+	 * 
+	 * @return the connection pool
+	 */
+	private synchronized ResourcePool<PooledConnection> getPool() {
+		if (this.pool == null) {
+			this.pool = new ResourcePool<PooledConnection>(this.poolSize, this.timeout) {
+				protected PooledConnection create() throws SQLException {
+					return new PooledConnection(DriverManager.getConnection(url, user, password));
+				}
+
+				protected boolean validate(PooledConnection connection) {
+					try {
+						return !connection.connection.isClosed();
+					}
+					catch (SQLException e) {
+						return false;
+					}
+				}
+
+				protected void destroy(PooledConnection connection) {
+					connection.close();
+				}
+			};
+		}
+		return this.pool;
+	}
+
+	/**
+	 * Closes all pooled connections. The pool is recreated on
+	 * the next use.
+	 */
+	public synchronized void shutdown() {
+		if (this.pool != null) {
+			this.pool.close();
+			this.pool = null;
+		}
+	}
+
+
+	/**
+	 * Sets the database connection parameters
+	 * 
+	 * @param url
+	 * 			the JDBC url
+	 * @param user
+	 * 			the database user
+	 * @param password
+	 * 			the database password
+	 */
+	public synchronized void setConnection(String url, String user, String password) {
+		this.shutdown();
+		this.url = url;
+		this.user = user;
+		this.password = password;
+	}
+
+	/**
+	 * Sets the table and column that hold the existing ids.
+	 * 
+	 * @param table
+	 * 			the table name
+	 * @param column
+	 * 			the column name
+	 */
+	public void setTable(String table, String column) {
+		this.setQuery("SELECT " + column + " FROM " + table + " WHERE " + column + " IN (" + PARAMETERS + ")");
+	}
+
+	/**
+	 * Get the lookup query
+	 * 
+	 * @return the query
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * Sets the lookup query. It must contain the parameter placeholder
+	 * (%s) inside an IN clause and return the existing ids in its first
+	 * column.
+	 * 
+	 * @param query
+	 * 			the query
+	 */
+	public synchronized void setQuery(String query) {
+		if (!query.contains(PARAMETERS)) {
+			throw new IllegalArgumentException("query does not contain " + PARAMETERS + ": " + query);
+		}
+		this.shutdown();
+		this.query = query;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.AbstractLookupFilter#getBatchSize()
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the maximum number of ids per query.
+	 * 
+	 * @param batchSize
+	 * 			the batch size, at least 1
+	 */
+	public synchronized void setBatchSize(int batchSize) {
+		this.shutdown();
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Sets the maximum number of pooled connections.
+	 * 
+	 * @param poolSize
+	 * 			the pool size, at least 1
+	 */
+	public synchronized void setPoolSize(int poolSize) {
+		this.shutdown();
+		this.poolSize = Math.max(1, poolSize);
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the timeout for getting a connection and for one query.
+	 * 
+	 * @param timeout
+	 * 			the timeout in milliseconds, 0 to wait forever
+	 */
+	public synchronized void setTimeout(long timeout) {
+		this.shutdown();
+		this.timeout = Math.max(0, timeout);
+	}
+
+
+	/**
+	 * A pooled connection together with its prepared statements,
+	 * one per parameter count.
+	 */
+	private class PooledConnection {
+		final Connection connection;
+		final HashMap<Integer, PreparedStatement> statements = new HashMap<Integer, PreparedStatement>();
+
+		PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		PreparedStatement prepare(int numParameters) throws SQLException {
+			PreparedStatement statement = this.statements.get(numParameters);
+			if (statement == null) {
+				StringBuilder parameters = new StringBuilder();
+				for (int i = 0; i < numParameters; i++) {
+					parameters.append((i == 0) ? "?" : ", ?");
+				}
+				statement = this.connection.prepareStatement(query.replace(PARAMETERS, parameters));
+				statement.setQueryTimeout((int)((timeout + 999) / 1000));
+				this.statements.put(numParameters, statement);
+			}
+			return statement;
+		}
+
+		void close() {
+			try {
+				this.connection.close();
+			}
+			catch (SQLException e) {
+				logger.debug(e.toString());
+			}
+		}
+	}
+}
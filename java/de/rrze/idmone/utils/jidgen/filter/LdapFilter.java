@@ -0,0 +1,529 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.rrze.idmone.utils.jidgen.Messages;
+
+
+/**
+ * A filter for ids that already exist in an LDAP directory.<br />
+ * Lists of ids are checked in batches with one
+ * <tt>(|(uid=a)(uid=b)...)</tt> search per batch. The ids are passed
+ * as filter arguments, so JNDI escapes them as required by RFC 4515.
+ * Results are fetched in pages, so server side size limits do not
+ * truncate large batches. Bound contexts are pooled. A pooled context
+ * the server has closed while it was idle is replaced by a new one.
+ * 
+ * @author unrza249
+ */
+public class LdapFilter
+	extends AbstractLookupFilter
+	implements IFilter
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(LdapFilter.class);
+
+	/**
+	 * The LDAP url of the directory server
+	 */
+	private String url;
+
+	/**
+	 * The DN to bind with, null for an anonymous bind
+	 */
+	private String bindDn;
+
+	/**
+	 * The bind password
+	 */
+	private String password;
+
+	/**
+	 * The search base
+	 */
+	private String baseDn = "";
+
+	/**
+	 * The attribute holding the existing ids
+	 */
+	private String attribute = "uid";
+
+	/**
+	 * An additional filter all found entries have to match,
+	 * e.g. <tt>(objectClass=posixAccount)</tt>, or null
+	 */
+	private String filter;
+
+	/**
+	 * The maximum number of ids per search
+	 */
+	private int batchSize = 50;
+
+	/**
+	 * The number of entries per result page
+	 */
+	private int pageSize = 500;
+
+	/**
+	 * The maximum number of pooled contexts
+	 */
+	private int poolSize = 4;
+
+	/**
+	 * Timeout for connecting, for getting a pooled context and for
+	 * one search in milliseconds
+	 */
+	private long timeout = 10000;
+
+	/**
+	 * The context pool, created on first use
+	 */
+	private ResourcePool<LdapContext> pool;
+
+
+	/**
+	 * Default constructor
+	 */
+	public LdapFilter() {
+	}
+
+	public LdapFilter(String id) {
+		super(id);
+	}
+
+	public LdapFilter(String id, String description) {
+		super(id, description);
+	}
+
+	/**
+	 * Constructor for a filter that looks up the ids in the given
+	 * attribute below a search base.
+	 * 
+	 * @param url
+	 * 			the LDAP url
+	 * @param bindDn
+	 * 			the DN to bind with, null for an anonymous bind
+	 * @param password
+	 * 			the bind password
+	 * @param baseDn
+	 * 			the search base
+	 * @param attribute
+	 * 			the attribute holding the existing ids
+	 */
+	public LdapFilter(String url, String bindDn, String password, String baseDn, String attribute) {
+		this.setConnection(url, bindDn, password);
+		this.setSearch(baseDn, attribute, null);
+	}
+
+
+	/**
+	 * Configures the filter from properties:
+	 * url, bindDn, password, baseDn, attribute, filter (optional
+	 * additional search filter), batchSize, pageSize, poolSize,
+	 * timeout (ms) and errorVerdict (accept, reject or abort).
+	 * 
+	 * @param props
+	 * 			the configuration
+	 * @throws IllegalArgumentException
+	 * 			if a value is invalid
+	 */
+	public void configure(Properties props) {
+		if (props.getProperty("url") == null) {
+			throw new IllegalArgumentException("no ldap url given");
+		}
+		this.setConnection(props.getProperty("url"), props.getProperty("bindDn"), props.getProperty("password"));
+		this.setSearch(props.getProperty("baseDn", ""), props.getProperty("attribute", "uid"), props.getProperty("filter"));
+
+		this.setBatchSize(Integer.parseInt(props.getProperty("batchSize", String.valueOf(this.batchSize))));
+		this.setPageSize(Integer.parseInt(props.getProperty("pageSize", String.valueOf(this.pageSize))));
+		this.setPoolSize(Integer.parseInt(props.getProperty("poolSize", String.valueOf(this.poolSize))));
+		this.setTimeout(Long.parseLong(props.getProperty("timeout", String.valueOf(this.timeout))));
+		if (props.getProperty("errorVerdict") != null) {
+			this.setErrorVerdict(Verdict.parse(props.getProperty("errorVerdict")));
+		}
+	}
+
+	/**
+	 * Looks up which of the given ids exist in the directory.
+	 * The returned ids are lower case, as LDAP compares uids
+	 * case-insensitively.<br />
+	 * The server may have closed idle pooled contexts, so the lookup
+	 * is repeated on the next context if the connection fails. Once 
+	 * all idle contexts are used up the pool creates a new one, only 
+	 * if that fails, too, the lookup fails.
+	 * 
+	 * @param ids
+	 * 			the ids to look up
+	 * @return the existing ids
+	 * @throws Exception
+	 * 			if the directory could not be searched
+	 */
+	protected Set<String> lookup(List<String> ids) throws Exception {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				return this.lookupOnce(ids);
+			}
+			catch (NamingException e) {
+				if (!isConnectionError(e) || attempt >= this.poolSize) {
+					throw e;
+				}
+				logger.debug(Messages.getString("LdapFilter.RETRY") + e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Checks whether an exception means that the connection of
+	 * the context failed, not the search itself.
+	 * 
+	 * @param e
+	 * 			the exception
+	 * @return true for connection errors
+	 */
+	private static boolean isConnectionError(NamingException e) {
+		// JNDI reports a connection closed by the server as a plain
+		// NamingException ("LDAP connection has been closed")
+		return (e instanceof CommunicationException)
+			|| (e instanceof ServiceUnavailableException)
+			|| (e.getClass() == NamingException.class);
+	}
+
+	/**
+	 * Does the work of lookup() with one context of the pool.
+	 * 
+	 * @param ids
+	 * 			the ids to look up
+	 * @return the existing ids
+	 * @throws Exception
+	 * 			if the directory could not be searched
+	 */
+	private Set<String> lookupOnce(List<String> ids) throws Exception {
+		Set<String> existing = new HashSet<String>();
+
+		SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		controls.setReturningAttributes(new String[] { this.attribute });
+		controls.setTimeLimit((int)this.timeout);
+
+		LdapContext context = this.getPool().acquire();
+		try {
+			for (int start = 0; start < ids.size(); start += this.batchSize) {
+				int end = Math.min(ids.size(), start + this.batchSize);
+				this.search(context, ids.subList(start, end), controls, existing);
+			}
+		}
+		catch (NamingException e) {
+			this.getPool().invalidate(context);
+			context = null;
+			throw e;
+		}
+		finally {
+			if (context != null) {
+				this.getPool().release(context);
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Runs one paged search for a batch of ids and adds the values
+	 * of the id attribute of all found entries.
+	 * 
+	 * @param context
+	 * 			the bound context
+	 * @param ids
+	 * 			the batch of ids
+	 * @param controls
+	 * 			the search controls
+	 * @param existing
+	 * 			the set the found ids are added to
+	 * @throws NamingException
+	 * 			if the search failed
+	 * @throws IOException
+	 * 			if the paged results control could not be encoded
+	 */
+	private void search(LdapContext context, List<String> ids, SearchControls controls, Set<String> existing) 
+		throws NamingException, IOException 
+	{
+		String searchFilter = this.getSearchFilter(ids.size());
+		Object[] arguments = ids.toArray();
+
+		byte[] cookie = null;
+		do {
+			context.setRequestControls(new Control[] { 
+					new PagedResultsControl(this.pageSize, cookie, Control.NONCRITICAL) 
+			});
+
+			NamingEnumeration<SearchResult> results = context.search(this.baseDn, searchFilter, arguments, controls);
+			try {
+				while (results.hasMore()) {
+					Attribute values = results.next().getAttributes().get(this.attribute);
+					if (values != null) {
+						for (int i = 0; i < values.size(); i++) {
+							existing.add(String.valueOf(values.get(i)).toLowerCase());
+						}
+					}
+				}
+			}
+			finally {
+				results.close();
+			}
+
+			cookie = null;
+			Control[] responseControls = context.getResponseControls();
+			if (responseControls != null) {
+				for (int i = 0; i < responseControls.length; i++) {
+					if (responseControls[i] instanceof PagedResultsResponseControl) {
+						cookie = ((PagedResultsResponseControl)responseControls[i]).getCookie();
+					}
+				}
+			}
+		} while (cookie != null && cookie.length > 0);
+	}
+
+	/**
+	 * Builds the search filter for the given number of ids. The ids
+	 * are referenced as filter arguments {0}, {1}, ...
+	 * 
+	 * @param numIds
+	 * 			the number of ids
+	 * @return the search filter
+	 */
+	private String getSearchFilter(int numIds) {
+		StringBuilder searchFilter = new StringBuilder();
+		if (this.filter != null) {
+			searchFilter.append("(&").append(this.filter);
+		}
+		searchFilter.append("(|");
+		for (int i = 0; i < numIds; i++) {
+			searchFilter.append('(').append(this.attribute).append("={").append(i).append("})");
+		}
+		searchFilter.append(')');
+		if (this.filter != null) {
+			searchFilter.append(')');
+		}
+		return searchFilter.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.AbstractLookupFilter#normalize(java.lang.String)
+	 */
+	protected String normalize(String id) {
+		return id.toLowerCase();
+	}
+
+	/**
+	 * Returns the context pool and creates it if needed.
+	 * 
+	 * @return the context pool
+	 */
+	private synchronized ResourcePool<LdapContext> getPool() {
+		if (this.pool == null) {
+			final Hashtable<String, String> env = new Hashtable<String, String>();
+			env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+			env.put(Context.PROVIDER_URL, this.url);
+			if (this.bindDn != null) {
+				env.put(Context.SECURITY_AUTHENTICATION, "simple");
+				env.put(Context.SECURITY_PRINCIPAL, this.bindDn);
+				env.put(Context.SECURITY_CREDENTIALS, (this.password != null) ? this.password : "");
+			}
+			else {
+				env.put(Context.SECURITY_AUTHENTICATION, "none");
+			}
+			if (this.timeout > 0) {
+				env.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(this.timeout));
+				env.put("com.sun.jndi.ldap.read.timeout", String.valueOf(this.timeout));
+			}
+
+			this.pool = new ResourcePool<LdapContext>(this.poolSize, this.timeout) {
+				protected LdapContext create() throws NamingException {
+					return new InitialLdapContext(env, null);
+				}
+
+				protected void destroy(LdapContext context) {
+					try {
+						context.close();
+					}
+					catch (NamingException e) {
+						logger.debug(e.toString());
+					}
+				}
+			};
+		}
+		return this.pool;
+	}
+
+	/**
+	 * Closes all pooled contexts. The pool is recreated on
+	 * the next use.
+	 */
+	public synchronized void shutdown() {
+		if (this.pool != null) {
+			this.pool.close();
+			this.pool = null;
+		}
+	}
+
+
+	/**
+	 * Sets the directory connection parameters
+	 * 
+	 * @param url
+	 * 			the LDAP url
+	 * @param bindDn
+	 * 			the DN to bind with, null for an anonymous bind
+	 * @param password
+	 * 			the bind password
+	 */
+	public synchronized void setConnection(String url, String bindDn, String password) {
+		this.shutdown();
+		this.url = url;
+		this.bindDn = bindDn;
+		this.password = password;
+	}
+
+	/**
+	 * Sets where and how the existing ids are searched.
+	 * 
+	 * @param baseDn
+	 * 			the search base
+	 * @param attribute
+	 * 			the attribute holding the existing ids
+	 * @param filter
+	 * 			an additional filter all found entries have to match, or null
+	 */
+	public synchronized void setSearch(String baseDn, String attribute, String filter) {
+		if (filter != null && !(filter.startsWith("(") && filter.endsWith(")"))) {
+			filter = "(" + filter + ")";
+		}
+		this.baseDn = baseDn;
+		this.attribute = attribute;
+		this.filter = filter;
+	}
+
+	public String getBaseDn() {
+		return baseDn;
+	}
+
+	public String getAttribute() {
+		return attribute;
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.AbstractLookupFilter#getBatchSize()
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the maximum number of ids per search.
+	 * 
+	 * @param batchSize
+	 * 			the batch size, at least 1
+	 */
+	public synchronized void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Sets the number of entries per result page.
+	 * 
+	 * @param pageSize
+	 * 			the page size, at least 1
+	 */
+	public synchronized void setPageSize(int pageSize) {
+		this.pageSize = Math.max(1, pageSize);
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Sets the maximum number of pooled contexts.
+	 * 
+	 * @param poolSize
+	 * 			the pool size, at least 1
+	 */
+	public synchronized void setPoolSize(int poolSize) {
+		this.shutdown();
+		this.poolSize = Math.max(1, poolSize);
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the timeout for connecting, for getting a pooled context
+	 * and for one search.
+	 * 
+	 * @param timeout
+	 * 			the timeout in milliseconds, 0 to wait forever
+	 */
+	public synchronized void setTimeout(long timeout) {
+		this.shutdown();
+		this.timeout = Math.max(0, timeout);
+	}
+}
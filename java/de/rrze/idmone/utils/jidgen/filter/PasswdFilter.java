@@ -24,6 +24,10 @@
 
 package de.rrze.idmone.utils.jidgen.filter;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -45,6 +49,12 @@ implements 	IFilter
 	 *  The class logger
 	 */
 	private static final Log logger = LogFactory.getLog(PasswdFilter.class);
+	
+	/*
+	 * The messages logged for every candidate, looked up once
+	 */
+	private static final String MSG_ID = Messages.getString("PasswdFilter.TRACE_ID");
+	private static final String MSG_SKIPPED_ENTRY = Messages.getString("PasswdFilter.TRACE_SKIPPED_ENTRY");
 
 	/**
 	 * The location of the passwd file.
@@ -52,6 +62,12 @@ implements 	IFilter
 	 * the local system
 	 */
 	private String fileLocation = "/etc/passwd";
+	
+	/**
+	 * The user ids of the passwd file if they were read in 
+	 * advance, null if the file is read on every check
+	 */
+	private Set<String> ids;
 
 
 	/**
@@ -80,6 +96,39 @@ implements 	IFilter
 	public void setFile(String fileLocation) {
 		this.fileLocation = fileLocation;
 	}
+	
+	/**
+	 * Sets the user ids of the passwd file, read in advance, e.g.
+	 * by SharedResources. The ids are then checked against this
+	 * set instead of reading the file again for every id.
+	 * 
+	 * @param ids
+	 * 			the user ids or null to read the file on every check
+	 */
+	public void setIds(Set<String> ids) {
+		this.ids = ids;
+	}
+
+
+	/**
+	 * Reads all user ids from the passwd file.
+	 * 
+	 * @return the user ids
+	 */
+	public List<String> getIds() {
+		List<String> ids = new ArrayList<String>();
+		File file = new File(this.fileLocation);
+
+		String line;
+		while ((line = file.getLine()) != null) {
+			if (line.indexOf(':') > 0) {
+				ids.add(line.substring(0, line.indexOf(':')));
+			}
+		}
+		file.close();
+
+		return ids;
+	}
 
 
 	/*
@@ -89,6 +138,22 @@ implements 	IFilter
 	 *      java.lang.String)
 	 */
 	public String apply(String id)	{
+		// look the id up if the file was read in advance
+		if (this.ids != null) {
+			if (this.ids.contains(id)) {
+				if (logger.isTraceEnabled()) {
+					logger.trace(MSG_ID 
+							+ " \"" + this.getID() + "\" "
+							+ MSG_SKIPPED_ENTRY 
+							+ " \"" + id 
+							+ "\"");
+				}
+				
+				return null;
+			}
+			return id;
+		}
+		
 		// get a reader for the passwd file
 		File file = new File(this.fileLocation);
 
@@ -97,11 +162,13 @@ implements 	IFilter
 			String userID = line.substring(0, line.indexOf(':'));
 
 			if (id.equals(userID)) {
-				logger.trace(Messages.getString("PasswdFilter.TRACE_ID") 
-						+ " \"" + this.getID() + "\" "
-						+ Messages.getString("PasswdFilter.TRACE_SKIPPED_ENTRY") 
-						+ " \"" + userID 
-						+ "\"");
+				if (logger.isTraceEnabled()) {
+					logger.trace(MSG_ID 
+							+ " \"" + this.getID() + "\" "
+							+ MSG_SKIPPED_ENTRY 
+							+ " \"" + userID 
+							+ "\"");
+				}
 
 				return null;
 			}
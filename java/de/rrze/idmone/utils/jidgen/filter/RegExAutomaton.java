@@ -0,0 +1,1058 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+
+/**
+ * A deterministic finite automaton that evaluates a whole set of
+ * regular expressions in one pass over the input.<br />
+ * Only a regular subset of the java.util.regex syntax is understood:
+ * literals, escapes, character classes, '.', groups, alternation, the
+ * greedy and reluctant quantifiers *, +, ?, {m,n} and the anchors ^ and $
+ * at the beginning/end of top level alternatives. All ASCII characters are
+ * distinguished, every other character is treated alike.
+ * Patterns are matched with find() semantics, i.e. a pattern matches if
+ * it matches any part of the input. Back references to a group of a
+ * single character can be expanded beforehand, see 
+ * expandBackReference().<br />
+ * The automaton is built once by subset construction. Evaluating an input
+ * only walks the transition table and does not allocate anything.
+ * 
+ * @author unrza249
+ */
+class RegExAutomaton {
+
+	/**
+	 * Number of distinguished input symbols: the ASCII characters
+	 * plus one symbol for all others
+	 */
+	private static final int NUM_SYMBOLS = 129;
+
+	/**
+	 * Symbol used for all non-ASCII characters
+	 */
+	private static final int OTHER = 128;
+
+	/**
+	 * Upper limit for the number of automaton states
+	 */
+	static final int MAX_STATES = 10000;
+
+	/**
+	 * Upper limit for the expansion of counted repetitions
+	 */
+	private static final int MAX_REPETITIONS = 100;
+
+	/**
+	 * Upper limit for the number of inputs agrees() checks exhaustively
+	 */
+	private static final int MAX_PROBES = 4096;
+
+	/**
+	 * Maps every symbol to its equivalence class
+	 */
+	private int[] symbolClass;
+
+	/**
+	 * Number of equivalence classes
+	 */
+	private int numClasses;
+
+	/**
+	 * The transition table: next state = transitions[state * numClasses + class]
+	 */
+	private int[] transitions;
+
+	/**
+	 * The patterns that match in every state
+	 */
+	private BitSet[] matches;
+
+
+	/**
+	 * Compiles a set of patterns into one automaton.
+	 * 
+	 * @param patterns
+	 * 			the patterns to compile
+	 * @throws UnsupportedOperationException
+	 * 			if one of the patterns uses unsupported syntax
+	 * @throws TooLargeException
+	 * 			if the automaton would get too large
+	 */
+	RegExAutomaton(List<String> patterns) throws TooLargeException {
+		Nfa nfa = new Nfa();
+		int start = nfa.newState();
+		int i = 0;
+		for (Iterator<String> iter = patterns.iterator(); iter.hasNext(); i++) {
+			nfa.epsilon(start, new Parser(iter.next()).compile(nfa, i));
+		}
+		this.determinize(nfa, start);
+	}
+
+	/**
+	 * Checks whether a single pattern can be compiled.
+	 * 
+	 * @param pattern
+	 * 			the pattern to check
+	 * @return true if the pattern uses only the supported syntax
+	 */
+	static boolean isSupported(String pattern) {
+		try {
+			new Parser(pattern).compile(new Nfa(), 0);
+			return true;
+		}
+		catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Expands the back references of a pattern whose only capturing group
+	 * matches a single character into one alternative per character, e.g.
+	 * <tt>x(.)\1</tt> into <tt>x(?:aa|bb|...)</tt>, which the automaton
+	 * supports. The group and the references have to be at the top level 
+	 * of a pattern without top level alternatives, and the group must not
+	 * be repeated. Non-ASCII characters all share one symbol, so they
+	 * are left out: the result is equivalent to the pattern for ASCII 
+	 * inputs only.
+	 * 
+	 * @param pattern
+	 * 			the pattern
+	 * @return the expanded pattern or null if the pattern has no back
+	 * 			references or cannot be expanded
+	 */
+	static String expandBackReference(String pattern) {
+		int length = pattern.length();
+		int groupStart = -1;
+		int groupEnd = -1;
+		List<Integer> references = new ArrayList<Integer>();
+		int depth = 0;
+		boolean inClass = false;
+		for (int i = 0; i < length; i++) {
+			char c = pattern.charAt(i);
+			if (c == '\\') {
+				if (i + 1 == length) {
+					return null;
+				}
+				char escaped = pattern.charAt(++i);
+				if (!inClass && escaped >= '1' && escaped <= '9') {
+					if (escaped != '1' || groupEnd < 0 || depth > 0) {
+						return null;
+					}
+					references.add(i - 1);
+				}
+			}
+			else if (inClass) {
+				inClass = (c != ']');
+			}
+			else if (c == '[') {
+				inClass = true;
+			}
+			else if (c == '(') {
+				if (i + 1 < length && pattern.charAt(i + 1) == '?') {
+					// not capturing
+					depth++;
+				}
+				else if (groupStart >= 0 || depth > 0) {
+					return null;
+				}
+				else {
+					groupStart = i;
+					depth++;
+				}
+			}
+			else if (c == ')') {
+				depth--;
+				if (depth == 0 && groupStart >= 0 && groupEnd < 0) {
+					groupEnd = i;
+				}
+			}
+			else if (c == '|' && depth == 0) {
+				return null;
+			}
+		}
+		if (references.isEmpty() 
+				|| (groupEnd + 1 < length && "*+?{".indexOf(pattern.charAt(groupEnd + 1)) >= 0)) 
+		{
+			return null;
+		}
+		BitSet set = Parser.parseCharacter(pattern.substring(groupStart + 1, groupEnd));
+		if (set == null) {
+			return null;
+		}
+
+		// only the part from the group to the last reference, 
+		// including its quantifier, is expanded
+		int end = references.get(references.size() - 1) + 2;
+		if (end < length && pattern.charAt(end) == '{') {
+			end = pattern.indexOf('}', end) + 1;
+			if (end == 0) {
+				return null;
+			}
+		}
+		else if (end < length && "*+?".indexOf(pattern.charAt(end)) >= 0) {
+			end++;
+		}
+		if (end < length && pattern.charAt(end) == '?') {
+			end++;
+		}
+
+		StringBuilder expanded = new StringBuilder(pattern.substring(0, groupStart)).append("(?:");
+		int alternatives = 0;
+		for (int c = set.nextSetBit(0); c >= 0 && c < OTHER; c = set.nextSetBit(c + 1)) {
+			String literal = Character.isLetterOrDigit(c) ? String.valueOf((char)c) : String.format("\\x%02x", c);
+			if (alternatives++ > 0) {
+				expanded.append('|');
+			}
+			expanded.append(literal);
+			int from = groupEnd + 1;
+			for (Iterator<Integer> iter = references.iterator(); iter.hasNext();) {
+				int reference = iter.next();
+				expanded.append(pattern, from, reference).append(literal);
+				from = reference + 2;
+			}
+			expanded.append(pattern, from, end);
+		}
+		expanded.append(')').append(pattern, end, length);
+		return (alternatives > 0) ? expanded.toString() : null;
+	}
+
+	/**
+	 * Checks the automaton of a single pattern against java.util.regex,
+	 * see agrees(Pattern, String, boolean).
+	 * 
+	 * @param pattern
+	 * 			the pattern to check, supported by the automaton
+	 * @return true if the automaton agrees on all inputs, false if it
+	 * 			does not or gets too large
+	 */
+	static boolean agrees(Pattern pattern) {
+		return agrees(pattern, pattern.pattern(), false);
+	}
+
+	/**
+	 * Checks the automaton of a regular form of a pattern against 
+	 * java.util.regex: all inputs up to a few characters and a sample 
+	 * of longer ones are built from one printable character of every 
+	 * symbol class, and the automaton has to agree with Matcher.find() 
+	 * on each of them. Line terminators are left out, ids do not 
+	 * contain them.
+	 * 
+	 * @param pattern
+	 * 			the pattern
+	 * @param regular
+	 * 			the form of the pattern the automaton is built from, 
+	 * 			supported by the automaton
+	 * @param asciiOnly
+	 * 			true to check ASCII inputs only, e.g. for the result
+	 * 			of expandBackReference()
+	 * @return true if the automaton agrees on all inputs, false if it
+	 * 			does not or gets too large
+	 */
+	static boolean agrees(Pattern pattern, String regular, boolean asciiOnly) {
+		RegExAutomaton automaton;
+		try {
+			automaton = new RegExAutomaton(Collections.singletonList(regular));
+		}
+		catch (TooLargeException e) {
+			return false;
+		}
+
+		// one character per class that any pattern can tell apart
+		char[] alphabet = new char[automaton.numClasses];
+		int size = 0;
+		BitSet seen = new BitSet();
+		for (int s = ' '; s <= OTHER; s++) {
+			int cls = automaton.symbolClass[s];
+			if ((s < 0x7f || (s == OTHER && !asciiOnly)) && !seen.get(cls)) {
+				seen.set(cls);
+				alphabet[size++] = (s == OTHER) ? '\u00e9' : (char)s;
+			}
+		}
+
+		// all inputs up to the length that fits into the limit
+		int maxLength = 0;
+		long count = 1;
+		for (long n = size; count + n <= MAX_PROBES && maxLength < MAX_REPETITIONS; n *= size) {
+			count += n;
+			maxLength++;
+		}
+		char[] input = new char[maxLength];
+		int[] digits = new int[maxLength];
+		for (int length = 0; length <= maxLength; length++) {
+			Arrays.fill(digits, 0);
+			do {
+				for (int i = 0; i < length; i++) {
+					input[i] = alphabet[digits[i]];
+				}
+				if (!automaton.agrees(pattern, new String(input, 0, length))) {
+					return false;
+				}
+			} while (increment(digits, length, size));
+		}
+
+		// and some longer ones, the same for every run
+		Random random = new Random(pattern.pattern().hashCode());
+		for (int i = 0; i < MAX_PROBES / 8; i++) {
+			char[] longer = new char[maxLength + 1 + random.nextInt(8)];
+			for (int j = 0; j < longer.length; j++) {
+				longer[j] = alphabet[random.nextInt(size)];
+			}
+			if (!automaton.agrees(pattern, new String(longer))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the automaton and the pattern agree on an input.
+	 */
+	private boolean agrees(Pattern pattern, String input) {
+		return this.matches(this.run(input), 0) == pattern.matcher(input).find();
+	}
+
+	/**
+	 * Counts the digits up in the given base.
+	 * 
+	 * @return false after the last number
+	 */
+	private static boolean increment(int[] digits, int length, int base) {
+		for (int i = 0; i < length; i++) {
+			if (++digits[i] < base) {
+				return true;
+			}
+			digits[i] = 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the automaton over the input.
+	 * 
+	 * @param input
+	 * 			the input to evaluate
+	 * @return the final state
+	 */
+	int run(CharSequence input) {
+		int state = 0;
+		int length = input.length();
+		for (int i = 0; i < length; i++) {
+			char c = input.charAt(i);
+			state = this.transitions[state * this.numClasses + this.symbolClass[(c < OTHER) ? c : OTHER]];
+		}
+		return state;
+	}
+
+	/**
+	 * Returns the number of states of the automaton
+	 * 
+	 * @return the number of states
+	 */
+	int getNumStates() {
+		return this.matches.length;
+	}
+
+	/**
+	 * Checks whether a pattern matched when the automaton ended in the
+	 * given state.
+	 * 
+	 * @param state
+	 * 			a final state as returned by run()
+	 * @param pattern
+	 * 			the index of the pattern
+	 * @return true if the pattern matched
+	 */
+	boolean matches(int state, int pattern) {
+		return this.matches[state].get(pattern);
+	}
+
+
+	/**
+	 * Builds the automaton from the NFA by subset construction.
+	 * 
+	 * @param nfa
+	 * 			the NFA
+	 * @param start
+	 * 			the start state of the NFA
+	 * @throws TooLargeException
+	 * 			if the automaton gets more than MAX_STATES states
+	 */
+	private void determinize(Nfa nfa, int start) throws TooLargeException {
+		this.buildClasses(nfa);
+
+		// the sets of NFA states are the keys, they are never changed
+		HashMap<BitSet, Integer> index = new HashMap<BitSet, Integer>();
+		List<BitSet> states = new ArrayList<BitSet>();
+		List<int[]> table = new ArrayList<int[]>();
+
+		BitSet initial = nfa.closure(start);
+		index.put(initial, 0);
+		states.add(initial);
+
+		// pick one representative symbol per class
+		int[] representative = new int[this.numClasses];
+		for (int s = NUM_SYMBOLS - 1; s >= 0; s--) {
+			representative[this.symbolClass[s]] = s;
+		}
+
+		// the classes every NFA state consumes and the closure of
+		// the state it leads to, so a step only has to merge them
+		int[][] edgeClasses = new int[nfa.sets.size()][];
+		BitSet[] targetClosures = new BitSet[nfa.sets.size()];
+		for (int state = 0; state < edgeClasses.length; state++) {
+			BitSet set = nfa.sets.get(state);
+			if (set != null) {
+				int[] classes = new int[this.numClasses];
+				int count = 0;
+				for (int cls = 0; cls < this.numClasses; cls++) {
+					if (set.get(representative[cls])) {
+						classes[count++] = cls;
+					}
+				}
+				edgeClasses[state] = Arrays.copyOf(classes, count);
+				targetClosures[state] = nfa.closure(nfa.targets.get(state));
+			}
+		}
+
+		for (int current = 0; current < states.size(); current++) {
+			BitSet set = states.get(current);
+			BitSet[] steps = new BitSet[this.numClasses];
+			for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+				int[] classes = edgeClasses[state];
+				if (classes == null) {
+					continue;
+				}
+				for (int j = 0; j < classes.length; j++) {
+					if (steps[classes[j]] == null) {
+						steps[classes[j]] = new BitSet();
+					}
+					steps[classes[j]].or(targetClosures[state]);
+				}
+			}
+
+			int[] row = new int[this.numClasses];
+			for (int cls = 0; cls < this.numClasses; cls++) {
+				BitSet next = (steps[cls] == null) ? new BitSet() : steps[cls];
+				Integer target = index.get(next);
+				if (target == null) {
+					if (states.size() == MAX_STATES) {
+						throw new TooLargeException();
+					}
+					target = states.size();
+					index.put(next, target);
+					states.add(next);
+				}
+				row[cls] = target;
+			}
+			table.add(row);
+		}
+
+		this.transitions = new int[states.size() * this.numClasses];
+		this.matches = new BitSet[states.size()];
+		for (int i = 0; i < states.size(); i++) {
+			System.arraycopy(table.get(i), 0, this.transitions, i * this.numClasses, this.numClasses);
+			this.matches[i] = new BitSet();
+			BitSet set = states.get(i);
+			for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+				if (nfa.accepts.get(state) >= 0) {
+					this.matches[i].set(nfa.accepts.get(state));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits the symbols into classes of symbols that no
+	 * character set of the NFA can tell apart.
+	 * 
+	 * @param nfa
+	 * 			the NFA
+	 */
+	private void buildClasses(Nfa nfa) {
+		this.symbolClass = new int[NUM_SYMBOLS];
+		this.numClasses = 1;
+
+		List<BitSet> seen = new ArrayList<BitSet>();
+		for (Iterator<BitSet> iter = nfa.sets.iterator(); iter.hasNext();) {
+			BitSet set = iter.next();
+			if (set == null || seen.contains(set)) {
+				continue;
+			}
+			seen.add(set);
+
+			// refine: every class is split into its members inside and outside the set
+			HashMap<Integer, Integer> split = new HashMap<Integer, Integer>();
+			int classes = 0;
+			for (int s = 0; s < NUM_SYMBOLS; s++) {
+				int key = this.symbolClass[s] * 2 + (set.get(s) ? 1 : 0);
+				Integer cls = split.get(key);
+				if (cls == null) {
+					cls = classes++;
+					split.put(key, cls);
+				}
+				this.symbolClass[s] = cls;
+			}
+			this.numClasses = classes;
+		}
+	}
+
+
+	/**
+	 * Thrown if the automaton of a set of patterns would need
+	 * more than MAX_STATES states
+	 */
+	static class TooLargeException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		TooLargeException() {
+			super("more than " + MAX_STATES + " states");
+		}
+	}
+
+
+	/**
+	 * A Thompson NFA. Every state has either one character set edge
+	 * or any number of epsilon edges.
+	 */
+	private static class Nfa {
+		final List<BitSet> sets = new ArrayList<BitSet>();
+		final List<Integer> targets = new ArrayList<Integer>();
+		final List<List<Integer>> epsilons = new ArrayList<List<Integer>>();
+		final List<Integer> accepts = new ArrayList<Integer>();
+
+		int newState() {
+			this.sets.add(null);
+			this.targets.add(-1);
+			this.epsilons.add(new ArrayList<Integer>(2));
+			this.accepts.add(-1);
+			return this.sets.size() - 1;
+		}
+
+		void epsilon(int from, int to) {
+			this.epsilons.get(from).add(to);
+		}
+
+		void edge(int from, BitSet set, int to) {
+			this.sets.set(from, set);
+			this.targets.set(from, to);
+		}
+
+		/**
+		 * Returns the epsilon closure of the given state
+		 */
+		BitSet closure(int state) {
+			BitSet closure = new BitSet();
+			int[] stack = new int[this.sets.size()];
+			int top = 0;
+			closure.set(state);
+			stack[top++] = state;
+			while (top > 0) {
+				List<Integer> next = this.epsilons.get(stack[--top]);
+				for (int i = 0; i < next.size(); i++) {
+					int s = next.get(i);
+					if (!closure.get(s)) {
+						closure.set(s);
+						stack[top++] = s;
+					}
+				}
+			}
+			return closure;
+		}
+	}
+
+
+	/**
+	 * Parses one pattern into an abstract syntax tree and
+	 * compiles it into the NFA.
+	 */
+	private static class Parser {
+		private final String pattern;
+		private int pos = 0;
+
+		Parser(String pattern) {
+			this.pattern = pattern;
+		}
+
+		/**
+		 * Parses a pattern that matches exactly one character.
+		 * 
+		 * @return the characters or null if the pattern is anything else
+		 */
+		static BitSet parseCharacter(String pattern) {
+			try {
+				Parser parser = new Parser(pattern);
+				Node node = parser.parseAtom();
+				if (parser.pos == pattern.length() && node instanceof Characters) {
+					return ((Characters)node).set;
+				}
+			}
+			catch (UnsupportedOperationException e) {
+				// not a single character
+			}
+			return null;
+		}
+
+		/**
+		 * Compiles the pattern with find() semantics.
+		 * 
+		 * @return the entry state of the pattern
+		 */
+		int compile(Nfa nfa, int patternIndex) {
+			int entry = nfa.newState();
+			int accept = nfa.newState();
+			nfa.accepts.set(accept, patternIndex);
+
+			// once matched, the rest of the input does not matter
+			BitSet any = new BitSet();
+			any.set(0, NUM_SYMBOLS);
+			nfa.edge(accept, any, accept);
+
+			// every top level alternative has its own anchors
+			do {
+				boolean anchoredStart = this.accept('^');
+				Node node = this.parseConcat();
+				boolean anchoredEnd = this.accept('$');
+				if (this.pos < this.pattern.length() && this.peek() != '|') {
+					throw new UnsupportedOperationException("unsupported construct at " + this.pos);
+				}
+
+				int begin;
+				if (!anchoredStart) {
+					// skip any prefix
+					begin = nfa.newState();
+					int loop = nfa.newState();
+					nfa.epsilon(entry, loop);
+					nfa.epsilon(loop, begin);
+					int consume = nfa.newState();
+					nfa.epsilon(loop, consume);
+					int back = nfa.newState();
+					nfa.edge(consume, any, back);
+					nfa.epsilon(back, loop);
+				}
+				else {
+					begin = nfa.newState();
+					nfa.epsilon(entry, begin);
+				}
+
+				int end = node.compile(nfa, begin);
+				if (anchoredEnd) {
+					// this accept state has no outgoing edges, so the
+					// pattern only matches if the input ends here
+					int last = nfa.newState();
+					nfa.epsilon(end, last);
+					nfa.accepts.set(last, patternIndex);
+				}
+				else {
+					nfa.epsilon(end, accept);
+				}
+			} while (this.accept('|'));
+
+			return entry;
+		}
+
+		private Node parseAlternation() {
+			List<Node> alternatives = new ArrayList<Node>();
+			alternatives.add(this.parseConcat());
+			while (this.accept('|')) {
+				alternatives.add(this.parseConcat());
+			}
+			return (alternatives.size() == 1) ? alternatives.get(0) : new Alternation(alternatives);
+		}
+
+		private Node parseConcat() {
+			List<Node> parts = new ArrayList<Node>();
+			while (this.pos < this.pattern.length()) {
+				char c = this.peek();
+				if (c == '|' || c == ')') {
+					break;
+				}
+				if (c == '$' && this.isEndAnchor()) {
+					break;
+				}
+				parts.add(this.parseRepeat());
+			}
+			return new Concatenation(parts);
+		}
+
+		/**
+		 * A '$' is only supported as anchor at the end of a top
+		 * level alternative.
+		 */
+		private boolean isEndAnchor() {
+			return (this.pos + 1 == this.pattern.length()) || (this.pattern.charAt(this.pos + 1) == '|');
+		}
+
+		private Node parseRepeat() {
+			Node node = this.parseAtom();
+			while (this.pos < this.pattern.length()) {
+				int min, max;
+				char c = this.peek();
+				if (c == '*') {
+					min = 0;
+					max = -1;
+					this.pos++;
+				}
+				else if (c == '+') {
+					min = 1;
+					max = -1;
+					this.pos++;
+				}
+				else if (c == '?') {
+					min = 0;
+					max = 1;
+					this.pos++;
+				}
+				else if (c == '{') {
+					this.pos++;
+					min = this.parseNumber();
+					max = min;
+					if (this.accept(',')) {
+						max = (this.peek() == '}') ? -1 : this.parseNumber();
+					}
+					this.expect('}');
+					if (min > MAX_REPETITIONS || max > MAX_REPETITIONS || (max >= 0 && max < min)) {
+						throw new UnsupportedOperationException("repetition too large");
+					}
+				}
+				else {
+					break;
+				}
+
+				// reluctant quantifiers match the same language
+				this.accept('?');
+				if (this.pos < this.pattern.length() && this.peek() == '+') {
+					throw new UnsupportedOperationException("possessive quantifier");
+				}
+				node = new Repetition(node, min, max);
+			}
+			return node;
+		}
+
+		private Node parseAtom() {
+			char c = this.next();
+			switch (c) {
+			case '(':
+				if (this.accept('?')) {
+					// only non-capturing groups are supported
+					this.expect(':');
+				}
+				Node group = this.parseAlternation();
+				this.expect(')');
+				return group;
+			case '[':
+				return new Characters(this.parseClass());
+			case '.': {
+				BitSet set = new BitSet();
+				set.set(0, NUM_SYMBOLS);
+				set.clear('\n');
+				set.clear('\r');
+				return new Characters(set);
+			}
+			case '\\':
+				return new Characters(this.parseEscape(false));
+			case '^':
+			case '$':
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+			case ')':
+				throw new UnsupportedOperationException("unexpected '" + c + "'");
+			default:
+				return new Characters(single(c));
+			}
+		}
+
+		private BitSet parseClass() {
+			boolean negate = this.accept('^');
+			BitSet set = new BitSet();
+			boolean first = true;
+			while (first || this.peek() != ']') {
+				first = false;
+				char c = this.next();
+				BitSet item;
+				if (c == '[' || (c == '&' && this.peek() == '&')) {
+					throw new UnsupportedOperationException("nested class");
+				}
+				if (c == '\\') {
+					item = this.parseEscape(true);
+				}
+				else {
+					item = single(c);
+				}
+
+				// ranges
+				if (this.peek() == '-' && this.pos + 1 < this.pattern.length() && this.pattern.charAt(this.pos + 1) != ']') {
+					this.pos++;
+					char to = this.next();
+					if (to == '\\') {
+						BitSet end = this.parseEscape(true);
+						if (end.cardinality() != 1) {
+							throw new UnsupportedOperationException("invalid range");
+						}
+						to = (char)end.nextSetBit(0);
+					}
+					if (item.cardinality() != 1 || to >= OTHER || to < item.nextSetBit(0)) {
+						throw new UnsupportedOperationException("invalid range");
+					}
+					item.set(item.nextSetBit(0), to + 1);
+				}
+				set.or(item);
+			}
+			this.expect(']');
+
+			if (negate) {
+				set.flip(0, NUM_SYMBOLS);
+			}
+			return set;
+		}
+
+		private BitSet parseEscape(boolean inClass) {
+			char c = this.next();
+			BitSet set = new BitSet();
+			switch (c) {
+			case 'd':
+			case 'D':
+				set.set('0', '9' + 1);
+				break;
+			case 'w':
+			case 'W':
+				set.set('a', 'z' + 1);
+				set.set('A', 'Z' + 1);
+				set.set('0', '9' + 1);
+				set.set('_');
+				break;
+			case 's':
+			case 'S':
+				set.set(' ');
+				set.set('\t');
+				set.set('\n');
+				set.set(0x0b);
+				set.set('\f');
+				set.set('\r');
+				break;
+			case 't':
+				return single('\t');
+			case 'n':
+				return single('\n');
+			case 'r':
+				return single('\r');
+			case 'f':
+				return single('\f');
+			case 'x':
+				return single(this.parseHex(2));
+			case 'u':
+				return single(this.parseHex(4));
+			default:
+				if (Character.isLetterOrDigit(c)) {
+					// back references, word boundaries, properties, ...
+					throw new UnsupportedOperationException("unsupported escape \\" + c);
+				}
+				return single(c);
+			}
+
+			if (Character.isUpperCase(c)) {
+				set.flip(0, NUM_SYMBOLS);
+			}
+			return set;
+		}
+
+		private static BitSet single(char c) {
+			if (c >= OTHER) {
+				throw new UnsupportedOperationException("non-ASCII character");
+			}
+			BitSet set = new BitSet();
+			set.set(c);
+			return set;
+		}
+
+		private int parseNumber() {
+			int start = this.pos;
+			while (this.pos < this.pattern.length() && Character.isDigit(this.peek())) {
+				this.pos++;
+			}
+			if (start == this.pos || this.pos - start > 4) {
+				throw new UnsupportedOperationException("invalid repetition");
+			}
+			return Integer.parseInt(this.pattern.substring(start, this.pos));
+		}
+
+		private char parseHex(int length) {
+			if (this.pos + length > this.pattern.length()) {
+				throw new UnsupportedOperationException("truncated escape");
+			}
+			this.pos += length;
+			try {
+				return (char)Integer.parseInt(this.pattern.substring(this.pos - length, this.pos), 16);
+			}
+			catch (NumberFormatException e) {
+				throw new UnsupportedOperationException("invalid escape");
+			}
+		}
+
+		private char peek() {
+			if (this.pos >= this.pattern.length()) {
+				throw new UnsupportedOperationException("unexpected end of pattern");
+			}
+			return this.pattern.charAt(this.pos);
+		}
+
+		private char next() {
+			char c = this.peek();
+			this.pos++;
+			return c;
+		}
+
+		private boolean accept(char c) {
+			if (this.pos < this.pattern.length() && this.pattern.charAt(this.pos) == c) {
+				this.pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) {
+			if (!this.accept(c)) {
+				throw new UnsupportedOperationException("expected '" + c + "' at " + this.pos);
+			}
+		}
+	}
+
+
+	/**
+	 * A node of the syntax tree. Nodes can be compiled several times,
+	 * which is needed for counted repetitions.
+	 */
+	private static abstract class Node {
+		/**
+		 * Appends the node to the NFA.
+		 * 
+		 * @return the exit state
+		 */
+		abstract int compile(Nfa nfa, int entry);
+	}
+
+	private static class Characters extends Node {
+		private final BitSet set;
+
+		Characters(BitSet set) {
+			this.set = set;
+		}
+
+		int compile(Nfa nfa, int entry) {
+			int consume = nfa.newState();
+			int exit = nfa.newState();
+			nfa.epsilon(entry, consume);
+			nfa.edge(consume, this.set, exit);
+			return exit;
+		}
+	}
+
+	private static class Concatenation extends Node {
+		private final List<Node> parts;
+
+		Concatenation(List<Node> parts) {
+			this.parts = parts;
+		}
+
+		int compile(Nfa nfa, int entry) {
+			int current = entry;
+			for (Iterator<Node> iter = this.parts.iterator(); iter.hasNext();) {
+				current = iter.next().compile(nfa, current);
+			}
+			return current;
+		}
+	}
+
+	private static class Alternation extends Node {
+		private final List<Node> alternatives;
+
+		Alternation(List<Node> alternatives) {
+			this.alternatives = alternatives;
+		}
+
+		int compile(Nfa nfa, int entry) {
+			int exit = nfa.newState();
+			for (Iterator<Node> iter = this.alternatives.iterator(); iter.hasNext();) {
+				int begin = nfa.newState();
+				nfa.epsilon(entry, begin);
+				nfa.epsilon(iter.next().compile(nfa, begin), exit);
+			}
+			return exit;
+		}
+	}
+
+	private static class Repetition extends Node {
+		private final Node node;
+		private final int min;
+		private final int max;
+
+		Repetition(Node node, int min, int max) {
+			this.node = node;
+			this.min = min;
+			this.max = max;
+		}
+
+		int compile(Nfa nfa, int entry) {
+			int current = entry;
+			for (int i = 0; i < this.min; i++) {
+				current = this.node.compile(nfa, current);
+			}
+
+			int exit = nfa.newState();
+			if (this.max < 0) {
+				// unbounded: the loop gets a head state of its own, so
+				// the back edge cannot reach other edges of the entry
+				// state, e.g. the one skipping an optional group
+				int head = nfa.newState();
+				nfa.epsilon(current, head);
+				int begin = nfa.newState();
+				nfa.epsilon(head, begin);
+				int end = this.node.compile(nfa, begin);
+				nfa.epsilon(end, head);
+				nfa.epsilon(head, exit);
+			}
+			else {
+				nfa.epsilon(current, exit);
+				for (int i = this.min; i < this.max; i++) {
+					current = this.node.compile(nfa, current);
+					nfa.epsilon(current, exit);
+				}
+			}
+			return exit;
+		}
+	}
+}
@@ -24,10 +24,35 @@
 
 package de.rrze.idmone.utils.jidgen.filter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.rrze.idmone.utils.jidgen.Messages;
+
 
 /**
  * A filter that uses regular expressions to filter commonly
- * forbidden patterns in ids.
+ * forbidden patterns in ids.<br />
+ * The filter holds an ordered list of rules. An id is filtered if
+ * it matches any <em>deny</em> rule or does not match one of the
+ * <em>allow</em> rules, i.e. an id has to match all allow rules.
+ * Patterns are matched anywhere inside the id (use ^ and $ to anchor 
+ * them).<br />
+ * All rules are compiled once into a single automaton that checks an
+ * id in one pass without allocating anything. Every rule is checked
+ * against java.util.regex before it is compiled. A back reference to
+ * a group of one character, e.g. in <tt>(.)\1\1</tt>, is expanded into
+ * one alternative per ASCII character first; ids with other characters
+ * are then checked with java.util.regex as a whole. Rules that are 
+ * still not regular (e.g. other back references), would blow up the
+ * automaton or do not pass that check are checked with 
+ * java.util.regex instead, which allocates a matcher per id.
  * 
  * @author unrza249
  * @author unrz205
@@ -39,7 +64,28 @@ public class RegExFilter
 	/**
 	 *  The class logger
 	 */
-	//private static final Log logger = LogFactory.getLog(RegExFilter.class);
+	private static final Log logger = LogFactory.getLog(RegExFilter.class);
+	
+	/*
+	 * The messages logged for every candidate, looked up once
+	 */
+	private static final String MSG_ID = Messages.getString("RegExFilter.TRACE_ID");
+	private static final String MSG_GENERIC_FILTER = Messages.getString("RegExFilter.TRACE_GENERIC_FILTER");
+
+	/**
+	 * Marks that no rule rejected the id
+	 */
+	private static final int NONE = Integer.MAX_VALUE;
+
+	/**
+	 * The rules in the order they were added
+	 */
+	private List<Rule> rules = new ArrayList<Rule>();
+
+	/**
+	 * The compiled rules, <em>null</em> if they need to be (re-)compiled
+	 */
+	private volatile Compiled compiled;
 
 	/**
 	 * Default construct.
@@ -62,25 +108,294 @@ public class RegExFilter
 	 *      java.lang.String)
 	 */
 	public String apply(String id)	{
-		
-		// TODO implement something :)
-		
-/*
-		if ((idFlags & REGEX_STARTS_NO_SMALL_LETTER_FLAG) != 0)
-		{
-			Matcher matcher = REGEX_STARTS_NO_SMALL_LETTER_P.matcher(id);
-			if (matcher.find())
-			{
-				logger
-						.debug(Messages
-								.getString("RegExFilter.TRACE_ID") + id //$NON-NLS-1$
-								+ Messages
-										.getString("DefaultRegExFilter.TRACE_STARTS_SMALL")); //$NON-NLS-1$
-				return null;
+		Rule rule = this.check(id);
+		if (rule != null) {
+			if (logger.isTraceEnabled()) {
+				logger.trace(MSG_ID 
+						+ " \"" + this.getID() + "\" "
+						+ MSG_GENERIC_FILTER 
+						+ " \"" + id
+						+ "\" (" + rule + ")");
 			}
+			return null;
 		}
-*/
 
 		return id;
 	}
+
+	/**
+	 * Checks an id against all rules.
+	 * 
+	 * @param id
+	 * 			the id to be checked
+	 * @return the first rule that rejects the id or <em>null</em>
+	 * 			if the id satisfies all rules
+	 */
+	public Rule check(CharSequence id) {
+		Compiled c = this.getCompiled();
+		if (c.asciiOnly && !isAscii(id)) {
+			// the expanded back references do not cover this id
+			for (int i = 0; i < c.rules.length; i++) {
+				if (c.rules[i].getPattern().matcher(id).find() != c.rules[i].isAllow()) {
+					return c.rules[i];
+				}
+			}
+			return null;
+		}
+
+		int reject = (c.automaton == null) ? NONE : c.rejectByState[c.automaton.run(id)];
+		
+		// only rules before the one found by the automaton are of interest
+		for (int i = 0; i < c.fallbackRules.length && c.fallbackRules[i] < reject; i++) {
+			Rule rule = c.rules[c.fallbackRules[i]];
+			if (c.fallbackPatterns[i].matcher(id).find() != rule.isAllow()) {
+				reject = c.fallbackRules[i];
+			}
+		}
+
+		return (reject == NONE) ? null : c.rules[reject];
+	}
+
+	/**
+	 * Checks whether an id consists of ASCII characters only.
+	 * 
+	 * @param id
+	 * 			the id
+	 * @return true if all characters are ASCII
+	 */
+	private static boolean isAscii(CharSequence id) {
+		for (int i = 0; i < id.length(); i++) {
+			if (id.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a rule.
+	 * 
+	 * @param pattern
+	 * 			the regular expression
+	 * @param allow
+	 * 			true for an allow rule (ids have to match), false
+	 * 			for a deny rule (ids must not match)
+	 * @return the new rule
+	 * @throws java.util.regex.PatternSyntaxException
+	 * 			if the pattern is invalid
+	 */
+	public synchronized Rule addRule(String pattern, boolean allow) {
+		Rule rule = new Rule(Pattern.compile(pattern), allow);
+		this.rules.add(rule);
+		this.compiled = null;
+		return rule;
+	}
+
+	/**
+	 * Adds a rule from its textual definition, i.e. one line of a
+	 * rules file: "deny &lt;pattern&gt;" or "allow &lt;pattern&gt;".
+	 * A pattern without keyword is a deny rule. Empty lines and lines
+	 * starting with '#' are ignored.
+	 * 
+	 * @param definition
+	 * 			the rule definition
+	 * @return <em>true</em> if a rule was added, <em>false</em> otherwise
+	 * @throws java.util.regex.PatternSyntaxException
+	 * 			if the pattern is invalid
+	 */
+	public boolean addRule(String definition) {
+		if (definition == null) {
+			return false;
+		}
+		definition = definition.trim();
+		if (definition.isEmpty() || definition.startsWith("#")) {
+			return false;
+		}
+
+		boolean allow = false;
+		if (definition.startsWith("allow ")) {
+			allow = true;
+			definition = definition.substring(6).trim();
+		}
+		else if (definition.startsWith("deny ")) {
+			definition = definition.substring(5).trim();
+		}
+		this.addRule(definition, allow);
+		return true;
+	}
+
+	/**
+	 * Returns the rules of this filter
+	 * 
+	 * @return a copy of the rule list
+	 */
+	public synchronized List<Rule> getRules() {
+		return new ArrayList<Rule>(this.rules);
+	}
+
+	/**
+	 * Removes all rules
+	 */
+	public synchronized void clearRules() {
+		this.rules.clear();
+		this.compiled = null;
+	}
+
+	/**
+	 * Returns the number of rules that are evaluated
+	 * by the automaton.
+	 * 
+	 * @return the number of compiled rules
+	 */
+	public int getNumCompiledRules() {
+		Compiled c = this.getCompiled();
+		return c.rules.length - c.fallbackRules.length;
+	}
+
+	/**
+	 * Returns the compiled rules and compiles them if needed.
+	 * 
+	 * @return the compiled rules
+	 */
+	private Compiled getCompiled() {
+		Compiled c = this.compiled;
+		if (c == null) {
+			synchronized (this) {
+				if (this.compiled == null) {
+					this.compiled = new Compiled(this.rules);
+				}
+				c = this.compiled;
+			}
+		}
+		return c;
+	}
+
+
+	/**
+	 * One allow or deny rule
+	 */
+	public static class Rule {
+		private final Pattern pattern;
+		private final boolean allow;
+
+		Rule(Pattern pattern, boolean allow) {
+			this.pattern = pattern;
+			this.allow = allow;
+		}
+
+		public Pattern getPattern() {
+			return this.pattern;
+		}
+
+		public boolean isAllow() {
+			return this.allow;
+		}
+
+		public String toString() {
+			return (this.allow ? "allow " : "deny ") + this.pattern.pattern();
+		}
+	}
+
+
+	/**
+	 * An immutable compiled form of the rule list
+	 */
+	private static class Compiled {
+		final Rule[] rules;
+		
+		/** the automaton, <em>null</em> if no rule could be compiled */
+		RegExAutomaton automaton;
+		
+		/** the first rule rejecting an id that ends in a given state */
+		int[] rejectByState;
+		
+		/** the indexes of the rules checked with java.util.regex */
+		int[] fallbackRules;
+		Pattern[] fallbackPatterns;
+		
+		/** whether the automaton holds expanded back references, 
+		 * which are only correct for ASCII ids */
+		boolean asciiOnly = false;
+
+		Compiled(List<Rule> ruleList) {
+			this.rules = ruleList.toArray(new Rule[ruleList.size()]);
+
+			List<String> patterns = new ArrayList<String>();
+			List<Integer> compiledRules = new ArrayList<Integer>();
+			List<Integer> fallback = new ArrayList<Integer>();
+			List<Integer> expanded = new ArrayList<Integer>();
+			for (int i = 0; i < this.rules.length; i++) {
+				String pattern = this.rules[i].getPattern().pattern();
+				String regular = pattern;
+				if (!RegExAutomaton.isSupported(pattern)) {
+					regular = RegExAutomaton.expandBackReference(pattern);
+				}
+				
+				if (regular == null || !RegExAutomaton.isSupported(regular)) {
+					fallback.add(i);
+				}
+				else if (!RegExAutomaton.agrees(this.rules[i].getPattern(), regular, regular != pattern)) {
+					logger.warn(Messages.getString("RegExFilter.AUTOMATON_MISMATCH") + this.rules[i]);
+					fallback.add(i);
+				}
+				else {
+					patterns.add(regular);
+					compiledRules.add(i);
+					if (regular != pattern) {
+						expanded.add(i);
+					}
+				}
+			}
+
+			try {
+				this.automaton = patterns.isEmpty() ? null : new RegExAutomaton(patterns);
+			}
+			catch (RegExAutomaton.TooLargeException e) {
+				// add the patterns one by one and leave out those
+				// that make the automaton explode
+				this.automaton = null;
+				List<String> accepted = new ArrayList<String>();
+				List<Integer> acceptedRules = new ArrayList<Integer>();
+				for (int i = 0; i < patterns.size(); i++) {
+					accepted.add(patterns.get(i));
+					try {
+						this.automaton = new RegExAutomaton(accepted);
+						acceptedRules.add(compiledRules.get(i));
+					}
+					catch (RegExAutomaton.TooLargeException e2) {
+						// the automaton of the previous patterns is kept
+						accepted.remove(accepted.size() - 1);
+						fallback.add(compiledRules.get(i));
+					}
+				}
+				patterns = accepted;
+				compiledRules = acceptedRules;
+				Collections.sort(fallback);
+			}
+			expanded.retainAll(compiledRules);
+			this.asciiOnly = !expanded.isEmpty();
+
+			if (this.automaton != null) {
+				this.rejectByState = new int[this.automaton.getNumStates()];
+				for (int state = 0; state < this.rejectByState.length; state++) {
+					this.rejectByState[state] = NONE;
+					for (int j = 0; j < compiledRules.size(); j++) {
+						Rule rule = this.rules[compiledRules.get(j)];
+						if (this.automaton.matches(state, j) != rule.isAllow()) {
+							this.rejectByState[state] = compiledRules.get(j);
+							break;
+						}
+					}
+				}
+			}
+
+			this.fallbackRules = new int[fallback.size()];
+			this.fallbackPatterns = new Pattern[fallback.size()];
+			int i = 0;
+			for (Iterator<Integer> iter = fallback.iterator(); iter.hasNext(); i++) {
+				this.fallbackRules[i] = iter.next();
+				this.fallbackPatterns[i] = this.rules[this.fallbackRules[i]].getPattern();
+			}
+		}
+	}
 }
@@ -0,0 +1,183 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * A simple bounded pool of expensive resources like database or
+ * directory connections. Idle resources are kept for reuse, at most
+ * maxSize resources exist at the same time.
+ * 
+ * @param <T>
+ * 			the type of the pooled resource
+ * 
+ * @author unrza249
+ */
+public abstract class ResourcePool<T> {
+
+	/**
+	 * The idle resources
+	 */
+	private final LinkedBlockingQueue<T> idle = new LinkedBlockingQueue<T>();
+
+	/**
+	 * One permit per resource that may be handed out
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * How long acquire() waits for a free resource in milliseconds
+	 */
+	private final long timeout;
+
+	/**
+	 * Set once the pool has been closed
+	 */
+	private volatile boolean closed = false;
+
+
+	/**
+	 * Creates an empty pool
+	 * 
+	 * @param maxSize
+	 * 			the maximum number of resources
+	 * @param timeout
+	 * 			how long to wait for a free resource in milliseconds,
+	 * 			0 to wait forever
+	 */
+	public ResourcePool(int maxSize, long timeout) {
+		this.permits = new Semaphore(Math.max(1, maxSize), true);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Creates a new resource
+	 * 
+	 * @return the new resource
+	 * @throws Exception
+	 * 			if the resource could not be created
+	 */
+	protected abstract T create() throws Exception;
+
+	/**
+	 * Frees a resource that is no longer needed
+	 * 
+	 * @param resource
+	 * 			the resource to free
+	 */
+	protected abstract void destroy(T resource);
+
+	/**
+	 * Checks whether an idle resource can still be used.
+	 * 
+	 * @param resource
+	 * 			the idle resource
+	 * @return true if the resource is usable
+	 */
+	protected boolean validate(T resource) {
+		return true;
+	}
+
+	/**
+	 * Takes a resource from the pool, creating a new one if
+	 * no idle resource is available.
+	 * 
+	 * @return the resource
+	 * @throws TimeoutException
+	 * 			if no resource became available in time
+	 * @throws Exception
+	 * 			if a new resource could not be created
+	 */
+	public T acquire() throws Exception {
+		if (this.closed) {
+			throw new IllegalStateException("pool closed");
+		}
+		if (this.timeout <= 0) {
+			this.permits.acquire();
+		}
+		else if (!this.permits.tryAcquire(this.timeout, TimeUnit.MILLISECONDS)) {
+			throw new TimeoutException("no pooled resource available within " + this.timeout + "ms");
+		}
+
+		try {
+			T resource;
+			while ((resource = this.idle.poll()) != null) {
+				if (this.validate(resource)) {
+					return resource;
+				}
+				this.destroy(resource);
+			}
+			return this.create();
+		}
+		catch (Exception e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a healthy resource to the pool.
+	 * 
+	 * @param resource
+	 * 			the resource taken by acquire()
+	 */
+	public void release(T resource) {
+		if (this.closed) {
+			this.destroy(resource);
+		}
+		else {
+			this.idle.offer(resource);
+		}
+		this.permits.release();
+	}
+
+	/**
+	 * Destroys a broken resource instead of returning it to the pool.
+	 * 
+	 * @param resource
+	 * 			the resource taken by acquire()
+	 */
+	public void invalidate(T resource) {
+		this.destroy(resource);
+		this.permits.release();
+	}
+
+	/**
+	 * Closes the pool and destroys all idle resources.
+	 * Resources still in use are destroyed on release.
+	 */
+	public void close() {
+		this.closed = true;
+		T resource;
+		while ((resource = this.idle.poll()) != null) {
+			this.destroy(resource);
+		}
+	}
+}
@@ -26,35 +26,89 @@ package de.rrze.idmone.utils.jidgen.filter;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import de.rrze.idmone.utils.jidgen.AbortException;
+import de.rrze.idmone.utils.jidgen.Messages;
+
 
 /**
  * A filter that calls the given shell command
  * with the id or subsequently with all ids, if there
  * are more than one, to be tested and
  * filters the id on exit code 0 (success).
- * Any exit code other than 0 will not filter the id.
+ * Any exit code other than 0 will not filter the id.<br />
+ * Lists of ids are checked by a bounded pool of concurrently
+ * running processes. Every invocation may be limited by a timeout,
+ * after which the whole process tree is killed. What happens to an
+ * id whose check timed out or failed is decided by the configured
+ * verdict policy.
  * 
  * @author unrza249
  */
 public class ShellCmdFilter
 extends AbstractFilter
-implements 	IFilter
+implements 	IFilter, IAsyncFilter
 {
 	/**
 	 *  The class logger
 	 */
 	private static final Log logger = LogFactory.getLog(ShellCmdFilter.class);
 
+	/**
+	 * Shared daemon threads that drain stdout/stderr of the
+	 * running processes, so that a chatty command never blocks
+	 * on a full pipe.
+	 */
+	private static final ExecutorService streamReaders = Executors.newCachedThreadPool(new DaemonThreadFactory("jidgen-shellcmd-io"));
+
 	/**
 	 * The command to run 
 	 */
 	private String cmdTemplate = "./filter.sh %s";
 
+	/**
+	 * The maximum number of concurrently running processes
+	 */
+	private int poolSize = 1;
+
+	/**
+	 * Timeout for one invocation in milliseconds, 0 disables the timeout
+	 */
+	private long timeout = 0;
+
+	/**
+	 * Verdict for ids whose check timed out
+	 */
+	private Verdict timeoutVerdict = Verdict.REJECT;
+
+	/**
+	 * Verdict for ids whose check could not be executed
+	 */
+	private Verdict errorVerdict = Verdict.ABORT;
+
+	/**
+	 * The process pool, created on first use
+	 */
+	private ExecutorService pool;
+
 	/**
 	 * Default construct.
 	 */
@@ -76,66 +130,306 @@ implements 	IFilter
 	 *      java.lang.String)
 	 */
 	public String apply(String id)	{
+		return this.resolve(id, this.check(id));
+	}
+
+	/**
+	 * Checks all ids concurrently using at most poolSize
+	 * processes at once. The order of the given list is preserved.
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.AbstractFilter#apply(java.util.List)
+	 */
+	public List<String> apply(List<String> ids) {
+		if (this.poolSize <= 1 || ids.size() <= 1) {
+			return super.apply(ids);
+		}
+
+		// start all checks, the pool limits the number of running processes
+		List<Future<Verdict>> verdicts = new ArrayList<Future<Verdict>>(ids.size());
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			verdicts.add(this.submit(iter.next()));
+		}
+
+		// collect the results in the original order
+		List<String> suitable = new ArrayList<String>();
+		Iterator<Future<Verdict>> results = verdicts.iterator();
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			String id = iter.next();
+			if (this.resolve(id, this.await(results.next())) != null) {
+				suitable.add(id);
+			}
+		}
+		return suitable;
+	}
+
+	/**
+	 * Runs the check of one id on the process pool. Cancelling the
+	 * returned future kills the command if it is still running.
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.filter.IAsyncFilter#applyAsync(java.lang.String)
+	 */
+	public CompletableFuture<String> applyAsync(final String id) {
+		return AsyncFilterAdapter.supply(this.getPool(), new Callable<String>() {
+			public String call() {
+				Verdict verdict = check(id);
+				if (Thread.currentThread().isInterrupted()) {
+					// cancelled, the error verdict of the killed command does not count
+					throw new CancellationException(id);
+				}
+				return resolve(id, verdict);
+			}
+		});
+	}
+
+	/**
+	 * Schedules the check of one id on the process pool.
+	 * 
+	 * @param id
+	 * 			the id to be checked
+	 * @return the pending verdict
+	 */
+	protected Future<Verdict> submit(final String id) {
+		return this.getPool().submit(new Callable<Verdict>() {
+			public Verdict call() {
+				return check(id);
+			}
+		});
+	}
+
+	/**
+	 * Waits for a pending verdict.
+	 * 
+	 * @param verdict
+	 * 			the pending verdict
+	 * @return the verdict or the error verdict if waiting failed
+	 */
+	private Verdict await(Future<Verdict> verdict) {
+		try {
+			return verdict.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error(e.toString());
+			return this.errorVerdict;
+		}
+		catch (ExecutionException e) {
+			logger.error(e.getCause().toString());
+			return this.errorVerdict;
+		}
+	}
+
+	/**
+	 * Turns a verdict into the filter result, aborting the generation
+	 * if requested.
+	 * 
+	 * @param id
+	 * 			the checked id
+	 * @param verdict
+	 * 			the verdict for the id
+	 * @return <em>null</em> if the id should be filtered and the
+	 *         id if it satisfies the rules.
+	 * @throws AbortException
+	 * 			on the abort verdict
+	 */
+	private String resolve(String id, Verdict verdict) {
+		switch (verdict) {
+		case ACCEPT:
+			return id;
+		case REJECT:
+			return null;
+		default:
+			logger.fatal(Messages.getString("ShellCmdFilter.ABORT") + id);
+			throw new AbortException(Messages.getString("ShellCmdFilter.ABORT") + id, 120);
+		}
+	}
+
+	/**
+	 * Runs the command for one id and waits for its termination
+	 * or the timeout. The timeout also covers reading the output,
+	 * which a descendant of the command may keep open after the
+	 * command itself has ended.
+	 * 
+	 * @param id
+	 * 			the id to be checked
+	 * @return the verdict for this id
+	 */
+	protected Verdict check(String id) {
 		String cmd = this.cmdTemplate.replace("%s", id);
 
-		logger.trace("Executing command: " + cmd);
-		
-		Runtime run = Runtime.getRuntime();
+		if (logger.isTraceEnabled()) {
+			logger.trace("Executing command: " + cmd);
+		}
+
+		Process proc = null;
+		Future<?> stdOut = null;
+		Future<?> stdErr = null;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
 		try {
-			Process proc = run.exec(cmd);
-			
-	/*		BufferedWriter commandLine = new BufferedWriter(
-					new OutputStreamWriter(proc.getOutputStream())
-			);
-			commandLine.write(cmd);
-			commandLine.flush();
-*/
-			// read stdout and log it to the debug level
-			BufferedReader stdOut = new BufferedReader(
-					new InputStreamReader(proc.getInputStream())
-			);
-			String stdOutput = "";
-			while( (stdOutput = stdOut.readLine()) != null) {
-				logger.debug("STDOUT: " + stdOutput);
+			proc = Runtime.getRuntime().exec(cmd);
+			proc.getOutputStream().close();
+
+			// read stdout and log it to the debug level,
+			// stderr goes to the error level
+			stdOut = drain(proc.getInputStream(), "STDOUT: ", false);
+			stdErr = drain(proc.getErrorStream(), "STDERR: ", true);
+
+			boolean finished;
+			if (this.timeout > 0) {
+				finished = proc.waitFor(this.timeout, TimeUnit.MILLISECONDS);
 			}
-			stdOut.close();
-			
-
-			// read stderr and log it to the error level
-			BufferedReader stdErr = new BufferedReader(
-					new InputStreamReader(proc.getErrorStream())
-			);
-			String errOutput = "";
-			while( (errOutput = stdErr.readLine()) != null) {
-				logger.error("STDERR: " + errOutput);
+			else {
+				proc.waitFor();
+				finished = true;
 			}
-			stdErr.close();
 
-			
-			int exitCode = proc.waitFor();
-			proc.destroy();
-			
-			if (exitCode == 0) {
-				logger.trace("Filtered!");
-				return null;
+			if (!finished) {
+				logger.warn(Messages.getString("ShellCmdFilter.TIMEOUT") + " (" + this.timeout + "ms): " + cmd);
+				destroyTree(proc);
+				stdOut.cancel(true);
+				stdErr.cancel(true);
+				return this.timeoutVerdict;
+			}
+
+			// make sure all output was logged before the verdict
+			if (this.timeout > 0) {
+				stdOut.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				stdErr.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
 			}
 			else {
-				return id;
+				stdOut.get();
+				stdErr.get();
 			}
-			
-			
 
+			if (proc.exitValue() == 0) {
+				logger.trace("Filtered!");
+				return Verdict.REJECT;
+			}
+			else {
+				return Verdict.ACCEPT;
+			}
 		}
 		catch (IOException e) {
-			logger.fatal(e.toString());
-			System.exit(120);
+			logger.error(Messages.getString("ShellCmdFilter.ERROR") + cmd + " (" + e.toString() + ")");
+			return this.errorVerdict;
+		}
+		catch (ExecutionException e) {
+			logger.error(Messages.getString("ShellCmdFilter.ERROR") + cmd + " (" + e.getCause().toString() + ")");
+			return this.errorVerdict;
+		}
+		catch (TimeoutException e) {
+			// a descendant still holds the output open
+			logger.warn(Messages.getString("ShellCmdFilter.TIMEOUT") + " (" + this.timeout + "ms): " + cmd);
+			destroyTree(proc);
+			stdOut.cancel(true);
+			stdErr.cancel(true);
+			return this.timeoutVerdict;
 		}
 		catch (InterruptedException e) {
-			logger.fatal(e.toString());
-			System.exit(121);			
+			Thread.currentThread().interrupt();
+			if (proc != null) {
+				destroyTree(proc);
+				stdOut.cancel(true);
+				stdErr.cancel(true);
+			}
+			// interrupted checks have been cancelled on purpose
+			logger.debug(Messages.getString("ShellCmdFilter.ERROR") + cmd + " (" + e.toString() + ")");
+			return this.errorVerdict;
 		}
+	}
+
+	/**
+	 * Kills the given process and all of its descendants and closes
+	 * its output streams, so that no reader waits for them.
+	 * The descendants are collected first, because they
+	 * get re-parented once their parent is gone.
+	 * 
+	 * @param proc
+	 * 			the process to kill
+	 */
+	private static void destroyTree(Process proc) {
+		List<ProcessHandle> children = new ArrayList<ProcessHandle>();
+		for (Iterator<ProcessHandle> iter = proc.descendants().iterator(); iter.hasNext();) {
+			children.add(iter.next());
+		}
+
+		proc.destroyForcibly();
+		for (Iterator<ProcessHandle> iter = children.iterator(); iter.hasNext();) {
+			iter.next().destroyForcibly();
+		}
+
+		try {
+			proc.getInputStream().close();
+			proc.getErrorStream().close();
+		}
+		catch (IOException e) {
+			logger.trace(e.toString());
+		}
+	}
 
-		return null;
+	/**
+	 * Reads the given stream line by line in the background and
+	 * logs every line.
+	 * 
+	 * @param in
+	 * 			the stream to read
+	 * @param prefix
+	 * 			the prefix of every logged line
+	 * @param error
+	 * 			true to log to the error level, false for the debug level
+	 * @return the pending reader task
+	 */
+	private static Future<?> drain(final InputStream in, final String prefix, final boolean error) {
+		return streamReaders.submit(new Runnable() {
+			public void run() {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (error) {
+							logger.error(prefix + line);
+						}
+						else {
+							logger.debug(prefix + line);
+						}
+					}
+				}
+				catch (IOException e) {
+					// the stream is closed when the process gets killed
+					logger.trace(e.toString());
+				}
+				finally {
+					try {
+						reader.close();
+					}
+					catch (IOException e) {
+						logger.trace(e.toString());
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the process pool and creates it if needed.
+	 * 
+	 * @return the process pool
+	 */
+	private synchronized ExecutorService getPool() {
+		if (this.pool == null) {
+			this.pool = Executors.newFixedThreadPool(this.poolSize, new DaemonThreadFactory("jidgen-shellcmd"));
+		}
+		return this.pool;
+	}
+
+	/**
+	 * Stops the process pool. Running checks are completed,
+	 * the pool is recreated on the next use.
+	 */
+	public synchronized void shutdown() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+			this.pool = null;
+		}
 	}
 
 	/**
@@ -156,4 +450,104 @@ implements 	IFilter
 	public void setCmd(String cmd) {
 		this.cmdTemplate = cmd;
 	}
+
+	/**
+	 * Get the maximum number of concurrently running processes.
+	 * 
+	 * @return the pool size
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Set the maximum number of concurrently running processes.
+	 * 
+	 * @param poolSize
+	 * 			the new pool size, values below 1 are treated as 1
+	 */
+	public synchronized void setPoolSize(int poolSize) {
+		this.shutdown();
+		this.poolSize = Math.max(1, poolSize);
+	}
+
+	/**
+	 * Get the timeout of one invocation.
+	 * 
+	 * @return the timeout in milliseconds, 0 if disabled
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set the timeout of one invocation.
+	 * 
+	 * @param timeout
+	 * 			the timeout in milliseconds, 0 to disable it
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = Math.max(0, timeout);
+	}
+
+	/**
+	 * Get the verdict for ids whose check timed out.
+	 * 
+	 * @return the timeout verdict
+	 */
+	public Verdict getTimeoutVerdict() {
+		return timeoutVerdict;
+	}
+
+	/**
+	 * Set the verdict for ids whose check timed out.
+	 * 
+	 * @param timeoutVerdict
+	 * 			the new timeout verdict
+	 */
+	public void setTimeoutVerdict(Verdict timeoutVerdict) {
+		this.timeoutVerdict = timeoutVerdict;
+	}
+
+	/**
+	 * Get the verdict for ids whose check failed.
+	 * 
+	 * @return the error verdict
+	 */
+	public Verdict getErrorVerdict() {
+		return errorVerdict;
+	}
+
+	/**
+	 * Set the verdict for ids whose check failed,
+	 * e.g. because the command could not be started.
+	 * 
+	 * @param errorVerdict
+	 * 			the new error verdict
+	 */
+	public void setErrorVerdict(Verdict errorVerdict) {
+		this.errorVerdict = errorVerdict;
+	}
+
+
+	/**
+	 * Creates named daemon threads, so that idle pools
+	 * never keep the JVM alive.
+	 */
+	static class DaemonThreadFactory
+		implements ThreadFactory
+	{
+		private final String name;
+		private int count = 0;
+
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(r, this.name + "-" + (++this.count));
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
@@ -0,0 +1,54 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+/**
+ * The possible outcomes of checking an id against a backend.
+ * Filters that talk to external systems use it to configure how
+ * timeouts and errors are treated.
+ * 
+ * @author unrza249
+ */
+public enum Verdict {
+	/** the id is suitable */
+	ACCEPT,
+	/** the id is filtered */
+	REJECT,
+	/** the whole program is aborted */
+	ABORT;
+
+	/**
+	 * Parses a verdict name case-insensitively.
+	 * 
+	 * @param name
+	 * 			accept, reject or abort
+	 * @return the verdict
+	 * @throws IllegalArgumentException
+	 * 			if the name is unknown
+	 */
+	public static Verdict parse(String name) {
+		return Verdict.valueOf(name.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,396 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.filter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A bounded cache for the verdicts of one filter.<br />
+ * Eviction follows the W-TinyLFU policy: new entries enter a small
+ * LRU window, entries leaving the window compete with the least recently
+ * used entry of the segmented LRU main area and only the one that was
+ * requested more often (estimated by a count-min sketch) is kept.
+ * This keeps frequently checked candidates cached even when a bulk run
+ * streams lots of one-off candidates through the cache.<br />
+ * Every entry expires after the configured time to live.
+ * 
+ * @author unrza249
+ */
+public class VerdictCache {
+
+	/**
+	 * Share of the capacity used for the admission window in percent
+	 */
+	private static final int WINDOW_PERCENT = 1;
+
+	/**
+	 * Share of the main area used for the protected segment in percent
+	 */
+	private static final int PROTECTED_PERCENT = 80;
+
+	/**
+	 * The admission window (LRU, eldest first)
+	 */
+	private LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * Main area segment for entries that were hit only once
+	 */
+	private LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * Main area segment for entries that were hit repeatedly
+	 */
+	private LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * The frequency estimator
+	 */
+	private FrequencySketch sketch;
+
+	private int windowSize;
+	private int protectedSize;
+	private int mainSize;
+
+	/**
+	 * Time to live of an entry in milliseconds
+	 */
+	private long ttl;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+
+	/**
+	 * Creates a cache
+	 * 
+	 * @param maxSize
+	 * 			the maximum number of cached verdicts
+	 * @param ttl
+	 * 			the time to live of a verdict in milliseconds
+	 */
+	public VerdictCache(int maxSize, long ttl) {
+		maxSize = Math.max(2, maxSize);
+		this.windowSize = Math.max(1, maxSize * WINDOW_PERCENT / 100);
+		this.mainSize = maxSize - this.windowSize;
+		this.protectedSize = this.mainSize * PROTECTED_PERCENT / 100;
+		this.ttl = ttl;
+		this.sketch = new FrequencySketch(maxSize);
+	}
+
+	/**
+	 * Looks up the verdict for an id.
+	 * 
+	 * @param id
+	 * 			the id to look up
+	 * @param now
+	 * 			the current time in milliseconds
+	 * @return true if the id passed the filter, false if it was
+	 * 			filtered and <em>null</em> if the verdict is unknown
+	 */
+	public synchronized Boolean get(String id, long now) {
+		this.sketch.increment(id.hashCode());
+
+		Entry entry;
+		if ((entry = this.window.remove(id)) != null) {
+			if (this.isValid(entry, now)) {
+				this.window.put(id, entry);
+			}
+		}
+		else if ((entry = this.probation.remove(id)) != null) {
+			if (this.isValid(entry, now)) {
+				// a second hit promotes the entry to the protected segment
+				this.protectedSegment.put(id, entry);
+				this.demoteProtected();
+			}
+		}
+		else if ((entry = this.protectedSegment.remove(id)) != null) {
+			if (this.isValid(entry, now)) {
+				this.protectedSegment.put(id, entry);
+			}
+		}
+
+		if (entry == null || !this.isValid(entry, now)) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return entry.verdict;
+	}
+
+	/**
+	 * Stores the verdict for an id.
+	 * 
+	 * @param id
+	 * 			the checked id
+	 * @param verdict
+	 * 			true if the id passed the filter, false otherwise
+	 * @param now
+	 * 			the current time in milliseconds
+	 */
+	public synchronized void put(String id, boolean verdict, long now) {
+		Entry entry = new Entry(verdict, now);
+
+		if (this.probation.containsKey(id)) {
+			this.probation.put(id, entry);
+			return;
+		}
+		if (this.protectedSegment.containsKey(id)) {
+			this.protectedSegment.put(id, entry);
+			return;
+		}
+
+		this.window.remove(id);
+		this.window.put(id, entry);
+		if (this.window.size() > this.windowSize) {
+			this.admit(this.removeEldest(this.window));
+		}
+	}
+
+	/**
+	 * Lets a candidate that dropped out of the window compete
+	 * for a place in the main area.
+	 * 
+	 * @param candidate
+	 * 			the eldest window entry
+	 */
+	private void admit(Map.Entry<String, Entry> candidate) {
+		if (this.probation.size() + this.protectedSegment.size() < this.mainSize) {
+			this.probation.put(candidate.getKey(), candidate.getValue());
+			return;
+		}
+
+		LinkedHashMap<String, Entry> victims = this.probation.isEmpty() ? this.protectedSegment : this.probation;
+		String victim = victims.keySet().iterator().next();
+
+		if (this.sketch.frequency(candidate.getKey().hashCode()) > this.sketch.frequency(victim.hashCode())) {
+			victims.remove(victim);
+			this.probation.put(candidate.getKey(), candidate.getValue());
+		}
+		this.evictions++;
+	}
+
+	/**
+	 * Moves the least recently used protected entries back to the
+	 * probation segment if the protected segment is full.
+	 */
+	private void demoteProtected() {
+		while (this.protectedSegment.size() > this.protectedSize) {
+			Map.Entry<String, Entry> eldest = this.removeEldest(this.protectedSegment);
+			this.probation.put(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	/**
+	 * Removes and returns the least recently used entry of a segment.
+	 * 
+	 * @param segment
+	 * 			the segment to shrink
+	 * @return the removed entry
+	 */
+	private Map.Entry<String, Entry> removeEldest(LinkedHashMap<String, Entry> segment) {
+		Iterator<Map.Entry<String, Entry>> iter = segment.entrySet().iterator();
+		Map.Entry<String, Entry> eldest = iter.next();
+		iter.remove();
+		return eldest;
+	}
+
+	/**
+	 * Checks whether an entry is still fresh enough.
+	 * 
+	 * @param entry
+	 * 			the entry to check
+	 * @param now
+	 * 			the current time in milliseconds
+	 * @return true if the entry has not expired yet
+	 */
+	private boolean isValid(Entry entry, long now) {
+		return (now - entry.time) <= this.ttl;
+	}
+
+	/**
+	 * Removes all cached verdicts, the statistics are kept.
+	 */
+	public synchronized void clear() {
+		this.window.clear();
+		this.probation.clear();
+		this.protectedSegment.clear();
+	}
+
+	/**
+	 * Returns the number of cached verdicts.
+	 * 
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return this.window.size() + this.probation.size() + this.protectedSegment.size();
+	}
+
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * Returns the share of lookups that were answered from the cache.
+	 * 
+	 * @return the hit rate between 0 and 1
+	 */
+	public synchronized double getHitRate() {
+		long requests = this.hits + this.misses;
+		return (requests == 0) ? 0 : (double)this.hits / requests;
+	}
+
+	/**
+	 * Returns a short summary of the cache statistics.
+	 * 
+	 * @return the statistics string
+	 */
+	public synchronized String toString() {
+		return "hits=" + this.hits 
+			+ ", misses=" + this.misses
+			+ ", hit rate=" + Math.round(this.getHitRate() * 1000) / 10.0 + "%"
+			+ ", evictions=" + this.evictions
+			+ ", size=" + this.size();
+	}
+
+
+	/**
+	 * A cached verdict
+	 */
+	private static class Entry {
+		final boolean verdict;
+		final long time;
+
+		Entry(boolean verdict, long time) {
+			this.verdict = verdict;
+			this.time = time;
+		}
+	}
+
+
+	/**
+	 * A count-min sketch with four 4-bit counters per key.
+	 * All counters are halved periodically, so that the
+	 * estimate follows the recent popularity of a key.
+	 */
+	static class FrequencySketch {
+
+		private static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+		};
+
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		/**
+		 * 16 counters of 4 bits per word
+		 */
+		private long[] table;
+
+		private int additions = 0;
+		private int sampleSize;
+
+		FrequencySketch(int maxSize) {
+			int length = Integer.highestOneBit(Math.max(16, maxSize) - 1) << 1;
+			this.table = new long[length];
+			this.sampleSize = 10 * maxSize;
+		}
+
+		/**
+		 * Returns the estimated number of requests for a key.
+		 * 
+		 * @param hash
+		 * 			the hash code of the key
+		 * @return the estimated frequency (0-15)
+		 */
+		int frequency(int hash) {
+			int frequency = 15;
+			for (int i = 0; i < SEEDS.length; i++) {
+				long h = this.hash(hash, i);
+				int index = this.index(h);
+				int offset = this.offset(h);
+				frequency = Math.min(frequency, (int)((this.table[index] >>> offset) & 0xfL));
+			}
+			return frequency;
+		}
+
+		/**
+		 * Counts one request for a key.
+		 * 
+		 * @param hash
+		 * 			the hash code of the key
+		 */
+		void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < SEEDS.length; i++) {
+				long h = this.hash(hash, i);
+				int index = this.index(h);
+				int offset = this.offset(h);
+				if (((this.table[index] >>> offset) & 0xfL) != 0xfL) {
+					this.table[index] += (1L << offset);
+					added = true;
+				}
+			}
+
+			if (added && (++this.additions == this.sampleSize)) {
+				this.reset();
+			}
+		}
+
+		/**
+		 * Halves all counters
+		 */
+		private void reset() {
+			for (int i = 0; i < this.table.length; i++) {
+				this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+			}
+			this.additions /= 2;
+		}
+
+		private long hash(int hash, int i) {
+			long h = (hash + SEEDS[i]) * SEEDS[i];
+			return h ^ (h >>> 32);
+		}
+
+		private int index(long h) {
+			return (int)(h >>> 8) & (this.table.length - 1);
+		}
+
+		private int offset(long h) {
+			return (int)(h & 0xf) << 2;
+		}
+	}
+}
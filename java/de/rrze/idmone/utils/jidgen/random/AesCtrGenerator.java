@@ -0,0 +1,214 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.random;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A cryptographically secure generator that produces its output in
+ * bulk as the AES-256 keystream in counter mode, so that drawing a 
+ * number mostly means reading 8 bytes from a buffer.<br />
+ * The generator uses fast key erasure: every refill of the buffer
+ * starts with a new key taken from the keystream of the old one, so
+ * output that was handed out cannot be reconstructed from the state
+ * of the generator later on.<br />
+ * Instances are not thread-safe, use one per thread.
+ * 
+ * @author unrza249
+ */
+public class AesCtrGenerator 
+	implements RandomGenerator
+{
+	/**
+	 * Size of the key in bytes
+	 */
+	private static final int KEY_SIZE = 32;
+
+	/**
+	 * Size of the counter block in bytes
+	 */
+	private static final int IV_SIZE = 16;
+
+	/**
+	 * Size of the keystream buffer in bytes, including the next key
+	 */
+	private static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * The AES cipher in counter mode
+	 */
+	private final Cipher cipher;
+
+	/**
+	 * The keystream, the part before pos is used up
+	 */
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * The buffer as a byte buffer for reading numbers
+	 */
+	private final ByteBuffer numbers = ByteBuffer.wrap(this.buffer);
+
+	/**
+	 * Zeros to encrypt, which gives the plain keystream
+	 */
+	private final byte[] zeros = new byte[BUFFER_SIZE];
+
+	/**
+	 * The next unused byte of the buffer
+	 */
+	private int pos = BUFFER_SIZE;
+
+
+	/**
+	 * Creates a generator seeded from the non-blocking 
+	 * system source.
+	 */
+	public AesCtrGenerator()
+	{
+		this(RandomFactory.getSeedBytes(KEY_SIZE));
+	}
+
+	/**
+	 * Creates a generator with the given key.
+	 * 
+	 * @param seed
+	 *            the 32 byte key
+	 */
+	public AesCtrGenerator(byte[] seed)
+	{
+		try
+		{
+			this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
+		}
+		catch (GeneralSecurityException e)
+		{
+			// every JVM has to provide AES/CTR
+			throw new IllegalStateException(e);
+		}
+		System.arraycopy(seed, 0, this.buffer, 0, KEY_SIZE);
+		this.rekey();
+	}
+
+
+	/**
+	 * Starts the cipher with the key at the start of the buffer and a
+	 * zero counter, as every key is used for one buffer only, and 
+	 * erases the key from the buffer.
+	 */
+	private void rekey()
+	{
+		try
+		{
+			this.cipher.init(Cipher.ENCRYPT_MODE, 
+					new SecretKeySpec(this.buffer, 0, KEY_SIZE, "AES"), 
+					new IvParameterSpec(new byte[IV_SIZE]));
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		Arrays.fill(this.buffer, 0, KEY_SIZE, (byte)0);
+	}
+
+	/**
+	 * Fills the buffer with fresh keystream and switches to the
+	 * next key.
+	 */
+	private void refill()
+	{
+		try
+		{
+			this.cipher.doFinal(this.zeros, 0, BUFFER_SIZE, this.buffer, 0);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		this.rekey();
+		this.pos = KEY_SIZE;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextLong()
+	 */
+	public long nextLong()
+	{
+		if (this.pos > BUFFER_SIZE - 8)
+			this.refill();
+
+		long ret = this.numbers.getLong(this.pos);
+		// used output is not kept
+		this.numbers.putLong(this.pos, 0);
+		this.pos += 8;
+		return ret;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextInt()
+	 */
+	public int nextInt()
+	{
+		if (this.pos > BUFFER_SIZE - 4)
+			this.refill();
+
+		int ret = this.numbers.getInt(this.pos);
+		this.numbers.putInt(this.pos, 0);
+		this.pos += 4;
+		return ret;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextBytes(byte[])
+	 */
+	public void nextBytes(byte[] bytes)
+	{
+		int done = 0;
+		while (done < bytes.length)
+		{
+			if (this.pos == BUFFER_SIZE)
+				this.refill();
+
+			int n = Math.min(bytes.length - done, BUFFER_SIZE - this.pos);
+			System.arraycopy(this.buffer, this.pos, bytes, done, n);
+			Arrays.fill(this.buffer, this.pos, this.pos + n, (byte)0);
+			this.pos += n;
+			done += n;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.random;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Draws uniformly distributed digits of a given base, several of
+ * them from one 64 bit random number.<br />
+ * This is Lemire's nearly divisionless method applied to the range
+ * base^k, where k is the largest number of digits that fits into 63 
+ * bits, e.g. 13 letters or 18 decimal digits. Instead of multiplying 
+ * the random number with base^k at once, it is multiplied with the 
+ * base k times: each upper half is the next digit and the lower half 
+ * is multiplied further. The last lower half equals the lower half of 
+ * the product with base^k, so the usual rejection test on it keeps all
+ * digits exactly uniform, while drawing them needs no division at all.
+ * 
+ * @see <a href="https://arxiv.org/abs/1805.10941">Lemire: Fast Random Integer Generation in an Interval</a>
+ * @see <a href="https://arxiv.org/abs/2408.06213">Brackett-Rozinsky, Lemire: Batched Ranged Random Integer Generation</a>
+ * @author unrza249
+ */
+public class DigitSampler
+{
+	/**
+	 * The base of the digits
+	 */
+	private final int base;
+
+	/**
+	 * Maximum number of digits per random number
+	 */
+	private final int digitsPerBatch;
+
+	/**
+	 * 2^64 mod base^count for every count of digits, products
+	 * with a lower half below it are rejected to avoid a bias
+	 */
+	private final long[] thresholds;
+
+
+	/**
+	 * Constructor
+	 * 
+	 * @param base
+	 *            the base of the digits, at least 1
+	 */
+	public DigitSampler(int base)
+	{
+		if (base < 1)
+			throw new IllegalArgumentException("base " + base);
+		this.base = base;
+
+		int digits = 1;
+		long range = base;
+		while (base > 1 && range <= Long.MAX_VALUE / base)
+		{
+			range *= base;
+			digits++;
+		}
+		this.digitsPerBatch = (base > 1) ? digits : Integer.MAX_VALUE;
+
+		// the only divisions, once per base
+		this.thresholds = new long[Math.min(digits, 64) + 1];
+		range = 1;
+		for (int count = 1; count < this.thresholds.length; count++)
+		{
+			range *= base;
+			this.thresholds[count] = Long.remainderUnsigned(-range, range);
+		}
+	}
+
+
+	/**
+	 * Draws uniform digits in [0, base).
+	 * 
+	 * @param random
+	 *            the random number generator
+	 * @param digits
+	 *            the array to store the digits in
+	 * @param count
+	 *            the number of digits, at most getDigitsPerBatch()
+	 */
+	public void nextDigits(RandomGenerator random, int[] digits, int count)
+	{
+		if (this.base == 1)
+		{
+			for (int i = 0; i < count; i++)
+				digits[i] = 0;
+			return;
+		}
+
+		long threshold = this.thresholds[count];
+		long x;
+		do
+		{
+			x = random.nextLong();
+			for (int i = 0; i < count; i++)
+			{
+				// the upper half of the unsigned 128 bit product
+				digits[i] = (int)(Math.multiplyHigh(x, this.base) + ((x >> 63) & this.base));
+				x *= this.base;
+			}
+		}
+		while (Long.compareUnsigned(x, threshold) < 0);
+	}
+
+	/**
+	 * Returns the base of the digits.
+	 * 
+	 * @return the base
+	 */
+	public int getBase()
+	{
+		return this.base;
+	}
+
+	/**
+	 * Returns the maximum number of digits drawn from one 
+	 * random number.
+	 * 
+	 * @return the number of digits
+	 */
+	public int getDigitsPerBatch()
+	{
+		return this.digitsPerBatch;
+	}
+}
@@ -27,13 +27,18 @@ package de.rrze.idmone.utils.jidgen.random;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.Provider;
+import java.util.Collections;
 import java.util.Random;
 import java.util.Set;
+import java.util.random.RandomGenerator;
 
 /**
  * Interface defining an advanced type of factory for random number generation.
  * It utilizes secure random numbers, different algorithms and security
- * providers.
+ * providers.<br />
+ * The generator methods have defaults for implementations that only
+ * provide getRandom(): they offer the GEN_RANDOM algorithm alone and
+ * have no master seed.
  * 
  * @author unrz205
  */
@@ -69,6 +74,11 @@ public interface IRandomFactory
 	 */
 	public static final String ALG_SHA1PRNG = "SHA1PRNG";
 
+	/**
+	 * The non-blocking native algorithm reading /dev/urandom
+	 */
+	public static final String ALG_NATIVE_NON_BLOCKING = "NativePRNGNonBlocking";
+
 	/**
 	 * Default algorithm to be used
 	 */
@@ -79,6 +89,41 @@ public interface IRandomFactory
 	 */
 	public static final String ALG_PARSE_STRING = "Alg.Alias.";
 
+	/**
+	 * The generator algorithm of java.util.Random
+	 */
+	public static final String GEN_RANDOM = "Random";
+
+	/**
+	 * The LXM generator algorithm with a 64 bit LCG and a 128 bit XBG
+	 */
+	public static final String GEN_L64X128 = "L64X128MixRandom";
+
+	/**
+	 * The xoshiro256++ generator algorithm
+	 */
+	public static final String GEN_XOSHIRO256 = "Xoshiro256PlusPlus";
+
+	/**
+	 * The generator algorithm of java.util.SplittableRandom
+	 */
+	public static final String GEN_SPLITTABLE = "SplittableRandom";
+
+	/**
+	 * The per-thread generator of java.util.concurrent.ThreadLocalRandom
+	 */
+	public static final String GEN_THREAD_LOCAL = "ThreadLocalRandom";
+
+	/**
+	 * The secure buffered AES-256 counter mode generator, one per thread
+	 */
+	public static final String GEN_AES_CTR = "AesCtrDrbg";
+
+	/**
+	 * Default generator algorithm
+	 */
+	public static final String GEN_DEFAULT = GEN_L64X128;
+
 	/**
 	 * Returns a normal Random number
 	 * 
@@ -93,6 +138,99 @@ public interface IRandomFactory
 	 */
 	public Random getRandom(long seed);
 
+	/**
+	 * Returns a new generator of the selected algorithm. Every
+	 * generator gets its own stream derived from the master seed.
+	 * 
+	 * @return the generator
+	 */
+	public default RandomGenerator getGenerator() {
+		return this.getGenerator(this.getGeneratorAlgorithm());
+	}
+
+	/**
+	 * Returns a new generator of the given algorithm. Every
+	 * generator gets its own stream derived from the master seed.
+	 * 
+	 * @param algorithm
+	 *            the generator algorithm, e.g. GEN_L64X128
+	 * @return the generator
+	 * @throws IllegalArgumentException
+	 *            if the algorithm is unknown
+	 */
+	public default RandomGenerator getGenerator(String algorithm) {
+		if (!GEN_RANDOM.equals(algorithm)) {
+			throw new IllegalArgumentException("Unknown random generator algorithm: " + algorithm);
+		}
+		return this.getRandom();
+	}
+
+	/**
+	 * Selects the algorithm of the generators returned by getGenerator().
+	 * 
+	 * @param algorithm
+	 *            the generator algorithm
+	 * @throws IllegalArgumentException
+	 *            if the algorithm is unknown
+	 */
+	public default void setGeneratorAlgorithm(String algorithm) {
+		if (!GEN_RANDOM.equals(algorithm)) {
+			throw new IllegalArgumentException("Unknown random generator algorithm: " + algorithm);
+		}
+	}
+
+	/**
+	 * Returns the algorithm of the generators returned by getGenerator().
+	 * 
+	 * @return the generator algorithm
+	 */
+	public default String getGeneratorAlgorithm() {
+		return GEN_RANDOM;
+	}
+
+	/**
+	 * Sets the master seed and restarts the derivation of streams, so the
+	 * generators returned afterwards repeat those of an earlier run with
+	 * the same seed, in the same order.
+	 * 
+	 * @param seed
+	 *            the master seed
+	 */
+	public default void setSeed(long seed) {
+		// no master seed, see isSeedable()
+	}
+
+	/**
+	 * Returns the master seed, a random one unless setSeed() was called.
+	 * 
+	 * @return the master seed
+	 */
+	public default long getSeed() {
+		return 0;
+	}
+
+	/**
+	 * Tells whether the generators of the given algorithm are derived from
+	 * the master seed. The per-thread generators of GEN_THREAD_LOCAL and
+	 * GEN_AES_CTR are not.
+	 * 
+	 * @param algorithm
+	 *            the generator algorithm
+	 * @return true if the algorithm honours the master seed
+	 */
+	public default boolean isSeedable(String algorithm) {
+		return false;
+	}
+
+	/**
+	 * Returns the names of all available generator algorithms.
+	 * 
+	 * @return the generator algorithms
+	 */
+	public default Set<String> getGeneratorAlgorithms() {
+		return Collections.singleton(GEN_RANDOM);
+	}
+
 	/**
 	 * Returns a default instance of a SecureRandom number
 	 * 
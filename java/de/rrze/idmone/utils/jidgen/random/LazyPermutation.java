@@ -0,0 +1,199 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.random;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.random.RandomGenerator;
+
+/**
+ * Returns the numbers 0 to size-1 in random order, each exactly once.<br />
+ * This is a Fisher-Yates shuffle that only swaps as far as numbers are
+ * drawn. A position that was never swapped holds its own number, so 
+ * only the displaced numbers need to be stored: in a hash map while 
+ * few numbers have been drawn from a large range, in an array once
+ * that gets cheaper for a range small enough to have one. Every draw
+ * needs exactly one bounded random number, none is wasted on a 
+ * number returned before.
+ * 
+ * @author unrza249
+ */
+public class LazyPermutation
+{
+	/**
+	 * The largest range kept in an array, i.e. 16 MB
+	 */
+	public static final long DENSE_LIMIT = 1 << 22;
+
+	/**
+	 * The number of numbers to permute
+	 */
+	private final long size;
+
+	/**
+	 * The number of numbers drawn, i.e. the start of the
+	 * part that is not shuffled yet
+	 */
+	private long drawn = 0;
+
+	/**
+	 * The displaced numbers by position, while sparse
+	 */
+	private HashMap<Long,Long> displaced;
+
+	/**
+	 * The displaced numbers plus one by position, zero for a
+	 * position holding its own number, once dense
+	 */
+	private int[] slots;
+
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size
+	 *            the number of numbers to permute
+	 */
+	public LazyPermutation(long size)
+	{
+		if (size < 0)
+			throw new IllegalArgumentException("size " + size);
+		this.size = size;
+		this.reset();
+	}
+
+
+	/**
+	 * Draws the next number.
+	 * 
+	 * @param random
+	 *            the random number generator
+	 * @return a number that was not drawn since the last reset
+	 * @throws NoSuchElementException
+	 *            if all numbers are drawn
+	 */
+	public long next(RandomGenerator random)
+	{
+		if (this.drawn >= this.size)
+			throw new NoSuchElementException();
+
+		// swap a random position of the unshuffled part to its start
+		long remaining = this.size - this.drawn;
+		long position = this.drawn + ((remaining > 1) ? random.nextLong(remaining) : 0);
+		long number = this.get(position);
+		this.set(position, this.get(this.drawn));
+		this.unset(this.drawn);
+		this.drawn++;
+
+		if (this.slots == null && this.size <= DENSE_LIMIT && this.displaced.size() > this.size / 16)
+		{
+			// a map entry takes about 16 times the space of a slot
+			this.slots = new int[(int)this.size];
+			for (Map.Entry<Long,Long> entry : this.displaced.entrySet())
+				this.slots[entry.getKey().intValue()] = entry.getValue().intValue() + 1;
+			this.displaced = null;
+		}
+		return number;
+	}
+
+	/**
+	 * Starts over, so that every number can be drawn again.
+	 */
+	public void reset()
+	{
+		this.drawn = 0;
+		this.displaced = new HashMap<Long,Long>();
+		this.slots = null;
+	}
+
+	/**
+	 * Returns the number of numbers not drawn yet.
+	 * 
+	 * @return the remaining numbers
+	 */
+	public long getRemaining()
+	{
+		return this.size - this.drawn;
+	}
+
+	/**
+	 * Returns the number of numbers to permute.
+	 * 
+	 * @return the size
+	 */
+	public long getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Returns the number at a position.
+	 * 
+	 * @param position
+	 *            the position
+	 * @return the number
+	 */
+	private long get(long position)
+	{
+		if (this.slots != null)
+		{
+			int slot = this.slots[(int)position];
+			return (slot == 0) ? position : slot - 1;
+		}
+		Long number = this.displaced.get(position);
+		return (number == null) ? position : number;
+	}
+
+	/**
+	 * Puts a number at a position.
+	 * 
+	 * @param position
+	 *            the position
+	 * @param number
+	 *            the number
+	 */
+	private void set(long position, long number)
+	{
+		if (this.slots != null)
+			this.slots[(int)position] = (number == position) ? 0 : (int)number + 1;
+		else if (number == position)
+			this.displaced.remove(position);
+		else
+			this.displaced.put(position, number);
+	}
+
+	/**
+	 * Forgets a drawn position, it is never read again.
+	 * 
+	 * @param position
+	 *            the position
+	 */
+	private void unset(long position)
+	{
+		if (this.slots == null)
+			this.displaced.remove(position);
+	}
+}
@@ -29,10 +29,17 @@ import java.security.NoSuchProviderException;
 import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+import java.util.random.RandomGenerator.JumpableGenerator;
+import java.util.random.RandomGenerator.SplittableGenerator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,8 +47,10 @@ import org.apache.commons.logging.LogFactory;
 import de.rrze.idmone.utils.jidgen.Messages;
 
 /**
- * A singleton that provides various
- * possibilities to get a random number generator.
+ * A factory that provides various
+ * possibilities to get a random number generator. getInstance()
+ * returns the instance shared by default, IdGenerator instances
+ * have their own.
  */
 public class RandomFactory 
 	implements 	IRandomFactory
@@ -56,6 +65,39 @@ public class RandomFactory
 	 */
 	private static final Log logger = LogFactory.getLog(RandomFactory.class);
 
+	/**
+	 * The non-blocking source of seeds, created on first use
+	 */
+	private static SecureRandom seedSource;
+
+	/**
+	 * The master seed all generators are derived from
+	 */
+	private long seed;
+
+	/**
+	 * The source of the seeds of new generators, seeded with the
+	 * master seed
+	 */
+	private SplittableRandom seeder;
+
+	/**
+	 * The generators new streams are split or jumped off, one
+	 * per algorithm, seeded with the master seed
+	 */
+	private Map<String, RandomGenerator> streamSources = new HashMap<String, RandomGenerator>();
+
+	/**
+	 * The algorithm of the generators returned by getGenerator()
+	 */
+	private String generatorAlgorithm = GEN_DEFAULT;
+
+	/**
+	 * The pool of AES counter mode generators, one per thread, 
+	 * shared by all users
+	 */
+	private ThreadLocalGenerator aesCtrPool;
+
 	
 	
 	
@@ -73,16 +115,19 @@ public class RandomFactory
 	}
 
 	/**
-	 * Constructor
+	 * Constructor, for a factory with its own algorithm and seed
+	 * besides the shared instance, e.g. one per IdGenerator
 	 */
-	private RandomFactory()
+	public RandomFactory()
 	{
+		this.setSeed(newSeed());
 	}
 
 	/**
-	 * Create a two pseudo random generator by utilizing the
-	 * <em>SecureRandom</em> class provided by SUN. Uses a two step procedure
-	 * for feeding the generator seed with two separate SecureRandom instances.
+	 * Create a pseudo random generator by utilizing the
+	 * <em>SecureRandom</em> class provided by SUN. The generator is 
+	 * seeded from the non-blocking system source before its first use,
+	 * so it does not seed itself from a source that may block.
 	 * 
 	 * @see http://java.sun.com/j2se/1.4.2/docs/api/java/security/SecureRandom.html
 	 * 
@@ -104,21 +149,46 @@ public class RandomFactory
 
 		// Create a secure random number generator
 		SecureRandom sr = SecureRandom.getInstance(algorithm, provider);
+		sr.setSeed(getSeedBytes(32));
+		return sr;
+	}
 
-		// Get 1024 random bits
-		byte[] bytes = new byte[1024 / 8];
-		sr.nextBytes(bytes);
-
-		// Create two secure number generators with the same seed
-		int seedByteCount = 10;
-		byte[] seed = sr.generateSeed(seedByteCount);
-
-		sr = SecureRandom.getInstance(algorithm, provider);
-		sr.setSeed(seed);
+	/**
+	 * Returns seed bytes from the non-blocking system source, i.e.
+	 * /dev/urandom where available. Unlike SecureRandom.generateSeed() 
+	 * this never waits for entropy.
+	 * 
+	 * @param count
+	 *            the number of bytes
+	 * @return the seed bytes
+	 */
+	public static byte[] getSeedBytes(int count)
+	{
+		byte[] seed = new byte[count];
+		getSeedSource().nextBytes(seed);
+		return seed;
+	}
 
-		SecureRandom sr2 = SecureRandom.getInstance(algorithm, provider);
-		sr2.setSeed(seed);
-		return sr2;
+	/**
+	 * Returns the non-blocking system source of seeds.
+	 * 
+	 * @return the seed source
+	 */
+	private static synchronized SecureRandom getSeedSource()
+	{
+		if (seedSource == null)
+		{
+			try
+			{
+				seedSource = SecureRandom.getInstance(ALG_NATIVE_NON_BLOCKING);
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				// the default does not block on other platforms
+				seedSource = new SecureRandom();
+			}
+		}
+		return seedSource;
 	}
 
 	/*
@@ -228,7 +298,7 @@ public class RandomFactory
 	 */
 	public Random getRandom()
 	{
-		return new Random(System.currentTimeMillis());
+		return new Random(this.nextSeed());
 	}
 
 	/*
@@ -241,6 +311,175 @@ public class RandomFactory
 		return new Random(seed);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#getGenerator()
+	 */
+	public RandomGenerator getGenerator()
+	{
+		return this.getGenerator(this.generatorAlgorithm);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#getGenerator(java.lang.String)
+	 */
+	public RandomGenerator getGenerator(String algorithm)
+	{
+		if (GEN_RANDOM.equals(algorithm))
+			return this.getRandom();
+		if (GEN_THREAD_LOCAL.equals(algorithm))
+			return new ThreadLocalGenerator();
+		if (GEN_AES_CTR.equals(algorithm))
+			return this.getAesCtrPool();
+
+		// the JDK 17 family, e.g. L64X128MixRandom or Xoshiro256PlusPlus
+		return this.nextStream(algorithm);
+	}
+
+	/**
+	 * Returns the next stream of the given JDK algorithm. Streams are
+	 * split off a generator seeded with the master seed if the algorithm
+	 * supports it, jumped off otherwise, so they do not overlap and the
+	 * n-th stream is the same in every run with the same seed.
+	 * 
+	 * @param algorithm
+	 *            the generator algorithm
+	 * @return the generator
+	 */
+	private synchronized RandomGenerator nextStream(String algorithm)
+	{
+		RandomGenerator source = this.streamSources.get(algorithm);
+		if (source == null)
+		{
+			source = RandomGeneratorFactory.of(algorithm).create(this.seed);
+			this.streamSources.put(algorithm, source);
+		}
+
+		if (source instanceof SplittableGenerator)
+			return ((SplittableGenerator) source).split();
+		if (source instanceof JumpableGenerator)
+			return ((JumpableGenerator) source).copyAndJump();
+
+		// neither, e.g. a plain LXM generator from a third party
+		return RandomGeneratorFactory.of(algorithm).create(this.nextSeed());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#setSeed(long)
+	 */
+	public synchronized void setSeed(long seed)
+	{
+		logger.debug(Messages.getString("RandomFactory.SEED") + seed);
+		this.seed = seed;
+		this.seeder = new SplittableRandom(seed);
+		this.streamSources.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#getSeed()
+	 */
+	public synchronized long getSeed()
+	{
+		return this.seed;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#isSeedable(java.lang.String)
+	 */
+	public boolean isSeedable(String algorithm)
+	{
+		return !GEN_THREAD_LOCAL.equals(algorithm) && !GEN_AES_CTR.equals(algorithm);
+	}
+
+	/**
+	 * Returns a new master seed from the non-blocking system source.
+	 * 
+	 * @return the seed
+	 */
+	public static long newSeed()
+	{
+		byte[] bytes = getSeedBytes(8);
+		long seed = 0;
+		for (int i = 0; i < bytes.length; i++)
+			seed = (seed << 8) | (bytes[i] & 0xff);
+		return seed;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#setGeneratorAlgorithm(java.lang.String)
+	 */
+	public void setGeneratorAlgorithm(String algorithm)
+	{
+		if (!this.getGeneratorAlgorithms().contains(algorithm))
+			throw new IllegalArgumentException("Unknown random generator algorithm: " + algorithm);
+
+		logger.debug(Messages.getString("RandomFactory.GENERATOR") + algorithm);
+		this.generatorAlgorithm = algorithm;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#getGeneratorAlgorithm()
+	 */
+	public String getGeneratorAlgorithm()
+	{
+		return this.generatorAlgorithm;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.random.IRandomFactory#getGeneratorAlgorithms()
+	 */
+	public Set<String> getGeneratorAlgorithms()
+	{
+		Set<String> result = new HashSet<String>();
+		for (Iterator<RandomGeneratorFactory<RandomGenerator>> it = RandomGeneratorFactory.all().iterator(); it.hasNext();)
+		{
+			RandomGeneratorFactory<RandomGenerator> factory = it.next();
+			if (!factory.isDeprecated())
+				result.add(factory.name());
+		}
+		result.add(GEN_RANDOM);
+		result.add(GEN_THREAD_LOCAL);
+		result.add(GEN_AES_CTR);
+		return result;
+	}
+
+	/**
+	 * Returns the pool of AES counter mode generators.
+	 * 
+	 * @return the pool
+	 */
+	private synchronized RandomGenerator getAesCtrPool()
+	{
+		if (this.aesCtrPool == null)
+			this.aesCtrPool = new ThreadLocalGenerator(AesCtrGenerator::new);
+		return this.aesCtrPool;
+	}
+
+	/**
+	 * Returns a new seed for a generator.
+	 * 
+	 * @return the seed
+	 */
+	private synchronized long nextSeed()
+	{
+		return this.seeder.nextLong();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
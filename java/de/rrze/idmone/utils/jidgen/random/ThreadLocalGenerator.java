@@ -0,0 +1,138 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.random;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
+
+/**
+ * A generator that draws from a generator of the calling thread, by
+ * default its ThreadLocalRandom. Unlike ThreadLocalRandom.current() 
+ * itself it may be kept in a field and used by several threads, each 
+ * of them getting its own uncontended generator.
+ * 
+ * @author unrza249
+ */
+public class ThreadLocalGenerator 
+	implements RandomGenerator
+{
+	/**
+	 * The generators of the threads, null for ThreadLocalRandom
+	 */
+	private final ThreadLocal<RandomGenerator> generators;
+
+
+	/**
+	 * Creates a generator that draws from ThreadLocalRandom.
+	 */
+	public ThreadLocalGenerator()
+	{
+		this.generators = null;
+	}
+
+	/**
+	 * Creates a generator that draws from a pool of generators,
+	 * one per thread, created when a thread draws the first time.
+	 * 
+	 * @param factory
+	 *            creates the generator of a thread
+	 */
+	public ThreadLocalGenerator(Supplier<? extends RandomGenerator> factory)
+	{
+		this.generators = ThreadLocal.withInitial(factory);
+	}
+
+
+	/**
+	 * Returns the generator of the calling thread.
+	 * 
+	 * @return the generator
+	 */
+	private RandomGenerator current()
+	{
+		return (this.generators == null) ? ThreadLocalRandom.current() : this.generators.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextLong()
+	 */
+	public long nextLong()
+	{
+		return this.current().nextLong();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextLong(long)
+	 */
+	public long nextLong(long bound)
+	{
+		return this.current().nextLong(bound);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextInt()
+	 */
+	public int nextInt()
+	{
+		return this.current().nextInt();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextInt(int)
+	 */
+	public int nextInt(int bound)
+	{
+		return this.current().nextInt(bound);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextDouble()
+	 */
+	public double nextDouble()
+	{
+		return this.current().nextDouble();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.random.RandomGenerator#nextBytes(byte[])
+	 */
+	public void nextBytes(byte[] bytes)
+	{
+		this.current().nextBytes(bytes);
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+
+/**
+ * Persists the positions of counter elements between runs, so that
+ * a run resumes counting where the last one ended instead of walking
+ * through all values that have been handed out before.<br />
+ * The positions are kept in a properties file, one entry per template
+ * and set of variables. The entries are keyed by a hash, so the file
+ * does not contain the variable data itself. Updates merge with the
+ * current file content under a lock and replace the file atomically,
+ * so concurrent runs with different templates do not lose each other's
+ * positions and a crash never leaves a half written file.
+ * 
+ * @author unrza249
+ */
+public class CounterStateFile {
+
+	/**
+	 * The properties file
+	 */
+	private final Path file;
+
+
+	/**
+	 * Constructor
+	 * 
+	 * @param file
+	 * 			the properties file, created on the first save
+	 */
+	public CounterStateFile(String file) {
+		this.file = Paths.get(file);
+	}
+
+
+	/**
+	 * Builds the key of a template and its variables.
+	 * 
+	 * @param template
+	 * 			the template string
+	 * @param data
+	 * 			the variables, e.g. Ta to Tz
+	 * @return the key
+	 */
+	public static String key(String template, Map<String, String> data) {
+		StringBuilder sb = new StringBuilder(template);
+		// sorted, so that the order of the options does not matter
+		Map<String, String> sorted = new TreeMap<String, String>(data);
+		for (Iterator<Map.Entry<String, String>> iter = sorted.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, String> entry = iter.next();
+			sb.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+		}
+
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < 16; i++) {
+				key.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+			return key.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every JVM has to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the stored position for a key.
+	 * 
+	 * @param key
+	 * 			the key of the template and its variables
+	 * @return the position or -1 if none is stored
+	 * @throws IOException
+	 * 			if the file cannot be read
+	 */
+	public int get(String key) throws IOException {
+		String value = this.load().getProperty(key);
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Stores the position for a key. The file is re-read under a lock
+	 * and replaced atomically.
+	 * 
+	 * @param key
+	 * 			the key of the template and its variables
+	 * @param position
+	 * 			the position
+	 * @throws IOException
+	 * 			if the file cannot be written
+	 */
+	public void put(String key, int position) throws IOException {
+		Path lockFile = Paths.get(this.file + ".lock");
+		FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			FileLock lock = FileLocks.lock(lockChannel, lockFile);
+			try {
+				Properties positions = this.load();
+				positions.setProperty(key, String.valueOf(position));
+
+				Path tmp = Paths.get(this.file + ".tmp");
+				FileChannel channel = FileChannel.open(tmp, 
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				try {
+					OutputStream out = Channels.newOutputStream(channel);
+					positions.store(out, "jidgen counter positions");
+					out.flush();
+					channel.force(true);
+				}
+				finally {
+					channel.close();
+				}
+				Files.move(tmp, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			finally {
+				FileLocks.release(lock, lockFile);
+			}
+		}
+		finally {
+			lockChannel.close();
+		}
+	}
+
+	/**
+	 * Reads the properties file.
+	 * 
+	 * @return the stored positions, empty if there is no file yet
+	 * @throws IOException
+	 * 			if the file cannot be read
+	 */
+	private Properties load() throws IOException {
+		Properties positions = new Properties();
+		if (Files.exists(this.file)) {
+			InputStream in = Files.newInputStream(this.file);
+			try {
+				positions.load(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		return positions;
+	}
+}
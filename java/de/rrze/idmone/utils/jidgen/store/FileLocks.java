@@ -0,0 +1,125 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Exclusive file locks that also work between the threads of one JVM.<br />
+ * A file lock is held by the whole JVM, so a second FileChannel.lock()
+ * on the same file throws an OverlappingFileLockException instead of
+ * waiting, even from another channel. Writers therefore take an in-JVM
+ * lock of the path first and the file lock, which keeps other processes
+ * out, only then.
+ * 
+ * @author unrza249
+ */
+final class FileLocks {
+
+	/**
+	 * The in-JVM locks by absolute path
+	 */
+	private static final ConcurrentHashMap<Path, ReentrantLock> locks = new ConcurrentHashMap<Path, ReentrantLock>();
+
+
+	/**
+	 * No instances
+	 */
+	private FileLocks() {
+	}
+
+
+	/**
+	 * Locks a file, waiting for other threads and processes.
+	 * 
+	 * @param channel
+	 * 			an open channel of the file
+	 * @param file
+	 * 			the location of the file
+	 * @return the file lock, to be passed to release()
+	 * @throws IOException
+	 * 			if the file cannot be locked
+	 */
+	static FileLock lock(FileChannel channel, Path file) throws IOException {
+		ReentrantLock local = forPath(file);
+		local.lock();
+		try {
+			return channel.lock();
+		}
+		catch (IOException e) {
+			local.unlock();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			local.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases a lock taken by lock().
+	 * 
+	 * @param lock
+	 * 			the file lock
+	 * @param file
+	 * 			the location of the file
+	 * @throws IOException
+	 * 			if the file lock cannot be released
+	 */
+	static void release(FileLock lock, Path file) throws IOException {
+		try {
+			lock.release();
+		}
+		finally {
+			forPath(file).unlock();
+		}
+	}
+
+	/**
+	 * Returns the in-JVM lock of a path.
+	 * 
+	 * @param file
+	 * 			the location of the file
+	 * @return the lock
+	 */
+	private static ReentrantLock forPath(Path file) {
+		Path key = file.toAbsolutePath().normalize();
+		ReentrantLock lock = locks.get(key);
+		if (lock == null) {
+			ReentrantLock created = new ReentrantLock();
+			lock = locks.putIfAbsent(key, created);
+			if (lock == null) {
+				lock = created;
+			}
+		}
+		return lock;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Interface of a registry of ids that have been handed out.
+ * Stores keep their ids between runs of the generator, so that
+ * an id is never proposed twice.
+ * 
+ * @author unrza249
+ */
+public interface IIdStore extends Closeable {
+
+	/**
+	 * Checks whether an id has already been handed out.
+	 * 
+	 * @param id
+	 *            the id to look up
+	 * @return true if the id is in the store
+	 */
+	public abstract boolean contains(CharSequence id);
+
+	/**
+	 * Records an id, unless it is already in the store. The check and
+	 * the insert are atomic, also towards other processes using the
+	 * same store, so only one of them can record the same id.
+	 * 
+	 * @param id
+	 *            the id to record
+	 * @return true if the id has been recorded, false if it was
+	 *         already in the store
+	 * @throws IOException
+	 *             if the id could not be recorded
+	 */
+	public abstract boolean add(String id) throws IOException;
+
+	/**
+	 * Records several ids at once, skipping those that are already
+	 * in the store. Implementations make all recorded ids durable
+	 * together, which is much cheaper than one add() per id.
+	 * 
+	 * @param ids
+	 *            the ids to record
+	 * @return the recorded ids in the given order
+	 * @throws IOException
+	 *             if the ids could not be recorded
+	 */
+	public abstract List<String> addAll(List<String> ids) throws IOException;
+
+	/**
+	 * Returns all ids in the store.
+	 * 
+	 * @return the ids
+	 * @throws IOException
+	 *             if the ids cannot be read
+	 */
+	public abstract List<String> getIds() throws IOException;
+
+	/**
+	 * Returns the number of ids in the store.
+	 * 
+	 * @return the number of ids
+	 */
+	public abstract long size();
+}
@@ -0,0 +1,663 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.rrze.idmone.utils.jidgen.Messages;
+
+
+/**
+ * A persistent registry of all ids that have been handed out.<br />
+ * The ids are appended to a log file, one per line. The log is the
+ * only source of truth. A memory-mapped index file next to it
+ * (<tt>&lt;log&gt;.idx</tt>) holds an open-addressing hash table of
+ * 64 bit fingerprints of the ids, so looking up an id needs neither
+ * file access nor object allocation. Two different ids with the same
+ * fingerprint are possible but extremely unlikely and only cause an
+ * id to be skipped needlessly.<br />
+ * <br />
+ * Several processes on the same host can share a store, as can
+ * several instances in one JVM. Writers serialize on an exclusive
+ * lock of the log file, see FileLocks. Each writer first
+ * indexes what the others have appended, and only then appends its
+ * own ids. Readers do not lock. Resizing the index is guarded by a
+ * sequence number in its header, which is odd while the table is
+ * rebuilt, and readers retry when it changes. A damaged or missing
+ * index is rebuilt from the log.
+ * 
+ * @author unrza249
+ */
+public class IssuedIdStore
+	implements IIdStore
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(IssuedIdStore.class);
+
+	/**
+	 * Volatile access to the longs of the mapped index
+	 */
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Index file marker ("JIDGENIX")
+	 */
+	private static final long MAGIC = 0x58494E4547444A4AL;
+
+	/**
+	 * Byte offsets of the header fields
+	 */
+	private static final int MAGIC_OFFSET = 0;
+	private static final int SEQUENCE_OFFSET = 8;
+	private static final int CAPACITY_OFFSET = 16;
+	private static final int COUNT_OFFSET = 24;
+	private static final int INDEXED_OFFSET = 32;
+
+	/**
+	 * Size of the header, the slots follow it
+	 */
+	private static final int HEADER_SIZE = 64;
+
+	/**
+	 * Number of slots of a new index
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Maximum number of slots, so the index can be mapped at once
+	 */
+	private static final int MAX_CAPACITY = 1 << 27;
+
+	/**
+	 * How often a reader retries before it checks for a
+	 * crashed writer
+	 */
+	private static final int MAX_SPINS = 1 << 16;
+
+	/**
+	 * The log file
+	 */
+	private final Path logPath;
+	private final RandomAccessFile logFile;
+	private final FileChannel log;
+
+	/**
+	 * The index file
+	 */
+	private final RandomAccessFile indexFile;
+	private final FileChannel indexChannel;
+
+	/**
+	 * The mapped index
+	 */
+	private volatile ByteBuffer index;
+
+	/**
+	 * The number of slots of the mapped index
+	 */
+	private volatile int capacity;
+
+
+	/**
+	 * Opens or creates a store.
+	 * 
+	 * @param file
+	 * 			the log file; the index is kept in the same
+	 * 			directory with the suffix .idx
+	 * @throws IOException
+	 * 			if the files cannot be opened
+	 */
+	public IssuedIdStore(String file) throws IOException {
+		this.logPath = Paths.get(file);
+		this.logFile = new RandomAccessFile(file, "rw");
+		this.log = this.logFile.getChannel();
+		this.indexFile = new RandomAccessFile(file + ".idx", "rw");
+		this.indexChannel = this.indexFile.getChannel();
+
+		FileLock lock = FileLocks.lock(this.log, this.logPath);
+		try {
+			if (!this.isIndexValid()) {
+				logger.info(Messages.getString("IssuedIdStore.REBUILD") + file);
+				this.rebuild();
+			}
+			else {
+				this.map();
+			}
+			this.catchUp();
+		}
+		finally {
+			FileLocks.release(lock, this.logPath);
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#contains(java.lang.CharSequence)
+	 */
+	public boolean contains(CharSequence id) {
+		long fingerprint = fingerprint(id);
+
+		for (int spins = 0; ; spins++) {
+			ByteBuffer index = this.index;
+			long sequence = (long)LONGS.getVolatile(index, SEQUENCE_OFFSET);
+
+			if ((sequence & 1) != 0) {
+				// the index is being rebuilt
+				if (spins >= MAX_SPINS) {
+					this.recover();
+					spins = 0;
+				}
+				Thread.yield();
+				continue;
+			}
+
+			int capacity = (int)(long)LONGS.getVolatile(index, CAPACITY_OFFSET);
+			if (capacity != this.capacity) {
+				// another process has resized the index
+				this.remap();
+				continue;
+			}
+
+			boolean found = find(index, capacity, fingerprint);
+			if ((long)LONGS.getVolatile(index, SEQUENCE_OFFSET) == sequence) {
+				return found;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#add(java.lang.String)
+	 */
+	public synchronized boolean add(String id) throws IOException {
+		if (id.indexOf('\n') >= 0) {
+			throw new IllegalArgumentException("id contains a line break: " + id);
+		}
+		long fingerprint = fingerprint(id);
+
+		FileLock lock = FileLocks.lock(this.log, this.logPath);
+		try {
+			this.catchUp();
+			if (find(this.index, this.capacity, fingerprint)) {
+				return false;
+			}
+
+			// the log first, it is the source of truth
+			long end = this.log.size();
+			ByteBuffer record = ByteBuffer.wrap((id + "\n").getBytes(StandardCharsets.UTF_8));
+			while (record.hasRemaining()) {
+				end += this.log.write(record, end);
+			}
+			this.log.force(false);
+
+			this.insert(fingerprint);
+			LONGS.setVolatile(this.index, INDEXED_OFFSET, this.log.size());
+			return true;
+		}
+		finally {
+			FileLocks.release(lock, this.logPath);
+		}
+	}
+
+	/**
+	 * Records all ids with one write and one sync of the log.
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#addAll(java.util.List)
+	 */
+	public synchronized List<String> addAll(List<String> ids) throws IOException {
+		List<String> recorded = new ArrayList<String>();
+		if (ids.isEmpty()) {
+			return recorded;
+		}
+
+		FileLock lock = FileLocks.lock(this.log, this.logPath);
+		try {
+			this.catchUp();
+
+			ByteArrayOutputStream records = new ByteArrayOutputStream();
+			Set<String> batch = new HashSet<String>();
+			for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+				String id = iter.next();
+				if (id.indexOf('\n') >= 0) {
+					throw new IllegalArgumentException("id contains a line break: " + id);
+				}
+				if (!find(this.index, this.capacity, fingerprint(id)) && batch.add(id)) {
+					byte[] record = (id + "\n").getBytes(StandardCharsets.UTF_8);
+					records.write(record, 0, record.length);
+					recorded.add(id);
+				}
+			}
+			if (recorded.isEmpty()) {
+				return recorded;
+			}
+
+			long end = this.log.size();
+			ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+			while (buffer.hasRemaining()) {
+				end += this.log.write(buffer, end);
+			}
+			this.log.force(false);
+
+			for (Iterator<String> iter = recorded.iterator(); iter.hasNext();) {
+				this.insert(fingerprint(iter.next()));
+			}
+			LONGS.setVolatile(this.index, INDEXED_OFFSET, this.log.size());
+			return recorded;
+		}
+		finally {
+			FileLocks.release(lock, this.logPath);
+		}
+	}
+
+	/**
+	 * Reads all ids from the log. The lock of the log is held while
+	 * reading, and an unfinished record at its end is left out.
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#getIds()
+	 */
+	public synchronized List<String> getIds() throws IOException {
+		List<String> ids = new ArrayList<String>();
+
+		FileLock lock = FileLocks.lock(this.log, this.logPath);
+		try {
+			long size = this.log.size();
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			long position = 0;
+			while (position < size) {
+				buffer.clear();
+				int read = this.log.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				position += read;
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					byte b = buffer.get();
+					if (b == '\n') {
+						if (line.size() > 0) {
+							ids.add(new String(line.toByteArray(), StandardCharsets.UTF_8));
+						}
+						line.reset();
+					}
+					else {
+						line.write(b);
+					}
+				}
+			}
+		}
+		finally {
+			FileLocks.release(lock, this.logPath);
+		}
+		return ids;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#size()
+	 */
+	public long size() {
+		return (long)LONGS.getVolatile(this.index, COUNT_OFFSET);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	public synchronized void close() throws IOException {
+		this.indexFile.close();
+		this.logFile.close();
+	}
+
+
+	/**
+	 * Indexes the ids that other processes (or a crashed writer)
+	 * appended to the log after the last indexed position.
+	 * The caller must hold the lock of the log.
+	 * 
+	 * @throws IOException
+	 * 			if the log cannot be read
+	 */
+	private void catchUp() throws IOException {
+		this.remap();
+
+		long indexed = (long)LONGS.getVolatile(this.index, INDEXED_OFFSET);
+		long size = this.log.size();
+		if (size <= indexed) {
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long position = indexed;
+		long complete = indexed;
+		while (position < size) {
+			buffer.clear();
+			int read = this.log.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			position += read;
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				byte b = buffer.get();
+				complete++;
+				if (b == '\n') {
+					this.insert(fingerprint(new String(line.toByteArray(), StandardCharsets.UTF_8)));
+					line.reset();
+					LONGS.setVolatile(this.index, INDEXED_OFFSET, complete);
+				}
+				else {
+					line.write(b);
+				}
+			}
+		}
+
+		if (line.size() > 0) {
+			// an unfinished record of a crashed writer, it has never been
+			// reported as recorded, so drop it
+			long end = (long)LONGS.getVolatile(this.index, INDEXED_OFFSET);
+			logger.warn(Messages.getString("IssuedIdStore.TRUNCATED") + (size - end));
+			this.log.truncate(end);
+		}
+	}
+
+	/**
+	 * Adds a fingerprint to the index unless it is already there,
+	 * doubling the index if it gets too full.
+	 * The caller must hold the lock of the log.
+	 * 
+	 * @param fingerprint
+	 * 			the fingerprint
+	 * @throws IOException
+	 * 			if the index cannot be resized
+	 */
+	private void insert(long fingerprint) throws IOException {
+		long count = (long)LONGS.getVolatile(this.index, COUNT_OFFSET);
+		if ((count + 1) * 2 > this.capacity) {
+			this.resize(this.capacity * 2);
+		}
+
+		ByteBuffer index = this.index;
+		int mask = this.capacity - 1;
+		for (int slot = (int)fingerprint & mask; ; slot = (slot + 1) & mask) {
+			int offset = HEADER_SIZE + (slot << 3);
+			long value = (long)LONGS.getVolatile(index, offset);
+			if (value == fingerprint) {
+				return;
+			}
+			if (value == 0) {
+				LONGS.setVolatile(index, offset, fingerprint);
+				LONGS.setVolatile(index, COUNT_OFFSET, count + 1);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Rehashes the index into a table with the given number of slots.
+	 * The caller must hold the lock of the log.
+	 * 
+	 * @param newCapacity
+	 * 			the new number of slots, a power of two
+	 * @throws IOException
+	 * 			if the index cannot be resized
+	 */
+	private void resize(int newCapacity) throws IOException {
+		if (newCapacity > MAX_CAPACITY) {
+			throw new IOException(Messages.getString("IssuedIdStore.FULL"));
+		}
+
+		// collect the fingerprints before the table is overwritten
+		ByteBuffer index = this.index;
+		long[] fingerprints = new long[(int)(long)LONGS.getVolatile(index, COUNT_OFFSET)];
+		int n = 0;
+		for (int slot = 0; slot < this.capacity && n < fingerprints.length; slot++) {
+			long value = (long)LONGS.getVolatile(index, HEADER_SIZE + (slot << 3));
+			if (value != 0) {
+				fingerprints[n++] = value;
+			}
+		}
+
+		long sequence = (long)LONGS.getVolatile(index, SEQUENCE_OFFSET);
+		LONGS.setVolatile(index, SEQUENCE_OFFSET, sequence | 1);
+
+		// never shorten the file, other processes may have it mapped
+		if (this.indexFile.length() < HEADER_SIZE + ((long)newCapacity << 3)) {
+			this.indexFile.setLength(HEADER_SIZE + ((long)newCapacity << 3));
+		}
+		index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + ((long)newCapacity << 3));
+		for (int slot = 0; slot < newCapacity; slot++) {
+			LONGS.set(index, HEADER_SIZE + (slot << 3), 0L);
+		}
+		int mask = newCapacity - 1;
+		for (int i = 0; i < n; i++) {
+			int slot = (int)fingerprints[i] & mask;
+			while ((long)LONGS.get(index, HEADER_SIZE + (slot << 3)) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			LONGS.set(index, HEADER_SIZE + (slot << 3), fingerprints[i]);
+		}
+		LONGS.setVolatile(index, COUNT_OFFSET, (long)n);
+		LONGS.setVolatile(index, CAPACITY_OFFSET, (long)newCapacity);
+
+		this.index = index;
+		this.capacity = newCapacity;
+		LONGS.setVolatile(index, SEQUENCE_OFFSET, (sequence | 1) + 1);
+	}
+
+	/**
+	 * Empties the index, catchUp() then fills it from the log.
+	 * The file is never shortened, since other processes may
+	 * have it mapped; a table that is already larger than a new
+	 * one is cleared in place and keeps its number of slots.
+	 * Readers spin on the odd sequence number meanwhile and map
+	 * the index again if its number of slots has changed.
+	 * The caller must hold the lock of the log.
+	 * 
+	 * @throws IOException
+	 * 			if the index cannot be written
+	 */
+	private void rebuild() throws IOException {
+		long length = this.indexFile.length();
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < MAX_CAPACITY && HEADER_SIZE + ((long)capacity << 4) <= length) {
+			capacity <<= 1;
+		}
+		long size = HEADER_SIZE + ((long)capacity << 3);
+		if (length < size) {
+			this.indexFile.setLength(size);
+		}
+		ByteBuffer index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+		long sequence = 0;
+		if ((long)LONGS.getVolatile(index, MAGIC_OFFSET) == MAGIC) {
+			sequence = (long)LONGS.getVolatile(index, SEQUENCE_OFFSET) | 1;
+		}
+		LONGS.setVolatile(index, SEQUENCE_OFFSET, sequence | 1);
+
+		for (int slot = 0; slot < capacity; slot++) {
+			LONGS.set(index, HEADER_SIZE + (slot << 3), 0L);
+		}
+		LONGS.setVolatile(index, CAPACITY_OFFSET, (long)capacity);
+		LONGS.setVolatile(index, COUNT_OFFSET, 0L);
+		LONGS.setVolatile(index, INDEXED_OFFSET, 0L);
+		LONGS.setVolatile(index, MAGIC_OFFSET, MAGIC);
+
+		this.index = index;
+		this.capacity = capacity;
+		LONGS.setVolatile(index, SEQUENCE_OFFSET, (sequence | 1) + 1);
+	}
+
+	/**
+	 * Checks the header of the index file.
+	 * The caller must hold the lock of the log.
+	 * 
+	 * @return true if the index can be used
+	 * @throws IOException
+	 * 			if the index cannot be read
+	 */
+	private boolean isIndexValid() throws IOException {
+		long size = this.indexChannel.size();
+		if (size < HEADER_SIZE) {
+			return false;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.indexChannel.read(header, 0);
+		long capacity = header.getLong(CAPACITY_OFFSET);
+		return header.getLong(MAGIC_OFFSET) == MAGIC
+			&& (header.getLong(SEQUENCE_OFFSET) & 1) == 0
+			&& capacity >= INITIAL_CAPACITY 
+			&& capacity <= MAX_CAPACITY
+			&& Long.bitCount(capacity) == 1
+			&& size >= HEADER_SIZE + (capacity << 3)
+			&& header.getLong(INDEXED_OFFSET) <= this.log.size();
+	}
+
+	/**
+	 * Maps the index file.
+	 * 
+	 * @throws IOException
+	 * 			if the index cannot be mapped
+	 */
+	private void map() throws IOException {
+		ByteBuffer header = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		int capacity = (int)(long)LONGS.getVolatile(header, CAPACITY_OFFSET);
+		this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + ((long)capacity << 3));
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Maps the index again if another process has resized it.
+	 */
+	private synchronized void remap() {
+		int capacity = (int)(long)LONGS.getVolatile(this.index, CAPACITY_OFFSET);
+		if (capacity != this.capacity) {
+			try {
+				this.map();
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the index if a writer died while resizing it.
+	 */
+	private synchronized void recover() {
+		try {
+			FileLock lock = FileLocks.lock(this.log, this.logPath);
+			try {
+				// a living writer would have finished while we waited for the lock
+				if (((long)LONGS.getVolatile(this.index, SEQUENCE_OFFSET) & 1) != 0) {
+					logger.warn(Messages.getString("IssuedIdStore.REBUILD") + this.indexFile);
+					this.rebuild();
+					this.catchUp();
+				}
+			}
+			finally {
+				FileLocks.release(lock, this.logPath);
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Looks for a fingerprint in the index.
+	 * 
+	 * @param index
+	 * 			the mapped index
+	 * @param capacity
+	 * 			the number of slots
+	 * @param fingerprint
+	 * 			the fingerprint
+	 * @return true if the fingerprint is in the index
+	 */
+	private static boolean find(ByteBuffer index, int capacity, long fingerprint) {
+		int mask = capacity - 1;
+		for (int slot = (int)fingerprint & mask; ; slot = (slot + 1) & mask) {
+			long value = (long)LONGS.getVolatile(index, HEADER_SIZE + (slot << 3));
+			if (value == fingerprint) {
+				return true;
+			}
+			if (value == 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the 64 bit fingerprint of an id, FNV-1a over the
+	 * characters followed by a final mix. 0 marks empty slots and
+	 * is never returned.
+	 * 
+	 * @param id
+	 * 			the id
+	 * @return the fingerprint
+	 */
+	static long fingerprint(CharSequence id) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < id.length(); i++) {
+			h ^= id.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h == 0) ? 1 : h;
+	}
+}
@@ -0,0 +1,727 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.store;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.rrze.idmone.utils.jidgen.Messages;
+
+
+/**
+ * A write-ahead journal of id reservations with group commit.<br />
+ * Reservations are queued and written by one background thread. It
+ * collects all reservations that arrive within a short latency window
+ * and makes them durable with a single write and sync, so the cost of
+ * one sync is shared by all concurrent callers. A reservation completes
+ * only after its id is durable.<br />
+ * <br />
+ * Each journal record is the length of the id, a CRC32 of it and the
+ * id in UTF-8. On startup the snapshot and then the journal are
+ * replayed, and a torn record at the end of the journal is cut
+ * off. When the journal grows beyond a threshold or gets old, all ids
+ * are compacted into a new snapshot, which atomically replaces the old
+ * one, and the journal starts over.<br />
+ * <br />
+ * The journal is used by a single process, which holds a lock
+ * on it while it is open. All ids are kept in memory.
+ * 
+ * @author unrza249
+ */
+public class ReservationJournal
+	implements IIdStore
+{
+	/**
+	 *  The class logger
+	 */
+	private static final Log logger = LogFactory.getLog(ReservationJournal.class);
+
+	/**
+	 * Size of the record header: length and checksum
+	 */
+	private static final int RECORD_HEADER = 8;
+
+	/**
+	 * The longest id a record may hold
+	 */
+	private static final int MAX_RECORD = 1 << 16;
+
+	/**
+	 * The journal file
+	 */
+	private final Path journalFile;
+
+	/**
+	 * The snapshot file
+	 */
+	private final Path snapshotFile;
+
+	/**
+	 * The open journal
+	 */
+	private final FileChannel journal;
+
+	/**
+	 * The lock keeping other processes out
+	 */
+	private final FileLock lock;
+
+	/**
+	 * All reserved ids, including those not durable yet
+	 */
+	private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Reservations waiting for the next group commit
+	 */
+	private List<Reservation> queue = new ArrayList<Reservation>();
+
+	/**
+	 * The thread writing the journal
+	 */
+	private final Thread writer;
+
+	/**
+	 * Set once the journal is closed
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Set if a failed commit could not be rolled back, the journal
+	 * takes no more reservations then
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * How long a group commit waits for more reservations in nanoseconds
+	 */
+	private volatile long window = TimeUnit.MILLISECONDS.toNanos(2);
+
+	/**
+	 * The maximum number of reservations per group commit
+	 */
+	private volatile int maxBatch = 1024;
+
+	/**
+	 * Journal size in bytes that triggers a compaction
+	 */
+	private volatile long compactionSize = 1 << 20;
+
+	/**
+	 * Journal age in milliseconds that triggers a compaction, 0 for none
+	 */
+	private volatile long compactionInterval = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * When the journal was started over
+	 */
+	private long lastCompaction = System.currentTimeMillis();
+
+
+	/**
+	 * Opens or creates a journal and replays it.
+	 * 
+	 * @param file
+	 * 			the base name of the files; the journal is
+	 * 			&lt;file&gt;.journal and the snapshot &lt;file&gt;.snapshot
+	 * @throws IOException
+	 * 			if the files cannot be read or the journal is in use
+	 */
+	public ReservationJournal(String file) throws IOException {
+		this.journalFile = Paths.get(file + ".journal");
+		this.snapshotFile = Paths.get(file + ".snapshot");
+
+		this.journal = FileChannel.open(this.journalFile, 
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.lock = this.journal.tryLock();
+		if (this.lock == null) {
+			this.journal.close();
+			throw new IOException(Messages.getString("ReservationJournal.IN_USE") + this.journalFile);
+		}
+
+		try {
+			if (Files.exists(this.snapshotFile)) {
+				FileChannel snapshot = FileChannel.open(this.snapshotFile, StandardOpenOption.READ);
+				try {
+					this.replay(snapshot, false);
+				}
+				finally {
+					snapshot.close();
+				}
+			}
+			this.replay(this.journal, true);
+		}
+		catch (IOException e) {
+			this.lock.release();
+			this.journal.close();
+			throw e;
+		}
+		logger.debug(Messages.getString("ReservationJournal.REPLAYED") + this.ids.size());
+
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "jidgen-journal");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+
+	/**
+	 * Reserves an id. The returned future completes with true once the
+	 * reservation is durable, or with false right away if the id has been
+	 * reserved before. If the journal failed, the future completes
+	 * exceptionally right away.
+	 * 
+	 * @param id
+	 * 			the id to reserve
+	 * @return the pending reservation
+	 */
+	public CompletableFuture<Boolean> reserveAsync(String id) {
+		if (this.closed) {
+			throw new IllegalStateException(Messages.getString("ReservationJournal.CLOSED"));
+		}
+		Reservation reservation = new Reservation(id);
+		if (reservation.bytes.length > MAX_RECORD) {
+			throw new IllegalArgumentException("id too long: " + id);
+		}
+		if (this.failure != null) {
+			reservation.future.completeExceptionally(this.failure);
+			return reservation.future;
+		}
+		if (!this.ids.add(id)) {
+			return CompletableFuture.completedFuture(Boolean.FALSE);
+		}
+
+		synchronized (this) {
+			// the writer may have stopped since the first check
+			if (this.closed) {
+				this.ids.remove(id);
+				throw new IllegalStateException(Messages.getString("ReservationJournal.CLOSED"));
+			}
+			this.queue.add(reservation);
+			if (this.queue.size() == 1 || this.queue.size() >= this.maxBatch) {
+				this.notifyAll();
+			}
+		}
+		return reservation.future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#contains(java.lang.CharSequence)
+	 */
+	public boolean contains(CharSequence id) {
+		return this.ids.contains(id.toString());
+	}
+
+	/**
+	 * Reserves an id and waits until it is durable.
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#add(java.lang.String)
+	 */
+	public boolean add(String id) throws IOException {
+		return await(this.reserveAsync(id));
+	}
+
+	/**
+	 * Reserves all ids at once, so they share group commits, and waits
+	 * until they are durable.
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#addAll(java.util.List)
+	 */
+	public List<String> addAll(List<String> ids) throws IOException {
+		List<CompletableFuture<Boolean>> reservations = new ArrayList<CompletableFuture<Boolean>>(ids.size());
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			reservations.add(this.reserveAsync(iter.next()));
+		}
+
+		List<String> recorded = new ArrayList<String>();
+		Iterator<CompletableFuture<Boolean>> results = reservations.iterator();
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			String id = iter.next();
+			if (await(results.next())) {
+				recorded.add(id);
+			}
+		}
+		return recorded;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#getIds()
+	 */
+	public List<String> getIds() {
+		return new ArrayList<String>(this.ids);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.rrze.idmone.utils.jidgen.store.IIdStore#size()
+	 */
+	public long size() {
+		return this.ids.size();
+	}
+
+	/**
+	 * Writes the pending reservations, compacts the journal
+	 * and closes it.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.notifyAll();
+		}
+
+		try {
+			this.writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			if (this.journal.size() > 0) {
+				this.compact();
+			}
+		}
+		finally {
+			this.lock.release();
+			this.journal.close();
+		}
+	}
+
+
+	/**
+	 * The loop of the writer thread: waits for reservations, lets
+	 * more of them arrive within the latency window and commits
+	 * them together.
+	 */
+	private void write() {
+		while (true) {
+			List<Reservation> batch;
+			synchronized (this) {
+				while (this.queue.isEmpty() && !this.closed) {
+					this.waitUninterruptibly(0);
+				}
+				if (this.queue.isEmpty()) {
+					return;
+				}
+
+				// the latency window starts with the first reservation
+				long deadline = System.nanoTime() + this.window;
+				long remaining = this.window;
+				while (this.queue.size() < this.maxBatch && !this.closed && remaining > 0) {
+					this.waitUninterruptibly(remaining);
+					remaining = deadline - System.nanoTime();
+				}
+
+				batch = this.queue;
+				this.queue = new ArrayList<Reservation>();
+			}
+
+			this.commit(batch);
+
+			try {
+				long age = System.currentTimeMillis() - this.lastCompaction;
+				if (this.journal.size() >= this.compactionSize 
+						|| (this.compactionInterval > 0 && age >= this.compactionInterval && this.journal.size() > 0)) 
+				{
+					this.compact();
+				}
+			}
+			catch (IOException e) {
+				// the journal is still complete, try again later
+				logger.warn(Messages.getString("ReservationJournal.COMPACTION_FAILED") + e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Waits on the monitor of the journal.
+	 * 
+	 * @param nanos
+	 * 			how long to wait at most, 0 to wait until notified
+	 */
+	private void waitUninterruptibly(long nanos) {
+		try {
+			if (nanos > 0) {
+				TimeUnit.NANOSECONDS.timedWait(this, nanos);
+			}
+			else {
+				this.wait();
+			}
+		}
+		catch (InterruptedException e) {
+			// the writer only stops when the journal is closed
+		}
+	}
+
+	/**
+	 * Makes a batch of reservations durable with one write and one sync
+	 * and completes them.<br />
+	 * If the write or the sync fails, the journal is cut back to where
+	 * the batch started, so no torn records stay in front of the next
+	 * batch. If even that fails, the journal takes no more reservations.
+	 * 
+	 * @param batch
+	 * 			the reservations
+	 */
+	private void commit(List<Reservation> batch) {
+		if (this.failure != null) {
+			this.fail(batch, this.failure);
+			return;
+		}
+
+		int size = 0;
+		for (Iterator<Reservation> iter = batch.iterator(); iter.hasNext();) {
+			size += RECORD_HEADER + iter.next().bytes.length;
+		}
+
+		ByteBuffer records = ByteBuffer.allocate(size);
+		for (Iterator<Reservation> iter = batch.iterator(); iter.hasNext();) {
+			writeRecord(records, iter.next().bytes);
+		}
+		records.flip();
+
+		long start = -1;
+		try {
+			start = this.journal.size();
+			long position = start;
+			while (records.hasRemaining()) {
+				position += this.journal.write(records, position);
+			}
+			this.journal.force(false);
+		}
+		catch (IOException e) {
+			logger.error(Messages.getString("ReservationJournal.WRITE_FAILED") + e.toString());
+			if (start >= 0) {
+				try {
+					this.journal.truncate(start);
+					this.journal.force(false);
+				}
+				catch (IOException f) {
+					logger.error(Messages.getString("ReservationJournal.FAILED") + f.toString());
+					this.failure = e;
+				}
+			}
+			this.fail(batch, e);
+			return;
+		}
+
+		if (logger.isTraceEnabled()) {
+			logger.trace(Messages.getString("ReservationJournal.COMMITTED") + batch.size());
+		}
+		for (Iterator<Reservation> iter = batch.iterator(); iter.hasNext();) {
+			iter.next().future.complete(Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Fails a batch of reservations and forgets their ids.
+	 * 
+	 * @param batch
+	 * 			the reservations
+	 * @param e
+	 * 			the cause
+	 */
+	private void fail(List<Reservation> batch, IOException e) {
+		for (Iterator<Reservation> iter = batch.iterator(); iter.hasNext();) {
+			Reservation reservation = iter.next();
+			this.ids.remove(reservation.id);
+			reservation.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Writes all ids into a new snapshot, replaces the old one
+	 * atomically and empties the journal. Only called by the writer
+	 * thread or after it has stopped.<br />
+	 * The snapshot may contain ids whose reservation is still in flight.
+	 * Should their commit fail, those ids are never handed out, which is
+	 * safe.
+	 * 
+	 * @throws IOException
+	 * 			if the snapshot cannot be written
+	 */
+	private void compact() throws IOException {
+		Path tmp = Paths.get(this.snapshotFile + ".tmp");
+		FileChannel snapshot = FileChannel.open(tmp, 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer records = ByteBuffer.allocate(64 * 1024);
+			for (Iterator<String> iter = this.ids.iterator(); iter.hasNext();) {
+				byte[] bytes = iter.next().getBytes(StandardCharsets.UTF_8);
+				if (records.remaining() < RECORD_HEADER + bytes.length) {
+					records.flip();
+					while (records.hasRemaining()) {
+						snapshot.write(records);
+					}
+					records.clear();
+				}
+				writeRecord(records, bytes);
+			}
+			records.flip();
+			while (records.hasRemaining()) {
+				snapshot.write(records);
+			}
+			snapshot.force(true);
+		}
+		finally {
+			snapshot.close();
+		}
+
+		Files.move(tmp, this.snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		// the rename must be durable before the journal is emptied
+		syncDirectory(this.snapshotFile.toAbsolutePath().getParent());
+
+		// everything in the journal is in the snapshot now
+		this.journal.truncate(0);
+		this.journal.force(true);
+		this.lastCompaction = System.currentTimeMillis();
+		logger.debug(Messages.getString("ReservationJournal.COMPACTED") + this.ids.size());
+	}
+
+	/**
+	 * Flushes the entries of a directory to the disk.<br />
+	 * Some platforms cannot open directories, they make renames durable
+	 * on their own and are skipped.
+	 * 
+	 * @param dir
+	 * 			the directory
+	 * @throws IOException
+	 * 			if the directory cannot be flushed
+	 */
+	private static void syncDirectory(Path dir) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(dir, StandardOpenOption.READ);
+		}
+		catch (IOException e) {
+			logger.debug(Messages.getString("ReservationJournal.NO_DIRECTORY_SYNC") + e.toString());
+			return;
+		}
+		try {
+			channel.force(true);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads all records of a file into the set of ids.
+	 * 
+	 * @param channel
+	 * 			the file
+	 * @param repair
+	 * 			true to cut off a torn or damaged tail, false to fail on it
+	 * @throws IOException
+	 * 			if the file cannot be read or is damaged
+	 */
+	private void replay(FileChannel channel, boolean repair) throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+		CRC32 crc = new CRC32();
+
+		long position = 0;
+		while (position < size) {
+			header.clear();
+			if (read(channel, header, position) < RECORD_HEADER) {
+				break;
+			}
+			int length = header.getInt(0);
+			if (length < 0 || length > MAX_RECORD || position + RECORD_HEADER + length > size) {
+				break;
+			}
+
+			ByteBuffer bytes = ByteBuffer.allocate(length);
+			read(channel, bytes, position + RECORD_HEADER);
+			crc.reset();
+			crc.update(bytes.array(), 0, length);
+			if ((int)crc.getValue() != header.getInt(4)) {
+				break;
+			}
+
+			this.ids.add(new String(bytes.array(), StandardCharsets.UTF_8));
+			position += RECORD_HEADER + length;
+		}
+
+		if (position < size) {
+			if (!repair) {
+				throw new IOException(Messages.getString("ReservationJournal.DAMAGED") + position);
+			}
+			logger.warn(Messages.getString("ReservationJournal.TRUNCATED") + (size - position));
+			channel.truncate(position);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Reads from a file until the buffer is full or the file ends.
+	 * 
+	 * @return the number of bytes read
+	 */
+	private static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Appends one record to a buffer.
+	 * 
+	 * @param buffer
+	 * 			the buffer
+	 * @param bytes
+	 * 			the id in UTF-8
+	 */
+	private static void writeRecord(ByteBuffer buffer, byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.putInt((int)crc.getValue());
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Waits for a reservation.
+	 * 
+	 * @param reservation
+	 * 			the pending reservation
+	 * @return true if the id has been reserved
+	 * @throws IOException
+	 * 			if the reservation failed or waiting was interrupted
+	 */
+	private static boolean await(CompletableFuture<Boolean> reservation) throws IOException {
+		try {
+			return reservation.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.toString());
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+
+	/**
+	 * Sets how long a group commit waits for more reservations.
+	 * Longer windows mean fewer syncs but slower reservations.
+	 * 
+	 * @param window
+	 * 			the latency window in milliseconds, 0 to commit right away
+	 */
+	public void setWindow(long window) {
+		this.window = TimeUnit.MILLISECONDS.toNanos(Math.max(0, window));
+	}
+
+	public long getWindow() {
+		return TimeUnit.NANOSECONDS.toMillis(this.window);
+	}
+
+	/**
+	 * Sets the maximum number of reservations per group commit.
+	 * 
+	 * @param maxBatch
+	 * 			the batch size, at least 1
+	 */
+	public void setMaxBatch(int maxBatch) {
+		this.maxBatch = Math.max(1, maxBatch);
+	}
+
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+
+	/**
+	 * Sets when the journal is compacted into a new snapshot.
+	 * 
+	 * @param size
+	 * 			the journal size in bytes
+	 * @param interval
+	 * 			the journal age in milliseconds, 0 to compact by size only
+	 */
+	public void setCompaction(long size, long interval) {
+		this.compactionSize = size;
+		this.compactionInterval = interval;
+	}
+
+
+	/**
+	 * A reservation waiting for its group commit
+	 */
+	private static class Reservation {
+		final String id;
+		final byte[] bytes;
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+
+		Reservation(String id) {
+			this.id = id;
+			this.bytes = id.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import de.rrze.idmone.utils.jidgen.template.SlotBitmap;
+
+
+/**
+ * Persists the slot bitmaps of templates between runs, one file per 
+ * template and set of variables in a directory. The files are named 
+ * after the key of CounterStateFile.key(), so they do not contain 
+ * the variable data itself.<br />
+ * Saving merges with the current file content under a lock and
+ * replaces the file atomically, so concurrent runs with the same
+ * template do not lose each other's used indices and a crash never 
+ * leaves a half written file.
+ * 
+ * @author unrza249
+ */
+public class SlotBitmapFile {
+
+	/**
+	 * The directory
+	 */
+	private final Path directory;
+
+
+	/**
+	 * Constructor
+	 * 
+	 * @param directory
+	 * 			the directory, created on the first save
+	 */
+	public SlotBitmapFile(String directory) {
+		this.directory = Paths.get(directory);
+	}
+
+
+	/**
+	 * Loads the bitmap of a key.
+	 * 
+	 * @param key
+	 * 			the key of the template and its variables
+	 * @return the bitmap or null if none is stored
+	 * @throws IOException
+	 * 			if the file cannot be read or is corrupt
+	 */
+	public SlotBitmap get(String key) throws IOException {
+		Path file = this.directory.resolve(key + ".slots");
+		if (!Files.exists(file)) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+		try {
+			return SlotBitmap.read(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stores the bitmap of a key. The indices used in the stored bitmap
+	 * are added to the given one first, the file is re-read under a lock
+	 * and replaced atomically.
+	 * 
+	 * @param key
+	 * 			the key of the template and its variables
+	 * @param bitmap
+	 * 			the bitmap
+	 * @throws IOException
+	 * 			if the file cannot be written
+	 */
+	public void put(String key, SlotBitmap bitmap) throws IOException {
+		Files.createDirectories(this.directory);
+		Path file = this.directory.resolve(key + ".slots");
+
+		Path lockFile = this.directory.resolve(key + ".lock");
+		FileChannel lockChannel = FileChannel.open(lockFile, 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			FileLock lock = FileLocks.lock(lockChannel, lockFile);
+			try {
+				SlotBitmap stored = this.get(key);
+				if (stored != null && stored.getSize() == bitmap.getSize()) {
+					bitmap.or(stored);
+				}
+
+				Path tmp = this.directory.resolve(key + ".tmp");
+				FileChannel channel = FileChannel.open(tmp, 
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				try {
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+					bitmap.write(out);
+					out.flush();
+					channel.force(true);
+				}
+				finally {
+					channel.close();
+				}
+				Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			finally {
+				FileLocks.release(lock, lockFile);
+			}
+		}
+		finally {
+			lockChannel.close();
+		}
+	}
+}
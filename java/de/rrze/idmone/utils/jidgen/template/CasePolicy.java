@@ -0,0 +1,78 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.template;
+
+import java.util.Locale;
+
+/**
+ * The ways the template can change the case of the element data.
+ * The data is converted once when it is handed to the elements,
+ * so building an id only copies characters.
+ * 
+ * @author unrza249
+ */
+public enum CasePolicy {
+	/** all characters are converted to lower case */
+	LOWER,
+	/** all characters are converted to upper case */
+	UPPER,
+	/** the characters are used as they are */
+	PRESERVE;
+
+	/**
+	 * Parses a policy name case-insensitively.
+	 * 
+	 * @param name
+	 * 			lower, upper or preserve
+	 * @return the policy
+	 * @throws IllegalArgumentException
+	 * 			if the name is unknown
+	 */
+	public static CasePolicy parse(String name) {
+		return CasePolicy.valueOf(name.trim().toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * Converts a data string according to this policy. The
+	 * conversion does not depend on the default locale.
+	 * 
+	 * @param data
+	 * 			the data string or null
+	 * @return the converted data string or null
+	 */
+	public String apply(String data) {
+		if (data == null) {
+			return null;
+		}
+		switch (this) {
+			case LOWER:
+				return data.toLowerCase(Locale.ROOT);
+			case UPPER:
+				return data.toUpperCase(Locale.ROOT);
+			default:
+				return data;
+		}
+	}
+}
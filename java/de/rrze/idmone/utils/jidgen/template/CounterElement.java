@@ -41,7 +41,7 @@ package de.rrze.idmone.utils.jidgen.template;
  */
 public class CounterElement
 	extends AbstractElement
-	implements IElement 
+	implements IIndexedElement 
 {
 	
 	/**
@@ -59,6 +59,31 @@ public class CounterElement
 	 */
 	private int counter = 0;
 	
+	/**
+	 * Number of values returned since the counter was set,
+	 * used to detect when all values have been returned.
+	 */
+	private int returned = 0;
+	
+	/**
+	 * The digits of the counter value, i.e. the positions of its
+	 * characters in the data string, most significant first. They are
+	 * advanced like an odometer instead of being computed for every value.
+	 */
+	private int[] digits = new int[0];
+	
+	/**
+	 * Whether the digits match the counter value.<br />
+	 * <b>used only internally</b>
+	 */
+	private boolean digitsValid = false;
+	
+	/**
+	 * Index of the counter values that are already taken,
+	 * null if none is known
+	 */
+	private CounterSlotIndex slotIndex;
+	
 	/**
 	 * Number of combinations possible, given
 	 * the number of different characters in the data string
@@ -159,6 +184,51 @@ public class CounterElement
 	 * @see de.rrze.idmone.utils.jidgen.template.IElement#toString()
 	 */
 	public String toString() {
+		StringBuilder buffer = new StringBuilder(this.getLength());
+		this.appendTo(buffer);
+		return buffer.toString();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IElement#appendTo(java.lang.StringBuilder)
+	 */
+	public void appendTo(StringBuilder buffer) {
+		this.advance();
+		if (!this.digitsValid) {
+			this.updateDigits();
+		}
+		
+		String data = super.getData();
+		for (int i = 0; i < this.digits.length; i++) {
+			buffer.append(data.charAt(this.digits[i]));
+		}
+		
+		this.step();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getNumValues()
+	 */
+	public long getNumValues() {
+		double numAlternatives = this.getNumAlternatives();
+		return (numAlternatives > Integer.MAX_VALUE) ? -1 : (long)numAlternatives;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#nextIndex()
+	 */
+	public long nextIndex() {
+		this.advance();
+		int index = this.counter;
+		this.step();
+		return index;
+	}
+	
+	/**
+	 * Prepares the counter for returning its current value,
+	 * jumping over the values that are known to be taken.
+	 */
+	private void advance() {
 		
 		if (this.updateAlternatives) {
 			this.numAlternatives = this.getNumAlternatives();
@@ -166,43 +236,127 @@ public class CounterElement
 			this.hasAlternatives(true);
 		}
 		
-		/*
-		 * build the string
-		 */
-		
-		// init
-		String dummy = "";
-		String data = super.getData();
-		for (int i = 0; i < this.getLength(); i++) dummy += data.charAt(0);
-		char[] retArr = dummy.toCharArray();
-
-		int pos = retArr.length - 1;
-		int number = this.counter;
-		int numberPoolSize = data.length();
-		
-		// start transformation
-		while (number > 0) {
-			// get the residuum and translate it to a character from the data string
-			int residuum = number % numberPoolSize;
-			retArr[pos] = data.charAt(residuum);
-			
-			// update the number 
-			number = (int)Math.floor(number / numberPoolSize);
-			pos--;
+		// jump over the values that are known to be taken
+		if (this.slotIndex != null) {
+			int free = this.slotIndex.nextFree(this.counter);
+			if (free >= 0) {
+				if (free != this.counter) {
+					int numAlternatives = (int)this.numAlternatives;
+					this.returned += (free - this.counter + numAlternatives) % numAlternatives;
+					this.counter = free;
+					this.digitsValid = false;
+				}
+			}
+			else {
+				// everything is taken, this value will be rejected
+				this.returned = (int)this.numAlternatives;
+			}
 		}
-		
-		// increment the internal counter
+	}
+	
+	/**
+	 * Moves the counter on to the next value after the current one
+	 * was returned.
+	 */
+	private void step() {
+		// increment the internal counter, wrapping around so that a counter
+		// that was started in the middle also returns the lower values
 		this.counter = ++this.counter % (int)this.numAlternatives;
-		//this.counter++;
+		this.returned++;
 		
-		if (this.counter == this.numAlternatives) {
+		// turn the odometer, which wraps around to all zeros after
+		// the last value just like the counter
+		if (this.digitsValid) {
+			int numberPoolSize = super.getData().length();
+			for (int pos = this.digits.length - 1; pos >= 0; pos--) {
+				if (++this.digits[pos] < numberPoolSize) {
+					break;
+				}
+				this.digits[pos] = 0;
+			}
+		}
+		
+		if (this.returned >= this.numAlternatives) {
 			// set to false, when we return our last alternative 
 			// This states to the outside that all alternatives of this
 			// element were returned.
 			super.hasAlternatives(false);
 		}
+	}
+	
+	/**
+	 * Computes the digits of the current counter value.
+	 */
+	private void updateDigits() {
+		if (this.digits.length != this.getLength()) {
+			this.digits = new int[this.getLength()];
+		}
+		
+		int number = this.counter;
+		int numberPoolSize = super.getData().length();
+		for (int pos = this.digits.length - 1; pos >= 0; pos--) {
+			this.digits[pos] = number % numberPoolSize;
+			number /= numberPoolSize;
+		}
+		this.digitsValid = true;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getValue(long)
+	 */
+	public String getValue(long index) {
+		StringBuilder buffer = new StringBuilder(this.getLength());
+		this.appendValue(index, buffer);
+		return buffer.toString();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#appendValue(long, java.lang.StringBuilder)
+	 */
+	public void appendValue(long index, StringBuilder buffer) {
+		String data = super.getData();
+		int numberPoolSize = data.length();
+		
+		// pad with the character for 0
+		int start = buffer.length();
+		for (int i = 0; i < this.getLength(); i++) {
+			buffer.append(data.charAt(0));
+		}
+		
+		// fill in the digits from the right
+		long number = index;
+		for (int pos = start + this.getLength() - 1; number > 0; pos--) {
+			buffer.setCharAt(pos, data.charAt((int)(number % numberPoolSize)));
+			number /= numberPoolSize;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getWidth()
+	 */
+	public int getWidth() {
+		return this.getLength();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#indexOf(java.lang.String)
+	 */
+	public long indexOf(String value) {
+		if (value.length() != this.getLength()) {
+			return -1;
+		}
 		
-		return new String(retArr);
+		// the reverse of the transformation in getValue()
+		String data = super.getData();
+		long index = 0;
+		for (int i = 0; i < value.length(); i++) {
+			int digit = data.indexOf(value.charAt(i));
+			if (digit < 0) {
+				return -1;
+			}
+			index = index * data.length() + digit;
+		}
+		return index;
 	}
 
 	/**
@@ -214,9 +368,55 @@ public class CounterElement
 	 */
 	public void setData(String data) {
 		this.updateAlternatives = true;
+		this.digitsValid = false;
 		super.setData(data);
 	}
 	
+	/**
+	 * Get the value the counter will return next.
+	 * 
+	 * @return the current counter value
+	 */
+	public int getCounter() {
+		return counter;
+	}
+
+	/**
+	 * Sets the value the counter returns next, e.g. to resume where
+	 * an earlier run ended. All values are still returned once,
+	 * the counter wraps around to 0 after the last one.
+	 * 
+	 * @param counter
+	 * 			the new counter value
+	 */
+	public void setCounter(int counter) {
+		int numAlternatives = (int)this.getNumAlternatives();
+		this.counter = (numAlternatives > 0) ? Math.abs(counter % numAlternatives) : 0;
+		this.returned = 0;
+		this.digitsValid = false;
+		super.hasAlternatives(true);
+	}
+	
+	/**
+	 * Get the index of the taken counter values.
+	 * 
+	 * @return the index or null
+	 */
+	public CounterSlotIndex getSlotIndex() {
+		return slotIndex;
+	}
+
+	/**
+	 * Sets an index of the counter values that are already taken.
+	 * The counter skips those values instead of returning them.
+	 * 
+	 * @param slotIndex
+	 * 			the index or null to return every value
+	 */
+	public void setSlotIndex(CounterSlotIndex slotIndex) {
+		this.slotIndex = slotIndex;
+	}
+	
 	/**
 	 * Get the target length of the counter string.
 	 * 
@@ -234,6 +434,7 @@ public class CounterElement
 	 */
 	public void setLength(int length) {
 		this.updateAlternatives = true;
+		this.digitsValid = false;
 		this.length = length;
 	}
 }
@@ -0,0 +1,245 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.template;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+
+/**
+ * A sorted index of the counter values that are already taken.<br />
+ * It is built from existing ids that consist of the fixed prefix
+ * of a template, a counter value and its fixed suffix, e.g.
+ * <tt>stud00042</tt> for <tt>=stud:NNNNN++</tt>. The taken values
+ * are kept as sorted runs of consecutive values, so the smallest free
+ * value at or after a given one is found with one binary search and
+ * the counter can jump over whole blocks of taken ids at once.
+ * Ids taken later are merged into the runs.
+ * 
+ * @author unrza249
+ */
+public class CounterSlotIndex {
+
+	/**
+	 * The first value of each run of taken values, sorted
+	 */
+	private int[] runStarts = new int[0];
+
+	/**
+	 * The last value of each run of taken values
+	 */
+	private int[] runEnds = new int[0];
+
+	/**
+	 * The number of taken values
+	 */
+	private int numTaken = 0;
+
+	/**
+	 * The number of possible counter values
+	 */
+	private final int numValues;
+
+	/**
+	 * The form of the ids, see the constructor
+	 */
+	private final String prefix;
+	private final String suffix;
+	private final String data;
+	private final int length;
+
+
+	/**
+	 * Builds the index.
+	 * 
+	 * @param prefix
+	 * 			the fixed part of the template before the counter
+	 * @param suffix
+	 * 			the fixed part of the template after the counter
+	 * @param data
+	 * 			the characters of the counter, their position is their value
+	 * @param length
+	 * 			the number of counter characters
+	 * @param existing
+	 * 			the existing ids, ids of other forms are ignored
+	 */
+	public CounterSlotIndex(String prefix, String suffix, String data, int length, Collection<String> existing) {
+		this.numValues = (int)Math.min(Integer.MAX_VALUE, Math.pow(data.length(), length));
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.data = data;
+		this.length = length;
+
+		this.addAll(existing);
+	}
+
+
+	/**
+	 * Marks the values of more ids as taken.
+	 * 
+	 * @param ids
+	 * 			the ids, ids of other forms are ignored
+	 */
+	public void addAll(Collection<String> ids) {
+		int[] values = new int[ids.size()];
+		int n = 0;
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			int value = parse(iter.next(), this.prefix, this.suffix, this.data, this.length);
+			if (value >= 0) {
+				values[n++] = value;
+			}
+		}
+		Arrays.sort(values, 0, n);
+
+		// merge with the existing runs into runs of consecutive values
+		int[] starts = new int[this.runStarts.length + n];
+		int[] ends = new int[starts.length];
+		int runs = 0;
+		int taken = 0;
+		int r = 0;
+		int v = 0;
+		while (r < this.runStarts.length || v < n) {
+			int start;
+			int end;
+			if (v >= n || (r < this.runStarts.length && this.runStarts[r] <= values[v])) {
+				start = this.runStarts[r];
+				end = this.runEnds[r];
+				r++;
+			}
+			else {
+				start = values[v];
+				end = values[v];
+				v++;
+			}
+
+			if (runs > 0 && start <= (long)ends[runs - 1] + 1) {
+				if (end > ends[runs - 1]) {
+					taken += end - Math.max(start, ends[runs - 1] + 1) + 1;
+					ends[runs - 1] = end;
+				}
+			}
+			else {
+				starts[runs] = start;
+				ends[runs] = end;
+				runs++;
+				taken += end - start + 1;
+			}
+		}
+		this.runStarts = Arrays.copyOf(starts, runs);
+		this.runEnds = Arrays.copyOf(ends, runs);
+		this.numTaken = taken;
+	}
+
+	/**
+	 * Returns the smallest free value at or after the given one,
+	 * wrapping around to 0 after the last value.
+	 * 
+	 * @param value
+	 * 			the value to start at
+	 * @return the free value or -1 if all values are taken
+	 */
+	public int nextFree(int value) {
+		if (this.numTaken >= this.numValues) {
+			return -1;
+		}
+
+		int free = this.skip(value);
+		if (free >= this.numValues) {
+			// nothing free up to the end, start over at 0
+			free = this.skip(0);
+		}
+		return free;
+	}
+
+	/**
+	 * Returns the value itself if it is free, otherwise the value
+	 * after the end of its run.
+	 * 
+	 * @param value
+	 * 			the value
+	 * @return the first free value at or after value, possibly
+	 * 			numValues
+	 */
+	private int skip(int value) {
+		// the last run starting at or before value
+		int run = Arrays.binarySearch(this.runStarts, value);
+		if (run < 0) {
+			run = -run - 2;
+		}
+		if (run >= 0 && value <= this.runEnds[run]) {
+			return this.runEnds[run] + 1;
+		}
+		return value;
+	}
+
+	/**
+	 * Checks whether a value is taken.
+	 * 
+	 * @param value
+	 * 			the value
+	 * @return true if an existing id has this value
+	 */
+	public boolean isTaken(int value) {
+		return this.skip(value) != value;
+	}
+
+	/**
+	 * Returns the number of taken values.
+	 * 
+	 * @return the number of taken values
+	 */
+	public int getNumTaken() {
+		return numTaken;
+	}
+
+	/**
+	 * Returns the counter value of an id.
+	 * 
+	 * @return the value or -1 if the id does not have the form
+	 * 			prefix, counter, suffix
+	 */
+	private static int parse(String id, String prefix, String suffix, String data, int length) {
+		if (id.length() != prefix.length() + length + suffix.length()
+				|| !id.startsWith(prefix) 
+				|| !id.endsWith(suffix)) 
+		{
+			return -1;
+		}
+
+		long value = 0;
+		for (int i = prefix.length(); i < prefix.length() + length; i++) {
+			int digit = data.indexOf(id.charAt(i));
+			if (digit < 0) {
+				return -1;
+			}
+			value = value * data.length() + digit;
+			if (value > Integer.MAX_VALUE) {
+				return -1;
+			}
+		}
+		return (int)value;
+	}
+}
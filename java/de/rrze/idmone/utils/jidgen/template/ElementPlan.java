@@ -0,0 +1,189 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.template;
+
+import de.rrze.idmone.utils.jidgen.random.IRandomFactory;
+import de.rrze.idmone.utils.jidgen.random.RandomFactory;
+
+/**
+ * The parsed form of one part of a template string: which element
+ * implementation it stands for and the arguments of its constructor.
+ * Plans are immutable, so the Parser can cache them and hand them
+ * to any number of templates, each of which creates its own element
+ * objects from them.
+ * 
+ * @author unrza249
+ *
+ */
+public final class ElementPlan {
+
+	/**
+	 * The element implementations
+	 */
+	public enum Kind {
+		BASIC,
+		STATIC,
+		RANDOM,
+		SUBSTRING,
+		COUNTER
+	}
+	
+	/**
+	 * The element implementation
+	 */
+	private final Kind kind;
+	
+	/**
+	 * The template part the element describes
+	 */
+	private final String element;
+	
+	/**
+	 * The variable name of the external data, or the data
+	 * itself for a static element
+	 */
+	private final String key;
+	
+	/**
+	 * The length of a random or counter element, the start
+	 * of a substring element
+	 */
+	private final int first;
+	
+	/**
+	 * The end of a substring element
+	 */
+	private final int second;
+	
+	/**
+	 * Whether the element is an alternative/resolver
+	 */
+	private final boolean resolver;
+
+
+	/**
+	 * Constructor
+	 * 
+	 * @param kind
+	 * 			the element implementation
+	 * @param element
+	 * 			the template part the element describes
+	 * @param key
+	 * 			the variable name or the static data
+	 * @param first
+	 * 			the length or the start of a substring
+	 * @param second
+	 * 			the end of a substring
+	 * @param resolver
+	 * 			whether the element is an alternative/resolver
+	 */
+	public ElementPlan(Kind kind, String element, String key, int first, int second, boolean resolver) {
+		this.kind = kind;
+		this.element = element;
+		this.key = key;
+		this.first = first;
+		this.second = second;
+		this.resolver = resolver;
+	}
+
+
+	/**
+	 * Creates a new element object as described by this plan.
+	 * 
+	 * @return the element
+	 */
+	public IElement newElement() {
+		return this.newElement(RandomFactory.getInstance());
+	}
+	
+	/**
+	 * Creates a new element object as described by this plan,
+	 * random elements take their generator from the given factory.
+	 * 
+	 * @param randomFactory
+	 * 			the random number generator factory
+	 * @return the element
+	 */
+	public IElement newElement(IRandomFactory randomFactory) {
+		IElement element;
+		switch (this.kind) {
+			case BASIC:
+				element = new BasicElement(this.element, this.key);
+				break;
+			case STATIC:
+				element = new StaticElement(this.element, this.key);
+				break;
+			case RANDOM:
+				element = new RandomElement(this.element, this.key, this.first, randomFactory);
+				break;
+			case SUBSTRING:
+				element = new SubstringElement(this.element, this.key, this.first, this.second);
+				break;
+			default:
+				element = new CounterElement(this.element, this.key, this.first);
+				break;
+		}
+		element.setResolver(this.resolver);
+		return element;
+	}
+	
+	/**
+	 * Returns the same plan with another resolver status.
+	 * 
+	 * @param resolver
+	 * 			whether the element is an alternative/resolver
+	 * @return the plan
+	 */
+	public ElementPlan withResolver(boolean resolver) {
+		return new ElementPlan(this.kind, this.element, this.key, this.first, this.second, resolver);
+	}
+	
+	/**
+	 * Returns the element implementation.
+	 * 
+	 * @return the kind of element
+	 */
+	public Kind getKind() {
+		return this.kind;
+	}
+	
+	/**
+	 * Returns the template part the element describes.
+	 * 
+	 * @return the template part
+	 */
+	public String getElement() {
+		return this.element;
+	}
+	
+	/**
+	 * Returns whether the element is an alternative/resolver.
+	 * 
+	 * @return true for a resolver
+	 */
+	public boolean isResolver() {
+		return this.resolver;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.template;
+
+import java.util.Arrays;
+
+
+/**
+ * A set of indices of a template's index space that must not be
+ * generated, e.g. because the ids are already taken. The indices are
+ * kept sorted in one array, so a lookup is a binary search and the
+ * set needs 8 bytes per index. Indices added later are merged into
+ * the array.
+ * 
+ * @author unrza249
+ *
+ */
+public class ExclusionSet {
+
+	/**
+	 * The sorted indices
+	 */
+	private long[] indices;
+
+
+	/**
+	 * Builds the set.
+	 * 
+	 * @param indices
+	 * 			the indices, negative values are ignored
+	 * @param count
+	 * 			the number of indices in the array
+	 */
+	public ExclusionSet(long[] indices, int count) {
+		long[] sorted = Arrays.copyOf(indices, count);
+		Arrays.sort(sorted);
+
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (sorted[i] >= 0 && (n == 0 || sorted[n - 1] != sorted[i])) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		this.indices = Arrays.copyOf(sorted, n);
+	}
+
+
+	/**
+	 * Checks whether an index is excluded.
+	 * 
+	 * @param index
+	 * 			the index
+	 * @return true if the index is excluded
+	 */
+	public boolean contains(long index) {
+		return Arrays.binarySearch(this.indices, index) >= 0;
+	}
+
+	/**
+	 * Adds the indices of another set.
+	 * 
+	 * @param other
+	 * 			the set to add
+	 */
+	public void addAll(ExclusionSet other) {
+		long[] a = this.indices;
+		long[] b = other.indices;
+		long[] merged = new long[a.length + b.length];
+
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < a.length || j < b.length) {
+			long next = (j >= b.length || (i < a.length && a[i] <= b[j])) ? a[i++] : b[j++];
+			if (n == 0 || merged[n - 1] != next) {
+				merged[n++] = next;
+			}
+		}
+		this.indices = (n == merged.length) ? merged : Arrays.copyOf(merged, n);
+	}
+
+	/**
+	 * Returns an excluded index.
+	 * 
+	 * @param i
+	 * 			the position of the index, 0 to size() - 1
+	 * @return the index, in ascending order of i
+	 */
+	public long get(int i) {
+		return this.indices[i];
+	}
+
+	/**
+	 * Returns the number of excluded indices.
+	 * 
+	 * @return the number of indices
+	 */
+	public int size() {
+		return this.indices.length;
+	}
+}
@@ -115,6 +115,19 @@ public interface IElement {
 	 */
 	public abstract String toString();
 
+	/**
+	 * Does the same as toString(), but appends the result to the
+	 * given buffer instead of creating a new string.<br />
+	 * Implementations should override this to append their result 
+	 * without creating a string first.
+	 * 
+	 * @param buffer
+	 * 			the buffer to append the processed data string to
+	 */
+	public default void appendTo(StringBuilder buffer) {
+		buffer.append(this.toString());
+	}
+
 	/**
 	 * Returns true if this element should only be processed
 	 * as an resolver.
@@ -0,0 +1,91 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.template;
+
+/**
+ * Interface of elements whose possible values can be numbered.
+ * The values of such an element are indexed from 0 to 
+ * getNumValues() - 1, so a template made of indexed elements 
+ * spans an index space in which every possible id has a unique
+ * number. This allows to go back from an id to the choices that 
+ * would produce it.
+ * 
+ * @author unrza249
+ *
+ */
+public interface IIndexedElement extends IElement {
+
+	/**
+	 * Returns the number of different values of this element.
+	 * 
+	 * @return the number of values or -1 if there are too many to
+	 * 			be indexed with a long
+	 */
+	public abstract long getNumValues();
+
+	/**
+	 * Chooses the next value just like toString() does, but returns
+	 * its index instead of the value itself.
+	 * 
+	 * @return the index of the chosen value
+	 */
+	public abstract long nextIndex();
+
+	/**
+	 * Returns the value with the given index.
+	 * 
+	 * @param index
+	 * 			the index, 0 to getNumValues() - 1
+	 * @return the value
+	 */
+	public abstract String getValue(long index);
+
+	/**
+	 * Does the same as getValue(), but appends the value to the
+	 * given buffer instead of creating a new string.
+	 * 
+	 * @param index
+	 * 			the index, 0 to getNumValues() - 1
+	 * @param buffer
+	 * 			the buffer to append the value to
+	 */
+	public abstract void appendValue(long index, StringBuilder buffer);
+
+	/**
+	 * Returns the length of all values of this element.
+	 * 
+	 * @return the length of the values
+	 */
+	public abstract int getWidth();
+
+	/**
+	 * The reverse of getValue(): finds the index of a value.
+	 * 
+	 * @param value
+	 * 			the value
+	 * @return the index or -1 if this element cannot produce the value
+	 */
+	public abstract long indexOf(String value);
+}
@@ -25,22 +25,34 @@
 package de.rrze.idmone.utils.jidgen.template;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import de.rrze.idmone.utils.jidgen.AbortException;
 import de.rrze.idmone.utils.jidgen.Messages;
+import de.rrze.idmone.utils.jidgen.random.IRandomFactory;
+import de.rrze.idmone.utils.jidgen.random.RandomFactory;
 
 
 /**
  * Parser class for the IdGenerator's template
  * system.<br />
  * All parsing and conversion to element objects
- * is done here.
+ * is done here.<br />
+ * The template string is read once from left to right: 
+ * the first characters of each part decide which element 
+ * it describes, so every part is classified in one pass
+ * without trying one pattern after the other. All syntax
+ * errors of a template are reported with their columns.<br />
+ * The parsed templates are kept as element plans in a 
+ * small LRU cache, so a template that is used again 
+ * is not parsed again, only its elements are created.
  * 
  * @author unrza249
  *
@@ -57,22 +69,85 @@ public class Parser {
 	 * and the beginning of another template element in
 	 * the template string.
 	 */
-	private static final String ELEMENT_DELIMITER = ":";
+	private static final char ELEMENT_DELIMITER = ':';
 	
 	/**
-	 * This is a flag indicating whether or not the
-	 * already parsed elements contain a counter element.
-	 * It is used to limit the number of counter elements to one.
-	 * <b>Only used internally. Will be removed in future versions</b>
+	 * The characters around an alternative/resolver element
 	 */
-	private static boolean hasCounterElement;
+	private static final char RESOLVER_START = '[';
+	private static final char RESOLVER_END = ']';
+	
+	/**
+	 * The first character of a static element
+	 */
+	private static final char STATIC_START = '=';
+	
+	/**
+	 * The indicator of a random element, twice for a counter element
+	 */
+	private static final char RANDOM_INDICATOR = '+';
+	
+	/**
+	 * The separator of the start and end of a substring element
+	 */
+	private static final char SUBSTRING_SEPARATOR = ',';
+	
+	/**
+	 * The maximum number of parsed templates kept in the cache
+	 */
+	public static final int PLAN_CACHE_SIZE = 64;
+	
+	/**
+	 * The element plans of the recently used template strings,
+	 * least recently used first
+	 */
+	private static final Map<String, List<ElementPlan>> plans = new LinkedHashMap<String, List<ElementPlan>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		protected boolean removeEldestEntry(Map.Entry<String, List<ElementPlan>> eldest) {
+			return this.size() > PLAN_CACHE_SIZE;
+		}
+	};
+	
+	/**
+	 * The template string being parsed
+	 */
+	private final String template;
+	
+	/**
+	 * The position of the next character to read
+	 */
+	private int pos = 0;
+	
+	/**
+	 * The syntax errors found so far, with their columns
+	 */
+	private final List<String> errors = new ArrayList<String>();
+	
+	/**
+	 * Whether all errors are surplus counter elements
+	 */
+	private boolean hasOnlyCounterErrors = true;
+	
+	
+	/**
+	 * Creates a parser for one template string, 
+	 * used by getPlans() and validate().
+	 * 
+	 * @param template
+	 * 			the template string
+	 */
+	private Parser(String template) {
+		this.template = template;
+	}
+	
 	
 	/**
 	 * Processes the given template string by splitting it into its
 	 * parts and parse each part to compile a list of according 
 	 * element objects.<br/>
 	 * Those are used by the template class to finally build the
-	 * result string.
+	 * result string. Every call returns new element objects.
 	 * 
 	 * @param template
 	 * 			the template string to process
@@ -80,258 +155,488 @@ public class Parser {
 	 * 			the template string
 	 */
 	public static ArrayList<IElement> getElements(String template) {
+		return getElements(template, RandomFactory.getInstance());
+	}
+	
+	/**
+	 * Like getElements(String), but the random elements take their
+	 * generators from the given factory.
+	 * 
+	 * @param template
+	 * 			the template string to process
+	 * @param randomFactory
+	 * 			the random number generator factory
+	 * @return	a list of elements representing the element parts inside
+	 * 			the template string
+	 */
+	public static ArrayList<IElement> getElements(String template, IRandomFactory randomFactory) {
+		List<ElementPlan> templatePlans = getPlans(template);
 		
-		// reset the hasCounter flag
-		hasCounterElement = false;
+		ArrayList<IElement> elements = new ArrayList<IElement>(templatePlans.size());
+		for (Iterator<ElementPlan> iter = templatePlans.iterator(); iter.hasNext();) {
+			elements.add(iter.next().newElement(randomFactory));
+		}
+		return elements;
+	}
+	
+	/**
+	 * Returns the element plans of the given template string, from
+	 * the cache if it was parsed recently.
+	 * 
+	 * @param template
+	 * 			the template string to process
+	 * @return	an unmodifiable list of plans of the element parts inside
+	 * 			the template string
+	 */
+	public static List<ElementPlan> getPlans(String template) {
+		List<ElementPlan> templatePlans;
+		synchronized (plans) {
+			templatePlans = plans.get(template);
+		}
+		if (templatePlans == null) {
+			Parser parser = new Parser(template);
+			templatePlans = parser.parseTemplate();
+			if (!parser.errors.isEmpty()) {
+				for (Iterator<String> iter = parser.errors.iterator(); iter.hasNext();) {
+					logger.fatal(iter.next());
+				}
+				throw new AbortException(parser.errors.get(0), parser.hasOnlyCounterErrors ? 171 : 170);
+			}
+			synchronized (plans) {
+				plans.put(template, templatePlans);
+			}
+		}
+		return templatePlans;
+	}
+	
+	/**
+	 * Checks the syntax of the given template string without
+	 * creating any elements.
+	 * 
+	 * @param template
+	 * 			the template string to check
+	 * @return	the error messages with their columns, an empty
+	 * 			list if the template is valid
+	 */
+	public static List<String> validate(String template) {
+		Parser parser = new Parser(template);
+		parser.parseTemplate();
+		return Collections.unmodifiableList(parser.errors);
+	}
+	
+	/**
+	 * Does the work of getPlans() for a template string
+	 * that is not in the cache:<br />
+	 * template := part (':' part)*<br />
+	 * part := '[' element ']' | element<br />
+	 * A part with an error is skipped up to the next delimiter,
+	 * so the following parts are checked as well.
+	 * 
+	 * @return	an unmodifiable list of element plans, 
+	 * 			incomplete if there are errors
+	 */
+	private List<ElementPlan> parseTemplate() {
 		
-		// init elements array
-		ArrayList<IElement> elements = new ArrayList<IElement>();
+		// used to limit the number of counter elements to one
+		boolean hasCounterElement = false;
 		
-		// split into parts (which later become elements)
-		ArrayList<String> parts = new ArrayList<String>(Arrays.asList(template.split(ELEMENT_DELIMITER)));
-		//logger.debug(parts.toString());
+		// init plans array
+		ArrayList<ElementPlan> templatePlans = new ArrayList<ElementPlan>();
 		
-		boolean isResolver;
+		// like String.split(), empty parts at the end are ignored,
+		// but an empty template is one empty part
+		int end = this.template.length();
+		while (end > 0 && this.template.charAt(end - 1) == ELEMENT_DELIMITER) {
+			end--;
+		}
 		
 		// process the parts - here starts the fun ;)
-		for (Iterator<String> iter = parts.iterator(); iter.hasNext();) {
-			String currentPart = iter.next();
+		while (this.pos < end || this.pos == 0 && this.template.length() == 0) {
+			int partStart = this.pos;
+			ElementPlan plan = this.parsePart();
 			
-			/*
-			 * ALTERNATIVE / RESOLVER 
-			 */
-			Matcher m = getMatcher("^\\[(.*)\\]$", currentPart);
-			if (m.matches()) {
-				logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => ALTERNATIVE/RESOLVER");
-				isResolver = true;
-				currentPart = m.group(1);
+			if (plan == null) {
+				// skip the rest of the part
+				while (this.pos < end && this.peek() != ELEMENT_DELIMITER) {
+					this.pos++;
+				}
+			}
+			else if (plan.getKind() == ElementPlan.Kind.COUNTER && hasCounterElement) {
+				// limit number of counter elements to one
+				this.error(partStart, Messages.getString("Parser.ONLY_ONE_COUNTER_ELEMENT_ALLOWED"), true);
 			}
 			else {
-				isResolver = false;
+				if (plan.getKind() == ElementPlan.Kind.COUNTER) {
+					hasCounterElement = true;
+				}
+				templatePlans.add(plan);
 			}
 			
-			// parse and get the element instance
-			IElement element = Parser.parse(currentPart);
-			
-			// set the resolver status
-			element.setResolver(isResolver);
-			
-			// add the element
-			elements.add(element);
+			// the delimiter, the end of the template ends the loop
+			this.pos++;
 		}
 		
-		return elements;
+		return Collections.unmodifiableList(templatePlans);
 	}
 	
-	
 	/**
-	 * Helper class for the getElements() method that
-	 * matches the given element part string against
-	 * all known element patterns to determine which
-	 * element implementation to use.
-	 *  
-	 * @param part
-	 * 			the element part string to match against
-	 * @return	a matching element object, representing the
-	 * 			given element part string
+	 * Parses one part of the template string, up to the next
+	 * delimiter or the end of the string.
+	 * 
+	 * @return	the element plan or null on an error
 	 */
-	private static IElement parse(String part) {	
-		logger.debug(Messages.getString("Parser.PROCESSING_PART") + part);
-		
-		Matcher m;
+	private ElementPlan parsePart() {
+		if (logger.isDebugEnabled()) {
+			int end = this.template.indexOf(ELEMENT_DELIMITER, this.pos);
+			logger.debug(Messages.getString("Parser.PROCESSING_PART") + this.template.substring(this.pos, (end < 0) ? this.template.length() : end));
+		}
 		
 		/*
-		 * BASIC
+		 * ALTERNATIVE / RESOLVER 
 		 */
-
-		// Basic (e.g. a)
-		m = getMatcher("^([a-zA-Z])$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => BASIC");
-			return new BasicElement(
-					m.group(1), 
-					m.group(1)
-			);	
+		boolean isResolver = (this.peek() == RESOLVER_START);
+		if (isResolver) {
+			this.pos++;
 		}
 		
+		ElementPlan plan = this.parseElement(isResolver);
+		if (plan == null) {
+			return null;
+		}
 		
-		/*
-		 * STATIC
-		 */
-
-		// Static (e.g. =my_prefix)
-		m = getMatcher("^(=([a-zA-Z_0-9]*))$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => STATIC");
-			return new StaticElement(
-					m.group(1), 
-					m.group(2)
-			);	
+		if (isResolver) {
+			if (this.peek() != RESOLVER_END) {
+				this.expected(String.valueOf(RESOLVER_END));
+				return null;
+			}
+			this.pos++;
+		}
+		if (!this.atPartEnd()) {
+			this.unexpected();
+			return null;
 		}
 		
+		if (logger.isDebugEnabled()) {
+			logger.debug(Messages.getString("Parser.MATCHED_ELEMENT") + plan.getKind() + (isResolver ? " (ALTERNATIVE/RESOLVER)" : ""));
+		}
+		return isResolver ? plan.withResolver(true) : plan;
+	}
+	
+	/**
+	 * Parses one element:<br />
+	 * element := '=' word | digit letter [digit] | letter tail
+	 * 
+	 * @param isResolver
+	 * 			whether the element is enclosed in brackets
+	 * @return	the element plan or null on an error
+	 */
+	private ElementPlan parseElement(boolean isResolver) {
+		int start = this.pos;
+		char c = this.peek();
 		
 		/*
-		 * RANDOM
+		 * STATIC
 		 */
 		
-		// Random - exactly one (e.g. a+) or as many as specified by repetation (e.g. aaa+)
-		m = getMatcher("^(([a-zA-Z])(\\2*)\\+)$", part);
-		if (m.matches()) {
-			int length = m.group(3).length() + 1;
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => RANDOM (length=" + length + ")");
-			return new RandomElement(
-					m.group(1), 
-					m.group(2),
-					length
-			);	
-		}
-
-		// Random - as many as specified by number (e.g. a3+) - zero or leading zeros are forbidden!
-		m = getMatcher("^(([a-zA-Z])([1-9][0-9]*)\\+)$", part);
-		if (m.matches()) {
-			int length = Integer.parseInt(m.group(3));
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => RANDOM (length=" + length + ")");
-			return new RandomElement(
-					m.group(1), 
-					m.group(2),
-					length
-			);	
+		// Static (e.g. =my_prefix)
+		if (c == STATIC_START) {
+			this.pos++;
+			while (isWordChar(this.peek())) {
+				this.pos++;
+			}
+			return new ElementPlan(ElementPlan.Kind.STATIC, this.element(start), this.template.substring(start + 1, this.pos), 0, 0, false);
 		}
-	
 		
 		/*
 		 * SUBSTRING
 		 */
 		
-		// Substring (e.g. 1a)
-		m = getMatcher("^(([1-9])([a-zA-Z]))$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => SUBSTRING (first x characters)");
-			return new SubstringElement(
-					m.group(1), 
-					m.group(3),
-					1,
-					Integer.parseInt(m.group(2))
-			);	
-		}
-
-		// Substring (e.g. a1)
-		m = getMatcher("^(([a-zA-Z])([1-9]))$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => SUBSTRING (last x characters)");
-			return new SubstringElement(
-					m.group(1),
-					m.group(2),
-					-1,			// this is special and indicates that
-								// the last x (stored in the end parameter) characters
-								// are to be used
-					Integer.parseInt(m.group(3))
-			);	
+		// Substring (e.g. 1a) or (e.g. 1a5)
+		if (isNonZeroDigit(c)) {
+			int begin = c - '0';
+			this.pos++;
+			if (!isLetter(this.peek())) {
+				this.expected("letter");
+				return null;
+			}
+			String key = String.valueOf(this.next());
+			if (isNonZeroDigit(this.peek())) {
+				int end = this.next() - '0';
+				return new ElementPlan(ElementPlan.Kind.SUBSTRING, this.element(start), key, begin, end, false);
+			}
+			// the first x characters
+			return new ElementPlan(ElementPlan.Kind.SUBSTRING, this.element(start), key, 1, begin, false);
 		}
 		
-		// Substring (e.g. 1a5)
-		m = getMatcher("^(([1-9])([a-zA-Z])([1-9]))$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => SUBSTRING (start, end)");
-			return new SubstringElement(
-					m.group(1),
-					m.group(3),
-					Integer.parseInt(m.group(2)), 
-					Integer.parseInt(m.group(4)) 
-			);	
+		if (!isLetter(c)) {
+			if (this.atElementEnd(isResolver)) {
+				this.error(this.pos, Messages.getString("Parser.EMPTY_ELEMENT"), false);
+			}
+			else {
+				this.unexpected();
+			}
+			return null;
 		}
+		this.pos++;
+		return this.parseTail(start, String.valueOf(c), isResolver);
+	}
+	
+	/**
+	 * Parses what follows the letter of an element:<br />
+	 * tail := empty | letter* '+' ['+'] | number '+' ['+'] | 
+	 * digit [',' [digit]] | ',' digit
+	 * 
+	 * @param start
+	 * 			the position of the element
+	 * @param key
+	 * 			the letter of the element
+	 * @param isResolver
+	 * 			whether the element is enclosed in brackets
+	 * @return	the element plan or null on an error
+	 */
+	private ElementPlan parseTail(int start, String key, boolean isResolver) {
+		char c = this.peek();
 		
-		// Substring with start and end (e.g. a1,5)
-		m = getMatcher("^(([a-zA-Z])([1-9]),([1-9]))$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => SUBSTRING (start, end)");
-			int end = Integer.parseInt(m.group(4));
-			return new SubstringElement(
-					m.group(1),
-					m.group(2),
-					Integer.parseInt(m.group(3)), 
-					(end<=0)?-1:end  	// this is just to be as kind as possible to the user
-										// -> even negative end values are interpreted
-			);	
-		}	
-		
-		// Substring (e.g. a1,)
-		m = getMatcher("^(([a-zA-Z])([1-9]),)$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => SUBSTRING (start at x until end of the string)");
-			return new SubstringElement(
-					m.group(1),
-					m.group(2),
-					Integer.parseInt(m.group(3)), 
-					-1
-			);	
-		}	
-		
-		// Substring (e.g. a,1)
-		m = getMatcher("^(([a-zA-Z]),([1-9]))$", part);
-		if (m.matches()) {
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => SUBSTRING (first x characters)");
-			return new SubstringElement(
-					m.group(1),
-					m.group(2),
-					1,
-					Integer.parseInt(m.group(3))
-			);	
-		}	
+		/*
+		 * BASIC
+		 */
 		
+		// Basic (e.g. a)
+		if (this.atElementEnd(isResolver)) {
+			return new ElementPlan(ElementPlan.Kind.BASIC, this.element(start), key, 0, 0, false);
+		}
 		
 		/*
-		 * COUNTER
-		 */	
+		 * RANDOM / COUNTER
+		 */
 		
-		// Counter - exactly one (e.g. a++) or as many as specified by repetation (e.g. aaa++)
-		m = getMatcher("^(([a-zA-Z])(\\2*)\\+\\+)$", part);
-		if (m.matches()) {
-			
-			// limit number of counter elements to one
-			if (Parser.hasCounterElement == true) {
-					logger.fatal(Messages.getString("Parser.ONLY_ONE_COUNTER_ELEMENT_ALLOWED"));
-					System.exit(171);
+		// exactly one (e.g. a+) or as many as specified by repetition (e.g. aaa+)
+		if (c == key.charAt(0) || c == RANDOM_INDICATOR) {
+			int length = 1;
+			while (this.peek() == key.charAt(0)) {
+				this.pos++;
+				length++;
+			}
+			return this.parseIndicator(start, key, length);
+		}
+		
+		// as many as specified by number (e.g. a3+) or substring (e.g. a1)
+		if (isDigit(c)) {
+			int numberStart = this.pos;
+			long number = 0;
+			while (isDigit(this.peek())) {
+				number = Math.min(number * 10 + (this.next() - '0'), Integer.MAX_VALUE + 1L);
+			}
+			if (this.template.charAt(numberStart) == '0') {
+				this.error(numberStart, Messages.getString("Parser.LEADING_ZERO"), false);
+				return null;
 			}
-			Parser.hasCounterElement = true;
 			
+			if (this.peek() == RANDOM_INDICATOR) {
+				if (number > Integer.MAX_VALUE) {
+					this.error(numberStart, Messages.getString("Parser.LENGTH_TOO_LARGE"), false);
+					return null;
+				}
+				return this.parseIndicator(start, key, (int)number);
+			}
+			if (this.pos - numberStart > 1) {
+				this.expected(String.valueOf(RANDOM_INDICATOR));
+				return null;
+			}
 			
-			int length = m.group(3).length() + 1;
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => COUNTER (length=" + length + ")");
-			return new CounterElement(
-					m.group(1), 
-					m.group(2),
-					length
-			);	
-		}
-
-		// Counter - as many as specified by number (e.g. a3++) - zero or leading zeros are forbidden!
-		m = getMatcher("^(([a-zA-Z])([1-9][0-9]*)\\+\\+)$", part);
-		if (m.matches()) {
-			int length = Integer.parseInt(m.group(3));
-			logger.debug(Messages.getString("Parser.MATCHED_PATTERN") + m.pattern() + " => COUNTER (length=" + length + ")");
-			return new CounterElement(
-					m.group(1), 
-					m.group(2),
-					length
-			);	
+			/*
+			 * SUBSTRING
+			 */
+			int begin = (int)number;
+			if (this.peek() != SUBSTRING_SEPARATOR) {
+				// Substring (e.g. a1), the last x characters
+				return new ElementPlan(ElementPlan.Kind.SUBSTRING, this.element(start), key, -1, begin, false);
+			}
+			this.pos++;
+			if (isNonZeroDigit(this.peek())) {
+				// Substring with start and end (e.g. a1,5)
+				int end = this.next() - '0';
+				return new ElementPlan(ElementPlan.Kind.SUBSTRING, this.element(start), key, begin, end, false);
+			}
+			// Substring (e.g. a1,), start at x until end of the string
+			return new ElementPlan(ElementPlan.Kind.SUBSTRING, this.element(start), key, begin, -1, false);
 		}
 		
+		// Substring (e.g. a,1), the first x characters
+		if (c == SUBSTRING_SEPARATOR) {
+			this.pos++;
+			if (!isNonZeroDigit(this.peek())) {
+				this.expected("digit 1-9");
+				return null;
+			}
+			int end = this.next() - '0';
+			return new ElementPlan(ElementPlan.Kind.SUBSTRING, this.element(start), key, 1, end, false);
+		}
 		
-		
-		/*
-		 * IF WE ARE HERE, NONE OF THE ABOVE PATTERNS HAS MATCHED!
-		 */
-		
-		logger.fatal(Messages.getString("Parser.NO_MATCHING_ELEMENT_FOUND") + part);
-		System.exit(170);
+		this.unexpected();
 		return null;
 	}
 	
-	private static Matcher getMatcher(String pattern, String matchee) {
-		Pattern p = Pattern.compile(pattern);
-		Matcher m = p.matcher(matchee);
-		return m;
+	/**
+	 * Parses the random indicator of a random element, 
+	 * or two of them of a counter element.
+	 * 
+	 * @param start
+	 * 			the position of the element
+	 * @param key
+	 * 			the letter of the element
+	 * @param length
+	 * 			the length of the element
+	 * @return	the element plan or null on an error
+	 */
+	private ElementPlan parseIndicator(int start, String key, int length) {
+		if (this.peek() != RANDOM_INDICATOR) {
+			this.expected(String.valueOf(RANDOM_INDICATOR));
+			return null;
+		}
+		this.pos++;
+		if (this.peek() == RANDOM_INDICATOR) {
+			this.pos++;
+			return new ElementPlan(ElementPlan.Kind.COUNTER, this.element(start), key, length, 0, false);
+		}
+		return new ElementPlan(ElementPlan.Kind.RANDOM, this.element(start), key, length, 0, false);
+	}
+	
+	/**
+	 * Returns the next character without reading it.
+	 * 
+	 * @return	the next character or 0 at the end of the template
+	 */
+	private char peek() {
+		return (this.pos < this.template.length()) ? this.template.charAt(this.pos) : 0;
+	}
+	
+	/**
+	 * Reads the next character.
+	 * 
+	 * @return	the next character
+	 */
+	private char next() {
+		return this.template.charAt(this.pos++);
+	}
+	
+	/**
+	 * Returns the element read since the given position.
+	 * 
+	 * @param start
+	 * 			the position of the element
+	 * @return	the element part string
+	 */
+	private String element(int start) {
+		return this.template.substring(start, this.pos);
+	}
+	
+	/**
+	 * Checks whether the next character ends the part.
+	 * 
+	 * @return	true at a delimiter or the end of the template
+	 */
+	private boolean atPartEnd() {
+		return this.pos >= this.template.length() || this.peek() == ELEMENT_DELIMITER;
+	}
+	
+	/**
+	 * Checks whether the next character ends the element.
+	 * 
+	 * @param isResolver
+	 * 			whether the element is enclosed in brackets
+	 * @return	true at the end of the part or the closing bracket
+	 */
+	private boolean atElementEnd(boolean isResolver) {
+		return this.atPartEnd() || (isResolver && this.peek() == RESOLVER_END);
+	}
+	
+	/**
+	 * Records an error about the next character.
+	 */
+	private void unexpected() {
+		this.error(this.pos, this.describeNext(), false);
+	}
+	
+	/**
+	 * Records an error about a missing character.
+	 * 
+	 * @param expected
+	 * 			what was expected instead of the next character
+	 */
+	private void expected(String expected) {
+		this.error(this.pos, this.describeNext() + ", " + Messages.getString("Parser.EXPECTED") + expected, false);
+	}
+	
+	/**
+	 * Describes the next character for an error message.
+	 * 
+	 * @return	the description
+	 */
+	private String describeNext() {
+		if (this.atPartEnd()) {
+			return Messages.getString("Parser.UNEXPECTED_END");
+		}
+		return Messages.getString("Parser.UNEXPECTED_CHARACTER") + "'" + this.peek() + "'";
+	}
+	
+	/**
+	 * Records an error.
+	 * 
+	 * @param position
+	 * 			the position of the error
+	 * @param message
+	 * 			the error message
+	 * @param isCounterError
+	 * 			whether it is the error of a surplus counter element
+	 */
+	private void error(int position, String message, boolean isCounterError) {
+		this.errors.add(Messages.getString("Parser.SYNTAX_ERROR") + (position + 1) + ": " + message + " (template: " + this.template + ")");
+		this.hasOnlyCounterErrors &= isCounterError;
+	}
+	
+	/**
+	 * Checks for a letter.
+	 * 
+	 * @param c
+	 * 			the character
+	 * @return	true for a-z and A-Z
+	 */
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	
+	/**
+	 * Checks for a digit.
+	 * 
+	 * @param c
+	 * 			the character
+	 * @return	true for 0-9
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	/**
+	 * Checks for a digit other than zero.
+	 * 
+	 * @param c
+	 * 			the character
+	 * @return	true for 1-9
+	 */
+	private static boolean isNonZeroDigit(char c) {
+		return c >= '1' && c <= '9';
+	}
+	
+	/**
+	 * Checks for a character of static data.
+	 * 
+	 * @param c
+	 * 			the character
+	 * @return	true for letters, digits and the underscore
+	 */
+	private static boolean isWordChar(char c) {
+		return isLetter(c) || isDigit(c) || c == '_';
 	}
 	
 }
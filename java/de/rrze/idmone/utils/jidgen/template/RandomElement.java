@@ -24,9 +24,11 @@
 
 package de.rrze.idmone.utils.jidgen.template;
 
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
+import de.rrze.idmone.utils.jidgen.random.DigitSampler;
 import de.rrze.idmone.utils.jidgen.random.IRandomFactory;
+import de.rrze.idmone.utils.jidgen.random.LazyPermutation;
 import de.rrze.idmone.utils.jidgen.random.RandomFactory;
 
 
@@ -39,7 +41,7 @@ import de.rrze.idmone.utils.jidgen.random.RandomFactory;
  */
 public class RandomElement
 	extends AbstractElement
-	implements IElement 
+	implements IIndexedElement 
 {
 	
 	/**
@@ -65,10 +67,32 @@ public class RandomElement
 	private boolean alwaysAlternatives = false;
 	
 	/**
-	 * An instance of the Random number that would be used during the generation 
-	 * process
+	 * An instance of the random number generator that would be used during 
+	 * the generation process
 	 */
-	private Random random;
+	private RandomGenerator random;
+	
+	/**
+	 * Draws several characters from one random number,
+	 * created for the current data string
+	 */
+	private DigitSampler sampler;
+	
+	/**
+	 * The digits drawn by the sampler, reused for every string
+	 */
+	private int[] digits;
+	
+	/**
+	 * Whether every value is returned at most once
+	 */
+	private boolean unique = false;
+	
+	/**
+	 * The values in random order in unique mode, null 
+	 * otherwise or if there are too many values
+	 */
+	private LazyPermutation permutation;
 	
 	/**
 	 * The random number generator factory
@@ -99,6 +123,14 @@ public class RandomElement
 	 */
 	private boolean updateAlternatives = true;
 	
+	/**
+	 * Internal flag whether to recreate the permutation and reset
+	 * the alternatives-flag before the next value, kept apart from
+	 * updateAlternatives because getNumAlternatives() clears that one.<br />
+	 * <b>used only internally</b>
+	 */
+	private boolean updatePermutation = true;
+	
 	
 	/**
 	 * Simple default constructor
@@ -121,6 +153,25 @@ public class RandomElement
 	 * 			the target length of the output string
 	 */
 	public RandomElement(String element,  String key, int length) {
+		this(element, key, length, RandomFactory.getInstance());
+	}
+	
+	/**
+	 * Constructor like RandomElement(String, String, int) that takes
+	 * the random number generator from the given factory, e.g. the
+	 * one of an IdGenerator instance
+	 * 
+	 * @param element
+	 * 			the whole part of the template string this object describes
+	 * @param key
+	 * 			variable name for external data retrieval (the command line
+	 * 			parameter that holds the data)
+	 * @param length
+	 * 			the target length of the output string
+	 * @param randomFactory
+	 * 			the random number generator factory
+	 */
+	public RandomElement(String element,  String key, int length, IRandomFactory randomFactory) {
 		// call parent constructor for the basic stuff
 		super(element, key);
 		// enable the need for external data (if needed ;)
@@ -130,8 +181,8 @@ public class RandomElement
 		this.setLength(length);
 		
 		// create random number generator
-		this.randomFactory = RandomFactory.getInstance();
-		this.random = randomFactory.getRandom();
+		this.randomFactory = randomFactory;
+		this.random = randomFactory.getGenerator();
 /*
 		// if you want secure random for some obscure reason:
 		// enable this and comment out the line above
@@ -191,15 +242,47 @@ public class RandomElement
 	 * @return a random string with the requested length
 	 */
 	public String buildRandomString(int targetLength) {
+		StringBuilder buffer = new StringBuilder(targetLength);
+		this.appendRandomString(targetLength, buffer);
+		return buffer.toString();
+	}
+	
+	/**
+	 * Does the same as buildRandomString(), but appends the
+	 * random characters to the given buffer.
+	 * 
+	 * @param targetLength
+	 * 			length of the desired random string
+	 * @param buffer
+	 * 			the buffer to append the random string to
+	 */
+	public void appendRandomString(int targetLength, StringBuilder buffer) {
 		String data = this.getData();
-		int dataLength = data.length();
-		String ret = "";
+		DigitSampler sampler = this.getSampler();
 		
-		for (int i = 0; i < targetLength; i++) {
-			ret += data.charAt(this.random.nextInt(dataLength));
+		int remaining = targetLength;
+		while (remaining > 0) {
+			// one random number for up to getDigitsPerBatch() characters
+			int n = Math.min(remaining, this.digits.length);
+			sampler.nextDigits(this.random, this.digits, n);
+			for (int i = 0; i < n; i++) {
+				buffer.append(data.charAt(this.digits[i]));
+			}
+			remaining -= n;
 		}
-		
-		return ret;
+	}
+	
+	/**
+	 * Returns the sampler for the current data string.
+	 * 
+	 * @return the sampler
+	 */
+	private DigitSampler getSampler() {
+		if (this.sampler == null || this.sampler.getBase() != this.getData().length()) {
+			this.sampler = new DigitSampler(this.getData().length());
+			this.digits = new int[Math.min(this.sampler.getDigitsPerBatch(), 64)];
+		}
+		return this.sampler;
 	}
 	
 	
@@ -207,14 +290,41 @@ public class RandomElement
 	 * @see de.rrze.idmone.utils.jidgen.template.IElement#toString()
 	 */
 	public String toString() {
-		
-		if (this.updateAlternatives) {
+		this.countAlternative();
+		return this.buildRandomString(this.getLength());
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IElement#appendTo(java.lang.StringBuilder)
+	 */
+	public void appendTo(StringBuilder buffer) {
+		this.countAlternative();
+		if (this.permutation != null) {
+			this.appendValue(this.nextUniqueIndex(), buffer);
+		}
+		else {
+			this.appendRandomString(this.getLength(), buffer);
+		}
+	}
+	
+	/**
+	 * Counts one more returned value and updates the 
+	 * alternatives-flag accordingly.
+	 */
+	private void countAlternative() {
+		if (this.updatePermutation) {
 			this.numAlternatives = this.getNumAlternatives();
-			this.updateAlternatives = false;
+			this.updatePermutation = false;
 			this.hasAlternatives(true);
+			
+			long numValues = this.getNumValues();
+			this.permutation = (this.unique && numValues >= 0) ? new LazyPermutation(numValues) : null;
 		}
 		
-		String result = this.buildRandomString(this.getLength());
+		// exact, counted by nextUniqueIndex()
+		if (this.permutation != null) {
+			return;
+		}
 		
 		if (!this.alwaysAlternatives) {
 			if (this.counter == (this.numAlternatives * timesOvercoverage)) {
@@ -228,8 +338,133 @@ public class RandomElement
 				this.counter++;			
 			}
 		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getNumValues()
+	 */
+	public long getNumValues() {
+		// exact, unlike getNumAlternatives()
+		long numValues = 1;
+		try {
+			for (int i = 0; i < this.getLength(); i++) {
+				numValues = Math.multiplyExact(numValues, this.getData().length());
+			}
+		}
+		catch (ArithmeticException e) {
+			return -1;
+		}
+		return numValues;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#nextIndex()
+	 */
+	public long nextIndex() {
+		this.countAlternative();
+		if (this.permutation != null) {
+			return this.nextUniqueIndex();
+		}
+		
+		// draw the characters just like buildRandomString(), the
+		// first one being the most significant digit
+		DigitSampler sampler = this.getSampler();
+		int dataLength = sampler.getBase();
+		long index = 0;
+		int remaining = this.getLength();
+		while (remaining > 0) {
+			int n = Math.min(remaining, this.digits.length);
+			sampler.nextDigits(this.random, this.digits, n);
+			for (int i = 0; i < n; i++) {
+				index = index * dataLength + this.digits[i];
+			}
+			remaining -= n;
+		}
+		return index;
+	}
+	
+	/**
+	 * Draws the next index of the permutation in unique mode. The 
+	 * element runs out of alternatives with the last index and does
+	 * not start over, see isExhausted().
+	 * 
+	 * @return the index
+	 * @throws java.util.NoSuchElementException
+	 * 			if all values were returned
+	 */
+	private long nextUniqueIndex() {
+		long index = this.permutation.next(this.random);
+		if (this.permutation.getRemaining() == 0 && !this.alwaysAlternatives) {
+			super.hasAlternatives(false);
+		}
+		return index;
+	}
+	
+	/**
+	 * Returns whether all values were returned in unique mode. 
+	 * Returning more would repeat a value, so the template must 
+	 * end the generation even if its other elements have 
+	 * alternatives left.
+	 * 
+	 * @return true if the element has no unused values left
+	 */
+	public boolean isExhausted() {
+		return (this.permutation != null 
+				&& !this.updatePermutation 
+				&& this.permutation.getRemaining() == 0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getValue(long)
+	 */
+	public String getValue(long index) {
+		StringBuilder buffer = new StringBuilder(this.getLength());
+		this.appendValue(index, buffer);
+		return buffer.toString();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#appendValue(long, java.lang.StringBuilder)
+	 */
+	public void appendValue(long index, StringBuilder buffer) {
+		String data = this.getData();
+		int dataLength = data.length();
+		
+		// reserve the space, then fill in the digits from the right
+		int start = buffer.length();
+		buffer.setLength(start + this.getLength());
+		for (int pos = start + this.getLength() - 1; pos >= start; pos--) {
+			buffer.setCharAt(pos, data.charAt((int)(index % dataLength)));
+			index /= dataLength;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getWidth()
+	 */
+	public int getWidth() {
+		return this.getLength();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#indexOf(java.lang.String)
+	 */
+	public long indexOf(String value) {
+		if (value.length() != this.getLength()) {
+			return -1;
+		}
 		
-		return result;
+		// the reverse of getValue()
+		String data = this.getData();
+		long index = 0;
+		for (int i = 0; i < value.length(); i++) {
+			int digit = data.indexOf(value.charAt(i));
+			if (digit < 0) {
+				return -1;
+			}
+			index = index * data.length() + digit;
+		}
+		return index;
 	}
 
 	/**
@@ -249,9 +484,36 @@ public class RandomElement
 	 */
 	public void setLength(int length) {
 		this.updateAlternatives = true;
+		this.updatePermutation = true;
 		this.length = length;
 	}
 
+	/**
+	 * Returns whether every value is returned at most once.
+	 * 
+	 * @return true in unique mode
+	 */
+	public boolean isUnique() {
+		return this.unique;
+	}
+	
+	/**
+	 * Sets whether every value is returned at most once. The element 
+	 * then runs out of alternatives exactly after the last value 
+	 * instead of after five times as many random values, and it is
+	 * exhausted from then on, see isExhausted().<br />
+	 * This needs memory for the values returned so far and is
+	 * not available for more than 2^63 values.
+	 * 
+	 * @param unique
+	 * 			true to enable unique mode
+	 */
+	public void setUnique(boolean unique) {
+		this.updateAlternatives = true;
+		this.updatePermutation = true;
+		this.unique = unique;
+	}
+	
 	/**
 	 * Sets a new data string and manages automatic
 	 * update of the numAlternatives count.
@@ -261,6 +523,7 @@ public class RandomElement
 	 */
 	public void setData(String data) {
 		this.updateAlternatives = true;
+		this.updatePermutation = true;
 		super.setData(data);
 	}
 
@@ -0,0 +1,690 @@
+/*
+ * jidgen, developed as a part of the IDMOne project at RRZE.
+ * Copyright 2008, RRZE, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. This
+ * product includes software developed by the Apache Software Foundation
+ * http://www.apache.org/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package de.rrze.idmone.utils.jidgen.template;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+
+/**
+ * A compressed bitmap of the used indices of a template's index space
+ * that can pick a random free index in logarithmic time, no matter how
+ * full the space is.<br />
+ * Like a Roaring bitmap the space is split into containers of 2^16
+ * indices. A container holds a sorted array of its used indices while
+ * there are few of them and switches to a plain bitmap when there are
+ * many; completely free containers are not allocated at all. A Fenwick
+ * tree over the free counts of the containers supports rank and select
+ * on the free indices, so the k-th free index is found by walking down
+ * the tree to its container and searching inside that container.
+ * 
+ * @author unrza249
+ *
+ */
+public class SlotBitmap {
+
+	/**
+	 * The largest index space the bitmap supports
+	 */
+	public static final long MAX_SIZE = 1L << 32;
+
+	/**
+	 * Number of low bits of an index handled by one container
+	 */
+	private static final int CONTAINER_BITS = 16;
+
+	/**
+	 * Number of indices per container
+	 */
+	private static final int CONTAINER_SIZE = 1 << CONTAINER_BITS;
+
+	/**
+	 * Largest cardinality of an array container, above that a 
+	 * bitmap container needs less memory
+	 */
+	private static final int MAX_ARRAY = 4096;
+
+	/**
+	 * Marks the start of a persisted bitmap
+	 */
+	private static final int MAGIC = 0x6a69736c;
+
+	/**
+	 * The size of the index space
+	 */
+	private final long size;
+
+	/**
+	 * The containers, null if all indices of the container are free
+	 */
+	private final Container[] containers;
+
+	/**
+	 * Fenwick tree of the free counts of the containers, 1-based
+	 */
+	private final long[] tree;
+
+	/**
+	 * The number of used indices
+	 */
+	private long numUsed = 0;
+
+
+	/**
+	 * Creates a bitmap with all indices free.
+	 * 
+	 * @param size
+	 * 			the size of the index space, at most MAX_SIZE
+	 */
+	public SlotBitmap(long size) {
+		if (size < 0 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("size " + size);
+		}
+		this.size = size;
+
+		int n = (int)((size + CONTAINER_SIZE - 1) >>> CONTAINER_BITS);
+		this.containers = new Container[n];
+		this.tree = new long[n + 1];
+
+		// linear time construction of the tree
+		for (int i = 1; i <= n; i++) {
+			this.tree[i] += this.getWidth(i - 1);
+			int parent = i + (i & -i);
+			if (parent <= n) {
+				this.tree[parent] += this.tree[i];
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the size of the index space.
+	 * 
+	 * @return the size
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of used indices.
+	 * 
+	 * @return the number of used indices
+	 */
+	public long getNumUsed() {
+		return this.numUsed;
+	}
+
+	/**
+	 * Returns the number of free indices.
+	 * 
+	 * @return the number of free indices
+	 */
+	public long getNumFree() {
+		return this.size - this.numUsed;
+	}
+
+	/**
+	 * Checks whether an index is used.
+	 * 
+	 * @param index
+	 * 			the index
+	 * @return true if the index is used
+	 */
+	public boolean isUsed(long index) {
+		this.checkIndex(index);
+		Container container = this.containers[(int)(index >>> CONTAINER_BITS)];
+		return (container != null) && container.contains((int)index & (CONTAINER_SIZE - 1));
+	}
+
+	/**
+	 * Marks an index as used.
+	 * 
+	 * @param index
+	 * 			the index
+	 * @return true if the index was free before
+	 */
+	public boolean setUsed(long index) {
+		this.checkIndex(index);
+		int key = (int)(index >>> CONTAINER_BITS);
+		int low = (int)index & (CONTAINER_SIZE - 1);
+
+		Container container = this.containers[key];
+		if (container == null) {
+			container = new ArrayContainer();
+		}
+		else if (container.contains(low)) {
+			return false;
+		}
+		this.containers[key] = container.add(low);
+		this.update(key, -1);
+		this.numUsed++;
+		return true;
+	}
+
+	/**
+	 * Marks an index as free.
+	 * 
+	 * @param index
+	 * 			the index
+	 * @return true if the index was used before
+	 */
+	public boolean clear(long index) {
+		this.checkIndex(index);
+		int key = (int)(index >>> CONTAINER_BITS);
+		int low = (int)index & (CONTAINER_SIZE - 1);
+
+		Container container = this.containers[key];
+		if (container == null || !container.contains(low)) {
+			return false;
+		}
+		this.containers[key] = container.remove(low);
+		this.update(key, 1);
+		this.numUsed--;
+		return true;
+	}
+
+	/**
+	 * Returns the number of free indices below the given index.
+	 * 
+	 * @param index
+	 * 			the index, 0 to getSize()
+	 * @return the number of free indices below it
+	 */
+	public long rankFree(long index) {
+		if (index < 0 || index > this.size) {
+			throw new IndexOutOfBoundsException("index " + index);
+		}
+		if (index == this.size) {
+			return this.getNumFree();
+		}
+		int key = (int)(index >>> CONTAINER_BITS);
+		int low = (int)index & (CONTAINER_SIZE - 1);
+
+		// free indices of the containers before
+		long rank = 0;
+		for (int i = key; i > 0; i -= i & -i) {
+			rank += this.tree[i];
+		}
+
+		Container container = this.containers[key];
+		return rank + low - ((container != null) ? container.rankUsed(low) : 0);
+	}
+
+	/**
+	 * Returns the free index with the given rank, i.e. the one
+	 * with k free indices below it.
+	 * 
+	 * @param k
+	 * 			the rank, 0 to getNumFree() - 1
+	 * @return the free index or -1 if there are not enough free indices
+	 */
+	public long selectFree(long k) {
+		if (k < 0 || k >= this.getNumFree()) {
+			return -1;
+		}
+
+		// walk down the tree to the container holding the index
+		int n = this.containers.length;
+		int pos = 0;
+		for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+			if (pos + step <= n && this.tree[pos + step] <= k) {
+				pos += step;
+				k -= this.tree[pos];
+			}
+		}
+
+		Container container = this.containers[pos];
+		int low = (container != null) ? container.selectFree((int)k) : (int)k;
+		return ((long)pos << CONTAINER_BITS) + low;
+	}
+
+	/**
+	 * Picks a free index uniformly at random.
+	 * 
+	 * @param random
+	 * 			the random number generator
+	 * @return the free index or -1 if all indices are used
+	 */
+	public long randomFree(RandomGenerator random) {
+		long numFree = this.getNumFree();
+		return (numFree > 0) ? this.selectFree(random.nextLong(numFree)) : -1;
+	}
+
+	/**
+	 * Marks all indices used in another bitmap of the same size as 
+	 * used in this one.
+	 * 
+	 * @param other
+	 * 			the other bitmap
+	 */
+	public void or(SlotBitmap other) {
+		if (other.size != this.size) {
+			throw new IllegalArgumentException("size " + other.size + " != " + this.size);
+		}
+		for (int key = 0; key < other.containers.length; key++) {
+			Container container = other.containers[key];
+			if (container != null) {
+				int[] values = container.values();
+				for (int i = 0; i < values.length; i++) {
+					this.setUsed(((long)key << CONTAINER_BITS) + values[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the bitmap.
+	 * 
+	 * @param out
+	 * 			the output
+	 * @throws IOException
+	 * 			if writing fails
+	 */
+	public void write(DataOutput out) throws IOException {
+		int count = 0;
+		for (int key = 0; key < this.containers.length; key++) {
+			if (this.containers[key] != null) {
+				count++;
+			}
+		}
+
+		out.writeInt(MAGIC);
+		out.writeLong(this.size);
+		out.writeInt(count);
+		for (int key = 0; key < this.containers.length; key++) {
+			if (this.containers[key] != null) {
+				out.writeInt(key);
+				this.containers[key].write(out);
+			}
+		}
+	}
+
+	/**
+	 * Reads a bitmap written by write().
+	 * 
+	 * @param in
+	 * 			the input
+	 * @return the bitmap
+	 * @throws IOException
+	 * 			if reading fails or the data is corrupt
+	 */
+	public static SlotBitmap read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not a slot bitmap");
+		}
+		long size = in.readLong();
+		if (size < 0 || size > MAX_SIZE) {
+			throw new IOException("corrupt slot bitmap: size " + size);
+		}
+
+		SlotBitmap bitmap = new SlotBitmap(size);
+		int count = in.readInt();
+		int last = -1;
+		for (int i = 0; i < count; i++) {
+			int key = in.readInt();
+			if (key <= last || key >= bitmap.containers.length) {
+				throw new IOException("corrupt slot bitmap: container " + key);
+			}
+			Container container = Container.read(in, bitmap.getWidth(key));
+			bitmap.containers[key] = container;
+			bitmap.update(key, -container.getCardinality());
+			bitmap.numUsed += container.getCardinality();
+			last = key;
+		}
+		return bitmap;
+	}
+
+
+	/**
+	 * Returns the number of indices of a container, which is less than
+	 * CONTAINER_SIZE for the last one only.
+	 * 
+	 * @param key
+	 * 			the container
+	 * @return the number of indices
+	 */
+	private int getWidth(int key) {
+		return (int)Math.min(CONTAINER_SIZE, this.size - ((long)key << CONTAINER_BITS));
+	}
+
+	/**
+	 * Adds a delta to the free count of a container.
+	 * 
+	 * @param key
+	 * 			the container
+	 * @param delta
+	 * 			the change of the free count
+	 */
+	private void update(int key, long delta) {
+		for (int i = key + 1; i < this.tree.length; i += i & -i) {
+			this.tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Throws an exception if an index lies outside the index space.
+	 * 
+	 * @param index
+	 * 			the index
+	 */
+	private void checkIndex(long index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("index " + index);
+		}
+	}
+
+
+	/**
+	 * The used indices of 2^16 consecutive indices, stored as
+	 * 16 bit values.
+	 */
+	private static abstract class Container {
+
+		/**
+		 * Checks whether a value is used.
+		 */
+		abstract boolean contains(int low);
+
+		/**
+		 * Adds a value that is not contained yet.
+		 * 
+		 * @return the container holding the result, which may be a new one
+		 */
+		abstract Container add(int low);
+
+		/**
+		 * Removes a value that is contained.
+		 * 
+		 * @return the container holding the result, which may be a new 
+		 * 			one, or null if it is empty
+		 */
+		abstract Container remove(int low);
+
+		/**
+		 * Returns the number of used values.
+		 */
+		abstract int getCardinality();
+
+		/**
+		 * Returns the number of used values below the given one.
+		 */
+		abstract int rankUsed(int low);
+
+		/**
+		 * Returns the free value with k free values below it.
+		 */
+		abstract int selectFree(int k);
+
+		/**
+		 * Returns the used values in ascending order.
+		 */
+		abstract int[] values();
+
+		/**
+		 * Writes the cardinality followed by the values or the bitmap.
+		 */
+		abstract void write(DataOutput out) throws IOException;
+
+		/**
+		 * Reads a container written by write().
+		 * 
+		 * @param in
+		 * 			the input
+		 * @param width
+		 * 			the number of indices of the container
+		 * @return the container
+		 * @throws IOException
+		 * 			if reading fails or the data is corrupt
+		 */
+		static Container read(DataInput in, int width) throws IOException {
+			int cardinality = in.readInt();
+			if (cardinality <= 0 || cardinality > width) {
+				throw new IOException("corrupt slot bitmap: cardinality " + cardinality);
+			}
+
+			if (cardinality <= MAX_ARRAY) {
+				ArrayContainer container = new ArrayContainer();
+				container.values = new char[cardinality];
+				for (int i = 0; i < cardinality; i++) {
+					container.values[i] = in.readChar();
+					if (container.values[i] >= width || (i > 0 && container.values[i] <= container.values[i - 1])) {
+						throw new IOException("corrupt slot bitmap: value " + (int)container.values[i]);
+					}
+				}
+				container.cardinality = cardinality;
+				return container;
+			}
+
+			BitmapContainer container = new BitmapContainer();
+			int count = 0;
+			for (int i = 0; i < container.words.length; i++) {
+				container.words[i] = in.readLong();
+				count += Long.bitCount(container.words[i]);
+			}
+			container.cardinality = count;
+			if (count != cardinality || (width < CONTAINER_SIZE && container.rankUsed(width) != count)) {
+				throw new IOException("corrupt slot bitmap: cardinality " + cardinality);
+			}
+			return container;
+		}
+	}
+
+
+	/**
+	 * A container with few used values, kept in a sorted array.
+	 */
+	private static class ArrayContainer extends Container {
+
+		/**
+		 * The sorted values
+		 */
+		char[] values = new char[4];
+
+		/**
+		 * The number of values
+		 */
+		int cardinality = 0;
+
+		boolean contains(int low) {
+			return Arrays.binarySearch(this.values, 0, this.cardinality, (char)low) >= 0;
+		}
+
+		Container add(int low) {
+			if (this.cardinality == MAX_ARRAY) {
+				BitmapContainer bitmap = new BitmapContainer(this);
+				return bitmap.add(low);
+			}
+			int pos = -Arrays.binarySearch(this.values, 0, this.cardinality, (char)low) - 1;
+			if (this.cardinality == this.values.length) {
+				this.values = Arrays.copyOf(this.values, Math.min(MAX_ARRAY, this.values.length * 2));
+			}
+			System.arraycopy(this.values, pos, this.values, pos + 1, this.cardinality - pos);
+			this.values[pos] = (char)low;
+			this.cardinality++;
+			return this;
+		}
+
+		Container remove(int low) {
+			int pos = Arrays.binarySearch(this.values, 0, this.cardinality, (char)low);
+			System.arraycopy(this.values, pos + 1, this.values, pos, this.cardinality - pos - 1);
+			this.cardinality--;
+			return (this.cardinality > 0) ? this : null;
+		}
+
+		int getCardinality() {
+			return this.cardinality;
+		}
+
+		int rankUsed(int low) {
+			int pos = Arrays.binarySearch(this.values, 0, this.cardinality, (char)low);
+			return (pos >= 0) ? pos : -pos - 1;
+		}
+
+		int selectFree(int k) {
+			// values[i] - i free values lie below values[i], find the
+			// last used value with at most k free values below it
+			int lo = 0;
+			int hi = this.cardinality - 1;
+			int last = -1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.values[mid] - mid <= k) {
+					last = mid;
+					lo = mid + 1;
+				}
+				else {
+					hi = mid - 1;
+				}
+			}
+			return k + last + 1;
+		}
+
+		int[] values() {
+			int[] ret = new int[this.cardinality];
+			for (int i = 0; i < this.cardinality; i++) {
+				ret[i] = this.values[i];
+			}
+			return ret;
+		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeInt(this.cardinality);
+			for (int i = 0; i < this.cardinality; i++) {
+				out.writeChar(this.values[i]);
+			}
+		}
+	}
+
+
+	/**
+	 * A container with many used values, kept in a bitmap of
+	 * 2^16 bits.
+	 */
+	private static class BitmapContainer extends Container {
+
+		/**
+		 * The bits
+		 */
+		final long[] words = new long[CONTAINER_SIZE / 64];
+
+		/**
+		 * The number of set bits
+		 */
+		int cardinality = 0;
+
+		BitmapContainer() {
+		}
+
+		BitmapContainer(ArrayContainer array) {
+			for (int i = 0; i < array.cardinality; i++) {
+				this.words[array.values[i] >>> 6] |= 1L << array.values[i];
+			}
+			this.cardinality = array.cardinality;
+		}
+
+		boolean contains(int low) {
+			return (this.words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		Container add(int low) {
+			this.words[low >>> 6] |= 1L << low;
+			this.cardinality++;
+			return this;
+		}
+
+		Container remove(int low) {
+			this.words[low >>> 6] &= ~(1L << low);
+			this.cardinality--;
+			if (this.cardinality > MAX_ARRAY) {
+				return this;
+			}
+
+			// few enough values for an array again
+			ArrayContainer array = new ArrayContainer();
+			array.values = new char[MAX_ARRAY];
+			int[] values = this.values();
+			for (int i = 0; i < values.length; i++) {
+				array.values[i] = (char)values[i];
+			}
+			array.cardinality = values.length;
+			return array;
+		}
+
+		int getCardinality() {
+			return this.cardinality;
+		}
+
+		int rankUsed(int low) {
+			int rank = 0;
+			for (int i = 0; i < (low >>> 6); i++) {
+				rank += Long.bitCount(this.words[i]);
+			}
+			if ((low & 63) != 0) {
+				rank += Long.bitCount(this.words[low >>> 6] & ((1L << low) - 1));
+			}
+			return rank;
+		}
+
+		int selectFree(int k) {
+			for (int i = 0; i < this.words.length; i++) {
+				long free = ~this.words[i];
+				int count = Long.bitCount(free);
+				if (k < count) {
+					// drop the k lowest free bits
+					for (int j = 0; j < k; j++) {
+						free &= free - 1;
+					}
+					return (i << 6) + Long.numberOfTrailingZeros(free);
+				}
+				k -= count;
+			}
+			return -1;
+		}
+
+		int[] values() {
+			int[] ret = new int[this.cardinality];
+			int n = 0;
+			for (int i = 0; i < this.words.length; i++) {
+				long word = this.words[i];
+				while (word != 0) {
+					ret[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return ret;
+		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeInt(this.cardinality);
+			for (int i = 0; i < this.words.length; i++) {
+				out.writeLong(this.words[i]);
+			}
+		}
+	}
+}
@@ -37,7 +37,7 @@ package de.rrze.idmone.utils.jidgen.template;
  */
 public class StaticElement
 	extends AbstractElement
-	implements IElement 
+	implements IIndexedElement 
 {
 	
 	/**
@@ -94,4 +94,58 @@ public class StaticElement
 		super.hasAlternatives(false);
 		return this.getData();
 	}
+
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IElement#appendTo(java.lang.StringBuilder)
+	 */
+	public void appendTo(StringBuilder buffer) {
+		// we only got one alternative
+		super.hasAlternatives(false);
+		buffer.append(this.getData());
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getNumValues()
+	 */
+	public long getNumValues() {
+		return 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#nextIndex()
+	 */
+	public long nextIndex() {
+		// we only got one alternative
+		super.hasAlternatives(false);
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getValue(long)
+	 */
+	public String getValue(long index) {
+		return this.getData();
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#appendValue(long, java.lang.StringBuilder)
+	 */
+	public void appendValue(long index, StringBuilder buffer) {
+		buffer.append(this.getData());
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getWidth()
+	 */
+	public int getWidth() {
+		return this.getData().length();
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#indexOf(java.lang.String)
+	 */
+	public long indexOf(String value) {
+		return value.equals(this.getData()) ? 0 : -1;
+	}
 }
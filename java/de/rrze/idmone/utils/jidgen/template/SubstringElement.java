@@ -27,11 +27,12 @@ package de.rrze.idmone.utils.jidgen.template;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import de.rrze.idmone.utils.jidgen.AbortException;
 import de.rrze.idmone.utils.jidgen.Messages;
 
 public class SubstringElement
 	extends AbstractElement
-	implements IElement 
+	implements IIndexedElement 
 {
 	
 	/**
@@ -113,34 +114,108 @@ public class SubstringElement
 	 * @see de.rrze.idmone.utils.jidgen.template.IElement#toString()
 	 */
 	public String toString() {
-		try {
-			String ret;
-			// little hack to allow the parser to specify
-			// the last x characters without actually knowing how
-			// long the data word is
-			if (this.fromRight()) {
-				// returns the last x (end in this case) characters
-				ret =  this.getData().substring(this.getData().length() - this.end);
-			}
-			else if (this.tillEnd()) {
-				// returns all characters from start to the end of the string
-				ret = this.getData().substring(this.start);
-			}
-			else {
-				// returns characters from start to end
-				ret = this.getData().substring(this.start, this.end);
-			}
-			
-			// we only got one alternative
-			super.hasAlternatives(false);
-			return ret;
+		return this.getValue(this.nextIndex());
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IElement#appendTo(java.lang.StringBuilder)
+	 */
+	public void appendTo(StringBuilder buffer) {
+		this.appendValue(this.nextIndex(), buffer);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getNumValues()
+	 */
+	public long getNumValues() {
+		return 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#nextIndex()
+	 */
+	public long nextIndex() {
+		// we only got one alternative
+		super.hasAlternatives(false);
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getValue(long)
+	 */
+	public String getValue(long index) {
+		this.checkBounds();
+		return this.getData().substring(this.getBegin(), this.getFinish());
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#appendValue(long, java.lang.StringBuilder)
+	 */
+	public void appendValue(long index, StringBuilder buffer) {
+		this.checkBounds();
+		buffer.append(this.getData(), this.getBegin(), this.getFinish());
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#getWidth()
+	 */
+	public int getWidth() {
+		this.checkBounds();
+		return this.getFinish() - this.getBegin();
+	}
+
+	/* (non-Javadoc)
+	 * @see de.rrze.idmone.utils.jidgen.template.IIndexedElement#indexOf(java.lang.String)
+	 */
+	public long indexOf(String value) {
+		return value.equals(this.getValue(0)) ? 0 : -1;
+	}
+
+	/**
+	 * Returns the index of the first character of the substring
+	 * in the data string.
+	 * 
+	 * @return the begin index
+	 */
+	private int getBegin() {
+		// little hack to allow the parser to specify
+		// the last x characters without actually knowing how
+		// long the data word is
+		if (this.fromRight()) {
+			// the last x (end in this case) characters
+			return this.getData().length() - this.end;
 		}
-		catch (StringIndexOutOfBoundsException e) {
-			logger.fatal(Messages.getString("SubstringElement.OUT_OF_BOUNDS") + this.getElement() + " (start=" + this.start + ", end=" + this.end  + ", data=" + this.getData() + ", key=" + this.getKey() + ")");
-			System.exit(180);
+		// from start to the end of the string or to end
+		return this.start;
+	}
+
+	/**
+	 * Returns the index after the last character of the substring
+	 * in the data string.
+	 * 
+	 * @return the end index
+	 */
+	private int getFinish() {
+		if (this.fromRight() || this.tillEnd()) {
+			return this.getData().length();
+		}
+		return this.end;
+	}
+
+	/**
+	 * Aborts if the boundaries of the substring exceed the data string.
+	 * 
+	 * @throws AbortException
+	 * 			if they do
+	 */
+	private void checkBounds() {
+		int begin = this.getBegin();
+		int finish = this.getFinish();
+		if (begin < 0 || finish > this.getData().length() || begin > finish) {
+			String message = Messages.getString("SubstringElement.OUT_OF_BOUNDS") + this.getElement() + " (start=" + this.start + ", end=" + this.end  + ", data=" + this.getData() + ", key=" + this.getKey() + ")";
+			logger.fatal(message);
+			throw new AbortException(message, 180);
 		}
-		
-		return null;
 	}
 
 	
@@ -25,13 +25,18 @@
 package de.rrze.idmone.utils.jidgen.template;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.random.RandomGenerator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import de.rrze.idmone.utils.jidgen.AbortException;
 import de.rrze.idmone.utils.jidgen.Messages;
+import de.rrze.idmone.utils.jidgen.random.IRandomFactory;
+import de.rrze.idmone.utils.jidgen.random.RandomFactory;
 
 
 
@@ -116,6 +121,14 @@ public class Template {
 	 */
 	private static final Log logger = LogFactory.getLog(Template.class);
 	
+	/*
+	 * The messages logged for every candidate, looked up once
+	 */
+	private static final String MSG_NEW_LINE = Messages.getString("IdGenerator.NEW_LINE");
+	private static final String MSG_ATTEMPT_GENERATE = Messages.getString("Template.ATTEMPT_GENRATE");
+	private static final String MSG_NO_ALTERNATIVES_LEFT = Messages.getString("Element.NO_ALTERNATIVES_LEFT");
+	private static final String MSG_SKIPPED_EXCLUDED = Messages.getString("Template.TRACE_SKIPPED_EXCLUDED");
+	
 	/**
 	 * A prefix string for all options parameters
 	 * and the marker for the template string in one.
@@ -168,6 +181,51 @@ public class Template {
 	 */
 	private IElement nextResolver = null;
 	
+	/**
+	 * The indices of the template space that must not be
+	 * generated, null if there are none
+	 */
+	private ExclusionSet exclusions = null;
+	
+	/**
+	 * The bitmap of used indices of the template space to draw
+	 * free indices from, null if the elements choose their values
+	 */
+	private SlotBitmap allocator = null;
+	
+	/**
+	 * The random number generator used with the allocator
+	 */
+	private RandomGenerator random = null;
+	
+	/**
+	 * The buffer the elements append their output to, reused 
+	 * for every string built
+	 */
+	private final StringBuilder buffer = new StringBuilder();
+	
+	/**
+	 * The indices chosen by the elements, reused for every
+	 * string built from the index space
+	 */
+	private long[] indices = new long[0];
+	
+	/**
+	 * How the case of the element data is changed
+	 */
+	private CasePolicy casePolicy = CasePolicy.LOWER;
+	
+	/**
+	 * Whether the random elements return every value at most once
+	 */
+	private boolean uniqueRandom = false;
+	
+	/**
+	 * The factory of the random number generators of the elements
+	 * and the allocator
+	 */
+	private IRandomFactory randomFactory = RandomFactory.getInstance();
+	
 	
 	/**
 	 * simple constructor
@@ -249,9 +307,10 @@ public class Template {
 	 * @return a possible id string, matching the given template
 	 */
 	public String buildString() {	
-		String result = "";
-		logger.debug(Messages.getString("IdGenerator.NEW_LINE"));
-		logger.debug(Messages.getString("Template.ATTEMPT_GENRATE"));
+		if (logger.isDebugEnabled()) {
+			logger.debug(MSG_NEW_LINE);
+			logger.debug(MSG_ATTEMPT_GENERATE);
+		}
 		
 		// check if there are any alternatives left
 		if (!this.hasAlternatives()) {
@@ -259,25 +318,29 @@ public class Template {
 			return "";
 		}
 		
-		// get list of elements from the parser (if update is needed)
-		if (this.updateElements) {
-			this.elements = Parser.getElements(this.getTemplate());
-			this.updateElements = false;
+		// get list of elements from the parser and fill them 
+		// with data (if update is needed)
+		this.prepare();
+
+		// draw a free index of the template space
+		if (this.allocator != null) {
+			return this.buildAllocatedString();
+		}
+		
+		// skip the ids that are known to be taken
+		if (this.exclusions != null) {
+			return this.buildFreeString();
 		}
 
 		// assume the worst :)
 		this.hasAlternatives = false;
+		boolean exhausted = false;
 		
 		// build the result string
+		this.buffer.setLength(0);
 		for(Iterator<IElement> iter = this.elements.iterator();iter.hasNext();) {
 			IElement currentElement = iter.next();
 			
-			// fill with data (if update is needed)
-			if (this.updateData && currentElement.needsExternalData()) {
-				currentElement.setData(this.data.get(this.prefix + currentElement.getKey()));
-			}
-	
-			
 			// this will skip marked resolver elements
 			if (currentElement.isResolver()) {
 				if (this.nextResolver == null) {
@@ -292,24 +355,31 @@ public class Template {
 
 			// append output to the result string
 			if (currentElement.isComplete()) {
-				result += currentElement.toString().toLowerCase();
+				currentElement.appendTo(this.buffer);
 			}
 			else {
-				logger.fatal(Messages.getString("Template.INCOMPLETE_ELEMENT") + currentElement.getClass().getSimpleName() + " (element=\"" + currentElement.getElement() + "\")");
-				System.exit(175);
+				String message = Messages.getString("Template.INCOMPLETE_ELEMENT") + currentElement.getClass().getSimpleName() + " (element=\"" + currentElement.getElement() + "\")";
+				logger.fatal(message);
+				throw new AbortException(message, 175);
 			}
 			
 			// update the alternative indicator if there are any left
 			if (currentElement.hasAlternatives())
 				this.hasAlternatives = true;
-			else
-				logger.debug(Messages.getString("Element.NO_ALTERNATIVES_LEFT") + currentElement.getClass().getSimpleName() + " (element=" + currentElement.getElement() + ")");
+			else if (logger.isDebugEnabled())
+				logger.debug(MSG_NO_ALTERNATIVES_LEFT + currentElement.getClass().getSimpleName() + " (element=" + currentElement.getElement() + ")");
+			
+			// a unique random element would repeat its values
+			if (isExhausted(currentElement))
+				exhausted = true;
+		}
+
+		if (exhausted) {
+			this.hasAlternatives = false;
+			return this.buffer.toString();
 		}
 
-		// either the data was updated or it already was up to date at this point
-		this.updateData = false;
 
-		
 		if (!this.hasAlternatives && this.nextResolver != null) {
 			// this makes the resolver a normal element
 			// which is processed exactly like all other elements
@@ -321,7 +391,448 @@ public class Template {
 			this.nextResolver = null;
 		}
 		
-		return result;
+		return this.buffer.toString();
+	}
+	
+	/**
+	 * Does the work of buildString() for templates with an exclusion set:
+	 * all elements choose an index first and the choice is repeated
+	 * as long as it hits an excluded index. Only the final choice is
+	 * turned into a string.
+	 * 
+	 * @return a possible id string that is not excluded, unless all
+	 * 			alternatives are
+	 */
+	private String buildFreeString() {
+		long[] indices = this.getIndices();
+		int skipped = 0;
+		
+		while (true) {
+			// assume the worst :)
+			this.hasAlternatives = false;
+			
+			long index = 0;
+			for (int i = 0; i < indices.length; i++) {
+				IIndexedElement currentElement = (IIndexedElement)this.elements.get(i);
+				indices[i] = currentElement.nextIndex();
+				index = index * currentElement.getNumValues() + indices[i];
+				
+				// update the alternative indicator if there are any left
+				if (currentElement.hasAlternatives())
+					this.hasAlternatives = true;
+			}
+			
+			// a unique random element would repeat its values
+			for (int i = 0; i < indices.length; i++) {
+				if (isExhausted(this.elements.get(i))) {
+					this.hasAlternatives = false;
+				}
+			}
+			
+			if (!this.exclusions.contains(index) || !this.hasAlternatives) {
+				break;
+			}
+			skipped++;
+		}
+		
+		if (skipped > 0 && logger.isTraceEnabled()) {
+			logger.trace(MSG_SKIPPED_EXCLUDED + skipped);
+		}
+		
+		return this.render(indices);
+	}
+	
+	/**
+	 * Does the work of buildString() for templates with an allocator:
+	 * a random free index is drawn and marked as used, so every id is
+	 * returned at most once and no attempts are wasted on used ones.
+	 * 
+	 * @return a possible id string or an empty string if all indices
+	 * 			are used
+	 */
+	private String buildAllocatedString() {
+		if (this.random == null) {
+			this.random = this.randomFactory.getGenerator();
+		}
+		
+		long index = this.allocator.randomFree(this.random);
+		if (index < 0) {
+			this.hasAlternatives = false;
+			logger.warn(Messages.getString("Template.NO_ALTERNATIVES_LEFT"));
+			return "";
+		}
+		this.allocator.setUsed(index);
+		this.hasAlternatives = this.allocator.getNumFree() > 0;
+		
+		return this.getString(index);
+	}
+	
+	/**
+	 * Checks whether an element is a random element in unique mode 
+	 * that has returned all of its values.
+	 * 
+	 * @param element
+	 * 			the element
+	 * @return true if the element must not be asked for more values
+	 */
+	private static boolean isExhausted(IElement element) {
+		return (element instanceof RandomElement) && ((RandomElement)element).isExhausted();
+	}
+	
+	/**
+	 * Parses the template string and feeds the stored data
+	 * to the elements that request external data, if needed.
+	 */
+	private void prepare() {
+		// get list of elements from the parser (if update is needed)
+		if (this.updateElements) {
+			this.elements = Parser.getElements(this.getTemplate(), this.randomFactory);
+			this.updateElements = false;
+			this.updateData = true;
+			
+			// the data of the template string itself
+			for (Iterator<IElement> iter = this.elements.iterator(); iter.hasNext();) {
+				IElement currentElement = iter.next();
+				if (!currentElement.needsExternalData()) {
+					currentElement.setData(this.casePolicy.apply(currentElement.getData()));
+				}
+				if (currentElement instanceof RandomElement) {
+					((RandomElement)currentElement).setUnique(this.uniqueRandom);
+				}
+			}
+		}
+		
+		// fill with data (if update is needed)
+		if (this.updateData) {
+			// the index space changes with the data
+			this.exclusions = null;
+			this.allocator = null;
+			
+			for (Iterator<IElement> iter = this.elements.iterator(); iter.hasNext();) {
+				IElement currentElement = iter.next();
+				if (currentElement.needsExternalData()) {
+					currentElement.setData(this.casePolicy.apply(this.data.get(this.prefix + currentElement.getKey())));
+				}
+			}
+			this.updateData = false;
+		}
+	}
+	
+	/**
+	 * Returns the counter element of the template.
+	 * 
+	 * @return the counter element or null if there is none
+	 */
+	private CounterElement getCounterElement() {
+		this.prepare();
+		for (Iterator<IElement> iter = this.elements.iterator(); iter.hasNext();) {
+			IElement element = iter.next();
+			if (element instanceof CounterElement) {
+				return (CounterElement)element;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Builds an index of the counter values that are taken by the
+	 * given existing ids and lets the counter element skip them.<br />
+	 * This only works for templates where everything around the counter
+	 * is fixed, i.e. static strings and (parts of) variables, and that 
+	 * have no resolver elements.
+	 * 
+	 * @param existing
+	 * 			the existing ids
+	 * @return the index or null if the template does not allow one
+	 */
+	public CounterSlotIndex indexCounterSlots(Collection<String> existing) {
+		this.prepare();
+		
+		StringBuilder prefix = new StringBuilder();
+		StringBuilder suffix = new StringBuilder();
+		CounterElement counter = null;
+		for (Iterator<IElement> iter = this.elements.iterator(); iter.hasNext();) {
+			IElement element = iter.next();
+			if (element.isResolver()) {
+				return null;
+			}
+			if (element instanceof CounterElement) {
+				counter = (CounterElement)element;
+			}
+			else if (element instanceof StaticElement
+					|| element instanceof BasicElement
+					|| element instanceof SubstringElement) 
+			{
+				((counter == null) ? prefix : suffix).append(element.toString());
+			}
+			else {
+				// random parts
+				return null;
+			}
+		}
+		if (counter == null || !counter.isComplete() || counter.getNumAlternatives() > Integer.MAX_VALUE) {
+			return null;
+		}
+		
+		CounterSlotIndex index = new CounterSlotIndex(
+				prefix.toString(), 
+				suffix.toString(), 
+				counter.getData(), 
+				counter.getLength(), 
+				existing
+		);
+		counter.setSlotIndex(index);
+		return index;
+	}
+	
+	/**
+	 * Lets the counter element skip the values of an index built by
+	 * indexCounterSlots() of a template with the same template string
+	 * and data. The index is kept, not copied.
+	 * 
+	 * @param index
+	 * 			the index
+	 * @return false if the template has no counter element
+	 */
+	public boolean setCounterSlotIndex(CounterSlotIndex index) {
+		CounterElement counter = this.getCounterElement();
+		if (counter == null) {
+			return false;
+		}
+		counter.setSlotIndex(index);
+		return true;
+	}
+	
+	/**
+	 * Returns the size of the index space of this template, i.e. the
+	 * number of different ids it can produce. The space is numbered
+	 * like a number with one digit per element, the first element
+	 * being the most significant one.<br />
+	 * Only templates made of complete indexed elements without 
+	 * resolvers have an index space.
+	 * 
+	 * @return the size or -1 if the template has no index space
+	 */
+	public long getSize() {
+		this.prepare();
+		
+		long size = 1;
+		for (Iterator<IElement> iter = this.elements.iterator(); iter.hasNext();) {
+			IElement element = iter.next();
+			if (element.isResolver() 
+					|| !(element instanceof IIndexedElement) 
+					|| !element.isComplete()) 
+			{
+				return -1;
+			}
+			long numValues = ((IIndexedElement)element).getNumValues();
+			if (numValues <= 0) {
+				return -1;
+			}
+			try {
+				size = Math.multiplyExact(size, numValues);
+			}
+			catch (ArithmeticException e) {
+				return -1;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Parses an id backwards: decides whether this template can
+	 * produce the id and if so, at which index of its index space.
+	 * 
+	 * @param id
+	 * 			the id
+	 * @return the index or -1 if the template cannot produce the id
+	 * @see #getSize()
+	 */
+	public long indexOf(String id) {
+		if (this.getSize() < 0) {
+			return -1;
+		}
+		
+		long index = 0;
+		int pos = 0;
+		for (Iterator<IElement> iter = this.elements.iterator(); iter.hasNext();) {
+			IIndexedElement element = (IIndexedElement)iter.next();
+			int end = pos + element.getWidth();
+			if (end > id.length()) {
+				return -1;
+			}
+			long elementIndex = element.indexOf(id.substring(pos, end));
+			if (elementIndex < 0) {
+				return -1;
+			}
+			index = index * element.getNumValues() + elementIndex;
+			pos = end;
+		}
+		return (pos == id.length()) ? index : -1;
+	}
+	
+	/**
+	 * The reverse of indexOf(): returns the id at an index of the index
+	 * space of this template.
+	 * 
+	 * @param index
+	 * 			the index, 0 to getSize() - 1
+	 * @return the id
+	 * @see #getSize()
+	 */
+	public String getString(long index) {
+		long[] indices = this.getIndices();
+		for (int i = indices.length - 1; i >= 0; i--) {
+			long numValues = ((IIndexedElement)this.elements.get(i)).getNumValues();
+			indices[i] = index % numValues;
+			index /= numValues;
+		}
+		return this.render(indices);
+	}
+	
+	/**
+	 * Builds the id from the indices chosen for the elements.
+	 * 
+	 * @param indices
+	 * 			the index of every element
+	 * @return the id
+	 */
+	private String render(long[] indices) {
+		this.buffer.setLength(0);
+		for (int i = 0; i < indices.length; i++) {
+			((IIndexedElement)this.elements.get(i)).appendValue(indices[i], this.buffer);
+		}
+		return this.buffer.toString();
+	}
+	
+	/**
+	 * Returns the reusable array for the indices of the elements.
+	 * 
+	 * @return an array with one entry per element
+	 */
+	private long[] getIndices() {
+		if (this.indices.length != this.elements.size()) {
+			this.indices = new long[this.elements.size()];
+		}
+		return this.indices;
+	}
+	
+	/**
+	 * Loads the given existing ids into the exclusion set of this 
+	 * template, or marks them as used in its allocator if it has one,
+	 * so buildString() never returns one of them as long as
+	 * there are alternatives left. Ids the template cannot produce
+	 * are ignored.
+	 * 
+	 * @param existing
+	 * 			the existing ids
+	 * @return the number of excluded indices or -1 if the template
+	 * 			has no index space
+	 * @see #getSize()
+	 */
+	public int excludeIds(Collection<String> existing) {
+		ExclusionSet exclusions = this.indexIds(existing);
+		if (exclusions == null) {
+			return -1;
+		}
+		return this.setExclusions(exclusions);
+	}
+	
+	/**
+	 * Turns the given ids into the set of their indices in the index
+	 * space of this template, without excluding them yet. Ids the 
+	 * template cannot produce are ignored.
+	 * 
+	 * @param ids
+	 * 			the ids
+	 * @return the indices or null if the template has no index space
+	 * @see #setExclusions(ExclusionSet)
+	 */
+	public ExclusionSet indexIds(Collection<String> ids) {
+		if (this.getSize() < 0) {
+			return null;
+		}
+		
+		long[] indices = new long[ids.size()];
+		int count = 0;
+		for (Iterator<String> iter = ids.iterator(); iter.hasNext();) {
+			long index = this.indexOf(iter.next());
+			if (index >= 0) {
+				indices[count++] = index;
+			}
+		}
+		return new ExclusionSet(indices, count);
+	}
+	
+	/**
+	 * Lets buildString() skip the given indices, or marks them as 
+	 * used in the allocator if there is one. The set is kept, not 
+	 * copied, so it can be built once by indexIds() of a template 
+	 * with the same template string and data and then be shared.
+	 * 
+	 * @param exclusions
+	 * 			the indices
+	 * @return the number of excluded indices
+	 */
+	public int setExclusions(ExclusionSet exclusions) {
+		this.prepare();
+		
+		if (this.allocator != null) {
+			for (int i = 0; i < exclusions.size(); i++) {
+				this.allocator.setUsed(exclusions.get(i));
+			}
+			this.hasAlternatives = this.allocator.getNumFree() > 0;
+			return exclusions.size();
+		}
+		
+		this.exclusions = (exclusions.size() > 0) ? exclusions : null;
+		return exclusions.size();
+	}
+	
+	/**
+	 * Lets buildString() draw random free indices from the given 
+	 * bitmap of used indices instead of letting the elements choose.
+	 * The bitmap must cover the index space of this template.
+	 * 
+	 * @param allocator
+	 * 			the bitmap
+	 * @return true if the bitmap is used, false if the template has no
+	 * 			index space or the sizes do not match
+	 * @see #getSize()
+	 */
+	public boolean setAllocator(SlotBitmap allocator) {
+		if (this.getSize() != allocator.getSize()) {
+			return false;
+		}
+		this.allocator = allocator;
+		this.hasAlternatives = allocator.getNumFree() > 0;
+		return true;
+	}
+	
+	/**
+	 * Returns the bitmap of used indices buildString() draws from.
+	 * 
+	 * @return the bitmap or null if there is none
+	 */
+	public SlotBitmap getAllocator() {
+		return this.allocator;
+	}
+	
+	/**
+	 * Gives an id back to the allocator, so it can be drawn again,
+	 * e.g. because it was built but not handed out.
+	 * 
+	 * @param id
+	 * 			the id
+	 */
+	public void releaseId(String id) {
+		if (this.allocator != null) {
+			long index = this.indexOf(id);
+			if (index >= 0) {
+				this.allocator.clear(index);
+				this.hasAlternatives = true;
+			}
+		}
 	}
 	
 	/**
@@ -369,8 +880,106 @@ public class Template {
 			return this.template;
 		else
 			logger.fatal(Messages.getString("Template.TEMPLATE_STRING_NOT_INITIALIZED"));
-			System.exit(176);
-			return null;
+			throw new AbortException(Messages.getString("Template.TEMPLATE_STRING_NOT_INITIALIZED"), 176);
+	}
+	
+	/**
+	 * Returns the value the counter element of the template
+	 * will use next.
+	 * 
+	 * @return the counter value or -1 if the template has no
+	 * 			counter element
+	 */
+	public int getCounterPosition() {
+		CounterElement counter = this.getCounterElement();
+		return (counter != null) ? counter.getCounter() : -1;
+	}
+	
+	/**
+	 * Sets the value the counter element of the template
+	 * will use next, e.g. to resume where an earlier run ended.
+	 * Templates without counter element ignore it.
+	 * 
+	 * @param counterPosition
+	 * 			the counter value
+	 */
+	public void setCounterPosition(int counterPosition) {
+		CounterElement counter = this.getCounterElement();
+		if (counter != null) {
+			counter.setCounter(counterPosition);
+		}
+	}
+	
+	/**
+	 * Sets how the case of the element data is changed, 
+	 * lower case by default.
+	 * 
+	 * @param casePolicy
+	 * 			the case policy
+	 */
+	public void setCasePolicy(CasePolicy casePolicy) {
+		if (casePolicy != this.casePolicy) {
+			this.casePolicy = casePolicy;
+			// the static data has to be parsed again
+			this.updateElements = true;
+		}
+	}
+	
+	/**
+	 * Returns how the case of the element data is changed.
+	 * 
+	 * @return the case policy
+	 */
+	public CasePolicy getCasePolicy() {
+		return this.casePolicy;
+	}
+	
+	/**
+	 * Sets whether the random elements return every value at most 
+	 * once, see RandomElement.setUnique(). Disabled by default.
+	 * 
+	 * @param uniqueRandom
+	 * 			true to enable unique mode
+	 */
+	public void setUniqueRandom(boolean uniqueRandom) {
+		if (uniqueRandom != this.uniqueRandom) {
+			this.uniqueRandom = uniqueRandom;
+			this.updateElements = true;
+		}
+	}
+	
+	/**
+	 * Returns whether the random elements return every value 
+	 * at most once.
+	 * 
+	 * @return true in unique mode
+	 */
+	public boolean isUniqueRandom() {
+		return this.uniqueRandom;
+	}
+	
+	/**
+	 * Sets the factory the random number generators are taken from,
+	 * the shared RandomFactory instance by default.
+	 * 
+	 * @param randomFactory
+	 * 			the random number generator factory
+	 */
+	public void setRandomFactory(IRandomFactory randomFactory) {
+		if (randomFactory != this.randomFactory) {
+			this.randomFactory = randomFactory;
+			this.random = null;
+			this.updateElements = true;
+		}
+	}
+	
+	/**
+	 * Returns the factory the random number generators are taken from.
+	 * 
+	 * @return the random number generator factory
+	 */
+	public IRandomFactory getRandomFactory() {
+		return this.randomFactory;
 	}
 	
 	/**